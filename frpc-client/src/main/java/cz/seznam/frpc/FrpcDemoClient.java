@@ -118,6 +118,24 @@ public class FrpcDemoClient {
                 });
         System.out.println("Result of otherOperations.getComplexValue: " + complexResult);
 
+        /* BATCHING */
+
+        // multiple calls can be sent to the server within single request, each of them gets its own result
+        List<FrpcCallResult<Object>> batchResults = client.batch()
+                .add("numberOperations.add", 3, 2)
+                .add("otherOperations.getFaultyInteger")
+                .getResults();
+        System.out.println("Result of batched numberOperations.add: " + batchResults.get(0).as(Long.class));
+        System.out.println("Batched otherOperations.getFaultyInteger is a fault: " + batchResults.get(1).isFault());
+
+        /* ASYNCHRONOUS CALLS */
+
+        // methods can be called without blocking, the result is delivered by a CompletableFuture
+        client.callAsync("numberOperations.add", 4, 5)
+                .thenApply(result -> result.as(Long.class))
+                .thenAccept(asyncSum -> System.out.println("Result of asynchronous numberOperations.add: " + asyncSum))
+                .join();
+
         /* ERROR HANDLING */
 
         // errors can be handler either by explicitly checking for them
@@ -0,0 +1,157 @@
+package cz.seznam.frpc.client;
+
+import cz.seznam.frpc.core.FrpcMulticallUtils;
+import cz.seznam.frpc.core.transport.FrpcFault;
+import cz.seznam.frpc.core.transport.FrpcTransportException;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects multiple {@code FRPC} method calls and executes them all at once using single
+ * {@value FrpcMulticallUtils#MULTICALL_METHOD_NAME} request, turning {@code N} round trips into one. Instances are
+ * created by {@link FrpcClient#batch()}.
+ * <p>
+ * Only method names and parameters (including implicit ones) of collected calls are sent to the server, other
+ * properties of individual calls (headers, timeouts and so on) are ignored. Use methods of this class to override
+ * properties of the multicall request itself.
+ *
+ * @author David Moidl david.moidl@firma.seznam.cz
+ */
+public class FrpcBatch {
+
+    private FrpcClient client;
+    private List<FrpcMethodCall> calls = new ArrayList<>();
+    private Long connectTimeout;
+    private TimeUnit connectTimeoutTimeUnit;
+    private Long socketTimeout;
+    private TimeUnit socketTimeoutTimeUnit;
+
+    FrpcBatch(FrpcClient client) {
+        this.client = Objects.requireNonNull(client);
+    }
+
+    /**
+     * Adds given call to this batch.
+     *
+     * @param call call to add, typically created by {@link FrpcClient#prepareCall(String, Object...)}
+     * @return this {@code FrpcBatch} instance so that calls can be chained
+     */
+    public FrpcBatch add(FrpcMethodCall call) {
+        calls.add(Objects.requireNonNull(call, "Call must not be null"));
+        return this;
+    }
+
+    /**
+     * Prepares call to method of given name with given parameters and adds it to this batch.
+     *
+     * @param method name of the {@code FRPC} method to call
+     * @param params {@code FRPC} method params
+     * @return this {@code FrpcBatch} instance so that calls can be chained
+     */
+    public FrpcBatch add(String method, Object... params) {
+        return add(client.prepareCall(method, params));
+    }
+
+    /**
+     * Overrides "connect timeout" of the multicall request.
+     *
+     * @param newTimeout new timeout value
+     * @param timeUnit   time unit of given value
+     * @return this {@code FrpcBatch} instance so that calls can be chained
+     * @see FrpcClient.Builder#connectTimeout(long, TimeUnit)
+     */
+    public FrpcBatch withConnectTimeout(long newTimeout, TimeUnit timeUnit) {
+        this.connectTimeout = newTimeout;
+        this.connectTimeoutTimeUnit = Objects.requireNonNull(timeUnit);
+        return this;
+    }
+
+    /**
+     * Overrides "socket timeout" of the multicall request.
+     *
+     * @param newTimeout new timeout value
+     * @param timeUnit   time unit of given value
+     * @return this {@code FrpcBatch} instance so that calls can be chained
+     * @see FrpcClient.Builder#socketTimeout(long, TimeUnit)
+     */
+    public FrpcBatch withSocketTimeout(long newTimeout, TimeUnit timeUnit) {
+        this.socketTimeout = newTimeout;
+        this.socketTimeoutTimeUnit = Objects.requireNonNull(timeUnit);
+        return this;
+    }
+
+    /**
+     * Returns the number of calls collected so far.
+     *
+     * @return the number of calls collected so far
+     */
+    public int size() {
+        return calls.size();
+    }
+
+    /**
+     * Executes all collected calls using single {@value FrpcMulticallUtils#MULTICALL_METHOD_NAME} request and returns
+     * their results in the order the calls were added. The request is only considered idempotent (see
+     * {@link FrpcRetryPolicy}) if all collected calls are. Failure of any call does not affect the others, failed calls
+     * are represented by results wrapping a {@link FrpcFault}. If the whole multicall fails with a fault, then every
+     * result wraps that fault.
+     *
+     * @return list of results, one per collected call
+     * @throws FrpcTransportException if the response of the server is not a valid multicall response
+     */
+    public List<FrpcCallResult<Object>> getResults() {
+        if (calls.isEmpty()) {
+            return Collections.emptyList();
+        }
+        // describe each call by a structure
+        Object[] subCalls = new Object[calls.size()];
+        for (int i = 0; i < subCalls.length; i++) {
+            FrpcMethodCall call = calls.get(i);
+            subCalls[i] = FrpcMulticallUtils.subCall(call.getMethod(), call.prepareMethodParameters().toArray());
+        }
+        // implicit parameters are already part of individual calls
+        FrpcMethodCall multicall = client.prepareCall(FrpcMulticallUtils.MULTICALL_METHOD_NAME, (Object) subCalls)
+                .withImplicitParameters()
+                .withIdempotency(calls.stream().allMatch(FrpcMethodCall::isIdempotent));
+        if (connectTimeout != null) {
+            multicall.withConnectTimeout(connectTimeout, connectTimeoutTimeUnit);
+        }
+        if (socketTimeout != null) {
+            multicall.withSocketTimeout(socketTimeout, socketTimeoutTimeUnit);
+        }
+        // do the call and split its result
+        return splitResult(multicall.getResult(), subCalls.length);
+    }
+
+    static List<FrpcCallResult<Object>> splitResult(FrpcCallResult<Object> result, int expectedCount) {
+        int status = result.getHttpResponseStatus();
+        List<FrpcCallResult<Object>> results = new ArrayList<>(expectedCount);
+        // if the whole multicall failed, each call failed
+        if (result.isFault()) {
+            for (int i = 0; i < expectedCount; i++) {
+                results.add(new FrpcCallResult<>(result.asObject(), status));
+            }
+            return results;
+        }
+        // otherwise there has to be one item per call
+        if (!result.isArray() || ((Object[]) result.asObject()).length != expectedCount) {
+            throw new FrpcTransportException("Malformed " + FrpcMulticallUtils.MULTICALL_METHOD_NAME + " response, " +
+                    "expected an array of " + expectedCount + " items, got " + result.getWrappedType());
+        }
+        for (Object item : (Object[]) result.asObject()) {
+            if (item instanceof Object[] && ((Object[]) item).length == 1) {
+                // successful call
+                results.add(new FrpcCallResult<>(((Object[]) item)[0], status));
+            } else if (FrpcMulticallUtils.isFaultStruct(item)) {
+                // failed call
+                results.add(new FrpcCallResult<>(FrpcMulticallUtils.structToFault((Map<?, ?>) item), status));
+            } else {
+                throw new FrpcTransportException("Malformed " + FrpcMulticallUtils.MULTICALL_METHOD_NAME +
+                        " response, item " + item + " is neither a single-item array nor a fault structure");
+            }
+        }
+        return results;
+    }
+
+}
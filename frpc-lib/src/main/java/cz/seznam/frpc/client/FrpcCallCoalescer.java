@@ -0,0 +1,203 @@
+package cz.seznam.frpc.client;
+
+import cz.seznam.frpc.core.FrpcMulticallUtils;
+import cz.seznam.frpc.core.serialization.FrpcMarshaller;
+import cz.seznam.frpc.core.transport.FrpcDeadline;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.io.output.NullOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.*;
+
+/**
+ * Merges calls issued within short time window (possibly from many threads) into single
+ * {@value FrpcMulticallUtils#MULTICALL_METHOD_NAME} request. The window starts when the first call is submitted into an
+ * empty batch. The batch is sent when the window elapses, when it reaches maximum number of calls or when adding
+ * another call would exceed maximum size of the batch in bytes, whichever happens first. Batches are sent by a pool of
+ * daemon threads so that the callers are free to wait for their results in any way they like. The multicall carries
+ * the earliest deadline of the calls it is made of (see {@link FrpcDeadline}).
+ *
+ * @author David Moidl david.moidl@firma.seznam.cz
+ */
+class FrpcCallCoalescer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FrpcCallCoalescer.class);
+
+    /**
+     * A call waiting to be sent along with the future to complete once its result is known.
+     */
+    private static class PendingCall {
+        private final FrpcMethodCall call;
+        // captured on the thread submitting the call, the threads sending batches have no deadline of their own
+        private final FrpcDeadline deadline;
+        private final CompletableFuture<FrpcCallResult<Object>> future = new CompletableFuture<>();
+
+        private PendingCall(FrpcMethodCall call) {
+            this.call = call;
+            this.deadline = call.getDeadline();
+        }
+    }
+
+    private FrpcClient client;
+    private long windowNanos;
+    private int maxBatchSize;
+    private long maxBatchBytes;
+    private ScheduledExecutorService scheduler;
+    private ExecutorService dispatcher;
+
+    private final Object lock = new Object();
+    private List<PendingCall> pending = new ArrayList<>();
+    private long pendingBytes;
+    private ScheduledFuture<?> flushTask;
+
+    /**
+     * Creates new instance from given arguments.
+     *
+     * @param client        client used to send batches
+     * @param windowNanos   length of the time window in nanoseconds
+     * @param maxBatchSize  maximum number of calls in one batch
+     * @param maxBatchBytes maximum estimated size of one batch in bytes
+     */
+    FrpcCallCoalescer(FrpcClient client, long windowNanos, int maxBatchSize, long maxBatchBytes) {
+        this.client = Objects.requireNonNull(client);
+        this.windowNanos = windowNanos;
+        this.maxBatchSize = maxBatchSize;
+        this.maxBatchBytes = maxBatchBytes;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                new FrpcDaemonThreadFactory("frpc-coalescer-timer-"));
+        this.dispatcher = Executors.newCachedThreadPool(new FrpcDaemonThreadFactory("frpc-coalescer-dispatcher-"));
+    }
+
+    /**
+     * Adds given call to current batch.
+     *
+     * @param call call to add
+     * @return future completed by the result of given call once the batch it belongs to is sent
+     */
+    CompletableFuture<FrpcCallResult<Object>> submit(FrpcMethodCall call) {
+        PendingCall pendingCall = new PendingCall(call);
+        long size = estimateSize(call);
+        List<List<PendingCall>> toDispatch = new ArrayList<>(2);
+        synchronized (lock) {
+            // if this call would not fit into current batch, send the batch without it
+            if (!pending.isEmpty() && pendingBytes + size > maxBatchBytes) {
+                toDispatch.add(takePending());
+            }
+            pending.add(pendingCall);
+            pendingBytes += size;
+            if (pending.size() >= maxBatchSize || pendingBytes >= maxBatchBytes) {
+                // the batch is full, send it right away
+                toDispatch.add(takePending());
+            } else if (pending.size() == 1) {
+                // first call in the batch starts the window
+                flushTask = scheduler.schedule(this::flush, windowNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+        toDispatch.forEach(this::dispatch);
+        return pendingCall.future;
+    }
+
+    /**
+     * Stops the threads used by this coalescer. Calls waiting in current batch are sent and batches already being
+     * sent are waited for (up to given timeout) before this method returns, so that the HTTP clients they use can be
+     * safely closed afterwards.
+     *
+     * @param timeout  maximum time to wait for batches in flight
+     * @param timeUnit unit of {@code timeout}
+     * @return {@code true} if all batches have been sent, {@code false} if the timeout elapsed first
+     */
+    boolean shutdown(long timeout, TimeUnit timeUnit) {
+        flush();
+        scheduler.shutdownNow();
+        dispatcher.shutdown();
+        try {
+            return dispatcher.awaitTermination(timeout, timeUnit);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void flush() {
+        List<PendingCall> batch;
+        synchronized (lock) {
+            batch = takePending();
+        }
+        dispatch(batch);
+    }
+
+    private List<PendingCall> takePending() {
+        if (flushTask != null) {
+            flushTask.cancel(false);
+            flushTask = null;
+        }
+        if (pending.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<PendingCall> batch = pending;
+        pending = new ArrayList<>();
+        pendingBytes = 0;
+        return batch;
+    }
+
+    private void dispatch(List<PendingCall> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            dispatcher.execute(() -> send(batch));
+        } catch (RejectedExecutionException e) {
+            // the coalescer is shut down, send the batch from current thread
+            send(batch);
+        }
+    }
+
+    private void send(List<PendingCall> batch) {
+        try {
+            // there is no point in wrapping single call in multicall
+            if (batch.size() == 1) {
+                batch.get(0).future.complete(batch.get(0).call.getResult());
+                return;
+            }
+            LOGGER.debug("Sending {} coalesced calls using {}", batch.size(), FrpcMulticallUtils.MULTICALL_METHOD_NAME);
+            FrpcBatch frpcBatch = client.batch();
+            FrpcDeadline deadline = null;
+            for (PendingCall pendingCall : batch) {
+                frpcBatch.add(pendingCall.call);
+                deadline = FrpcDeadline.earlierOf(deadline, pendingCall.deadline);
+            }
+            // the multicall is prepared by getResults() and inherits the deadline attached to current thread
+            List<FrpcCallResult<Object>> results;
+            FrpcDeadline previousDeadline = FrpcDeadline.attach(deadline);
+            try {
+                results = frpcBatch.getResults();
+            } finally {
+                FrpcDeadline.attach(previousDeadline);
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).future.complete(results.get(i));
+            }
+        } catch (Exception e) {
+            batch.forEach(p -> p.future.completeExceptionally(e));
+        }
+    }
+
+    private long estimateSize(FrpcMethodCall call) {
+        // estimate the size as the size of binary FRPC representation of the sub-call structure
+        CountingOutputStream counter = new CountingOutputStream(new NullOutputStream());
+        try {
+            new FrpcMarshaller(counter).writeResponse(FrpcMulticallUtils.subCall(call.getMethod(),
+                    call.prepareMethodParameters().toArray()));
+        } catch (RuntimeException e) {
+            // the call cannot be serialized, let it fail on its own when sent
+            LOGGER.debug("Cannot estimate size of call to {}", call.getMethod(), e);
+        }
+        return counter.getByteCount();
+    }
+
+}
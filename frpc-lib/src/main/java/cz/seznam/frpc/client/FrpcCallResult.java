@@ -9,6 +9,7 @@ import org.apache.commons.lang3.reflect.TypeUtils;
 import java.lang.reflect.Type;
 import java.util.Map;
 import java.util.Objects;
+import java.util.function.Function;
 
 /**
  * Represents a {@code FRPC} call result. Provides convenience methods for checking what kind of object was returned and
@@ -19,8 +20,25 @@ import java.util.Objects;
  */
 public class FrpcCallResult<T> extends AbstractFrpcCallResult<T> {
 
+    private final String versionTag;
+
     FrpcCallResult(T wrapped, int httpResponseStatus) {
+        this(wrapped, httpResponseStatus, null);
+    }
+
+    FrpcCallResult(T wrapped, int httpResponseStatus, String versionTag) {
         super(wrapped, httpResponseStatus);
+        this.versionTag = versionTag;
+    }
+
+    /**
+     * Returns the version tag the server sent along with the result (in {@code ETag} header). Results of methods
+     * cached by the client are revalidated by their version tag once they expire, see {@link FrpcResponseCache}.
+     *
+     * @return the version tag of the result or {@code null} if the server did not send any
+     */
+    public String getVersionTag() {
+        return versionTag;
     }
 
     /**
@@ -90,9 +108,13 @@ public class FrpcCallResult<T> extends AbstractFrpcCallResult<T> {
         return (U) as(Objects.requireNonNull(type, "Type must not be null").getGenericType());
     }
 
-    private Object as(Type type) {
+    Object as(Type type) {
+        return as(FrpcTypesConverter.converterFor(type), type);
+    }
+
+    Object as(Function<Object, ConversionResult> converter, Type type) {
         // try to convert value to type described by given generic type
-        ConversionResult result = FrpcTypesConverter.convertToCompatibleInstance(wrapped, type);
+        ConversionResult result = converter.apply(wrapped);
         // if the conversion was successful, return the result
         if (result.isSuccess()) {
             return result.getConverted();
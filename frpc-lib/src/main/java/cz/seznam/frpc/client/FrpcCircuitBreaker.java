@@ -0,0 +1,323 @@
+package cz.seznam.frpc.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Circuit breaker guarding calls to single endpoint (or single method of an endpoint). While <i>closed</i>, the breaker
+ * lets all calls through and records their outcomes in a sliding window of the most recent calls. Once the window
+ * holds enough calls and the ratio of failed (or slow) calls reaches configured threshold, the breaker <i>opens</i>
+ * and rejects all calls right away, sparing callers from waiting out timeouts of a backend which is down. After
+ * configured time the breaker becomes <i>half-open</i> and lets a few probe calls through. It closes again if all of
+ * them succeed and opens again otherwise.
+ * <p>
+ * A call fails if it ends with a transport error or with {@code HTTP} status 5xx. Faults returned by the server are
+ * <i>not</i> failures since the server is obviously able to respond. If the server sends
+ * {@link cz.seznam.frpc.core.transport.FrpcHttpHeaders#RETRY_AFTER} header (or standard {@code Retry-After} header),
+ * the breaker opens right away for the time the server asked for.
+ * <p>
+ * The breaker is lock-free. Counts of transitions into each state as well as the number of rejected calls are
+ * available for monitoring.
+ *
+ * @author David Moidl david.moidl@firma.seznam.cz
+ */
+public class FrpcCircuitBreaker {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FrpcCircuitBreaker.class);
+
+    /**
+     * States of the breaker.
+     */
+    public enum State {
+        /**
+         * All calls are let through.
+         */
+        CLOSED,
+        /**
+         * All calls are rejected.
+         */
+        OPEN,
+        /**
+         * Limited number of probe calls is let through.
+         */
+        HALF_OPEN
+    }
+
+    // outcomes stored in the sliding window, slow calls have the SLOW bit set on top of SUCCESS or FAILURE
+    private static final int EMPTY = 0;
+    private static final int SUCCESS = 1;
+    private static final int FAILURE = 2;
+    private static final int SLOW = 4;
+
+    private String name;
+    private FrpcCircuitBreakerConfig config;
+
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+    private final AtomicIntegerArray window;
+    private final AtomicLong cursor = new AtomicLong();
+    private final AtomicInteger recordedCalls = new AtomicInteger();
+    private final AtomicInteger failedCalls = new AtomicInteger();
+    private final AtomicInteger slowCalls = new AtomicInteger();
+    private volatile long openUntilNanos;
+    private final AtomicLong halfOpenSinceNanos = new AtomicLong();
+    private final AtomicInteger halfOpenPermits = new AtomicInteger();
+    private final AtomicInteger halfOpenSuccesses = new AtomicInteger();
+
+    private final Map<State, LongAdder> transitions = new EnumMap<>(State.class);
+    private final LongAdder rejectedCalls = new LongAdder();
+
+    /**
+     * Creates new, closed breaker.
+     *
+     * @param name   name of the breaker, used in logs and exceptions
+     * @param config configuration of the breaker
+     */
+    FrpcCircuitBreaker(String name, FrpcCircuitBreakerConfig config) {
+        this.name = Objects.requireNonNull(name);
+        this.config = Objects.requireNonNull(config);
+        this.window = new AtomicIntegerArray(config.getSlidingWindowSize());
+        for (State s : State.values()) {
+            transitions.put(s, new LongAdder());
+        }
+    }
+
+    /**
+     * Asks for a permission to make a call.
+     *
+     * @return {@code true} if the call may be made and {@code false} if it has to be rejected
+     */
+    boolean tryAcquirePermission() {
+        switch (state.get()) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                // keep rejecting calls until the breaker has been open long enough
+                if (System.nanoTime() - openUntilNanos < 0) {
+                    rejectedCalls.increment();
+                    return false;
+                }
+                // only the caller which moves the breaker to half-open hands out permissions for the probes
+                if (transitionTo(State.OPEN, State.HALF_OPEN)) {
+                    startHalfOpen(System.nanoTime());
+                }
+                return tryAcquireProbePermission();
+            default:
+                return tryAcquireProbePermission();
+        }
+    }
+
+    /**
+     * Records the outcome of a call made with a permission given by {@link #tryAcquirePermission()}.
+     *
+     * @param durationNanos    duration of the call in nanoseconds
+     * @param failed           whether the call failed
+     * @param retryAfterMillis time the server asked not to be called for in milliseconds, zero if it did not
+     */
+    void onResult(long durationNanos, boolean failed, long retryAfterMillis) {
+        // the server explicitly asked us to back off
+        if (retryAfterMillis > 0) {
+            open(TimeUnit.MILLISECONDS.toNanos(retryAfterMillis));
+            return;
+        }
+        boolean slow = durationNanos >= config.getSlowCallDurationNanos();
+        State current = state.get();
+        if (current == State.HALF_OPEN) {
+            if (failed || slow) {
+                // the backend has not recovered yet
+                open(config.getOpenDurationNanos());
+            } else if (halfOpenSuccesses.incrementAndGet() >= config.getHalfOpenCalls()) {
+                // all probes succeeded, start over with empty window
+                clearWindow();
+                transitionTo(State.HALF_OPEN, State.CLOSED);
+            }
+        } else if (current == State.CLOSED) {
+            record((failed ? FAILURE : SUCCESS) | (slow ? SLOW : EMPTY));
+            int recorded = recordedCalls.get();
+            if (recorded >= config.getMinimumCalls()
+                    && (failedCalls.get() >= config.getFailureRateThreshold() * recorded
+                    || slowCalls.get() >= config.getSlowCallRateThreshold() * recorded)) {
+                open(config.getOpenDurationNanos());
+            }
+        }
+        // outcomes of calls finished while the breaker is open are of no interest
+    }
+
+    /**
+     * Gives back the permission of a call given by {@link #tryAcquirePermission()} without recording any outcome,
+     * because the call was abandoned (cancelled for example) before its outcome was known. Half-open breaker lets
+     * another probe through instead.
+     */
+    void onCallAbandoned() {
+        if (state.get() != State.HALF_OPEN) {
+            return;
+        }
+        // never hand out more permissions than there are probes left to succeed
+        halfOpenPermits.getAndUpdate(permits ->
+                Math.min(permits + 1, config.getHalfOpenCalls() - halfOpenSuccesses.get()));
+    }
+
+    /**
+     * Returns the name of this breaker, that is the endpoint (and method) it guards.
+     *
+     * @return the name of this breaker
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns current state of this breaker.
+     *
+     * @return current state of this breaker
+     */
+    public State getState() {
+        return state.get();
+    }
+
+    /**
+     * Returns how long this breaker stays open if it is open, zero otherwise.
+     *
+     * @param timeUnit time unit to convert the value to
+     * @return remaining time for which this breaker stays open
+     */
+    public long getRetryAfter(TimeUnit timeUnit) {
+        if (state.get() != State.OPEN) {
+            return 0;
+        }
+        return timeUnit.convert(Math.max(0, openUntilNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the ratio of failed calls in the sliding window.
+     *
+     * @return the ratio of failed calls, zero if no calls have been recorded
+     */
+    public double getFailureRate() {
+        int recorded = recordedCalls.get();
+        return recorded == 0 ? 0 : (double) failedCalls.get() / recorded;
+    }
+
+    /**
+     * Returns the ratio of slow calls in the sliding window.
+     *
+     * @return the ratio of slow calls, zero if no calls have been recorded
+     */
+    public double getSlowCallRate() {
+        int recorded = recordedCalls.get();
+        return recorded == 0 ? 0 : (double) slowCalls.get() / recorded;
+    }
+
+    /**
+     * Returns how many times this breaker has transitioned into given state.
+     *
+     * @param state the state
+     * @return number of transitions into given state
+     */
+    public long getTransitionCount(State state) {
+        return transitions.get(Objects.requireNonNull(state)).sum();
+    }
+
+    /**
+     * Returns the number of calls rejected by this breaker.
+     *
+     * @return the number of calls rejected by this breaker
+     */
+    public long getRejectedCalls() {
+        return rejectedCalls.sum();
+    }
+
+    private boolean tryAcquireProbePermission() {
+        while (true) {
+            int permits = halfOpenPermits.get();
+            if (permits > 0) {
+                if (halfOpenPermits.compareAndSet(permits, permits - 1)) {
+                    return true;
+                }
+            } else if (restartHalfOpen()) {
+                // probes which never reported their outcome must not block the breaker forever
+                continue;
+            } else {
+                rejectedCalls.increment();
+                return false;
+            }
+        }
+    }
+
+    private boolean restartHalfOpen() {
+        long since = halfOpenSinceNanos.get();
+        long now = System.nanoTime();
+        // only one of concurrent callers starts the probes over
+        if (now - since <= config.getOpenDurationNanos() || !halfOpenSinceNanos.compareAndSet(since, now)) {
+            return false;
+        }
+        startHalfOpen(now);
+        return true;
+    }
+
+    private void startHalfOpen(long nowNanos) {
+        halfOpenSinceNanos.set(nowNanos);
+        halfOpenSuccesses.set(0);
+        halfOpenPermits.set(config.getHalfOpenCalls());
+    }
+
+    private void open(long durationNanos) {
+        long until = System.nanoTime() + durationNanos;
+        // never shorten the time for which the breaker is already open
+        if (state.get() != State.OPEN || until - openUntilNanos > 0) {
+            openUntilNanos = until;
+        }
+        // probes of the previous half-open period must not be mistaken for stale ones once the breaker half-opens
+        halfOpenPermits.set(0);
+        halfOpenSinceNanos.set(openUntilNanos);
+        State current = state.get();
+        if (current != State.OPEN) {
+            transitionTo(current, State.OPEN);
+        }
+    }
+
+    private boolean transitionTo(State from, State to) {
+        if (!state.compareAndSet(from, to)) {
+            return false;
+        }
+        transitions.get(to).increment();
+        LOGGER.info("Circuit breaker {} transitioned from {} to {}", name, from, to);
+        return true;
+    }
+
+    private void record(int outcome) {
+        int slot = (int) (cursor.getAndIncrement() % window.length());
+        int previous = window.getAndSet(slot, outcome);
+        // the previous outcome leaves the window, the new one enters it
+        if (previous == EMPTY) {
+            recordedCalls.incrementAndGet();
+        }
+        count(previous, -1);
+        count(outcome, 1);
+    }
+
+    private void clearWindow() {
+        for (int i = 0; i < window.length(); i++) {
+            int previous = window.getAndSet(i, EMPTY);
+            if (previous != EMPTY) {
+                recordedCalls.decrementAndGet();
+                count(previous, -1);
+            }
+        }
+    }
+
+    private void count(int outcome, int delta) {
+        if ((outcome & FAILURE) != 0) {
+            failedCalls.addAndGet(delta);
+        }
+        if ((outcome & SLOW) != 0) {
+            slowCalls.addAndGet(delta);
+        }
+    }
+
+}
@@ -0,0 +1,211 @@
+package cz.seznam.frpc.client;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Immutable configuration of circuit breakers created by {@link FrpcClient} (see
+ * {@link FrpcClient.Builder#circuitBreaker(FrpcCircuitBreakerConfig)}). Describes when a breaker opens, how long it
+ * stays open and how many probe calls it lets through before closing again. See {@link FrpcCircuitBreaker} for
+ * details.
+ *
+ * @author David Moidl david.moidl@firma.seznam.cz
+ */
+public class FrpcCircuitBreakerConfig {
+
+    private int slidingWindowSize;
+    private int minimumCalls;
+    private double failureRateThreshold;
+    private long slowCallDurationNanos;
+    private double slowCallRateThreshold;
+    private long openDurationNanos;
+    private int halfOpenCalls;
+    private boolean perMethod;
+
+    private FrpcCircuitBreakerConfig(Builder builder) {
+        this.slidingWindowSize = builder.slidingWindowSize;
+        this.minimumCalls = Math.min(builder.minimumCalls, builder.slidingWindowSize);
+        this.failureRateThreshold = builder.failureRateThreshold;
+        this.slowCallDurationNanos = builder.slowCallDurationNanos;
+        this.slowCallRateThreshold = builder.slowCallRateThreshold;
+        this.openDurationNanos = builder.openDurationNanos;
+        this.halfOpenCalls = builder.halfOpenCalls;
+        this.perMethod = builder.perMethod;
+    }
+
+    /**
+     * Builder used to create {@link FrpcCircuitBreakerConfig} instances.
+     */
+    public static final class Builder {
+
+        private int slidingWindowSize = 100;
+        private int minimumCalls = 20;
+        private double failureRateThreshold = 0.5;
+        private long slowCallDurationNanos = Long.MAX_VALUE;
+        private double slowCallRateThreshold = 1;
+        private long openDurationNanos = TimeUnit.SECONDS.toNanos(10);
+        private int halfOpenCalls = 5;
+        private boolean perMethod;
+
+        private Builder() {
+        }
+
+        /**
+         * Sets the number of most recent calls the failure and slow call rates are computed from and the minimum
+         * number of calls which have to be recorded before the rates are evaluated at all.
+         * <p>
+         * Defaults to 100 and 20 calls respectively.
+         *
+         * @param size         number of calls in the sliding window
+         * @param minimumCalls minimum number of calls to evaluate the rates
+         * @return this {@code Builder} instance so that calls can be chained
+         */
+        public Builder slidingWindow(int size, int minimumCalls) {
+            if (size < 1 || minimumCalls < 1) {
+                throw new IllegalArgumentException("Size of the window and minimum number of calls must be positive");
+            }
+            this.slidingWindowSize = size;
+            this.minimumCalls = minimumCalls;
+            return this;
+        }
+
+        /**
+         * Sets the ratio of failed calls at which the breaker opens.
+         * <p>
+         * Defaults to 0.5.
+         *
+         * @param threshold the ratio, greater than 0 and at most 1
+         * @return this {@code Builder} instance so that calls can be chained
+         */
+        public Builder failureRateThreshold(double threshold) {
+            if (threshold <= 0 || threshold > 1) {
+                throw new IllegalArgumentException("Threshold must be greater than 0 and at most 1");
+            }
+            this.failureRateThreshold = threshold;
+            return this;
+        }
+
+        /**
+         * Makes the breaker open when calls become too slow even though they succeed. Calls lasting at least given
+         * duration are slow, the breaker opens once the ratio of slow calls reaches given threshold.
+         * <p>
+         * Turned off by default.
+         *
+         * @param duration  duration from which calls are considered slow
+         * @param timeUnit  time unit of the duration
+         * @param threshold the ratio of slow calls, greater than 0 and at most 1
+         * @return this {@code Builder} instance so that calls can be chained
+         */
+        public Builder slowCalls(long duration, TimeUnit timeUnit, double threshold) {
+            Objects.requireNonNull(timeUnit, "Time unit must not be null");
+            if (duration <= 0 || threshold <= 0 || threshold > 1) {
+                throw new IllegalArgumentException("Duration must be positive and threshold must be greater than 0 " +
+                        "and at most 1");
+            }
+            this.slowCallDurationNanos = timeUnit.toNanos(duration);
+            this.slowCallRateThreshold = threshold;
+            return this;
+        }
+
+        /**
+         * Sets how long the breaker stays open before letting probe calls through.
+         * <p>
+         * Defaults to 10 seconds.
+         *
+         * @param duration how long the breaker stays open
+         * @param timeUnit time unit of the duration
+         * @return this {@code Builder} instance so that calls can be chained
+         */
+        public Builder openDuration(long duration, TimeUnit timeUnit) {
+            Objects.requireNonNull(timeUnit, "Time unit must not be null");
+            if (duration <= 0) {
+                throw new IllegalArgumentException("Duration must be positive");
+            }
+            this.openDurationNanos = timeUnit.toNanos(duration);
+            return this;
+        }
+
+        /**
+         * Sets the number of probe calls let through by half-open breaker. If all of them succeed, the breaker
+         * closes. If any of them fails (or is slow), the breaker opens again.
+         * <p>
+         * Defaults to 5.
+         *
+         * @param calls number of probe calls
+         * @return this {@code Builder} instance so that calls can be chained
+         */
+        public Builder halfOpenCalls(int calls) {
+            if (calls < 1) {
+                throw new IllegalArgumentException("Number of probe calls must be positive");
+            }
+            this.halfOpenCalls = calls;
+            return this;
+        }
+
+        /**
+         * Sets whether there is a separate breaker for each method of each endpoint, rather than one breaker per
+         * endpoint. Useful when a single broken method should not cut off the others.
+         * <p>
+         * Defaults to {@code false}.
+         *
+         * @param perMethod whether to use separate breaker for each method
+         * @return this {@code Builder} instance so that calls can be chained
+         */
+        public Builder perMethod(boolean perMethod) {
+            this.perMethod = perMethod;
+            return this;
+        }
+
+        /**
+         * Builds new {@link FrpcCircuitBreakerConfig} from properties set on this builder.
+         *
+         * @return new instance of {@code FrpcCircuitBreakerConfig}
+         */
+        public FrpcCircuitBreakerConfig build() {
+            return new FrpcCircuitBreakerConfig(this);
+        }
+
+    }
+
+    /**
+     * Creates new {@link Builder} instance.
+     *
+     * @return new {@link Builder} instance
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    int getSlidingWindowSize() {
+        return slidingWindowSize;
+    }
+
+    int getMinimumCalls() {
+        return minimumCalls;
+    }
+
+    double getFailureRateThreshold() {
+        return failureRateThreshold;
+    }
+
+    long getSlowCallDurationNanos() {
+        return slowCallDurationNanos;
+    }
+
+    double getSlowCallRateThreshold() {
+        return slowCallRateThreshold;
+    }
+
+    long getOpenDurationNanos() {
+        return openDurationNanos;
+    }
+
+    int getHalfOpenCalls() {
+        return halfOpenCalls;
+    }
+
+    boolean isPerMethod() {
+        return perMethod;
+    }
+
+}
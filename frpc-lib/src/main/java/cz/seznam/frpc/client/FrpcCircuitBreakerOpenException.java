@@ -0,0 +1,45 @@
+package cz.seznam.frpc.client;
+
+import cz.seznam.frpc.core.transport.FrpcTransportException;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Thrown when a call is rejected without being sent because the circuit breaker guarding the endpoint (or method) is
+ * open. Calls rejected this way are never retried.
+ *
+ * @author David Moidl david.moidl@firma.seznam.cz
+ * @see FrpcCircuitBreaker
+ */
+public class FrpcCircuitBreakerOpenException extends FrpcTransportException {
+
+    private String circuitBreakerName;
+    private long retryAfterMillis;
+
+    public FrpcCircuitBreakerOpenException(String circuitBreakerName, long retryAfterMillis) {
+        super("Circuit breaker " + circuitBreakerName + " is open, call rejected");
+        this.circuitBreakerName = circuitBreakerName;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    /**
+     * Returns the name of the breaker which rejected the call.
+     *
+     * @return the name of the breaker which rejected the call
+     */
+    public String getCircuitBreakerName() {
+        return circuitBreakerName;
+    }
+
+    /**
+     * Returns how long the breaker was going to stay open at the time the call was rejected. Zero means the breaker
+     * was half-open and the call may be let through any moment.
+     *
+     * @param timeUnit time unit to convert the value to
+     * @return time after which calls may be let through again
+     */
+    public long getRetryAfter(TimeUnit timeUnit) {
+        return timeUnit.convert(retryAfterMillis, TimeUnit.MILLISECONDS);
+    }
+
+}
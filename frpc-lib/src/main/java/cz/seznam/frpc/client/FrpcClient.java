@@ -1,5 +1,8 @@
 package cz.seznam.frpc.client;
 
+import cz.seznam.frpc.core.FrpcMulticallUtils;
+import cz.seznam.frpc.core.FrpcType;
+import cz.seznam.frpc.core.transport.FrpcRequest;
 import cz.seznam.frpc.core.transport.FrpcTransportException;
 import cz.seznam.frpc.core.transport.Protocol;
 import org.apache.http.Header;
@@ -8,16 +11,41 @@ import org.apache.http.HttpHeaders;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpHead;
-import org.apache.http.impl.client.HttpClients;
+import org.apache.http.config.SocketConfig;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.client.HttpAsyncClient;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import static java.util.Arrays.stream;
@@ -25,44 +53,108 @@ import static java.util.Arrays.stream;
 /**
  * {@code FrpcClient} provides simple-to-use logic for making {@code FRPC} requests and rather powerful {@code API} for
  * fully type-safe mapping of their responses to Java objects.
+ * <p>
+ * Unless a custom {@link HttpClient} is given to the {@link Builder}, each {@code FrpcClient} owns a pool of
+ * {@code HTTP} connections which should be released by calling {@link #close()} once the client is no longer needed.
+ * <p>
+ * Besides blocking calls, methods can be called asynchronously (see {@link #callAsync(String, Object...)} and
+ * {@link FrpcMethodCall#getResultAsync()}). Asynchronous calls are sent by a non-blocking {@link HttpAsyncClient}
+ * which is created on first use, so clients making only blocking calls do not pay for it.
+ * <p>
+ * A client may spread calls across multiple replicas of the same backend (see {@link Builder#urls(Collection)}),
+ * picking an endpoint for each attempt by a load balancing strategy and ejecting endpoints which misbehave.
  *
  * @author David Moidl david.moidl@firma.seznam.cz
  */
-public class FrpcClient {
+public class FrpcClient implements Closeable {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(FrpcClient.class);
 
+    /**
+     * Length of a window of latency histograms, which thus reflect response times of the last 30 to 60 seconds.
+     */
+    private static final long LATENCY_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    /**
+     * Maximum time {@link #close()} waits for coalesced batches in flight before closing the HTTP clients.
+     */
+    private static final long COALESCER_SHUTDOWN_TIMEOUT_SECONDS = 30;
+
     private HttpClient httpClient;
-    private URI uri;
+    private FrpcEndpointGroup endpointGroup;
+    private Function<FrpcRequest, ?> routingKeyExtractor;
     private Map<String, String> headers;
     private Long connectTimeout;
     private TimeUnit connectTimeoutTimeUnit;
     private Long socketTimeout;
     private TimeUnit socketTimeoutTimeUnit;
-    private long retryDelay;
-    private TimeUnit retryDelayTimeUnit;
     private int maxAttemptCount;
+    private FrpcRetryPolicy retryPolicy;
+    private FrpcRetryBudget retryBudget;
+    private FrpcCircuitBreakerConfig circuitBreakerConfig;
+    private ConcurrentMap<String, FrpcCircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
+    private FrpcHedgingPolicy hedgingPolicy;
+    private FrpcRetryBudget hedgingBudget;
+    private final LongAdder hedgesWon = new LongAdder();
+    private ConcurrentMap<String, FrpcLatencyHistogram> latencies = new ConcurrentHashMap<>();
+    private double adaptiveTimeoutMultiplier;
+    private long adaptiveTimeoutMinMillis;
+    private long adaptiveTimeoutMaxMillis;
     private boolean prependImplicitParams = true;
     private List<Object> implicitParameters;
     private Protocol protocol;
 
-    private FrpcClient(HttpClient httpClient, URI uri, Map<String, String> headers, Long connectTimeout,
-                       TimeUnit connectTimeoutTimeUnit, Long socketTimeout, TimeUnit socketTimeoutTimeUnit,
-                       long retryDelay, TimeUnit retryDelayTimeUnit, int maxAttemptCount,
-                       List<Object> implicitParameters, boolean prependImplicitParams, Protocol protocol) {
-        this.httpClient = httpClient;
-        this.uri = uri;
-        this.headers = headers;
-        this.connectTimeout = connectTimeout;
-        this.connectTimeoutTimeUnit = connectTimeoutTimeUnit;
-        this.socketTimeout = socketTimeout;
-        this.socketTimeoutTimeUnit = socketTimeoutTimeUnit;
-        this.retryDelay = retryDelay;
-        this.retryDelayTimeUnit = retryDelayTimeUnit;
-        this.maxAttemptCount = maxAttemptCount;
-        this.prependImplicitParams = prependImplicitParams;
-        this.implicitParameters = implicitParameters;
-        this.protocol = protocol;
+    private FrpcCallCoalescer coalescer;
+    private FrpcResponseCache responseCache;
+    private PoolingHttpClientConnectionManager connectionManager;
+    private CompletableFuture<Integer> readiness;
+
+    private final Object lazyInitLock = new Object();
+    private volatile HttpAsyncClient httpAsyncClient;
+    private Supplier<CloseableHttpAsyncClient> httpAsyncClientFactory;
+    private boolean ownsHttpAsyncClient;
+    private volatile ScheduledExecutorService scheduler;
+    private boolean closed;
+
+    private FrpcClient(Builder builder) {
+        this.httpClient = builder.httpClient;
+        this.connectionManager = builder.connectionManager;
+        this.readiness = builder.readiness;
+        this.httpAsyncClient = builder.httpAsyncClient;
+        this.httpAsyncClientFactory = builder::createDefaultHttpAsyncClient;
+        this.endpointGroup = builder.endpointGroup;
+        this.routingKeyExtractor = builder.routingKeyExtractor;
+        this.headers = builder.headers == null ? Collections.emptyMap() : builder.headers;
+        this.connectTimeout = builder.connectTimeout;
+        this.connectTimeoutTimeUnit = builder.connectTimeoutTimeUnit;
+        this.socketTimeout = builder.socketTimeout;
+        this.socketTimeoutTimeUnit = builder.socketTimeoutTimeUnit;
+        this.maxAttemptCount = builder.maxAttemptCount;
+        this.retryPolicy = builder.retryPolicy;
+        if (builder.retryDelay != null) {
+            this.retryPolicy = retryPolicy
+                    .withInitialDelayMillis(builder.retryDelayTimeUnit.toMillis(builder.retryDelay));
+        }
+        this.retryBudget = retryPolicy.createBudget();
+        this.circuitBreakerConfig = builder.circuitBreakerConfig;
+        this.hedgingPolicy = builder.hedgingPolicy;
+        this.adaptiveTimeoutMultiplier = builder.adaptiveTimeoutMultiplier;
+        this.adaptiveTimeoutMinMillis = builder.adaptiveTimeoutMinMillis;
+        this.adaptiveTimeoutMaxMillis = builder.adaptiveTimeoutMaxMillis;
+        if (hedgingPolicy != null) {
+            this.hedgingBudget = hedgingPolicy.createBudget();
+        }
+        this.prependImplicitParams = builder.prependImplicitParams;
+        this.implicitParameters = builder.implicitParameters;
+        this.protocol = builder.protocol;
+        if (builder.responseCacheConfig != null) {
+            this.responseCache = new FrpcResponseCache(builder.responseCacheConfig);
+        }
+        if (builder.coalescingWindow > 0) {
+            this.coalescer = new FrpcCallCoalescer(this,
+                    builder.coalescingWindowTimeUnit.toNanos(builder.coalescingWindow), builder.coalescingMaxCalls,
+                    builder.coalescingMaxBytes);
+        }
     }
 
     /**
@@ -70,20 +162,74 @@ public class FrpcClient {
      */
     public static final class Builder {
 
+        /**
+         * Value of {@code Accept} header of the {@code HEAD} request used to discover protocols supported by the
+         * server and to validate pre-warmed connections.
+         */
+        static final String DISCOVERY_ACCEPT_HEADER = "text/xml, application/x-frpc";
+
+        /**
+         * Timeout of probes of ejected endpoints used if no socket timeout is set.
+         */
+        private static final int DEFAULT_PROBE_TIMEOUT_MILLIS = 1000;
+        /**
+         * Default number of points each endpoint is placed onto the consistent-hash ring at.
+         */
+        private static final int DEFAULT_VIRTUAL_NODES = 160;
+
         private HttpClient httpClient;
-        private URI uri;
+        private List<URI> uris;
+        private Supplier<? extends Collection<URI>> urisSupplier;
+        private long urisRefreshInterval;
+        private TimeUnit urisRefreshIntervalTimeUnit;
+        private FrpcLoadBalancingStrategy loadBalancingStrategy = FrpcLoadBalancingStrategy.LEAST_OUTSTANDING_REQUESTS;
+        private int ejectionFailures;
+        private double ejectionLatencyFactor;
+        private long ejectionTime = 30;
+        private TimeUnit ejectionTimeUnit = TimeUnit.SECONDS;
+        private Function<FrpcRequest, ?> routingKeyExtractor;
+        private int virtualNodes;
+        private FrpcEndpointGroup endpointGroup;
         private Map<String, String> headers;
         private long connectTimeout = -1;
         private TimeUnit connectTimeoutTimeUnit = TimeUnit.MILLISECONDS;
         private long socketTimeout = -1;
         private TimeUnit socketTimeoutTimeUnit = TimeUnit.MILLISECONDS;
-        private long retryDelay;
+        private Long retryDelay;
         private TimeUnit retryDelayTimeUnit = TimeUnit.MILLISECONDS;
         private int maxAttemptCount = 3;
+        private FrpcRetryPolicy retryPolicy = FrpcRetryPolicy.builder().build();
+        private FrpcCircuitBreakerConfig circuitBreakerConfig;
+        private FrpcHedgingPolicy hedgingPolicy;
+        private FrpcResponseCacheConfig responseCacheConfig;
+        private double adaptiveTimeoutMultiplier;
+        private long adaptiveTimeoutMinMillis;
+        private long adaptiveTimeoutMaxMillis;
         private boolean prependImplicitParams = true;
         private List<Object> implicitParameters = Collections.emptyList();
         private Protocol protocol;
         private boolean forceProtocolUsage;
+        private long coalescingWindow;
+        private TimeUnit coalescingWindowTimeUnit = TimeUnit.MICROSECONDS;
+        private int coalescingMaxCalls;
+        private long coalescingMaxBytes;
+        private PoolingHttpClientConnectionManager connectionManager;
+        private int maxConnectionsTotal = 256;
+        private int maxConnectionsPerRoute = 64;
+        private long connectionTimeToLive = 5;
+        private TimeUnit connectionTimeToLiveTimeUnit = TimeUnit.MINUTES;
+        private long maxIdleTime = 30;
+        private TimeUnit maxIdleTimeTimeUnit = TimeUnit.SECONDS;
+        private long keepAlive = 30;
+        private TimeUnit keepAliveTimeUnit = TimeUnit.SECONDS;
+        private boolean tcpNoDelay = true;
+        private int sendBufferSize;
+        private int receiveBufferSize;
+        private int prewarmConnections;
+        private boolean prewarmAsync;
+        private CompletableFuture<Integer> readiness;
+        private HttpAsyncClient httpAsyncClient;
+        private int ioThreads = 1;
 
         /**
          * Sets {@code URL} to call methods against. This {@code URL} string is converted to {@link URI} which is
@@ -94,12 +240,7 @@ public class FrpcClient {
          * @throws IllegalArgumentException if given {@code URL} string could not be converted to {@code URI}
          */
         public Builder url(String urlString) {
-            try {
-                this.uri = new URI(Objects.requireNonNull(urlString, "Given URI string must not be null"));
-            } catch (URISyntaxException e) {
-                throw new IllegalArgumentException("Value " + urlString + " is not a valid URI");
-            }
-            return this;
+            return url(toUri(urlString));
         }
 
         /**
@@ -112,11 +253,10 @@ public class FrpcClient {
          */
         public Builder url(URL url) {
             try {
-                this.uri = Objects.requireNonNull(url, "Given URL must not be null").toURI();
+                return url(Objects.requireNonNull(url, "Given URL must not be null").toURI());
             } catch (URISyntaxException e) {
                 throw new IllegalArgumentException("Value " + url + " is not a valid URI");
             }
-            return this;
         }
 
         /**
@@ -127,17 +267,209 @@ public class FrpcClient {
          * @return this {@code Builder} instance so that calls can be chained
          */
         public Builder url(URI uri) {
-            this.uri = Objects.requireNonNull(uri, "Given URI must not be null");
+            return urls(Collections.singletonList(Objects.requireNonNull(uri, "Given URI must not be null")));
+        }
+
+        /**
+         * Sets {@code URL}s of multiple endpoints (replicas of the same backend) to spread method calls across. Each
+         * call (and each retry of a call) is sent to single endpoint picked by the load balancing strategy (see
+         * {@link #loadBalancing(FrpcLoadBalancingStrategy)}). Retries go to a different endpoint whenever possible.
+         *
+         * @param urlStrings {@code URL}s of the endpoints
+         * @return this {@code Builder} instance so that calls can be chained
+         * @throws IllegalArgumentException if any of given {@code URL} strings could not be converted to {@code URI}
+         *                                  or if there are none
+         */
+        public Builder urls(String... urlStrings) {
+            return urls(stream(Objects.requireNonNull(urlStrings, "Given URI strings must not be null"))
+                    .map(Builder::toUri).collect(Collectors.toList()));
+        }
+
+        /**
+         * Sets {@link URI}s of multiple endpoints (replicas of the same backend) to spread method calls across. Each
+         * call (and each retry of a call) is sent to single endpoint picked by the load balancing strategy (see
+         * {@link #loadBalancing(FrpcLoadBalancingStrategy)}). Retries go to a different endpoint whenever possible.
+         * <p>
+         * Endpoints can be changed later by {@link FrpcClient#updateEndpoints(Collection)}.
+         *
+         * @param uris {@code URI}s of the endpoints
+         * @return this {@code Builder} instance so that calls can be chained
+         * @throws IllegalArgumentException if given collection is empty
+         */
+        public Builder urls(Collection<URI> uris) {
+            Objects.requireNonNull(uris, "Given URIs must not be null").forEach(Objects::requireNonNull);
+            if (uris.isEmpty()) {
+                throw new IllegalArgumentException("There has to be at least one URI");
+            }
+            this.uris = new ArrayList<>(uris);
+            this.urisSupplier = null;
+            return this;
+        }
+
+        /**
+         * Makes the {@link FrpcClient} being built take {@link URI}s of endpoints to spread method calls across (see
+         * {@link #urls(Collection)}) from given supplier. The supplier is asked for initial endpoints when
+         * {@link #build()} is called and then periodically in background. Endpoints present both before and after a
+         * refresh keep their statistics. If the supplier fails or returns no endpoints, current endpoints are kept.
+         *
+         * @param supplier        supplier of endpoint {@code URI}s, typically backed by a service registry
+         * @param refreshInterval interval between two refreshes
+         * @param timeUnit        the time unit
+         * @return this {@code Builder} instance so that calls can be chained
+         */
+        public Builder urls(Supplier<? extends Collection<URI>> supplier, long refreshInterval, TimeUnit timeUnit) {
+            if (refreshInterval <= 0) {
+                throw new IllegalArgumentException("Refresh interval must be positive");
+            }
+            this.urisSupplier = Objects.requireNonNull(supplier, "Supplier must not be null");
+            this.urisRefreshInterval = refreshInterval;
+            this.urisRefreshIntervalTimeUnit = Objects.requireNonNull(timeUnit, "Time unit must not be null");
+            this.uris = null;
+            return this;
+        }
+
+        /**
+         * Convenience method for calling {@link #urls(Supplier, long, TimeUnit)} with a supplier reading endpoint
+         * {@code URL}s from given file. The file contains one {@code URL} per line, blank lines and lines starting with
+         * {@code #} are ignored.
+         *
+         * @param file            the file to read endpoint {@code URL}s from
+         * @param refreshInterval interval between two reads of the file
+         * @param timeUnit        the time unit
+         * @return this {@code Builder} instance so that calls can be chained
+         */
+        public Builder urlsFromFile(Path file, long refreshInterval, TimeUnit timeUnit) {
+            Objects.requireNonNull(file, "File must not be null");
+            return urls(() -> readUris(file), refreshInterval, timeUnit);
+        }
+
+        /**
+         * Sets the strategy of spreading method calls across endpoints given to {@link #urls(Collection)} (or one of
+         * its variants).
+         * <p>
+         * Defaults to {@link FrpcLoadBalancingStrategy#LEAST_OUTSTANDING_REQUESTS}.
+         *
+         * @param strategy the strategy
+         * @return this {@code Builder} instance so that calls can be chained
+         */
+        public Builder loadBalancing(FrpcLoadBalancingStrategy strategy) {
+            this.loadBalancingStrategy = Objects.requireNonNull(strategy, "Load balancing strategy must not be null");
+            return this;
+        }
+
+        /**
+         * Convenience method for calling {@link #consistentHashing(Function, int)} with a key extractor taking the
+         * regular parameter at given index (implicit parameters are not counted) and default number of virtual nodes.
+         * Calls with fewer parameters are spread by the load balancing strategy.
+         *
+         * @param parameterIndex index of the parameter to use as the routing key
+         * @return this {@code Builder} instance so that calls can be chained
+         */
+        public Builder consistentHashing(int parameterIndex) {
+            if (parameterIndex < 0) {
+                throw new IllegalArgumentException("Parameter index must not be negative");
+            }
+            return consistentHashing(request -> parameterIndex < request.getParameters().size() ?
+                    request.getParameters().get(parameterIndex) : null);
+        }
+
+        /**
+         * Convenience method for calling {@link #consistentHashing(Function, int)} with default number of virtual
+         * nodes, that is 160.
+         *
+         * @param keyExtractor function extracting the routing key from a request
+         * @return this {@code Builder} instance so that calls can be chained
+         */
+        public Builder consistentHashing(Function<FrpcRequest, ?> keyExtractor) {
+            return consistentHashing(keyExtractor, DEFAULT_VIRTUAL_NODES);
+        }
+
+        /**
+         * Routes calls across endpoints given to {@link #urls(Collection)} (or one of its variants) by consistent
+         * hashing of a routing key, so that calls with the same key (a user id for example) always go to the same
+         * endpoint as long as it is healthy. Useful for sharded caches which benefit from locality of keys.
+         * <p>
+         * Each endpoint is placed onto a hash ring at given number of points (virtual nodes); more points spread the
+         * keys more evenly at the cost of memory. When endpoints change, only keys of the removed endpoints (or the
+         * share taken over by added endpoints) move. If the endpoint owning a key is ejected, behind an open circuit
+         * breaker or has just failed the previous attempt of the call, the call goes to the next endpoint on the ring.
+         * <p>
+         * The request given to the extractor holds the name of the method and its regular parameters, without
+         * implicit ones. Routing keys are hashed as byte arrays if they are {@code byte[]} and as their string
+         * representation otherwise. Calls for which the extractor returns {@code null} (and batches) are spread by the
+         * load balancing strategy (see {@link #loadBalancing(FrpcLoadBalancingStrategy)}).
+         * <p>
+         * Turned off by default.
+         *
+         * @param keyExtractor function extracting the routing key from a request
+         * @param virtualNodes number of points each endpoint is placed onto the ring at
+         * @return this {@code Builder} instance so that calls can be chained
+         */
+        public Builder consistentHashing(Function<FrpcRequest, ?> keyExtractor, int virtualNodes) {
+            if (virtualNodes < 1) {
+                throw new IllegalArgumentException("Number of virtual nodes must be positive");
+            }
+            this.routingKeyExtractor = Objects.requireNonNull(keyExtractor, "Key extractor must not be null");
+            this.virtualNodes = virtualNodes;
+            return this;
+        }
+
+        /**
+         * Turns on ejection of outlying endpoints given to {@link #urls(Collection)} (or one of its variants). An
+         * endpoint is ejected (no calls are sent to it) if given number of calls to it fail in a row or if the moving
+         * average of its response times exceeds the median of all endpoints given number of times. Once the ejection
+         * time elapses, the endpoint is probed by the same {@code HEAD} request used to discover protocols supported
+         * by the server and readmitted if it responds. Otherwise it stays ejected and is probed again later. The base
+         * ejection time is multiplied by the number of recent ejections of the endpoint (failed probes included, up
+         * to ten times), so an endpoint which keeps failing soon after readmission is ejected for longer and longer.
+         * The number drops by one for every base ejection time the endpoint stays healthy.
+         * <p>
+         * At most half of the endpoints are ejected at any time, so that a problem shared by all endpoints does not
+         * leave the client without endpoints to call.
+         * <p>
+         * Turned off by default.
+         *
+         * @param consecutiveFailures number of failed calls in a row after which an endpoint is ejected, zero turns
+         *                            this check off
+         * @param latencyFactor       how many times may the moving average of response times of an endpoint exceed
+         *                            the median of all endpoints before it is ejected, zero turns this check off; only
+         *                            applies if there are at least three endpoints
+         * @param baseEjectionTime    time for which an endpoint is ejected for the first time
+         * @param timeUnit            the time unit
+         * @return this {@code Builder} instance so that calls can be chained
+         */
+        public Builder outlierEjection(int consecutiveFailures, double latencyFactor, long baseEjectionTime,
+                                       TimeUnit timeUnit) {
+            if (consecutiveFailures < 0 || latencyFactor < 0) {
+                throw new IllegalArgumentException("Number of failures and latency factor must not be negative");
+            }
+            if (latencyFactor > 0 && latencyFactor <= 1) {
+                throw new IllegalArgumentException("Latency factor must be greater than 1");
+            }
+            if (baseEjectionTime <= 0) {
+                throw new IllegalArgumentException("Ejection time must be positive");
+            }
+            this.ejectionFailures = consecutiveFailures;
+            this.ejectionLatencyFactor = latencyFactor;
+            this.ejectionTime = baseEjectionTime;
+            this.ejectionTimeUnit = Objects.requireNonNull(timeUnit, "Time unit must not be null");
             return this;
         }
 
         /**
-         * Constructs default {@link HttpClient} and sets it as the client to be used by {@link FrpcClient} being built.
+         * Makes the {@link FrpcClient} being built use its own {@link HttpClient} backed by a pool of connections
+         * configured by {@link #maxConnections(int, int)}, {@link #connectionTimeToLive(long, TimeUnit)},
+         * {@link #evictIdleConnections(long, TimeUnit)}, {@link #keepAlive(long, TimeUnit)},
+         * {@link #tcpNoDelay(boolean)} and {@link #socketBufferSizes(int, int)}. The client is constructed when
+         * {@link #build()} is called.
+         * <p>
+         * This is the default, calling this method is only necessary to override previous call to
+         * {@link #usingHttpClient(HttpClient)}.
          *
          * @return this {@code Builder} instance so that calls can be chained
          */
         public Builder usingDefaultHttpClient() {
-            this.httpClient = HttpClients.createDefault();
+            this.httpClient = null;
             return this;
         }
 
@@ -152,6 +484,184 @@ public class FrpcClient {
             return this;
         }
 
+        /**
+         * Specifies {@link HttpAsyncClient} to be used for asynchronous calls made by {@link FrpcClient} being built.
+         * The client has to be started already and it is not closed by {@link FrpcClient#close()}.
+         * <p>
+         * If none is given, {@code FrpcClient} creates its own one on first asynchronous call, configured by
+         * {@link #maxConnections(int, int)}, {@link #keepAlive(long, TimeUnit)}, {@link #tcpNoDelay(boolean)},
+         * {@link #socketBufferSizes(int, int)} and {@link #ioThreads(int)}.
+         *
+         * @param httpAsyncClient the client
+         * @return this {@code Builder} instance so that calls can be chained
+         */
+        public Builder usingHttpAsyncClient(HttpAsyncClient httpAsyncClient) {
+            this.httpAsyncClient = Objects.requireNonNull(httpAsyncClient, "Given HTTP async client must not be null");
+            return this;
+        }
+
+        /**
+         * Sets the number of {@code I/O} threads of default {@link HttpAsyncClient} (see
+         * {@link #usingHttpAsyncClient(HttpAsyncClient)}). Each thread multiplexes many connections, so a single
+         * thread is able to serve thousands of calls in flight as long as responses are reasonably small.
+         * <p>
+         * Defaults to 1.
+         *
+         * @param ioThreads number of {@code I/O} threads
+         * @return this {@code Builder} instance so that calls can be chained
+         */
+        public Builder ioThreads(int ioThreads) {
+            if (ioThreads < 1) {
+                throw new IllegalArgumentException("Number of I/O threads must be positive");
+            }
+            this.ioThreads = ioThreads;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of pooled connections in total and per route (that is per target host). Requests
+         * exceeding these limits wait until a connection is returned to the pool. Only applies to the default
+         * {@link HttpClient} (see {@link #usingDefaultHttpClient()}).
+         * <p>
+         * Defaults to 256 connections in total and 64 connections per route.
+         *
+         * @param total    maximum number of connections in total
+         * @param perRoute maximum number of connections per route
+         * @return this {@code Builder} instance so that calls can be chained
+         */
+        public Builder maxConnections(int total, int perRoute) {
+            if (total < 1 || perRoute < 1) {
+                throw new IllegalArgumentException("Maximum number of connections must be positive");
+            }
+            this.maxConnectionsTotal = total;
+            this.maxConnectionsPerRoute = perRoute;
+            return this;
+        }
+
+        /**
+         * Sets the maximum time to live of pooled connections. Connections older than that are closed rather than
+         * reused, which makes changes of {@code DNS} records take effect. Zero or negative value means infinite time to
+         * live. Only applies to the default {@link HttpClient} (see {@link #usingDefaultHttpClient()}).
+         * <p>
+         * Defaults to 5 minutes.
+         *
+         * @param timeToLive time to live of pooled connections
+         * @param timeUnit   the time unit
+         * @return this {@code Builder} instance so that calls can be chained
+         */
+        public Builder connectionTimeToLive(long timeToLive, TimeUnit timeUnit) {
+            this.connectionTimeToLive = timeToLive;
+            this.connectionTimeToLiveTimeUnit = Objects.requireNonNull(timeUnit, "Time unit must not be null");
+            return this;
+        }
+
+        /**
+         * Sets the time after which idle pooled connections are closed by a background thread. Expired connections
+         * (see {@link #connectionTimeToLive(long, TimeUnit)} and {@link #keepAlive(long, TimeUnit)}) are closed by
+         * that thread as well. Zero or negative value turns the eviction off. Only applies to the default
+         * {@link HttpClient} (see {@link #usingDefaultHttpClient()}).
+         * <p>
+         * Defaults to 30 seconds.
+         *
+         * @param maxIdleTime time after which idle connections are closed
+         * @param timeUnit    the time unit
+         * @return this {@code Builder} instance so that calls can be chained
+         */
+        public Builder evictIdleConnections(long maxIdleTime, TimeUnit timeUnit) {
+            this.maxIdleTime = maxIdleTime;
+            this.maxIdleTimeTimeUnit = Objects.requireNonNull(timeUnit, "Time unit must not be null");
+            return this;
+        }
+
+        /**
+         * Sets how long a connection may be kept alive in the pool if the server does not say otherwise using
+         * {@code Keep-Alive} header. Zero or negative value means connections are kept alive indefinitely. Only
+         * applies to the default {@link HttpClient} (see {@link #usingDefaultHttpClient()}).
+         * <p>
+         * Defaults to 30 seconds.
+         *
+         * @param keepAlive keep-alive duration
+         * @param timeUnit  the time unit
+         * @return this {@code Builder} instance so that calls can be chained
+         */
+        public Builder keepAlive(long keepAlive, TimeUnit timeUnit) {
+            this.keepAlive = keepAlive;
+            this.keepAliveTimeUnit = Objects.requireNonNull(timeUnit, "Time unit must not be null");
+            return this;
+        }
+
+        /**
+         * Enables or disables {@code TCP_NODELAY} on pooled connections. Only applies to the default
+         * {@link HttpClient} (see {@link #usingDefaultHttpClient()}).
+         * <p>
+         * Defaults to {@code true} since Nagle's algorithm only adds latency to small request-response exchanges.
+         *
+         * @param tcpNoDelay whether to enable {@code TCP_NODELAY}
+         * @return this {@code Builder} instance so that calls can be chained
+         */
+        public Builder tcpNoDelay(boolean tcpNoDelay) {
+            this.tcpNoDelay = tcpNoDelay;
+            return this;
+        }
+
+        /**
+         * Sets sizes of socket send ({@code SO_SNDBUF}) and receive ({@code SO_RCVBUF}) buffers of pooled
+         * connections. Zero means system default. Only applies to the default {@link HttpClient} (see
+         * {@link #usingDefaultHttpClient()}).
+         * <p>
+         * Defaults to system defaults.
+         *
+         * @param sendBufferSize    size of send buffer in bytes
+         * @param receiveBufferSize size of receive buffer in bytes
+         * @return this {@code Builder} instance so that calls can be chained
+         */
+        public Builder socketBufferSizes(int sendBufferSize, int receiveBufferSize) {
+            if (sendBufferSize < 0 || receiveBufferSize < 0) {
+                throw new IllegalArgumentException("Socket buffer sizes must not be negative");
+            }
+            this.sendBufferSize = sendBufferSize;
+            this.receiveBufferSize = receiveBufferSize;
+            return this;
+        }
+
+        /**
+         * Convenience method for calling {@link #prewarm(int, boolean)} with {@code false} as the second parameter,
+         * that is {@link #build()} does not return until the connections are open.
+         *
+         * @param connections number of connections to open
+         * @return this {@code Builder} instance so that calls can be chained
+         */
+        public Builder prewarm(int connections) {
+            return prewarm(connections, false);
+        }
+
+        /**
+         * Makes {@link #build()} open given number of keep-alive connections to the server and put them into the
+         * connection pool, so that the first calls made by the client do not pay for establishing connections. Each
+         * connection is validated by the same {@code HEAD} request used to discover protocols supported by the server.
+         * The number of connections is capped by the maximum number of connections per route (see
+         * {@link #maxConnections(int, int)}). Connections which cannot be opened are only logged, the client works
+         * with a cold pool just fine.
+         * <p>
+         * Only applies to the default {@link HttpClient} (see {@link #usingDefaultHttpClient()}).
+         * <p>
+         * Turned off by default.
+         *
+         * @param connections number of connections to open, zero turns pre-warming off
+         * @param async       if {@code true} then the connections are opened in background and {@link #build()}
+         *                    returns right after protocol negotiation; use {@link FrpcClient#getReadiness()} to find out
+         *                    when the pool is ready
+         * @return this {@code Builder} instance so that calls can be chained
+         */
+        public Builder prewarm(int connections, boolean async) {
+            if (connections < 0) {
+                throw new IllegalArgumentException("Number of connections to pre-warm must not be negative");
+            }
+            this.prewarmConnections = connections;
+            this.prewarmAsync = async;
+            return this;
+        }
+
         /**
          * Specifies default headers to be sent with every request, thus with every {@code FRPC} method call.
          *
@@ -203,9 +713,42 @@ public class FrpcClient {
             return this;
         }
 
+        /**
+         * Turns on adaptive socket timeouts. The socket timeout of each call is then derived from recent response
+         * times of the called method: it is given multiple of their 99th percentile, clamped between given bounds.
+         * Cheap methods thus fail fast when a server hangs while heavy methods get the time they need. Until enough
+         * calls of a method have been made, the static socket timeout (see {@link #socketTimeout(long, TimeUnit)})
+         * is used.
+         * <p>
+         * Timeout set on a call by {@link FrpcMethodCall#withSocketTimeout(long, TimeUnit)} takes precedence over the
+         * adaptive one. Either of them is further shortened by the deadline of the call, if there is one.
+         * <p>
+         * Turned off by default.
+         *
+         * @param multiplier multiple of the 99th percentile of response times to use as the timeout, typically 2 to 5
+         * @param minTimeout minimum timeout
+         * @param maxTimeout maximum timeout
+         * @param timeUnit   the time unit
+         * @return this {@code Builder} instance so that calls can be chained
+         */
+        public Builder adaptiveSocketTimeout(double multiplier, long minTimeout, long maxTimeout, TimeUnit timeUnit) {
+            if (multiplier < 1) {
+                throw new IllegalArgumentException("Multiplier must be at least 1");
+            }
+            if (minTimeout <= 0 || maxTimeout < minTimeout) {
+                throw new IllegalArgumentException("Timeouts must be positive and minimum must not exceed maximum");
+            }
+            Objects.requireNonNull(timeUnit, "Time unit must not be null");
+            this.adaptiveTimeoutMultiplier = multiplier;
+            this.adaptiveTimeoutMinMillis = timeUnit.toMillis(minTimeout);
+            this.adaptiveTimeoutMaxMillis = timeUnit.toMillis(maxTimeout);
+            return this;
+        }
+
         /**
          * Sets number of repeated calls to a method when a call fails.
-         * Calls are only repeated in case of transport error (connection timeout etc.).
+         * Calls are only repeated in case of transport error (connection timeout etc.) and only if the retry policy
+         * allows it (see {@link #retryPolicy(FrpcRetryPolicy)}).
          *
          * @param attemptCount number of repeated calls to a method when a call fails
          * @return this {@code Builder} instance so that calls can be chained
@@ -216,16 +759,85 @@ public class FrpcClient {
         }
 
         /**
-         * Sets delay between successive tries to get response from a method (see {@link #attemptCount(int)}).
+         * Sets the policy deciding which failed calls are retried and how long to wait before each retry (see
+         * {@link #attemptCount(int)}).
+         * <p>
+         * Defaults to {@link FrpcRetryPolicy} with default settings, that is exponential backoff starting at 50
+         * milliseconds with full jitter, all methods considered idempotent and retry budget of 20 % of successful
+         * calls.
+         *
+         * @param retryPolicy the policy
+         * @return this {@code Builder} instance so that calls can be chained
+         */
+        public Builder retryPolicy(FrpcRetryPolicy retryPolicy) {
+            this.retryPolicy = Objects.requireNonNull(retryPolicy, "Retry policy must not be null");
+            return this;
+        }
+
+        /**
+         * Turns on circuit breakers configured by given configuration. Calls to an endpoint (or a method, see
+         * {@link FrpcCircuitBreakerConfig.Builder#perMethod(boolean)}) which keeps failing are then rejected right
+         * away by {@link FrpcCircuitBreakerOpenException} instead of waiting for timeouts.
+         * <p>
+         * Turned off by default.
+         *
+         * @param config configuration of the circuit breakers
+         * @return this {@code Builder} instance so that calls can be chained
+         * @see FrpcCircuitBreaker
+         */
+        public Builder circuitBreaker(FrpcCircuitBreakerConfig config) {
+            this.circuitBreakerConfig = Objects.requireNonNull(config, "Circuit breaker config must not be null");
+            return this;
+        }
+
+        /**
+         * Turns on caching of results of methods as configured by given configuration. Calls of cached methods are
+         * answered from the cache while their results are fresh, concurrent calls missing the same result are
+         * collapsed into one. Calls of cached methods are never coalesced (see
+         * {@link #coalesceCalls(long, TimeUnit, int, long)}).
+         * <p>
+         * Turned off by default.
+         *
+         * @param config configuration of the cache
+         * @return this {@code Builder} instance so that calls can be chained
+         * @see FrpcResponseCache
+         */
+        public Builder responseCache(FrpcResponseCacheConfig config) {
+            this.responseCacheConfig = Objects.requireNonNull(config, "Response cache config must not be null");
+            return this;
+        }
+
+        /**
+         * Turns on hedging of calls to idempotent methods as described by given policy. A call which gets no response
+         * within the hedging delay is sent once more, to a different endpoint if there is one (see
+         * {@link #urls(Collection)}), and the first response wins. Hedged calls are always sent by the
+         * {@link HttpAsyncClient} (see {@link #usingHttpAsyncClient(HttpAsyncClient)}), even if made by blocking
+         * {@link FrpcMethodCall#getResult()}.
+         * <p>
+         * Turned off by default.
+         *
+         * @param policy the hedging policy
+         * @return this {@code Builder} instance so that calls can be chained
+         * @see FrpcHedgingPolicy
+         */
+        public Builder hedging(FrpcHedgingPolicy policy) {
+            this.hedgingPolicy = Objects.requireNonNull(policy, "Hedging policy must not be null");
+            return this;
+        }
+
+        /**
+         * Sets delay before the first retry of a failed call (see {@link #attemptCount(int)}), overriding the initial
+         * delay of the retry policy (see {@link #retryPolicy(FrpcRetryPolicy)}). Delays before further retries grow
+         * exponentially.
          * <p>
-         * Defaults to zero which means no delay. Negative values are interpreted as no delay as well.
+         * Zero means no delay. Negative values are interpreted as no delay as well.
          *
          * @param delay    the delay
          * @param timeUnit the time unit
          * @return this {@code Builder} instance so that calls can be chained
          */
         public Builder retryDelay(int delay, TimeUnit timeUnit) {
-            this.retryDelay = delay;
+            this.retryDelay = (long) Math.max(delay, 0);
             this.retryDelayTimeUnit = Objects.requireNonNull(timeUnit, "Time unit must not be null");
             return this;
         }
@@ -294,6 +906,38 @@ public class FrpcClient {
             return this;
         }
 
+        /**
+         * Turns on transparent coalescing of calls made via {@link FrpcClient#call(String, Object...)}. Calls issued
+         * (possibly from many threads) within given time window are merged into single {@code system.multicall}
+         * request and each caller gets the result of its own call. The window starts by the first call made after
+         * the previous batch was sent. The batch is sent sooner if it contains {@code maxCalls} calls or if its
+         * estimated size reaches {@code maxBytes} bytes. The server has to support {@code system.multicall}.
+         * <p>
+         * This trades a little latency (at most the length of the window) for fewer {@code HTTP} requests and less
+         * per-request overhead on the server under high fan-in. Calls prepared via
+         * {@link FrpcClient#prepareCall(String, Object...)} are never coalesced.
+         * <p>
+         * Turned off by default.
+         *
+         * @param window   length of the window, typically a few hundred microseconds; zero or negative value turns
+         *                 coalescing off
+         * @param timeUnit time unit of the window
+         * @param maxCalls maximum number of calls in one batch
+         * @param maxBytes maximum estimated size of one batch in bytes; calls bigger than that are sent on their own
+         * @return this {@code Builder} instance so that calls can be chained
+         */
+        public Builder coalesceCalls(long window, TimeUnit timeUnit, int maxCalls, long maxBytes) {
+            if (maxCalls < 1 || maxBytes < 1) {
+                throw new IllegalArgumentException("Maximum number of calls and maximum size of a batch must be " +
+                        "positive");
+            }
+            this.coalescingWindow = window;
+            this.coalescingWindowTimeUnit = Objects.requireNonNull(timeUnit, "Time unit must not be null");
+            this.coalescingMaxCalls = maxCalls;
+            this.coalescingMaxBytes = maxBytes;
+            return this;
+        }
+
         /**
          * Builds a {@link FrpcClient} using properties set on this {@code Builder}. This method first tries to
          * negotiate protocol to be used. Then it constructs new instance of {@code FrpcClient} using proper protocol
@@ -301,15 +945,61 @@ public class FrpcClient {
          *
          * @return new instance of {@code FrpcClient} built from properties set on this builder
          * @throws FrpcTransportException if the protocol specified cannot be used with server on given address
+         * @throws IllegalStateException  if pre-warming is requested along with custom {@link HttpClient}
          * @see #protocol(Protocol, boolean)
+         * @see #prewarm(int, boolean)
          */
         public FrpcClient build() {
+            // ask the supplier for initial endpoints
+            if (urisSupplier != null) {
+                Collection<URI> supplied = urisSupplier.get();
+                if (supplied == null || supplied.isEmpty()) {
+                    throw new IllegalStateException("Supplier of URIs returned no URIs");
+                }
+                uris = new ArrayList<>(supplied);
+            }
+            if (uris == null) {
+                throw new IllegalStateException("URL to call methods against must be set");
+            }
+            // connections of custom HttpClient are out of our control
+            if (prewarmConnections > 0 && httpClient != null) {
+                throw new IllegalStateException("Connections can only be pre-warmed when using default HttpClient");
+            }
             // if no HttpClient was specified, use the default one
             if (httpClient == null) {
-                this.usingDefaultHttpClient();
-                LOGGER.info("No HttpClient specified, using default HttpClient to handle HTTP transport");
+                createDefaultHttpClient();
+                LOGGER.debug("No HttpClient specified, using default HttpClient to handle HTTP transport");
+            }
+
+            try {
+                negotiateProtocol();
+            } catch (RuntimeException e) {
+                // do not leak the connection pool if the client cannot be built
+                closeDefaultHttpClient();
+                throw e;
+            }
+
+            // open connections in advance if requested
+            prewarmConnections();
+
+            // set up the endpoints to spread calls across
+            long socketTimeoutMillis = socketTimeoutTimeUnit.toMillis(socketTimeout);
+            endpointGroup = new FrpcEndpointGroup(uris, loadBalancingStrategy, ejectionFailures,
+                    ejectionLatencyFactor, ejectionTimeUnit.toNanos(ejectionTime), httpClient,
+                    socketTimeoutMillis > 0 ? (int) socketTimeoutMillis : DEFAULT_PROBE_TIMEOUT_MILLIS);
+            if (routingKeyExtractor != null) {
+                endpointGroup.useConsistentHashing(virtualNodes);
             }
+            if (urisSupplier != null) {
+                endpointGroup.refreshPeriodically(urisSupplier,
+                        urisRefreshIntervalTimeUnit.toNanos(urisRefreshInterval));
+            }
+
+            // build the client
+            return new FrpcClient(this);
+        }
 
+        private void negotiateProtocol() {
             try {
                 // try to discover protocols supported by the server
                 Set<Protocol> serverSupportedProtocols = discoverSupportedProtocols();
@@ -360,18 +1050,116 @@ public class FrpcClient {
                 LOGGER.error("Error while trying to discover protocols supported by the server", e);
                 throw new FrpcTransportException("Error while trying to discover protocols supported by the server", e);
             }
+        }
 
-            // build the client
-            return new FrpcClient(httpClient, uri, headers, connectTimeout, connectTimeoutTimeUnit, socketTimeout,
-                    socketTimeoutTimeUnit, retryDelay, retryDelayTimeUnit, maxAttemptCount, implicitParameters,
-                    prependImplicitParams, protocol);
+        private void prewarmConnections() {
+            if (prewarmConnections == 0) {
+                readiness = CompletableFuture.completedFuture(0);
+                return;
+            }
+            // each endpoint is a route of its own, all of them share the total limit
+            int connections = Math.min(prewarmConnections,
+                    Math.min(maxConnectionsPerRoute, Math.max(1, maxConnectionsTotal / uris.size())));
+            List<FrpcConnectionPrewarmer> prewarmers = uris.stream()
+                    .map(endpoint -> new FrpcConnectionPrewarmer(connectionManager, endpoint, connections,
+                            (int) connectTimeoutTimeUnit.toMillis(connectTimeout),
+                            (int) socketTimeoutTimeUnit.toMillis(socketTimeout), keepAliveTimeUnit.toMillis(keepAlive)))
+                    .collect(Collectors.toList());
+            if (prewarmAsync) {
+                List<CompletableFuture<Integer>> futures = prewarmers.stream()
+                        .map(FrpcConnectionPrewarmer::prewarmAsync).collect(Collectors.toList());
+                readiness = CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+                        .thenApply(ignored -> futures.stream().mapToInt(CompletableFuture::join).sum());
+            } else {
+                readiness = CompletableFuture.completedFuture(
+                        prewarmers.stream().mapToInt(FrpcConnectionPrewarmer::prewarm).sum());
+            }
+        }
+
+        private void createDefaultHttpClient() {
+            // create pooling connection manager
+            connectionManager = new PoolingHttpClientConnectionManager(connectionTimeToLive,
+                    connectionTimeToLiveTimeUnit);
+            connectionManager.setMaxTotal(maxConnectionsTotal);
+            connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+            connectionManager.setDefaultSocketConfig(SocketConfig.custom()
+                    .setTcpNoDelay(tcpNoDelay)
+                    .setSoKeepAlive(true)
+                    .setSndBufSize(sendBufferSize)
+                    .setRcvBufSize(receiveBufferSize)
+                    .build());
+            // honor Keep-Alive header sent by the server, fall back to configured duration
+            ConnectionKeepAliveStrategy keepAliveStrategy = (response, context) -> {
+                long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+                return duration > 0 || keepAlive <= 0 ? duration : keepAliveTimeUnit.toMillis(keepAlive);
+            };
+            HttpClientBuilder builder = HttpClientBuilder.create()
+                    .setConnectionManager(connectionManager)
+                    .setKeepAliveStrategy(keepAliveStrategy);
+            if (maxIdleTime > 0) {
+                builder.evictExpiredConnections().evictIdleConnections(maxIdleTime, maxIdleTimeTimeUnit);
+            }
+            httpClient = builder.build();
+        }
+
+        private CloseableHttpAsyncClient createDefaultHttpAsyncClient() {
+            // single reactor multiplexes all connections
+            IOReactorConfig ioReactorConfig = IOReactorConfig.custom()
+                    .setIoThreadCount(ioThreads)
+                    .setTcpNoDelay(tcpNoDelay)
+                    .setSoKeepAlive(true)
+                    .setSndBufSize(sendBufferSize)
+                    .setRcvBufSize(receiveBufferSize)
+                    .build();
+            // honor Keep-Alive header sent by the server, fall back to configured duration
+            ConnectionKeepAliveStrategy keepAliveStrategy = (response, context) -> {
+                long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+                return duration > 0 || keepAlive <= 0 ? duration : keepAliveTimeUnit.toMillis(keepAlive);
+            };
+            CloseableHttpAsyncClient client = HttpAsyncClientBuilder.create()
+                    .setDefaultIOReactorConfig(ioReactorConfig)
+                    .setMaxConnTotal(maxConnectionsTotal)
+                    .setMaxConnPerRoute(maxConnectionsPerRoute)
+                    .setKeepAliveStrategy(keepAliveStrategy)
+                    .setThreadFactory(new FrpcDaemonThreadFactory("frpc-io-"))
+                    .build();
+            client.start();
+            return client;
+        }
+
+        private void closeDefaultHttpClient() {
+            if (connectionManager != null) {
+                try {
+                    ((CloseableHttpClient) httpClient).close();
+                } catch (IOException e) {
+                    LOGGER.warn("Error while closing HttpClient", e);
+                }
+                httpClient = null;
+                connectionManager = null;
+            }
         }
 
         private Set<Protocol> discoverSupportedProtocols() throws IOException {
+            // ask the endpoints one by one, the first one which responds is assumed to speak for all of them
+            IOException lastException = null;
+            for (URI uri : uris) {
+                try {
+                    return discoverSupportedProtocols(uri);
+                } catch (IOException e) {
+                    LOGGER.debug("Endpoint {} did not respond to protocol discovery", uri, e);
+                    lastException = e;
+                }
+            }
+            throw lastException;
+        }
+
+        private Set<Protocol> discoverSupportedProtocols(URI uri) throws IOException {
             // try to do a HEAD request to given URL
             HttpHead head = new HttpHead(uri);
-            head.addHeader(HttpHeaders.ACCEPT, "text/xml, application/x-frpc");
+            head.addHeader(HttpHeaders.ACCEPT, DISCOVERY_ACCEPT_HEADER);
             HttpResponse response = httpClient.execute(head);
+            // HEAD response should not have any body, make sure the connection is released back to the pool anyway
+            EntityUtils.consumeQuietly(response.getEntity());
             // get all "Accept" header values as Set of strings
             Set<String> acceptHeaderValues = Arrays.stream(response.getHeaders(HttpHeaders.ACCEPT))
                     .map(Header::getElements).flatMap(Arrays::stream).map(HeaderElement::getName)
@@ -388,6 +1176,26 @@ public class FrpcClient {
             return result;
         }
 
+        private static URI toUri(String urlString) {
+            try {
+                return new URI(Objects.requireNonNull(urlString, "Given URI string must not be null"));
+            } catch (URISyntaxException e) {
+                throw new IllegalArgumentException("Value " + urlString + " is not a valid URI");
+            }
+        }
+
+        private static List<URI> readUris(Path file) {
+            try {
+                return Files.readAllLines(file, StandardCharsets.UTF_8).stream()
+                        .map(String::trim)
+                        .filter(line -> !line.isEmpty() && !line.startsWith("#"))
+                        .map(Builder::toUri)
+                        .collect(Collectors.toList());
+            } catch (IOException e) {
+                throw new UncheckedIOException("Error while reading URIs from " + file, e);
+            }
+        }
+
     }
 
     /**
@@ -409,12 +1217,187 @@ public class FrpcClient {
     }
 
     /**
-     * Returns {@code URI} to which requests are sent when calling {@code FRPC} methods.
+     * Returns {@code HttpAsyncClient} used to handle {@code HTTP} transport of asynchronous calls. Unless a custom
+     * client was given to {@link Builder#usingHttpAsyncClient(HttpAsyncClient)}, the default one is created and
+     * started by the first call of this method.
+     *
+     * @return {@code HttpAsyncClient} used to handle {@code HTTP} transport of asynchronous calls
+     * @throws IllegalStateException if this client has already been closed
+     */
+    public HttpAsyncClient getHttpAsyncClient() {
+        HttpAsyncClient client = httpAsyncClient;
+        if (client == null) {
+            synchronized (lazyInitLock) {
+                checkNotClosed();
+                if (httpAsyncClient == null) {
+                    LOGGER.debug("No HttpAsyncClient specified, creating default HttpAsyncClient");
+                    httpAsyncClient = httpAsyncClientFactory.get();
+                    ownsHttpAsyncClient = true;
+                }
+                client = httpAsyncClient;
+            }
+        }
+        return client;
+    }
+
+    /**
+     * Returns scheduler used to delay retries of asynchronous calls, creating it on first use.
+     *
+     * @return scheduler used to delay retries of asynchronous calls
+     */
+    ScheduledExecutorService getScheduler() {
+        ScheduledExecutorService result = scheduler;
+        if (result == null) {
+            synchronized (lazyInitLock) {
+                checkNotClosed();
+                if (scheduler == null) {
+                    scheduler = Executors.newSingleThreadScheduledExecutor(
+                            new FrpcDaemonThreadFactory("frpc-client-timer-"));
+                }
+                result = scheduler;
+            }
+        }
+        return result;
+    }
+
+    private void checkNotClosed() {
+        if (closed) {
+            throw new IllegalStateException("This " + FrpcClient.class.getSimpleName() + " has been closed");
+        }
+    }
+
+    /**
+     * Returns statistics of the connection pool of default {@link HttpClient}, that is the number of leased, pending
+     * (waiting for a connection) and available connections and the maximum number of connections. Returns
+     * {@code null} if this {@code FrpcClient} uses custom {@code HttpClient} given to
+     * {@link Builder#usingHttpClient(HttpClient)}.
+     *
+     * @return statistics of the connection pool or {@code null} if the pool is not managed by this client
+     */
+    public PoolStats getConnectionPoolStats() {
+        return connectionManager == null ? null : connectionManager.getTotalStats();
+    }
+
+    /**
+     * Returns a future completed once the connections requested by {@link Builder#prewarm(int, boolean)} are open.
+     * The future is completed by the number of connections actually put into the connection pool. If pre-warming was
+     * not requested or was synchronous, the future is already completed.
+     *
+     * @return future completed once the connection pool is pre-warmed
+     */
+    public CompletableFuture<Integer> getReadiness() {
+        return readiness;
+    }
+
+    /**
+     * Releases resources held by this client. Calls waiting to be coalesced are sent and batches already in flight
+     * are waited for (at most {@value #COALESCER_SHUTDOWN_TIMEOUT_SECONDS} seconds) before any client is closed.
+     * Default {@link HttpClient} and {@link HttpAsyncClient} (along with all pooled connections) are closed, custom
+     * clients given to {@link Builder#usingHttpClient(HttpClient)} or
+     * {@link Builder#usingHttpAsyncClient(HttpAsyncClient)} are left untouched as they are owned by the caller.
+     *
+     * @throws IOException if any of the clients could not be closed
+     */
+    @Override
+    public void close() throws IOException {
+        if (coalescer != null && !coalescer.shutdown(COALESCER_SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            LOGGER.warn("Coalesced batches still in flight after {} seconds, closing the client anyway",
+                    COALESCER_SHUTDOWN_TIMEOUT_SECONDS);
+        }
+        endpointGroup.shutdown();
+        if (responseCache != null) {
+            responseCache.close();
+        }
+        synchronized (lazyInitLock) {
+            closed = true;
+            if (scheduler != null) {
+                scheduler.shutdownNow();
+            }
+            if (ownsHttpAsyncClient) {
+                ((CloseableHttpAsyncClient) httpAsyncClient).close();
+            }
+        }
+        if (connectionManager != null) {
+            ((CloseableHttpClient) httpClient).close();
+        }
+    }
+
+    /**
+     * Returns {@code URI} to which requests are sent when calling {@code FRPC} methods. If calls are spread across
+     * multiple endpoints, {@code URI} of the first one is returned.
      *
      * @return {@code URI} to which requests are sent when calling {@code FRPC} methods
+     * @see #getEndpoints()
      */
     public URI getUri() {
-        return uri;
+        return endpointGroup.getEndpoints().get(0).getUri();
+    }
+
+    /**
+     * Returns current endpoints calls are spread across, along with their statistics.
+     *
+     * @return unmodifiable list of current endpoints
+     * @see Builder#urls(Collection)
+     */
+    public List<FrpcEndpoint> getEndpoints() {
+        return endpointGroup.getEndpoints();
+    }
+
+    /**
+     * Replaces endpoints calls are spread across. Endpoints present both before and after the update keep their
+     * statistics. Calls in flight are not affected.
+     *
+     * @param uris {@code URI}s of the new endpoints
+     * @throws IllegalArgumentException if given collection is empty
+     */
+    public void updateEndpoints(Collection<URI> uris) {
+        endpointGroup.update(uris);
+    }
+
+    /**
+     * Extracts the routing key of a call of given method with given regular parameters.
+     *
+     * @param method     name of the method
+     * @param parameters regular parameters of the call
+     * @return the routing key or {@code null} if consistent hashing is turned off or the call has no key
+     * @see Builder#consistentHashing(Function, int)
+     */
+    Object getRoutingKey(String method, List<Object> parameters) {
+        // batches mix calls with different keys
+        if (routingKeyExtractor == null || FrpcMulticallUtils.MULTICALL_METHOD_NAME.equals(method)) {
+            return null;
+        }
+        return routingKeyExtractor.apply(new FrpcRequest(method, parameters));
+    }
+
+    /**
+     * Picks an endpoint to send an attempt of a call of given method to. Endpoints guarded by an open circuit breaker
+     * are avoided if possible.
+     *
+     * @param method     name of the method
+     * @param routingKey routing key of the call, may be {@code null}
+     * @param previous   endpoint the previous attempt was sent to, {@code null} for the first attempt
+     * @return the endpoint to send the attempt to
+     */
+    FrpcEndpoint selectEndpoint(String method, Object routingKey, FrpcEndpoint previous) {
+        if (circuitBreakerConfig == null) {
+            return endpointGroup.select(routingKey, endpoint -> true, previous);
+        }
+        return endpointGroup.select(routingKey, endpoint -> {
+            FrpcCircuitBreaker circuitBreaker = circuitBreakers.get(getCircuitBreakerName(endpoint.getUri(), method));
+            return circuitBreaker == null || circuitBreaker.getRetryAfter(TimeUnit.NANOSECONDS) == 0;
+        }, previous);
+    }
+
+    /**
+     * Records the outcome of an attempt sent to given endpoint.
+     *
+     * @param endpoint      the endpoint
+     * @param durationNanos duration of the attempt
+     * @param failed        whether the attempt failed
+     */
+    void onRequestFinished(FrpcEndpoint endpoint, long durationNanos, boolean failed) {
+        endpointGroup.onRequestFinished(endpoint, durationNanos, failed);
     }
 
     /**
@@ -442,15 +1425,160 @@ public class FrpcClient {
     }
 
     /**
-     * Returns retry delay in given {@link TimeUnit}.
+     * Returns the delay before the first retry in given {@link TimeUnit}.
      *
      * @param timeUnit time unit to convert the value to
      * @return retry delay in given {@link TimeUnit}
      * @see Builder#retryDelay(int, TimeUnit)
      */
     public long getRetryDelay(TimeUnit timeUnit) {
-        return Objects.requireNonNull(timeUnit, "Time unit cannot be null")
-                .convert(retryDelay, retryDelayTimeUnit);
+        return retryPolicy.getInitialDelay(Objects.requireNonNull(timeUnit, "Time unit cannot be null"));
+    }
+
+    /**
+     * Returns the policy deciding which failed calls are retried and how long to wait before each retry.
+     *
+     * @return the retry policy
+     * @see Builder#retryPolicy(FrpcRetryPolicy)
+     */
+    public FrpcRetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Returns an unmodifiable view of circuit breakers created so far by their names. The name is the {@code URI} of
+     * the endpoint, followed by {@code #} and the name of the method if there is a breaker per method. The map is empty
+     * if circuit breakers are turned off.
+     *
+     * @return an unmodifiable view of circuit breakers
+     * @see Builder#circuitBreaker(FrpcCircuitBreakerConfig)
+     */
+    public Map<String, FrpcCircuitBreaker> getCircuitBreakers() {
+        return Collections.unmodifiableMap(circuitBreakers);
+    }
+
+    /**
+     * Returns circuit breaker guarding calls of given method to given endpoint, creating it if necessary.
+     *
+     * @param endpoint {@code URI} of the endpoint
+     * @param method   name of the method
+     * @return the circuit breaker or {@code null} if circuit breakers are turned off
+     */
+    FrpcCircuitBreaker getCircuitBreaker(URI endpoint, String method) {
+        if (circuitBreakerConfig == null) {
+            return null;
+        }
+        return circuitBreakers.computeIfAbsent(getCircuitBreakerName(endpoint, method),
+                name -> new FrpcCircuitBreaker(name, circuitBreakerConfig));
+    }
+
+    private String getCircuitBreakerName(URI endpoint, String method) {
+        return circuitBreakerConfig.isPerMethod() ? endpoint + "#" + method : endpoint.toString();
+    }
+
+    /**
+     * Returns the policy deciding which calls are hedged and when.
+     *
+     * @return the hedging policy or {@code null} if hedging is turned off
+     * @see Builder#hedging(FrpcHedgingPolicy)
+     */
+    public FrpcHedgingPolicy getHedgingPolicy() {
+        return hedgingPolicy;
+    }
+
+    /**
+     * Returns the budget limiting hedges of calls made by this client. Allowed retries of the budget are the hedges
+     * sent, rejected retries are the hedges suppressed because the budget was exhausted.
+     *
+     * @return the hedging budget or {@code null} if hedging is turned off
+     * @see FrpcHedgingPolicy.Builder#maxHedgeRatio(double)
+     */
+    public FrpcRetryBudget getHedgingBudget() {
+        return hedgingBudget;
+    }
+
+    /**
+     * Returns the number of hedged calls completed by the response to the hedge rather than to the original request.
+     *
+     * @return the number of hedges which won
+     */
+    public long getHedgesWon() {
+        return hedgesWon.sum();
+    }
+
+    /**
+     * Returns recent response times of given method. Response times are only tracked if some feature needs them,
+     * such as adaptive hedging delay (see {@link FrpcHedgingPolicy.Builder#adaptiveDelay(double, long, long,
+     * TimeUnit)}) or adaptive socket timeouts (see {@link Builder#adaptiveSocketTimeout(double, long, long,
+     * TimeUnit)}).
+     *
+     * @param method name of the method
+     * @return recent response times of given method or {@code null} if none have been recorded
+     */
+    public FrpcLatencyHistogram getLatencyHistogram(String method) {
+        return latencies.get(Objects.requireNonNull(method));
+    }
+
+    /**
+     * Records response time of a successful attempt of a call of given method if response times are tracked.
+     *
+     * @param method        name of the method
+     * @param durationNanos the response time in nanoseconds
+     */
+    void recordLatency(String method, long durationNanos) {
+        if (adaptiveTimeoutMultiplier > 0 || (hedgingPolicy != null && hedgingPolicy.isAdaptive())) {
+            latencies.computeIfAbsent(method, m -> new FrpcLatencyHistogram(LATENCY_WINDOW_NANOS))
+                    .record(durationNanos);
+        }
+    }
+
+    /**
+     * Returns the response cache of this client.
+     *
+     * @return the response cache or {@code null} if results are not cached
+     * @see Builder#responseCache(FrpcResponseCacheConfig)
+     */
+    public FrpcResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    /**
+     * Returns current adaptive socket timeout of given method.
+     *
+     * @param method   name of the method
+     * @param timeUnit time unit to convert the value to
+     * @return the adaptive socket timeout or -1 if adaptive timeouts are turned off or not enough calls of the method
+     * have been made yet
+     * @see Builder#adaptiveSocketTimeout(double, long, long, TimeUnit)
+     */
+    public long getAdaptiveSocketTimeout(String method, TimeUnit timeUnit) {
+        Objects.requireNonNull(timeUnit, "Time unit cannot be null");
+        if (adaptiveTimeoutMultiplier <= 0) {
+            return -1;
+        }
+        FrpcLatencyHistogram histogram = latencies.get(Objects.requireNonNull(method));
+        if (histogram == null || histogram.getCount() < FrpcLatencyHistogram.MIN_SAMPLES) {
+            return -1;
+        }
+        // microseconds keep the precision for methods responding within a millisecond
+        long p99Micros = histogram.getPercentile(99, TimeUnit.MICROSECONDS);
+        long timeoutMillis = (long) Math.ceil(adaptiveTimeoutMultiplier * p99Micros / 1000);
+        timeoutMillis = Math.min(adaptiveTimeoutMaxMillis, Math.max(adaptiveTimeoutMinMillis, timeoutMillis));
+        return timeUnit.convert(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    void onHedgeWon() {
+        hedgesWon.increment();
+    }
+
+    /**
+     * Returns the retry budget shared by all calls made by this client, which also provides statistics of allowed
+     * and rejected retries.
+     *
+     * @return the retry budget
+     */
+    public FrpcRetryBudget getRetryBudget() {
+        return retryBudget;
     }
 
     /**
@@ -505,6 +1633,16 @@ public class FrpcClient {
         return Collections.unmodifiableList(implicitParameters);
     }
 
+    /**
+     * Returns whether implicit parameters are serialized before regular method parameters.
+     *
+     * @return {@code true} if implicit parameters are prepended and {@code false} if they are appended
+     * @see Builder#implicitParameters(boolean, Object...)
+     */
+    boolean isPrependImplicitParams() {
+        return prependImplicitParams;
+    }
+
     /**
      * Prepares call to method of given name with given parameters and returns it without executing. This can be useful
      * for one-time overrides of properties set to this {@code FrpcClient}.
@@ -518,20 +1656,109 @@ public class FrpcClient {
         Objects.requireNonNull(method);
         List<Object> paramsAsList = Arrays.asList(Objects.requireNonNull(params));
         // and create FrpcMethodCall object
-        return new FrpcMethodCall(httpClient, uri, protocol, implicitParameters, prependImplicitParams, headers,
-                maxAttemptCount, retryDelay, retryDelayTimeUnit, method, paramsAsList);
+        return new FrpcMethodCall(this, method, paramsAsList);
+    }
+
+    /**
+     * Creates new {@link FrpcBatch} which collects method calls and executes them using single
+     * {@code system.multicall} request.
+     *
+     * @return new, empty {@code FrpcBatch}
+     */
+    public FrpcBatch batch() {
+        return new FrpcBatch(this);
     }
 
     /**
      * Prepares call to method of given name with given parameters and executes it right away. The result of remote
      * method is then returned.
+     * <p>
+     * If call coalescing is turned on (see {@link Builder#coalesceCalls(long, TimeUnit, int, long)}), the call may be
+     * sent to the server as a part of {@code system.multicall} request along with calls made by other threads.
      *
      * @param method name of the {@code FRPC} method to call
      * @param params {@code FRPC} method params
      * @return result of remote method invocation wrapped in {@code FrpcCallResult}
      */
     public FrpcCallResult<Object> call(String method, Object... params) {
-        return prepareCall(method, params).getResult();
+        return execute(prepareCall(method, params));
+    }
+
+    /**
+     * Prepares an immutable template of calls to method of given name. The template resolves everything the calls
+     * have in common just once, including the serialized method name and implicit parameters, so it is cheaper to
+     * call often called methods through it. Templates are thread-safe and meant to be created once and reused.
+     *
+     * @param method     name of the {@code FRPC} method to call
+     * @param resultType type to convert results of the method to
+     * @param <T>        type of the results
+     * @return new call template
+     */
+    public <T> FrpcPreparedCall<T> prepare(String method, Class<T> resultType) {
+        return new FrpcPreparedCall<>(this, method, Objects.requireNonNull(resultType, "Type must not be null"));
+    }
+
+    /**
+     * Prepares an immutable template of calls to method of given name whose results are converted to type described
+     * by given {@code FrpcType}.
+     *
+     * @param method     name of the {@code FRPC} method to call
+     * @param resultType object describing the type to convert results of the method to
+     * @param <T>        type of the results
+     * @return new call template
+     * @see #prepare(String, Class)
+     */
+    public <T> FrpcPreparedCall<T> prepare(String method, FrpcType<T> resultType) {
+        return new FrpcPreparedCall<>(this, method,
+                Objects.requireNonNull(resultType, "Type must not be null").getGenericType());
+    }
+
+    FrpcCallResult<Object> execute(FrpcMethodCall methodCall) {
+        if (!isCoalesced(methodCall)) {
+            return methodCall.getResult();
+        }
+        try {
+            return coalescer.submit(methodCall).join();
+        } catch (CompletionException e) {
+            // rethrow the original exception
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Prepares call to method of given name with given parameters and executes it asynchronously. This method does
+     * not block, the result of remote method is delivered by returned future. Cancelling the future aborts the call.
+     * <p>
+     * If call coalescing is turned on (see {@link Builder#coalesceCalls(long, TimeUnit, int, long)}), the call may be
+     * sent to the server as a part of {@code system.multicall} request along with other calls. Such calls cannot be
+     * aborted by cancelling the future.
+     *
+     * @param method name of the {@code FRPC} method to call
+     * @param params {@code FRPC} method params
+     * @return future completed by the result of remote method invocation wrapped in {@code FrpcCallResult}
+     * @see FrpcMethodCall#getResultAsync()
+     */
+    public CompletableFuture<FrpcCallResult<Object>> callAsync(String method, Object... params) {
+        return executeAsync(prepareCall(method, params));
+    }
+
+    CompletableFuture<FrpcCallResult<Object>> executeAsync(FrpcMethodCall methodCall) {
+        if (!isCoalesced(methodCall)) {
+            return methodCall.getResultAsync();
+        }
+        return coalescer.submit(methodCall);
+    }
+
+    private boolean isCoalesced(FrpcMethodCall methodCall) {
+        String method = methodCall.getMethod();
+        // cached methods are answered from the cache rather than as a part of a multicall, projections and
+        // priorities only apply to whole requests
+        return coalescer != null && !FrpcMulticallUtils.MULTICALL_METHOD_NAME.equals(method) &&
+                (responseCache == null || !responseCache.isCached(method)) && methodCall.getProjection() == null &&
+                methodCall.getPriority() == null;
     }
 
 }
@@ -0,0 +1,186 @@
+package cz.seznam.frpc.client;
+
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.DefaultConnectionReuseStrategy;
+import org.apache.http.impl.conn.DefaultSchemePortResolver;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.message.BasicHttpRequest;
+import org.apache.http.protocol.HttpRequestExecutor;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Opens given number of keep-alive connections to the server and puts them into the connection pool of default
+ * {@code HttpClient} so that the first calls made by a new {@link FrpcClient} do not pay for establishing connections.
+ * All connections are leased from the pool at once (otherwise the pool would keep handing out the same connection),
+ * each one is validated by the same {@code HEAD} request {@link FrpcClient.Builder} uses to discover protocols
+ * supported by the server and all of them are released back to the pool afterwards.
+ *
+ * @author David Moidl david.moidl@firma.seznam.cz
+ */
+class FrpcConnectionPrewarmer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FrpcConnectionPrewarmer.class);
+
+    private static final int MAX_THREADS = 16;
+
+    private PoolingHttpClientConnectionManager connectionManager;
+    private URI uri;
+    private int connections;
+    private int connectTimeoutMillis;
+    private int socketTimeoutMillis;
+    private long keepAliveMillis;
+
+    /**
+     * Creates new instance from given arguments.
+     *
+     * @param connectionManager    connection manager to put the connections into
+     * @param uri                  {@code URI} of the server
+     * @param connections          number of connections to open
+     * @param connectTimeoutMillis connect timeout in milliseconds, zero or negative value means no timeout
+     * @param socketTimeoutMillis  socket timeout in milliseconds, zero or negative value means no timeout
+     * @param keepAliveMillis      how long the connections may be kept alive in the pool, zero or negative value means
+     *                             indefinitely
+     */
+    FrpcConnectionPrewarmer(PoolingHttpClientConnectionManager connectionManager, URI uri, int connections,
+                            int connectTimeoutMillis, int socketTimeoutMillis, long keepAliveMillis) {
+        this.connectionManager = Objects.requireNonNull(connectionManager);
+        this.uri = Objects.requireNonNull(uri);
+        this.connections = connections;
+        this.connectTimeoutMillis = Math.max(connectTimeoutMillis, 0);
+        this.socketTimeoutMillis = Math.max(socketTimeoutMillis, 0);
+        this.keepAliveMillis = keepAliveMillis;
+    }
+
+    /**
+     * Opens and validates the connections from a background daemon thread.
+     *
+     * @return future completed by the number of connections successfully put into the pool
+     */
+    CompletableFuture<Integer> prewarmAsync() {
+        CompletableFuture<Integer> readiness = new CompletableFuture<>();
+        new FrpcDaemonThreadFactory("frpc-prewarm-").newThread(() -> {
+            try {
+                readiness.complete(prewarm());
+            } catch (RuntimeException e) {
+                readiness.completeExceptionally(e);
+            }
+        }).start();
+        return readiness;
+    }
+
+    /**
+     * Opens and validates the connections, blocking until all of them are either put into the pool or failed.
+     * Failures are logged rather than thrown since the client is usable even with a cold pool.
+     *
+     * @return the number of connections successfully put into the pool
+     */
+    int prewarm() {
+        HttpRoute route = createRoute();
+        long start = System.nanoTime();
+        // open the connections in parallel, each task holds its connection until all of them are done
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(connections, MAX_THREADS),
+                new FrpcDaemonThreadFactory("frpc-prewarm-worker-"));
+        List<CompletableFuture<HttpClientConnection>> futures = new ArrayList<>(connections);
+        try {
+            for (int i = 0; i < connections; i++) {
+                futures.add(CompletableFuture.supplyAsync(() -> openConnection(route), executor));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        } finally {
+            executor.shutdown();
+        }
+        // now release all validated connections back to the pool
+        int warmed = 0;
+        for (CompletableFuture<HttpClientConnection> future : futures) {
+            HttpClientConnection connection = future.join();
+            if (connection != null) {
+                connectionManager.releaseConnection(connection, null, keepAliveMillis, TimeUnit.MILLISECONDS);
+                warmed++;
+            }
+        }
+        LOGGER.debug("Pre-warmed {} of {} connections to {} in {} ms", warmed, connections, route.getTargetHost(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        if (warmed < connections) {
+            LOGGER.warn("Only {} of {} connections to {} could be pre-warmed", warmed, connections,
+                    route.getTargetHost());
+        }
+        return warmed;
+    }
+
+    private HttpClientConnection openConnection(HttpRoute route) {
+        HttpClientConnection connection = null;
+        try {
+            // lease the connection, the pool has enough room for all of them so this does not block for long
+            connection = connectionManager.requestConnection(route, null)
+                    .get(connectTimeoutMillis == 0 ? Long.MAX_VALUE : connectTimeoutMillis, TimeUnit.MILLISECONDS);
+            HttpClientContext context = HttpClientContext.create();
+            // connect it unless it is already open (like the one used for protocol discovery)
+            if (!connection.isOpen()) {
+                connectionManager.connect(connection, route, connectTimeoutMillis, context);
+                connectionManager.routeComplete(connection, route, context);
+            }
+            connection.setSocketTimeout(socketTimeoutMillis);
+            // validate the connection by a HEAD request
+            HttpResponse response = probe(connection, route.getTargetHost(), context);
+            EntityUtils.consumeQuietly(response.getEntity());
+            if (!DefaultConnectionReuseStrategy.INSTANCE.keepAlive(response, context)) {
+                throw new IllegalStateException("Server does not keep the connection alive");
+            }
+            return connection;
+        } catch (Exception e) {
+            LOGGER.debug("Could not pre-warm connection to {}", route.getTargetHost(), e);
+            if (connection != null) {
+                // do not return broken connection to the pool
+                try {
+                    connection.close();
+                } catch (Exception closeException) {
+                    LOGGER.debug("Error while closing connection", closeException);
+                }
+                connectionManager.releaseConnection(connection, null, 0, TimeUnit.MILLISECONDS);
+            }
+            return null;
+        }
+    }
+
+    private HttpResponse probe(HttpClientConnection connection, HttpHost target, HttpClientContext context)
+            throws Exception {
+        String path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+        if (uri.getRawQuery() != null) {
+            path += "?" + uri.getRawQuery();
+        }
+        BasicHttpRequest head = new BasicHttpRequest("HEAD", path, HttpVersion.HTTP_1_1);
+        head.addHeader(HttpHeaders.HOST, target.toHostString());
+        head.addHeader(HttpHeaders.ACCEPT, FrpcClient.Builder.DISCOVERY_ACCEPT_HEADER);
+        return new HttpRequestExecutor().execute(head, connection, context);
+    }
+
+    private HttpRoute createRoute() {
+        // the route has to be equal to the one HttpClient uses for requests to the same URI, that is with explicit port
+        HttpHost host = new HttpHost(uri.getHost(), uri.getPort(), uri.getScheme());
+        try {
+            host = new HttpHost(host.getHostName(), DefaultSchemePortResolver.INSTANCE.resolve(host),
+                    host.getSchemeName());
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Cannot determine port of " + uri, e);
+        }
+        return new HttpRoute(host, null, "https".equalsIgnoreCase(host.getSchemeName()));
+    }
+
+}
@@ -0,0 +1,34 @@
+package cz.seznam.frpc.client;
+
+import java.util.Objects;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link ThreadFactory} creating daemon threads named by given prefix followed by a sequence number. Background threads
+ * of {@link FrpcClient} are daemons so that they never prevent the JVM from exiting.
+ *
+ * @author David Moidl david.moidl@firma.seznam.cz
+ */
+class FrpcDaemonThreadFactory implements ThreadFactory {
+
+    private final String namePrefix;
+    private final AtomicInteger counter = new AtomicInteger();
+
+    /**
+     * Creates new instance naming threads by given prefix.
+     *
+     * @param namePrefix prefix of the names of created threads
+     */
+    FrpcDaemonThreadFactory(String namePrefix) {
+        this.namePrefix = Objects.requireNonNull(namePrefix);
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, namePrefix + counter.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    }
+
+}
@@ -0,0 +1,211 @@
+package cz.seznam.frpc.client;
+
+import java.net.URI;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single endpoint (replica of a backend) {@link FrpcClient} spreads calls across, along with live statistics used for
+ * load balancing and outlier ejection: the number of requests in flight, exponentially weighted moving average of
+ * response times and the number of consecutive failures.
+ *
+ * @author David Moidl david.moidl@firma.seznam.cz
+ * @see FrpcClient.Builder#urls(java.util.Collection)
+ */
+public class FrpcEndpoint {
+
+    /**
+     * Weight of the newest sample in the moving average of response times.
+     */
+    private static final double EWMA_ALPHA = 0.2;
+    /**
+     * Upper bound of the factor recent ejections prolong the base ejection time by.
+     */
+    private static final int MAX_EJECTION_MULTIPLIER = 10;
+
+    private URI uri;
+
+    private final AtomicInteger outstandingRequests = new AtomicInteger();
+    private final AtomicLong latencyEwmaBits = new AtomicLong(Double.doubleToLongBits(0));
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private volatile long ejectedUntilNanos;
+    private volatile boolean ejected;
+    private volatile int ejectionCount;
+    private long healthySinceNanos;
+
+    /**
+     * Creates new endpoint of given {@code URI}.
+     *
+     * @param uri {@code URI} of the endpoint
+     */
+    FrpcEndpoint(URI uri) {
+        this.uri = Objects.requireNonNull(uri);
+    }
+
+    /**
+     * Returns the {@code URI} of this endpoint.
+     *
+     * @return the {@code URI} of this endpoint
+     */
+    public URI getUri() {
+        return uri;
+    }
+
+    /**
+     * Returns the number of requests to this endpoint currently in flight.
+     *
+     * @return the number of requests to this endpoint currently in flight
+     */
+    public int getOutstandingRequests() {
+        return outstandingRequests.get();
+    }
+
+    /**
+     * Returns exponentially weighted moving average of response times of this endpoint.
+     *
+     * @param timeUnit time unit to convert the value to
+     * @return moving average of response times, zero if no request has finished yet
+     */
+    public long getLatencyEwma(TimeUnit timeUnit) {
+        return timeUnit.convert((long) getLatencyEwmaNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the number of requests to this endpoint which failed in a row.
+     *
+     * @return the number of consecutive failures
+     */
+    public int getConsecutiveFailures() {
+        return consecutiveFailures.get();
+    }
+
+    /**
+     * Checks whether this endpoint is currently ejected from load balancing.
+     *
+     * @return {@code true} if this endpoint is ejected and {@code false} otherwise
+     */
+    public boolean isEjected() {
+        return ejected;
+    }
+
+    /**
+     * Returns how many times this endpoint has been ejected recently, including failed probes which prolonged an
+     * ejection. The count survives readmission and drops by one for every base ejection time the endpoint then stays
+     * healthy, so that an endpoint which keeps failing soon after being readmitted is ejected for longer and longer.
+     *
+     * @return the number of recent ejections
+     */
+    public int getEjectionCount() {
+        return ejectionCount;
+    }
+
+    @Override
+    public String toString() {
+        return uri.toString();
+    }
+
+    void onRequestStarted() {
+        outstandingRequests.incrementAndGet();
+    }
+
+    void onRequestFinished(long durationNanos, boolean failed) {
+        outstandingRequests.decrementAndGet();
+        if (failed) {
+            consecutiveFailures.incrementAndGet();
+        } else {
+            consecutiveFailures.set(0);
+        }
+        // failures tend to be either very fast or timeouts, neither says much about normal response times
+        if (!failed) {
+            long previousBits;
+            double updated;
+            do {
+                previousBits = latencyEwmaBits.get();
+                double previous = Double.longBitsToDouble(previousBits);
+                updated = previous == 0 ? durationNanos : previous + EWMA_ALPHA * (durationNanos - previous);
+            } while (!latencyEwmaBits.compareAndSet(previousBits, Double.doubleToLongBits(updated)));
+        }
+    }
+
+    void onRequestAbandoned() {
+        outstandingRequests.decrementAndGet();
+    }
+
+    double getLatencyEwmaNanos() {
+        return Double.longBitsToDouble(latencyEwmaBits.get());
+    }
+
+    /**
+     * Computes the cost of sending a request to this endpoint for power-of-two-choices load balancing: the expected
+     * latency scaled by the number of requests which would be in flight.
+     *
+     * @return the cost of sending a request to this endpoint
+     */
+    double getCost() {
+        return getLatencyEwmaNanos() * (outstandingRequests.get() + 1);
+    }
+
+    /**
+     * Ejects this endpoint for given base time multiplied by the number of its recent ejections (this one included).
+     *
+     * @param durationNanos base ejection time
+     */
+    synchronized void eject(long durationNanos) {
+        forgiveEjections(durationNanos);
+        ejectUntil(durationNanos);
+        ejected = true;
+    }
+
+    /**
+     * Readmits this endpoint to load balancing. The number of recent ejections is kept, it only decreases once the
+     * endpoint stays healthy for a while (see {@link #forgiveEjections(long)}).
+     */
+    synchronized void readmit() {
+        ejected = false;
+        healthySinceNanos = System.nanoTime();
+        consecutiveFailures.set(0);
+        // forget the latency which got the endpoint ejected
+        latencyEwmaBits.set(Double.doubleToLongBits(0));
+    }
+
+    boolean isEjectionElapsed() {
+        return System.nanoTime() - ejectedUntilNanos >= 0;
+    }
+
+    /**
+     * Keeps this endpoint ejected after a failed probe. The failed probe counts as another ejection, so the
+     * endpoint is ejected for longer than the last time.
+     *
+     * @param durationNanos base ejection time
+     */
+    synchronized void extendEjection(long durationNanos) {
+        ejectUntil(durationNanos);
+    }
+
+    /**
+     * Decreases the number of recent ejections by one for every {@code durationNanos} this endpoint has been healthy
+     * since it was readmitted. Does nothing while the endpoint is ejected.
+     *
+     * @param durationNanos base ejection time
+     */
+    synchronized void forgiveEjections(long durationNanos) {
+        if (ejected || ejectionCount == 0) {
+            return;
+        }
+        long healthyPeriods = (System.nanoTime() - healthySinceNanos) / durationNanos;
+        if (healthyPeriods > 0) {
+            int forgiven = (int) Math.min(healthyPeriods, ejectionCount);
+            ejectionCount -= forgiven;
+            healthySinceNanos += forgiven * durationNanos;
+        }
+    }
+
+    private void ejectUntil(long durationNanos) {
+        // the count is capped so that even the longest ejection is forgiven in bounded time
+        ejectionCount = Math.min(ejectionCount + 1, MAX_EJECTION_MULTIPLIER);
+        ejectedUntilNanos = System.nanoTime() + durationNanos * ejectionCount;
+    }
+
+}
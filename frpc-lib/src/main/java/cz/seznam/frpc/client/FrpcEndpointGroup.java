@@ -0,0 +1,355 @@
+package cz.seznam.frpc.client;
+
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Set of endpoints {@link FrpcClient} spreads calls across. Picks an endpoint for each request using configured
+ * {@link FrpcLoadBalancingStrategy}, ejects endpoints which fail repeatedly or respond abnormally slowly, probes ejected
+ * endpoints and readmits them once they respond again and periodically refreshes the list of endpoints if it is given
+ * by a supplier.
+ * <p>
+ * At most half of the endpoints can be ejected at any time so that a global problem (rather than a problem of few
+ * replicas) does not empty the group. If there is no endpoint to choose from anyway, ejected endpoints are used too.
+ * <p>
+ * If consistent hashing is turned on, requests with a routing key are sent to the endpoint owning the key on a
+ * {@link FrpcHashRing} instead, falling back to the next endpoint on the ring if the owner is not usable.
+ *
+ * @author David Moidl david.moidl@firma.seznam.cz
+ */
+class FrpcEndpointGroup {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FrpcEndpointGroup.class);
+
+    private static final long HEALTH_CHECK_PERIOD_MILLIS = 1000;
+    private static final int MIN_ENDPOINTS_FOR_LATENCY_CHECK = 3;
+
+    private volatile List<FrpcEndpoint> endpoints;
+    private FrpcLoadBalancingStrategy strategy;
+    private int ejectionFailures;
+    private double ejectionLatencyFactor;
+    private long ejectionNanos;
+    private HttpClient httpClient;
+    private RequestConfig probeConfig;
+    private ScheduledExecutorService scheduler;
+    private int virtualNodes;
+    private volatile FrpcHashRing ring;
+
+    /**
+     * Creates new group from given arguments.
+     *
+     * @param uris                  initial {@code URI}s of the endpoints
+     * @param strategy              load balancing strategy
+     * @param ejectionFailures      number of consecutive failures after which an endpoint is ejected, zero or negative
+     *                              value turns outlier ejection off
+     * @param ejectionLatencyFactor an endpoint is ejected if the moving average of its response times exceeds the
+     *                              median of all endpoints this many times, zero or negative value turns this check off
+     * @param ejectionNanos         base time for which endpoints are ejected, multiplied by the number of recent
+     *                              ejections of the same endpoint (see {@link FrpcEndpoint#getEjectionCount()})
+     * @param httpClient            client used to probe ejected endpoints
+     * @param probeTimeoutMillis    connect and socket timeout of probes
+     */
+    FrpcEndpointGroup(Collection<URI> uris, FrpcLoadBalancingStrategy strategy, int ejectionFailures,
+                      double ejectionLatencyFactor, long ejectionNanos, HttpClient httpClient,
+                      int probeTimeoutMillis) {
+        this.strategy = Objects.requireNonNull(strategy);
+        this.ejectionFailures = ejectionFailures;
+        this.ejectionLatencyFactor = ejectionLatencyFactor;
+        this.ejectionNanos = ejectionNanos;
+        this.httpClient = Objects.requireNonNull(httpClient);
+        this.probeConfig = RequestConfig.custom()
+                .setConnectTimeout(probeTimeoutMillis)
+                .setSocketTimeout(probeTimeoutMillis)
+                .build();
+        update(uris);
+        if (isEjectionEnabled()) {
+            getScheduler().scheduleWithFixedDelay(this::checkHealth, HEALTH_CHECK_PERIOD_MILLIS,
+                    HEALTH_CHECK_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Turns on routing of requests with a routing key by consistent hashing.
+     *
+     * @param virtualNodes number of points each endpoint is placed onto the ring at
+     */
+    synchronized void useConsistentHashing(int virtualNodes) {
+        this.virtualNodes = virtualNodes;
+        this.ring = new FrpcHashRing(endpoints, virtualNodes);
+    }
+
+    /**
+     * Starts refreshing the endpoints periodically from given supplier.
+     *
+     * @param supplier        supplier of endpoint {@code URI}s
+     * @param intervalNanos   interval between two refreshes in nanoseconds
+     */
+    void refreshPeriodically(Supplier<? extends Collection<URI>> supplier, long intervalNanos) {
+        Objects.requireNonNull(supplier);
+        getScheduler().scheduleWithFixedDelay(() -> refresh(supplier), intervalNanos, intervalNanos,
+                TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Replaces the endpoints of this group by endpoints of given {@code URI}s. Statistics of endpoints present both
+     * before and after the update are kept.
+     *
+     * @param uris {@code URI}s of the endpoints
+     * @throws IllegalArgumentException if given collection is empty
+     */
+    synchronized void update(Collection<URI> uris) {
+        if (Objects.requireNonNull(uris, "URIs must not be null").isEmpty()) {
+            throw new IllegalArgumentException("There has to be at least one endpoint");
+        }
+        Map<URI, FrpcEndpoint> existing = new HashMap<>();
+        if (endpoints != null) {
+            endpoints.forEach(endpoint -> existing.put(endpoint.getUri(), endpoint));
+        }
+        // keep the order given, drop duplicates
+        Map<URI, FrpcEndpoint> updated = new LinkedHashMap<>();
+        for (URI uri : uris) {
+            Objects.requireNonNull(uri, "URI must not be null");
+            updated.computeIfAbsent(uri, u -> existing.getOrDefault(u, new FrpcEndpoint(u)));
+        }
+        if (endpoints != null && !existing.keySet().equals(updated.keySet())) {
+            LOGGER.info("Endpoints changed from {} to {}", existing.keySet(), updated.keySet());
+        }
+        this.endpoints = Collections.unmodifiableList(new ArrayList<>(updated.values()));
+        // keys of endpoints which stayed keep their owners, only keys of removed endpoints move
+        if (virtualNodes > 0) {
+            this.ring = new FrpcHashRing(endpoints, virtualNodes);
+        }
+    }
+
+    /**
+     * Returns current endpoints.
+     *
+     * @return unmodifiable list of current endpoints
+     */
+    List<FrpcEndpoint> getEndpoints() {
+        return endpoints;
+    }
+
+    /**
+     * Picks an endpoint to send a request to.
+     *
+     * @param key       routing key of the request used if consistent hashing is turned on, may be {@code null}
+     * @param available predicate telling whether an endpoint is available at all (its circuit breaker is not open for
+     *                  example)
+     * @param avoid     endpoint to avoid if possible (typically the one the previous attempt failed on), may be
+     *                  {@code null}
+     * @return the endpoint to send the request to
+     */
+    FrpcEndpoint select(Object key, Predicate<FrpcEndpoint> available, FrpcEndpoint avoid) {
+        List<FrpcEndpoint> all = endpoints;
+        if (all.size() == 1) {
+            return all.get(0);
+        }
+        FrpcHashRing currentRing = ring;
+        if (key != null && currentRing != null) {
+            return selectByKey(currentRing, key, available, avoid);
+        }
+        // prefer healthy endpoints, relax the requirements step by step if there are none
+        List<FrpcEndpoint> candidates = filter(all, e -> !e.isEjected() && e != avoid && available.test(e));
+        if (candidates.isEmpty()) {
+            candidates = filter(all, e -> !e.isEjected() && available.test(e));
+        }
+        if (candidates.isEmpty()) {
+            candidates = filter(all, e -> !e.isEjected());
+        }
+        if (candidates.isEmpty()) {
+            candidates = all;
+        }
+        return strategy == FrpcLoadBalancingStrategy.POWER_OF_TWO_CHOICES ?
+                selectPowerOfTwoChoices(candidates) : selectLeastOutstanding(candidates);
+    }
+
+    /**
+     * Records the outcome of a request started by {@link FrpcEndpoint#onRequestStarted()} and ejects the endpoint if
+     * it failed too many times in a row.
+     *
+     * @param endpoint      the endpoint
+     * @param durationNanos duration of the request
+     * @param failed        whether the request failed
+     */
+    void onRequestFinished(FrpcEndpoint endpoint, long durationNanos, boolean failed) {
+        endpoint.onRequestFinished(durationNanos, failed);
+        if (failed && isEjectionEnabled() && ejectionFailures > 0 && !endpoint.isEjected()
+                && endpoint.getConsecutiveFailures() >= ejectionFailures) {
+            eject(endpoint, endpoint.getConsecutiveFailures() + " consecutive failures");
+        }
+    }
+
+    /**
+     * Stops background tasks of this group.
+     */
+    synchronized void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private boolean isEjectionEnabled() {
+        return ejectionFailures > 0 || ejectionLatencyFactor > 0;
+    }
+
+    private synchronized ScheduledExecutorService getScheduler() {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(new FrpcDaemonThreadFactory("frpc-endpoints-"));
+        }
+        return scheduler;
+    }
+
+    private synchronized void eject(FrpcEndpoint endpoint, String reason) {
+        List<FrpcEndpoint> all = endpoints;
+        long ejected = all.stream().filter(FrpcEndpoint::isEjected).count();
+        if (endpoint.isEjected() || !all.contains(endpoint)) {
+            return;
+        }
+        if (ejected + 1 > all.size() / 2) {
+            LOGGER.debug("Not ejecting endpoint {} ({}), too many endpoints are ejected already", endpoint, reason);
+            return;
+        }
+        endpoint.eject(ejectionNanos);
+        LOGGER.warn("Endpoint {} ejected because of {}", endpoint, reason);
+    }
+
+    private void checkHealth() {
+        try {
+            List<FrpcEndpoint> all = endpoints;
+            // probe ejected endpoints whose ejection has elapsed
+            for (FrpcEndpoint endpoint : all) {
+                // forget old ejections of endpoints which have been healthy for a while
+                endpoint.forgiveEjections(ejectionNanos);
+                if (endpoint.isEjected() && endpoint.isEjectionElapsed()) {
+                    if (probe(endpoint)) {
+                        endpoint.readmit();
+                        LOGGER.info("Endpoint {} readmitted", endpoint);
+                    } else {
+                        endpoint.extendEjection(ejectionNanos);
+                    }
+                }
+            }
+            // eject endpoints which are abnormally slow compared to the others
+            if (ejectionLatencyFactor > 0) {
+                List<FrpcEndpoint> measured = filter(all, e -> !e.isEjected() && e.getLatencyEwmaNanos() > 0);
+                if (measured.size() >= MIN_ENDPOINTS_FOR_LATENCY_CHECK) {
+                    double[] latencies = measured.stream().mapToDouble(FrpcEndpoint::getLatencyEwmaNanos).sorted()
+                            .toArray();
+                    double median = latencies[latencies.length / 2];
+                    for (FrpcEndpoint endpoint : measured) {
+                        if (endpoint.getLatencyEwmaNanos() > ejectionLatencyFactor * median) {
+                            eject(endpoint, "latency " + endpoint.getLatencyEwma(TimeUnit.MILLISECONDS) +
+                                    " ms exceeding " + ejectionLatencyFactor + " times the median");
+                        }
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            // never let the periodic task die
+            LOGGER.error("Error while checking health of endpoints", e);
+        }
+    }
+
+    private boolean probe(FrpcEndpoint endpoint) {
+        // the same request used to discover protocols supported by the server
+        HttpHead head = new HttpHead(endpoint.getUri());
+        head.setConfig(probeConfig);
+        head.addHeader(HttpHeaders.ACCEPT, FrpcClient.Builder.DISCOVERY_ACCEPT_HEADER);
+        try {
+            HttpResponse response = httpClient.execute(head);
+            EntityUtils.consumeQuietly(response.getEntity());
+            return response.getStatusLine().getStatusCode() < 500;
+        } catch (IOException e) {
+            LOGGER.debug("Probe of endpoint {} failed", endpoint, e);
+            return false;
+        }
+    }
+
+    private void refresh(Supplier<? extends Collection<URI>> supplier) {
+        try {
+            Collection<URI> uris = supplier.get();
+            if (uris == null || uris.isEmpty()) {
+                LOGGER.warn("Supplier of endpoints returned no endpoints, keeping current ones");
+                return;
+            }
+            update(uris);
+        } catch (RuntimeException e) {
+            LOGGER.warn("Error while refreshing endpoints, keeping current ones", e);
+        }
+    }
+
+    private static FrpcEndpoint selectByKey(FrpcHashRing ring, Object key, Predicate<FrpcEndpoint> available,
+                                            FrpcEndpoint avoid) {
+        // the owner of the key if it is healthy, the next healthy endpoint on the ring otherwise
+        FrpcEndpoint endpoint = ring.locate(key, e -> !e.isEjected() && e != avoid && available.test(e));
+        if (endpoint == null) {
+            endpoint = ring.locate(key, e -> !e.isEjected() && available.test(e));
+        }
+        if (endpoint == null) {
+            endpoint = ring.locate(key, e -> true);
+        }
+        return endpoint;
+    }
+
+    private static FrpcEndpoint selectLeastOutstanding(List<FrpcEndpoint> candidates) {
+        // start at random position so that ties are broken randomly
+        int size = candidates.size();
+        int offset = ThreadLocalRandom.current().nextInt(size);
+        FrpcEndpoint best = null;
+        int bestOutstanding = Integer.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            FrpcEndpoint endpoint = candidates.get((offset + i) % size);
+            int outstanding = endpoint.getOutstandingRequests();
+            if (outstanding < bestOutstanding) {
+                best = endpoint;
+                bestOutstanding = outstanding;
+            }
+        }
+        return best;
+    }
+
+    private static FrpcEndpoint selectPowerOfTwoChoices(List<FrpcEndpoint> candidates) {
+        int size = candidates.size();
+        if (size == 1) {
+            return candidates.get(0);
+        }
+        // pick two distinct endpoints at random
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(size);
+        int second = random.nextInt(size - 1);
+        if (second >= first) {
+            second++;
+        }
+        FrpcEndpoint a = candidates.get(first);
+        FrpcEndpoint b = candidates.get(second);
+        return a.getCost() <= b.getCost() ? a : b;
+    }
+
+    private static List<FrpcEndpoint> filter(List<FrpcEndpoint> endpoints, Predicate<FrpcEndpoint> predicate) {
+        List<FrpcEndpoint> result = new ArrayList<>(endpoints.size());
+        for (FrpcEndpoint endpoint : endpoints) {
+            if (predicate.test(endpoint)) {
+                result.add(endpoint);
+            }
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,109 @@
+package cz.seznam.frpc.client;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * Consistent-hash ring of endpoints. Each endpoint is placed onto the ring at a number of pseudo-random points
+ * (virtual nodes) derived from its {@code URI}, so that keys are spread evenly and adding or removing an endpoint only
+ * moves the keys of the ring segments it owns. A key is routed to the first endpoint found clockwise from the hash of
+ * the key; if that endpoint is not usable, the walk continues to the next distinct endpoint, which keeps the keys of
+ * a failed endpoint together on a single fallback endpoint rather than scattering them.
+ * <p>
+ * Instances are immutable, a new ring is built whenever the endpoints change.
+ *
+ * @author David Moidl david.moidl@firma.seznam.cz
+ */
+class FrpcHashRing {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final long[] points;
+    private final FrpcEndpoint[] owners;
+    private final int endpointCount;
+
+    /**
+     * Builds new ring of given endpoints.
+     *
+     * @param endpoints    endpoints to place onto the ring
+     * @param virtualNodes number of points per endpoint
+     */
+    FrpcHashRing(List<FrpcEndpoint> endpoints, int virtualNodes) {
+        // collect all the points and sort them by their hashes
+        TreeMap<Long, FrpcEndpoint> ring = new TreeMap<>();
+        for (FrpcEndpoint endpoint : endpoints) {
+            String uri = endpoint.getUri().toString();
+            for (int i = 0; i < virtualNodes; i++) {
+                // in the unlikely case of collision the point stays with the endpoint placed first
+                ring.putIfAbsent(hash(uri + "#" + i), endpoint);
+            }
+        }
+        this.points = new long[ring.size()];
+        this.owners = new FrpcEndpoint[ring.size()];
+        int index = 0;
+        for (Map.Entry<Long, FrpcEndpoint> point : ring.entrySet()) {
+            points[index] = point.getKey();
+            owners[index] = point.getValue();
+            index++;
+        }
+        this.endpointCount = endpoints.size();
+    }
+
+    /**
+     * Finds the endpoint given key is routed to.
+     *
+     * @param key    the routing key
+     * @param usable predicate telling whether an endpoint can be used
+     * @return the first usable endpoint found clockwise from the hash of the key or {@code null} if there is none
+     */
+    FrpcEndpoint locate(Object key, Predicate<FrpcEndpoint> usable) {
+        if (points.length == 0) {
+            return null;
+        }
+        // find the first point at or after the hash of the key
+        int start = Arrays.binarySearch(points, hash(key));
+        if (start < 0) {
+            start = -start - 1;
+        }
+        // walk the ring until a usable endpoint is found or all endpoints have been seen
+        Set<FrpcEndpoint> seen = null;
+        for (int i = 0; i < points.length; i++) {
+            FrpcEndpoint endpoint = owners[(start + i) % points.length];
+            if (usable.test(endpoint)) {
+                return endpoint;
+            }
+            if (seen == null) {
+                seen = new HashSet<>();
+            }
+            if (seen.add(endpoint) && seen.size() == endpointCount) {
+                break;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Computes 64-bit hash of given key, that is of its bytes if it is a byte array or of its string representation
+     * otherwise. Uses FNV-1a followed by the finalizer of MurmurHash3 for good avalanche of similar keys.
+     *
+     * @param key the key
+     * @return hash of the key
+     */
+    static long hash(Object key) {
+        byte[] bytes = key instanceof byte[] ? (byte[]) key : String.valueOf(key).getBytes(StandardCharsets.UTF_8);
+        long hash = FNV_OFFSET_BASIS;
+        for (byte b : bytes) {
+            hash ^= b & 0xff;
+            hash *= FNV_PRIME;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+}
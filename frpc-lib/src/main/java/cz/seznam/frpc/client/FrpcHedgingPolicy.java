@@ -0,0 +1,162 @@
+package cz.seznam.frpc.client;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Immutable description of how calls are hedged. If a call to an idempotent method (see
+ * {@link FrpcRetryPolicy#isIdempotent(String)}) gets no response within the hedging delay, a duplicate request is
+ * sent to a different endpoint, the first response wins and the other request is cancelled. This cuts the tail
+ * latency caused by occasional slow replicas at the cost of a little extra load.
+ * <p>
+ * The delay is either fixed or derived from recent response times of each method, typically their 95th percentile,
+ * so that only the slowest few percent of calls are hedged. The extra load is capped by a hedging budget: hedges may
+ * not exceed given ratio of hedgeable calls within a sliding window.
+ *
+ * @author David Moidl david.moidl@firma.seznam.cz
+ * @see FrpcClient.Builder#hedging(FrpcHedgingPolicy)
+ */
+public class FrpcHedgingPolicy {
+
+    private static final long BUDGET_WINDOW_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    private long delayMillis;
+    private double percentile;
+    private long minDelayMillis;
+    private long maxDelayMillis;
+    private double maxHedgeRatio;
+
+    private FrpcHedgingPolicy(Builder builder) {
+        this.delayMillis = builder.delayMillis;
+        this.percentile = builder.percentile;
+        this.minDelayMillis = builder.minDelayMillis;
+        this.maxDelayMillis = builder.maxDelayMillis;
+        this.maxHedgeRatio = builder.maxHedgeRatio;
+    }
+
+    /**
+     * Builder used to create {@link FrpcHedgingPolicy} instances.
+     */
+    public static final class Builder {
+
+        private long delayMillis = 50;
+        private double percentile;
+        private long minDelayMillis;
+        private long maxDelayMillis;
+        private double maxHedgeRatio = 0.05;
+
+        /**
+         * Makes calls hedged after fixed delay.
+         * <p>
+         * Defaults to 50 milliseconds.
+         *
+         * @param delay    the delay
+         * @param timeUnit the time unit
+         * @return this {@code Builder} instance so that calls can be chained
+         */
+        public Builder fixedDelay(long delay, TimeUnit timeUnit) {
+            if (delay < 0) {
+                throw new IllegalArgumentException("Delay must not be negative");
+            }
+            this.delayMillis = Objects.requireNonNull(timeUnit, "Time unit must not be null").toMillis(delay);
+            this.percentile = 0;
+            return this;
+        }
+
+        /**
+         * Makes calls hedged after given percentile of recent response times of the method, clamped to given bounds.
+         * Until enough calls of the method have been made, the maximum delay is used.
+         *
+         * @param percentile percentile of response times, typically 95
+         * @param minDelay   minimum delay
+         * @param maxDelay   maximum delay
+         * @param timeUnit   the time unit
+         * @return this {@code Builder} instance so that calls can be chained
+         */
+        public Builder adaptiveDelay(double percentile, long minDelay, long maxDelay, TimeUnit timeUnit) {
+            if (percentile <= 0 || percentile >= 100) {
+                throw new IllegalArgumentException("Percentile must be between 0 and 100");
+            }
+            if (minDelay < 0 || maxDelay < minDelay) {
+                throw new IllegalArgumentException("Delays must not be negative and minimum must not exceed maximum");
+            }
+            Objects.requireNonNull(timeUnit, "Time unit must not be null");
+            this.percentile = percentile;
+            this.minDelayMillis = timeUnit.toMillis(minDelay);
+            this.maxDelayMillis = timeUnit.toMillis(maxDelay);
+            return this;
+        }
+
+        /**
+         * Sets the maximum ratio of hedges to hedgeable calls within a sliding window of 10 seconds. Calls which would
+         * exceed it are not hedged.
+         * <p>
+         * Defaults to 0.05, that is 5 %.
+         *
+         * @param maxHedgeRatio the ratio
+         * @return this {@code Builder} instance so that calls can be chained
+         */
+        public Builder maxHedgeRatio(double maxHedgeRatio) {
+            if (maxHedgeRatio <= 0 || maxHedgeRatio > 1) {
+                throw new IllegalArgumentException("Hedge ratio must be greater than 0 and at most 1");
+            }
+            this.maxHedgeRatio = maxHedgeRatio;
+            return this;
+        }
+
+        /**
+         * Builds new {@link FrpcHedgingPolicy} from properties set on this builder.
+         *
+         * @return new {@link FrpcHedgingPolicy}
+         */
+        public FrpcHedgingPolicy build() {
+            return new FrpcHedgingPolicy(this);
+        }
+
+    }
+
+    /**
+     * Creates new {@link Builder} instance.
+     *
+     * @return new {@link Builder} instance
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Checks whether the hedging delay is derived from recent response times.
+     *
+     * @return {@code true} if the delay is adaptive and {@code false} if it is fixed
+     */
+    public boolean isAdaptive() {
+        return percentile > 0;
+    }
+
+    /**
+     * Computes the delay after which a call is hedged.
+     *
+     * @param latencies recent response times of the method, may be {@code null} if none are known
+     * @return the delay in milliseconds
+     */
+    long computeDelayMillis(FrpcLatencyHistogram latencies) {
+        if (!isAdaptive()) {
+            return delayMillis;
+        }
+        if (latencies == null || latencies.getCount() < FrpcLatencyHistogram.MIN_SAMPLES) {
+            return maxDelayMillis;
+        }
+        long delay = latencies.getPercentile(percentile, TimeUnit.MILLISECONDS);
+        return Math.min(maxDelayMillis, Math.max(minDelayMillis, delay));
+    }
+
+    /**
+     * Creates new hedging budget as described by this policy.
+     *
+     * @return new hedging budget
+     */
+    FrpcRetryBudget createBudget() {
+        return new FrpcRetryBudget(maxHedgeRatio, 0, BUDGET_WINDOW_MILLIS);
+    }
+
+}
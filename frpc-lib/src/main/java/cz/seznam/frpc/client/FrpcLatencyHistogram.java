@@ -0,0 +1,139 @@
+package cz.seznam.frpc.client;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free streaming histogram of response times of single method. Values are counted in log-linear buckets (each
+ * power of two is split into 8 buckets, so percentiles are accurate to 12.5 %) spanning from a microsecond to days.
+ * <p>
+ * The histogram only reflects recent calls: it consists of two windows of given length, values are recorded into the
+ * current one and percentiles are computed over both. Once the current window is full, the previous one is dropped
+ * and a new current window started.
+ *
+ * @author David Moidl david.moidl@firma.seznam.cz
+ */
+public class FrpcLatencyHistogram {
+
+    /**
+     * Number of recorded response times needed before percentiles are trusted.
+     */
+    static final int MIN_SAMPLES = 100;
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+    private static final long MAX_VALUE = (1L << MAX_EXPONENT) - 1;
+    private static final int BUCKETS = bucketOf(MAX_VALUE) + 1;
+
+    /**
+     * Counts of one window.
+     */
+    private static class Window {
+        private final long startNanos = System.nanoTime();
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final LongAdder total = new LongAdder();
+    }
+
+    private long windowNanos;
+    private volatile Window current = new Window();
+    private volatile Window previous = new Window();
+
+    /**
+     * Creates new, empty histogram.
+     *
+     * @param windowNanos length of a window in nanoseconds
+     */
+    FrpcLatencyHistogram(long windowNanos) {
+        this.windowNanos = windowNanos;
+    }
+
+    /**
+     * Records single response time.
+     *
+     * @param durationNanos the response time in nanoseconds
+     */
+    void record(long durationNanos) {
+        Window window = currentWindow();
+        window.counts.incrementAndGet(bucketOf(TimeUnit.NANOSECONDS.toMicros(durationNanos)));
+        window.total.increment();
+    }
+
+    /**
+     * Returns the number of response times this histogram currently reflects.
+     *
+     * @return the number of response times recorded into both windows
+     */
+    public long getCount() {
+        Window window = currentWindow();
+        return window.total.sum() + previous.total.sum();
+    }
+
+    /**
+     * Returns (an upper bound of) given percentile of recent response times.
+     *
+     * @param percentile the percentile, between 0 and 100
+     * @param timeUnit   time unit to convert the value to
+     * @return the percentile or zero if no response times have been recorded
+     */
+    public long getPercentile(double percentile, TimeUnit timeUnit) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100");
+        }
+        Window first = currentWindow();
+        Window second = previous;
+        long total = first.total.sum() + second.total.sum();
+        if (total == 0) {
+            return 0;
+        }
+        // find the bucket the percentile falls into
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += first.counts.get(bucket) + second.counts.get(bucket);
+            if (seen >= rank) {
+                return timeUnit.convert(upperBoundOf(bucket), TimeUnit.MICROSECONDS);
+            }
+        }
+        // counts and totals are not updated atomically together, the last bucket is the best guess then
+        return timeUnit.convert(MAX_VALUE, TimeUnit.MICROSECONDS);
+    }
+
+    private Window currentWindow() {
+        Window window = current;
+        if (System.nanoTime() - window.startNanos >= windowNanos) {
+            synchronized (this) {
+                window = current;
+                if (System.nanoTime() - window.startNanos >= windowNanos) {
+                    previous = window;
+                    window = new Window();
+                    current = window;
+                }
+            }
+        }
+        return window;
+    }
+
+    private static int bucketOf(long micros) {
+        long value = Math.min(Math.max(micros, 0), MAX_VALUE);
+        // small values have a bucket each
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        // larger ones share buckets, 8 per power of two
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return ((exponent - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS) + subBucket;
+    }
+
+    private static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = (bucket >>> SUB_BUCKET_BITS) + SUB_BUCKET_BITS - 1;
+        int subBucket = bucket & (SUB_BUCKETS - 1);
+        return ((long) (SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+}
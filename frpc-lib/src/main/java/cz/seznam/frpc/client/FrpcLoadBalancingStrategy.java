@@ -0,0 +1,22 @@
+package cz.seznam.frpc.client;
+
+/**
+ * Strategies of spreading calls across multiple endpoints.
+ *
+ * @author David Moidl david.moidl@firma.seznam.cz
+ * @see FrpcClient.Builder#loadBalancing(FrpcLoadBalancingStrategy)
+ */
+public enum FrpcLoadBalancingStrategy {
+
+    /**
+     * Each call is sent to the endpoint with the least requests in flight. Ties are broken randomly.
+     */
+    LEAST_OUTSTANDING_REQUESTS,
+    /**
+     * Two endpoints are picked at random and the call is sent to the one with lower cost, that is the moving average
+     * of its response times multiplied by the number of its requests in flight (plus one). Adapts to endpoints of
+     * different speed while avoiding the herd behaviour of always picking the single best endpoint.
+     */
+    POWER_OF_TWO_CHOICES
+
+}
@@ -1,23 +1,31 @@
 package cz.seznam.frpc.client;
 
+import cz.seznam.frpc.core.FrpcPriority;
+import cz.seznam.frpc.core.FrpcProjection;
 import cz.seznam.frpc.core.transport.*;
 import org.apache.commons.lang3.ArrayUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.apache.http.Header;
 import org.apache.http.HttpHeaders;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.concurrent.FutureCallback;
 import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.URI;
+import java.net.SocketTimeoutException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 /**
@@ -31,38 +39,69 @@ public class FrpcMethodCall {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(FrpcMethodCall.class);
 
+    private FrpcClient frpcClient;
     private HttpClient client;
-    private URI uri;
     private Protocol protocol;
     private List<Object> implicitParameters;
+    private boolean implicitParametersShared;
     private boolean prependImplicitParams;
     private Map<String, String> headers;
+    private boolean headersShared;
     private int maxAttemptCount;
     private Long connectTimeout;
     private TimeUnit connectTimeoutTimeUnit;
     private Long socketTimeout;
     private TimeUnit socketTimeoutTimeUnit;
+    private boolean socketTimeoutOverridden;
     private long retryDelay;
     private TimeUnit retryDelayTimeUnit;
+    private FrpcRetryPolicy retryPolicy;
+    private FrpcRetryBudget retryBudget;
+    private Boolean idempotent;
+    private FrpcDeadline deadline;
+    private FrpcProjection projection;
+    private FrpcPriority priority;
     private String method;
     private List<Object> parameters;
+    private FrpcPreparedCall<?> preparedCall;
+    /**
+     * Version tag of the cached result this call revalidates, sent in {@code If-None-Match} header.
+     */
+    private String cachedVersionTag;
 
-    FrpcMethodCall(HttpClient client, URI uri, Protocol protocol, List<Object> implicitParameters,
-                   boolean prependImplicitParams, Map<String, String> headers, int maxAttemptCount, long retryDelay,
-                   TimeUnit retryDelayTimeUnit, String method, List<Object> parameters) {
-        this.client = client;
-        this.uri = uri;
-        this.protocol = protocol;
-        this.implicitParameters = implicitParameters == null ? Collections.emptyList() : implicitParameters;
-        this.prependImplicitParams = prependImplicitParams;
-        this.headers = headers == null ? Collections.emptyMap() : headers;
-        this.maxAttemptCount = maxAttemptCount;
-        this.retryDelay = retryDelay;
-        this.retryDelayTimeUnit = retryDelayTimeUnit;
+    FrpcMethodCall(FrpcClient frpcClient, String method, List<Object> parameters) {
+        this.frpcClient = Objects.requireNonNull(frpcClient);
+        this.client = frpcClient.getHttpClient();
+        this.protocol = frpcClient.getProtocol();
+        // settings of the client are shared until this call changes them, they are copied then
+        this.implicitParameters = frpcClient.getImplicitParameters();
+        this.implicitParametersShared = true;
+        this.prependImplicitParams = frpcClient.isPrependImplicitParams();
+        this.headers = frpcClient.getHeaders();
+        this.headersShared = true;
+        this.maxAttemptCount = frpcClient.getMaxAttemptCount();
+        this.connectTimeout = frpcClient.getConnectTimeout(TimeUnit.MILLISECONDS);
+        this.connectTimeoutTimeUnit = TimeUnit.MILLISECONDS;
+        this.socketTimeout = frpcClient.getSocketTimeout(TimeUnit.MILLISECONDS);
+        this.socketTimeoutTimeUnit = TimeUnit.MILLISECONDS;
+        this.retryDelay = frpcClient.getRetryDelay(TimeUnit.MILLISECONDS);
+        this.retryDelayTimeUnit = TimeUnit.MILLISECONDS;
+        this.retryPolicy = frpcClient.getRetryPolicy();
+        this.retryBudget = frpcClient.getRetryBudget();
+        // calls made while handling a request inherit its deadline
+        this.deadline = FrpcDeadline.current();
         this.method = method;
         this.parameters = parameters;
     }
 
+    FrpcMethodCall(FrpcPreparedCall<?> preparedCall, List<Object> parameters) {
+        this(preparedCall.getFrpcClient(), preparedCall.getMethod(), parameters);
+        // the prepared call holds the implicit parameters it has already serialized
+        this.implicitParameters = preparedCall.getImplicitParameters();
+        this.prependImplicitParams = preparedCall.isPrependImplicitParams();
+        this.preparedCall = preparedCall;
+    }
+
     /**
      * Overrides implicit parameters set by the {@link FrpcClient} by given value.
      *
@@ -72,6 +111,7 @@ public class FrpcMethodCall {
     public FrpcMethodCall withImplicitParameters(Object... implicitParameters) {
         this.implicitParameters = implicitParameters == null ? null :
                 Arrays.stream(implicitParameters).collect(Collectors.toList());
+        this.implicitParametersShared = false;
         return this;
     }
 
@@ -83,6 +123,10 @@ public class FrpcMethodCall {
      */
     public FrpcMethodCall withAddedImplicitParameters(Object... implicitParameters) {
         if (ArrayUtils.isNotEmpty(implicitParameters)) {
+            if (implicitParametersShared) {
+                this.implicitParameters = new ArrayList<>(this.implicitParameters);
+                this.implicitParametersShared = false;
+            }
             Arrays.stream(implicitParameters).forEach(this.implicitParameters::add);
         }
         return this;
@@ -116,6 +160,7 @@ public class FrpcMethodCall {
      */
     public FrpcMethodCall withHeaders(Map<String, String> headers) {
         this.headers = headers;
+        this.headersShared = false;
         return this;
     }
 
@@ -130,6 +175,7 @@ public class FrpcMethodCall {
      * @return this {@code FrpcMethodCall} instance so that setters can be chained
      */
     public FrpcMethodCall withNewHeader(String name, String value) {
+        copySharedHeaders();
         this.headers.put(name, value);
         return this;
     }
@@ -144,10 +190,19 @@ public class FrpcMethodCall {
      * @return this {@code FrpcMethodCall} instance so that setters can be chained
      */
     public FrpcMethodCall withNewHeaders(Map<String, String> headers) {
-        this.headers.putAll(Objects.requireNonNull(headers));
+        Objects.requireNonNull(headers);
+        copySharedHeaders();
+        this.headers.putAll(headers);
         return this;
     }
 
+    private void copySharedHeaders() {
+        if (headersShared) {
+            this.headers = new HashMap<>(this.headers);
+            this.headersShared = false;
+        }
+    }
+
     /**
      * Overrides "connect timeout" set by the {@link FrpcClient} by given value.
      *
@@ -163,7 +218,9 @@ public class FrpcMethodCall {
     }
 
     /**
-     * Overrides "socket timeout" set by the {@link FrpcClient} by given value.
+     * Overrides "socket timeout" set by the {@link FrpcClient} by given value. The override takes precedence over
+     * adaptive socket timeout as well (see {@link FrpcClient.Builder#adaptiveSocketTimeout(double, long, long,
+     * TimeUnit)}).
      *
      * @param newTimeout new timeout value
      * @param timeUnit time unit of given value
@@ -173,9 +230,100 @@ public class FrpcMethodCall {
     public FrpcMethodCall withSocketTimeout(long newTimeout, TimeUnit timeUnit) {
         this.socketTimeout = newTimeout;
         this.socketTimeoutTimeUnit = Objects.requireNonNull(timeUnit);
+        this.socketTimeoutOverridden = true;
+        return this;
+    }
+
+    /**
+     * Sets the deadline of this call. The deadline is sent to the server (see {@link FrpcHttpHeaders#TIMEOUT}) which
+     * then drops the request if it arrives too late and passes the deadline on to calls it makes itself. No attempt
+     * (or retry) is made once the deadline has passed and the timeouts of each attempt are shortened so that it does
+     * not wait past the deadline.
+     * <p>
+     * Calls prepared on a thread handling a request with a deadline (see {@link FrpcDeadline#current()}) inherit that
+     * deadline. Given deadline can only make the inherited one earlier, never later, since nobody would wait for the
+     * result anyway.
+     *
+     * @param deadline the deadline
+     * @return this {@code FrpcMethodCall} instance so that setters can be chained
+     */
+    public FrpcMethodCall withDeadline(FrpcDeadline deadline) {
+        this.deadline = FrpcDeadline.earlierOf(this.deadline, Objects.requireNonNull(deadline));
         return this;
     }
 
+    /**
+     * Returns the deadline of this call, either inherited from current thread or set by
+     * {@link #withDeadline(FrpcDeadline)}.
+     *
+     * @return the deadline of this call or {@code null} if there is none
+     */
+    public FrpcDeadline getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * Asks the server to only send members of the result on given paths, leaving out members of structures the caller
+     * is not interested in (see {@link FrpcProjection}). Servers which do not support projections send the result
+     * whole, the other members are then skipped while decoding the response, so that the result only holds members
+     * on given paths either way. Binary {@code FRPC} responses are skipped right in the stream without decoding.
+     * <p>
+     * Calls with a projection are never coalesced into {@code system.multicall} and results of cached methods are
+     * cached separately for each projection.
+     *
+     * @param paths paths to members of the result, each being member names separated by dots
+     * @return this {@code FrpcMethodCall} instance so that setters can be chained
+     * @throws IllegalArgumentException if no path is given or any path is malformed
+     */
+    public FrpcMethodCall withProjection(String... paths) {
+        return withProjection(FrpcProjection.of(paths));
+    }
+
+    /**
+     * Asks the server to only send members of the result included in given projection, see
+     * {@link #withProjection(String...)}.
+     *
+     * @param projection the projection, {@code null} to ask for the whole result
+     * @return this {@code FrpcMethodCall} instance so that setters can be chained
+     */
+    public FrpcMethodCall withProjection(FrpcProjection projection) {
+        this.projection = projection;
+        return this;
+    }
+
+    /**
+     * Returns the projection of the result of this call.
+     *
+     * @return the projection or {@code null} if the whole result is requested
+     */
+    public FrpcProjection getProjection() {
+        return projection;
+    }
+
+    /**
+     * Asks the server to process this call with given priority, overriding the priority declared by the method (see
+     * {@link FrpcPriority}). Servers which do not schedule calls by priority ignore it.
+     * <p>
+     * Calls with a priority are never coalesced into {@code system.multicall}.
+     *
+     * @param priority the priority, {@code null} (or {@link FrpcPriority#UNSPECIFIED}) to use the priority declared by
+     *                 the method
+     * @return this {@code FrpcMethodCall} instance so that setters can be chained
+     */
+    public FrpcMethodCall withPriority(FrpcPriority priority) {
+        this.priority = FrpcPriority.specifiedOrNull(priority);
+        return this;
+    }
+
+    /**
+     * Returns the priority this call asks the server to be processed with.
+     *
+     * @return the priority or {@code null} if the priority declared by the method applies
+     */
+    public FrpcPriority getPriority() {
+        return priority;
+    }
+
     /**
      * Overrides "attempt count" set by the {@link FrpcClient} by given value.
      *
@@ -203,81 +351,580 @@ public class FrpcMethodCall {
     }
 
     /**
-     * Invokes the remote method and returns its result wrapped in a {@link FrpcCallResult}.
+     * Overrides idempotency of the called method as declared by the retry policy of the {@link FrpcClient}. Calls to
+     * idempotent methods are retried on any transport error, calls to non-idempotent ones only if the request
+     * certainly did not reach the server.
+     *
+     * @param idempotent whether the called method is idempotent
+     * @return this {@code FrpcMethodCall} instance so that setters can be chained
+     * @see FrpcRetryPolicy
+     */
+    public FrpcMethodCall withIdempotency(boolean idempotent) {
+        this.idempotent = idempotent;
+        return this;
+    }
+
+    /**
+     * Checks whether the called method is considered idempotent, either because it was set by
+     * {@link #withIdempotency(boolean)} or because the retry policy of the {@link FrpcClient} says so.
+     *
+     * @return {@code true} if the called method is considered idempotent and {@code false} otherwise
+     */
+    public boolean isIdempotent() {
+        return idempotent != null ? idempotent : retryPolicy.isIdempotent(method);
+    }
+
+    /**
+     * Invokes the remote method and returns its result wrapped in a {@link FrpcCallResult}. Failed attempts are
+     * retried as described by the retry policy of the {@link FrpcClient} (see {@link FrpcRetryPolicy}). If the calling
+     * thread is interrupted while waiting for a retry, the call fails and the interrupt status of the thread is kept.
+     * <p>
+     * Calls to idempotent methods of a client with hedging turned on (see
+     * {@link FrpcClient.Builder#hedging(FrpcHedgingPolicy)}) are made by {@link #getResultAsync()} and waited for.
+     * <p>
+     * Results of methods cached by the client (see {@link FrpcClient.Builder#responseCache(FrpcResponseCacheConfig)})
+     * are taken from the cache if possible. Expired results carrying a version tag are revalidated, so that the
+     * server does not send them again if they have not changed.
      *
      * @return the result of remote method invocation
      */
     public FrpcCallResult<Object> getResult() {
-        return doRemoteInvocation();
+        FrpcResponseCache responseCache = frpcClient.getResponseCache();
+        if (responseCache != null && responseCache.isCached(method)) {
+            // misses are loaded right away by the calling thread, refreshes of stale results in the background
+            return join(responseCache.get(responseCache.createKey(method, prepareMethodParameters(), projection),
+                    versionTag -> {
+                        this.cachedVersionTag = versionTag;
+                        return CompletableFuture.completedFuture(getUncachedResult());
+                    }, this::getRevalidatedResultAsync));
+        }
+        return getUncachedResult();
+    }
+
+    private FrpcCallResult<Object> getUncachedResult() {
+        if (!isHedged()) {
+            return doRemoteInvocation();
+        }
+        return join(getUncachedResultAsync());
+    }
+
+    private static FrpcCallResult<Object> join(CompletableFuture<FrpcCallResult<Object>> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            // rethrow the original exception
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Invokes the remote method without blocking the calling thread. The request is sent by the non-blocking
+     * {@link org.apache.http.nio.client.HttpAsyncClient} of the {@link FrpcClient} (see
+     * {@link FrpcClient#getHttpAsyncClient()}), the response is decoded once it is fully received and failed attempts
+     * are retried according to the retry policy, scheduled on a timer without occupying any thread while waiting.
+     * <p>
+     * Cancelling returned future aborts the {@code HTTP} exchange in progress (or the retry waiting to be made).
+     * <p>
+     * Calls to idempotent methods of a client with hedging turned on are hedged, that is sent once more (preferably
+     * to a different endpoint) if no response arrives within the hedging delay. The first response completes the
+     * future and the other request is cancelled.
+     * <p>
+     * Results of methods cached by the client are taken from the cache if possible. Cancelling the future of a call of
+     * a cached method does not abort the call loading the result, since other calls may be waiting for it too.
+     *
+     * @return future completed by the result of remote method invocation or exceptionally by
+     * {@link FrpcTransportException} if the method could not be called
+     * @see FrpcHedgingPolicy
+     */
+    public CompletableFuture<FrpcCallResult<Object>> getResultAsync() {
+        FrpcResponseCache responseCache = frpcClient.getResponseCache();
+        if (responseCache != null && responseCache.isCached(method)) {
+            FrpcResponseCache.Key key;
+            try {
+                key = responseCache.createKey(method, prepareMethodParameters(), projection);
+            } catch (RuntimeException e) {
+                CompletableFuture<FrpcCallResult<Object>> failure = new CompletableFuture<>();
+                failure.completeExceptionally(e);
+                return failure;
+            }
+            return responseCache.get(key, this::getRevalidatedResultAsync, this::getRevalidatedResultAsync);
+        }
+        return getUncachedResultAsync();
+    }
+
+    private CompletableFuture<FrpcCallResult<Object>> getRevalidatedResultAsync(String versionTag) {
+        this.cachedVersionTag = versionTag;
+        return getUncachedResultAsync();
+    }
+
+    private CompletableFuture<FrpcCallResult<Object>> getUncachedResultAsync() {
+        FrpcRequestEntity body;
+        Object routingKey;
+        try {
+            // the request is the same for every attempt
+            body = encodeRequest();
+            routingKey = frpcClient.getRoutingKey(method, parameters);
+        } catch (RuntimeException e) {
+            CompletableFuture<FrpcCallResult<Object>> failure = new CompletableFuture<>();
+            failure.completeExceptionally(e);
+            return failure;
+        }
+        if (isHedged()) {
+            HedgedInvocation invocation = new HedgedInvocation(body, routingKey);
+            invocation.start();
+            return invocation;
+        }
+        AsyncInvocation invocation = new AsyncInvocation(body, routingKey);
+        invocation.attempt();
+        return invocation;
+    }
+
+    private boolean isHedged() {
+        return frpcClient.getHedgingPolicy() != null && isIdempotent();
+    }
+
+    /**
+     * Asynchronous invocation of the remote method which is sent once more if it takes too long. Completed by the
+     * first of the two invocations which succeeds, or by the failure of the last one if both fail.
+     */
+    private class HedgedInvocation extends CompletableFuture<FrpcCallResult<Object>> {
+
+        private FrpcRequestEntity body;
+        private Object routingKey;
+        private AsyncInvocation primary;
+        private volatile AsyncInvocation hedge;
+        private volatile Future<?> timer;
+        // number of invocations which have neither succeeded nor failed yet
+        private final AtomicInteger running = new AtomicInteger(1);
+        private volatile Throwable failure;
+
+        private HedgedInvocation(FrpcRequestEntity body, Object routingKey) {
+            this.body = body;
+            this.routingKey = routingKey;
+            this.primary = new AsyncInvocation(body, routingKey);
+        }
+
+        private void start() {
+            // every hedgeable call earns a fraction of a hedge
+            frpcClient.getHedgingBudget().recordSuccess();
+            primary.whenComplete((result, e) -> onComplete(primary, result, e));
+            primary.attempt();
+            if (!primary.isDone()) {
+                long delay = frpcClient.getHedgingPolicy()
+                        .computeDelayMillis(frpcClient.getLatencyHistogram(method));
+                timer = frpcClient.getScheduler().schedule(this::sendHedge, delay, TimeUnit.MILLISECONDS);
+                // the call may have completed while the timer was being scheduled
+                if (isDone()) {
+                    timer.cancel(false);
+                }
+            }
+        }
+
+        private void sendHedge() {
+            // do not start the hedge if the primary invocation is over already
+            int current;
+            do {
+                current = running.get();
+                if (current == 0 || isDone()) {
+                    return;
+                }
+            } while (!running.compareAndSet(current, current + 1));
+            if (!frpcClient.getHedgingBudget().tryAcquireRetry()) {
+                LOGGER.debug("Not hedging call to method {}, hedging budget is exhausted", method);
+                onComplete(null, null, null);
+                return;
+            }
+            AsyncInvocation invocation = new AsyncInvocation(body, routingKey);
+            // avoid the endpoint the primary invocation is waiting for
+            invocation.endpoint = primary.endpoint;
+            hedge = invocation;
+            invocation.whenComplete((result, e) -> onComplete(invocation, result, e));
+            invocation.attempt();
+        }
+
+        private void onComplete(AsyncInvocation source, FrpcCallResult<Object> result, Throwable e) {
+            if (e == null && source != null) {
+                // the first response wins, the other invocation is no longer needed
+                if (complete(result) && source == hedge) {
+                    frpcClient.onHedgeWon();
+                }
+                cancelAll();
+                return;
+            }
+            if (e != null) {
+                failure = e;
+            }
+            if (running.decrementAndGet() == 0) {
+                // nothing else can succeed any more
+                completeExceptionally(failure);
+                cancelAll();
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            cancelAll();
+            return cancelled;
+        }
+
+        private void cancelAll() {
+            Future<?> currentTimer = timer;
+            if (currentTimer != null) {
+                currentTimer.cancel(false);
+            }
+            primary.cancel(true);
+            AsyncInvocation currentHedge = hedge;
+            if (currentHedge != null) {
+                currentHedge.cancel(true);
+            }
+        }
+
+    }
+
+    /**
+     * Single asynchronous invocation of the remote method. Serves both as the future handed out to the caller and
+     * as the callback of individual {@code HTTP} exchanges.
+     */
+    private class AsyncInvocation extends CompletableFuture<FrpcCallResult<Object>>
+            implements FutureCallback<HttpResponse> {
+
+        private FrpcRequestEntity body;
+        private Object routingKey;
+        private int attempts;
+        private volatile Future<?> pending;
+        private volatile FrpcEndpoint endpoint;
+        private FrpcCircuitBreaker circuitBreaker;
+        private long attemptStartNanos;
+
+        private AsyncInvocation(FrpcRequestEntity body, Object routingKey) {
+            this.body = body;
+            this.routingKey = routingKey;
+        }
+
+        private void attempt() {
+            attempts++;
+            boolean permitted = false;
+            boolean started = false;
+            try {
+                checkDeadline(attempts);
+                // pick an endpoint, preferably other than the one the previous attempt failed on
+                endpoint = frpcClient.selectEndpoint(method, routingKey, endpoint);
+                // fail fast if the endpoint is known to be broken
+                circuitBreaker = acquireCircuitBreakerPermission(endpoint);
+                permitted = true;
+                endpoint.onRequestStarted();
+                started = true;
+                attemptStartNanos = System.nanoTime();
+                // prepare the request and send it
+                HttpPost request = prepareRequest(endpoint);
+                request.setEntity(body);
+                pending = frpcClient.getHttpAsyncClient().execute(request, this);
+                // the caller may have cancelled the invocation while the request was being prepared
+                if (isCancelled()) {
+                    pending.cancel(true);
+                }
+            } catch (RuntimeException e) {
+                if (pending == null) {
+                    if (started) {
+                        endpoint.onRequestAbandoned();
+                    }
+                    if (permitted) {
+                        abandon(circuitBreaker);
+                    }
+                }
+                completeExceptionally(e);
+            }
+        }
+
+        @Override
+        public void completed(HttpResponse response) {
+            retryBudget.recordSuccess();
+            recordResponse(endpoint, circuitBreaker, attemptStartNanos, response);
+            try {
+                complete(readResponse(response));
+            } catch (IOException e) {
+                completeExceptionally(new FrpcTransportException("Error while reading response of FRPC method " +
+                        method, e));
+            } catch (RuntimeException e) {
+                completeExceptionally(e);
+            }
+        }
+
+        @Override
+        public void failed(Exception e) {
+            recordFailure(endpoint, circuitBreaker, attemptStartNanos, e);
+            if (isDone()) {
+                return;
+            }
+            // only transport errors are worth another attempt
+            if (!(e instanceof IOException)) {
+                completeExceptionally(new FrpcTransportException("Error while calling FRPC method " + method, e));
+                return;
+            }
+            long delay = computeRetryDelayMillis(attempts, e);
+            if (delay < 0) {
+                completeExceptionally(createFailure(attempts, e));
+            } else if (delay > 0) {
+                pending = frpcClient.getScheduler().schedule(this::attempt, delay, TimeUnit.MILLISECONDS);
+            } else {
+                attempt();
+            }
+        }
+
+        @Override
+        public void cancelled() {
+            endpoint.onRequestAbandoned();
+            // losing attempts of hedged calls end up here, half-open breakers must get their probes back
+            abandon(circuitBreaker);
+            super.cancel(false);
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            // abort the exchange in progress or the retry waiting to be made
+            Future<?> current = pending;
+            if (current != null) {
+                current.cancel(true);
+            }
+            return cancelled;
+        }
+
     }
 
     private FrpcCallResult<Object> doRemoteInvocation() {
+        // the request is the same for every attempt
+        FrpcRequestEntity body = encodeRequest();
+        Object routingKey = frpcClient.getRoutingKey(method, parameters);
         int attempts = 0;
-        FrpcCallResult<Object> output = null;
+        FrpcEndpoint endpoint = null;
 
-        do {
+        while (true) {
             attempts++;
+            checkDeadline(attempts);
+            // pick an endpoint, preferably other than the one the previous attempt failed on
+            endpoint = frpcClient.selectEndpoint(method, routingKey, endpoint);
+            // fail fast if the endpoint is known to be broken
+            FrpcCircuitBreaker circuitBreaker = acquireCircuitBreakerPermission(endpoint);
+            endpoint.onRequestStarted();
+            long startNanos = System.nanoTime();
+            boolean recorded = false;
             try {
-                // get FrpcRequestWriter for current protocol
-                FrpcRequestWriter requestWriter = FrpcRequestWriter.forProtocol(protocol);
-                // create FrpcRequest
-                FrpcRequest frpcRequest = new FrpcRequest(method, prepareMethodParameters());
-                // write it
-                ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                requestWriter.write(frpcRequest, baos);
-
                 // prepare the request
-                HttpPost request = prepareRequest();
+                HttpPost request = prepareRequest(endpoint);
                 // set body
-                request.setEntity(new ByteArrayEntity(baos.toByteArray()));
+                request.setEntity(body);
                 // send it
                 HttpResponse response = client.execute(request);
-
-                // get response reader for current protocol
-                FrpcResponseReader responseReader = FrpcResponseReader.forProtocol(protocol);
-                // get response body and content length
-                InputStream body = response.getEntity().getContent();
-                long contentLength = response.getEntity().getContentLength();
-                try {
-                    // unmarshall the response body into an object
-                    Object responseObject = responseReader.read(body, contentLength);
-                    // create FRPC result out of the unmarshalled response
-                    output = new FrpcCallResult<>(responseObject, response.getStatusLine().getStatusCode());
-                } finally {
-                    EntityUtils.consumeQuietly(response.getEntity());
-                }
-                // done, break the cycle
-                break;
+                retryBudget.recordSuccess();
+                recordResponse(endpoint, circuitBreaker, startNanos, response);
+                recorded = true;
+                // read the response and return it
+                return readResponse(response);
             } catch (IOException e) {
-                if (attempts == maxAttemptCount) {
-                    throw new FrpcTransportException(
-                            "An error occurred repeatedly (" + maxAttemptCount + " times) while trying to call FRPC method " + method,
-                            e);
+                if (!recorded) {
+                    recordFailure(endpoint, circuitBreaker, startNanos, e);
+                }
+                long delay = computeRetryDelayMillis(attempts, e);
+                if (delay < 0) {
+                    throw createFailure(attempts, e);
                 }
-                if (retryDelay > 0) {
+                if (delay > 0) {
                     try {
-                        Thread.sleep(retryDelayTimeUnit.toMillis(retryDelay));
-                    } catch (InterruptedException e1) {
-                        LOGGER.warn("An interrupted exception occurred while waiting for {} {} before another try.",
-                                retryDelay, retryDelayTimeUnit.name());
+                        TimeUnit.MILLISECONDS.sleep(delay);
+                    } catch (InterruptedException interrupted) {
+                        // keep the interrupt status so that the caller can react to it
+                        Thread.currentThread().interrupt();
+                        throw new FrpcTransportException("Interrupted while waiting to retry FRPC method " + method, e);
                     }
                 }
+            } catch (RuntimeException e) {
+                // the request may not have been sent at all, do not count it either way
+                if (!recorded) {
+                    endpoint.onRequestAbandoned();
+                    abandon(circuitBreaker);
+                }
+                throw e;
+            }
+        }
+    }
+
+    private void checkDeadline(int attempt) {
+        if (deadline != null && deadline.isExpired()) {
+            throw new FrpcDeadlineExceededException("Deadline of FRPC method " + method + " expired before attempt " +
+                    attempt + " could be made");
+        }
+    }
+
+    private FrpcCircuitBreaker acquireCircuitBreakerPermission(FrpcEndpoint endpoint) {
+        FrpcCircuitBreaker circuitBreaker = frpcClient.getCircuitBreaker(endpoint.getUri(), method);
+        if (circuitBreaker != null && !circuitBreaker.tryAcquirePermission()) {
+            throw new FrpcCircuitBreakerOpenException(circuitBreaker.getName(),
+                    circuitBreaker.getRetryAfter(TimeUnit.MILLISECONDS));
+        }
+        return circuitBreaker;
+    }
+
+    private static void abandon(FrpcCircuitBreaker circuitBreaker) {
+        if (circuitBreaker != null) {
+            circuitBreaker.onCallAbandoned();
+        }
+    }
+
+    private void recordResponse(FrpcEndpoint endpoint, FrpcCircuitBreaker circuitBreaker, long startNanos,
+                                HttpResponse response) {
+        long durationNanos = System.nanoTime() - startNanos;
+        long retryAfterMillis = getRetryAfterMillis(response);
+        if (retryAfterMillis > 0) {
+            // the server rejected the call to protect itself (typically by a fault with status 503), such response
+            // says nothing about the health or the latency of the endpoint, only the circuit breaker backs off
+            endpoint.onRequestAbandoned();
+            if (circuitBreaker != null) {
+                circuitBreaker.onResult(durationNanos, false, retryAfterMillis);
             }
-        } while (attempts <= maxAttemptCount);
-        // return the result
-        return output;
+            return;
+        }
+        // faults are fine, only server errors count as failures
+        boolean failed = response.getStatusLine().getStatusCode() >= 500;
+        frpcClient.onRequestFinished(endpoint, durationNanos, failed);
+        if (!failed) {
+            frpcClient.recordLatency(method, durationNanos);
+        }
+        if (circuitBreaker != null) {
+            circuitBreaker.onResult(durationNanos, failed, 0);
+        }
+    }
+
+    private void recordFailure(FrpcEndpoint endpoint, FrpcCircuitBreaker circuitBreaker, long startNanos,
+                               Exception e) {
+        long durationNanos = System.nanoTime() - startNanos;
+        frpcClient.onRequestFinished(endpoint, durationNanos, true);
+        // a timed out response would have taken at least this long, leaving it out would make adaptive timeouts
+        // shrink every time they cut off slow responses
+        if (e instanceof SocketTimeoutException) {
+            frpcClient.recordLatency(method, durationNanos);
+        }
+        if (circuitBreaker != null) {
+            circuitBreaker.onResult(durationNanos, true, 0);
+        }
+    }
+
+    private static long getRetryAfterMillis(HttpResponse response) {
+        // prefer our own header with millisecond precision, fall back to the standard one in seconds
+        Header header = response.getFirstHeader(FrpcHttpHeaders.RETRY_AFTER);
+        if (header != null) {
+            return NumberUtils.toLong(header.getValue().trim());
+        }
+        header = response.getFirstHeader(HttpHeaders.RETRY_AFTER);
+        if (header != null) {
+            return TimeUnit.SECONDS.toMillis(NumberUtils.toLong(header.getValue().trim()));
+        }
+        return 0;
+    }
+
+    /**
+     * Decides whether to retry the call after given failed attempt and computes the delay before the retry.
+     *
+     * @param attempts number of attempts made so far
+     * @param e        the exception the last attempt failed with
+     * @return the delay in milliseconds or a negative number if the call must not be retried
+     */
+    private long computeRetryDelayMillis(int attempts, Exception e) {
+        if (attempts >= maxAttemptCount) {
+            return -1;
+        }
+        if (!retryPolicy.isRetryable(isIdempotent(), e)) {
+            LOGGER.debug("Not retrying call to non-idempotent method {} which might have reached the server", method);
+            return -1;
+        }
+        long delay = retryPolicy.computeDelayMillis(attempts, retryDelayTimeUnit.toMillis(retryDelay));
+        if (deadline != null && delay >= deadline.getRemaining(TimeUnit.MILLISECONDS)) {
+            LOGGER.debug("Not retrying call to method {}, its deadline would expire", method);
+            return -1;
+        }
+        if (!retryBudget.tryAcquireRetry()) {
+            LOGGER.debug("Not retrying call to method {}, retry budget is exhausted", method);
+            return -1;
+        }
+        return delay;
+    }
+
+    private FrpcTransportException createFailure(int attempts, Exception e) {
+        if (deadline != null && deadline.isExpired()) {
+            return new FrpcDeadlineExceededException("Deadline of FRPC method " + method + " expired after " +
+                    attempts + (attempts == 1 ? " attempt" : " attempts"), e);
+        }
+        if (attempts == 1) {
+            return new FrpcTransportException("An error occurred while trying to call FRPC method " + method, e);
+        }
+        return new FrpcTransportException("An error occurred repeatedly (" + attempts + " times) while trying to " +
+                "call FRPC method " + method, e);
+    }
+
+    private FrpcRequestEntity encodeRequest() {
+        // prepared calls have the fixed parts of the request serialized already, unless this call changed them
+        if (preparedCall != null && preparedCall.isSerializedFor(protocol, implicitParameters,
+                prependImplicitParams)) {
+            return preparedCall.createEntity(parameters);
+        }
+        // create FrpcRequest
+        FrpcRequest frpcRequest = new FrpcRequest(method, prepareMethodParameters());
+        // wrap it into an entity which serializes it as needed
+        return new FrpcRequestEntity(protocol, frpcRequest);
+    }
+
+    private FrpcCallResult<Object> readResponse(HttpResponse response) throws IOException {
+        int status = response.getStatusLine().getStatusCode();
+        // the cached result has not changed, there is no body to read
+        if (cachedVersionTag != null && status == HttpStatus.SC_NOT_MODIFIED) {
+            EntityUtils.consumeQuietly(response.getEntity());
+            return new FrpcCallResult<>(null, status, cachedVersionTag);
+        }
+        // get response reader for current protocol
+        FrpcResponseReader responseReader = FrpcResponseReader.forProtocol(protocol);
+        // get response body and content length
+        InputStream body = response.getEntity().getContent();
+        long contentLength = response.getEntity().getContentLength();
+        try {
+            // unmarshall the response body into an object
+            // members left out by the projection are not decoded even if the server sent them
+            Object responseObject = responseReader.read(body, contentLength, projection);
+            // create FRPC result out of the unmarshalled response
+            Header versionTag = response.getFirstHeader(HttpHeaders.ETAG);
+            return new FrpcCallResult<>(responseObject, status,
+                    versionTag == null ? null : FrpcVersionTags.fromHeaderValue(versionTag.getValue()));
+        } finally {
+            EntityUtils.consumeQuietly(response.getEntity());
+        }
     }
 
-    private HttpPost prepareRequest() {
-        HttpPost request = new HttpPost(uri);
+    private HttpPost prepareRequest(FrpcEndpoint endpoint) {
+        HttpPost request = new HttpPost(endpoint.getUri());
+        // the attempt must not outlive the deadline of the call
+        long remaining = deadline == null ? -1 : Math.max(1, deadline.getRemaining(TimeUnit.MILLISECONDS));
+        // unless overridden, the socket timeout adapts to recent response times of the method
+        Long socketTimeout = this.socketTimeout;
+        TimeUnit socketTimeoutTimeUnit = this.socketTimeoutTimeUnit;
+        long adaptiveSocketTimeout = socketTimeoutOverridden ? -1 :
+                frpcClient.getAdaptiveSocketTimeout(method, TimeUnit.MILLISECONDS);
+        if (adaptiveSocketTimeout > 0) {
+            socketTimeout = adaptiveSocketTimeout;
+            socketTimeoutTimeUnit = TimeUnit.MILLISECONDS;
+        }
         // set timeouts
-        if (connectTimeout != null || socketTimeout != null) {
+        if (connectTimeout != null || socketTimeout != null || remaining > 0) {
             RequestConfig.Builder configBuilder = RequestConfig.custom();
-            if (connectTimeout != null) {
-                configBuilder.setConnectTimeout((int) connectTimeoutTimeUnit.toMillis(connectTimeout));
+            if (connectTimeout != null || remaining > 0) {
+                configBuilder.setConnectTimeout(limitTimeout(connectTimeout == null ? -1 :
+                        connectTimeoutTimeUnit.toMillis(connectTimeout), remaining));
             }
-            if (socketTimeout != null) {
-                configBuilder.setSocketTimeout((int) socketTimeoutTimeUnit.toMillis(socketTimeout));
+            if (socketTimeout != null || remaining > 0) {
+                configBuilder.setSocketTimeout(limitTimeout(socketTimeout == null ? -1 :
+                        socketTimeoutTimeUnit.toMillis(socketTimeout), remaining));
             }
             request.setConfig(configBuilder.build());
         }
@@ -285,11 +932,44 @@ public class FrpcMethodCall {
         request.addHeader(HttpHeaders.CONTENT_TYPE, protocol.getContentType());
         // set headers
         headers.forEach(request::setHeader);
+        // tell the server which members of the result we are interested in
+        if (projection != null) {
+            request.setHeader(FrpcHttpHeaders.PROJECTION, projection.toHeaderValue());
+        }
+        // tell the server how urgent the call is
+        if (priority != null) {
+            request.setHeader(FrpcHttpHeaders.PRIORITY, priority.toHeaderValue());
+        }
+        // tell the server which version of the result we already have
+        if (cachedVersionTag != null) {
+            request.setHeader(HttpHeaders.IF_NONE_MATCH, FrpcVersionTags.toHeaderValue(cachedVersionTag));
+        }
+        // tell the server how long we are going to wait
+        if (remaining > 0) {
+            request.setHeader(FrpcHttpHeaders.TIMEOUT, Long.toString(remaining));
+        }
         // return the request
         return request;
     }
 
-    private List<Object> prepareMethodParameters() {
+    private static int limitTimeout(long timeoutMillis, long remainingMillis) {
+        // zero means infinite and negative means system default, both of which may be longer than the remaining time
+        if (remainingMillis > 0 && (timeoutMillis <= 0 || timeoutMillis > remainingMillis)) {
+            return (int) Math.min(remainingMillis, Integer.MAX_VALUE);
+        }
+        return (int) timeoutMillis;
+    }
+
+    /**
+     * Returns the name of the method to call.
+     *
+     * @return the name of the method to call
+     */
+    String getMethod() {
+        return method;
+    }
+
+    List<Object> prepareMethodParameters() {
         // if no implicit parameters are given
         if (implicitParameters == null || implicitParameters.isEmpty()) {
             // return just regular method parameters
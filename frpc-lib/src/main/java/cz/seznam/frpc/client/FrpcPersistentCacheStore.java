@@ -0,0 +1,431 @@
+package cz.seznam.frpc.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent tier of {@link FrpcResponseCache}, keeping serialized results in a memory-mapped file so that they
+ * survive restarts of the application. The file is an append-only log of records, each holding the key, the
+ * serialized result and its expiration in wall clock time. Records are located by a hash index kept off-heap in a
+ * direct buffer, which maps 64-bit hashes of keys to offsets of their latest records.
+ * <p>
+ * When the file is full, it is compacted: live records are copied into a new file which then atomically replaces the
+ * old one. Invalidated results are recorded by tombstone records so that they are not brought back when the log is
+ * read again. Records are protected by checksums, a record torn by a crash ends the log.
+ * <p>
+ * Instances are thread-safe, all operations are serialized.
+ *
+ * @author David Moidl david.moidl@firma.seznam.cz
+ */
+class FrpcPersistentCacheStore implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FrpcPersistentCacheStore.class);
+
+    /**
+     * Length of record header: length, checksum, expiration, stale expiration, status, method length, parameters
+     * length and value length.
+     */
+    private static final int HEADER_LENGTH = 4 + 4 + 8 + 8 + 4 + 4 + 4 + 4;
+    private static final int TOMBSTONE = -1;
+    private static final int INITIAL_INDEX_SLOTS = 1024;
+    private static final long EMPTY_SLOT = 0;
+    private static final long DELETED_SLOT = -1;
+
+    /**
+     * Result read from the store.
+     */
+    static final class StoredResult {
+
+        final byte[] value;
+        final int httpResponseStatus;
+        final long expiresAtMillis;
+        final long staleUntilMillis;
+
+        private StoredResult(byte[] value, int httpResponseStatus, long expiresAtMillis, long staleUntilMillis) {
+            this.value = value;
+            this.httpResponseStatus = httpResponseStatus;
+            this.expiresAtMillis = expiresAtMillis;
+            this.staleUntilMillis = staleUntilMillis;
+        }
+
+    }
+
+    private Path file;
+    private int capacity;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int position;
+
+    // open addressing table of (hash, offset + 1) pairs, offset 0 marks an empty slot and -1 a deleted one
+    private ByteBuffer index;
+    private int indexSlots;
+    private int indexUsed;
+
+    /**
+     * Opens the store in given file, reading records already present.
+     *
+     * @param file     the file
+     * @param capacity maximum size of the file in bytes
+     * @throws IOException if the file could not be opened
+     */
+    FrpcPersistentCacheStore(Path file, int capacity) throws IOException {
+        this.file = Objects.requireNonNull(file);
+        this.capacity = capacity;
+        map();
+        load();
+    }
+
+    /**
+     * Finds the result stored under given key.
+     *
+     * @param method     name of the method
+     * @param parameters serialized parameters
+     * @return the result or {@code null} if there is none which could still be used
+     */
+    synchronized StoredResult get(String method, byte[] parameters) {
+        if (channel == null) {
+            return null;
+        }
+        byte[] methodBytes = method.getBytes(StandardCharsets.UTF_8);
+        int slot = findSlot(hash(methodBytes, parameters), methodBytes, parameters);
+        if (slot < 0) {
+            return null;
+        }
+        int offset = (int) index.getLong(slot * 16 + 8) - 1;
+        ByteBuffer record = buffer.duplicate();
+        record.position(offset + 8);
+        long expiresAt = record.getLong();
+        long staleUntil = record.getLong();
+        if (staleUntil <= System.currentTimeMillis()) {
+            return null;
+        }
+        int status = record.getInt();
+        int methodLength = record.getInt();
+        int parametersLength = record.getInt();
+        byte[] value = new byte[record.getInt()];
+        record.position(record.position() + methodLength + parametersLength);
+        record.get(value);
+        return new StoredResult(value, status, expiresAt, staleUntil);
+    }
+
+    /**
+     * Stores given result under given key.
+     *
+     * @param method             name of the method
+     * @param parameters         serialized parameters
+     * @param value              serialized result
+     * @param httpResponseStatus HTTP status of the response
+     * @param expiresAtMillis    wall clock time the result expires at
+     * @param staleUntilMillis   wall clock time until which the expired result may be used
+     */
+    synchronized void put(String method, byte[] parameters, byte[] value, int httpResponseStatus,
+                          long expiresAtMillis, long staleUntilMillis) {
+        append(method.getBytes(StandardCharsets.UTF_8), parameters, value, httpResponseStatus, expiresAtMillis,
+                staleUntilMillis);
+    }
+
+    /**
+     * Removes all results of given method.
+     *
+     * @param method name of the method
+     */
+    synchronized void invalidate(String method) {
+        if (channel == null) {
+            return;
+        }
+        byte[] methodBytes = method.getBytes(StandardCharsets.UTF_8);
+        // collect the keys first, appending may compact the file and rebuild the index
+        List<byte[]> invalidated = new ArrayList<>();
+        for (int slot = 0; slot < indexSlots; slot++) {
+            long offset = index.getLong(slot * 16 + 8);
+            if (offset != EMPTY_SLOT && offset != DELETED_SLOT &&
+                    Arrays.equals(readMethod((int) offset - 1), methodBytes)) {
+                invalidated.add(readParameters((int) offset - 1));
+            }
+        }
+        // record the removals so that reading the log again does not bring the results back
+        for (byte[] parameters : invalidated) {
+            append(methodBytes, parameters, null, 0, 0, 0);
+        }
+    }
+
+    /**
+     * Removes all results.
+     */
+    synchronized void invalidateAll() {
+        if (channel == null) {
+            return;
+        }
+        position = 0;
+        buffer.putInt(0, 0);
+        clearIndex(INITIAL_INDEX_SLOTS);
+    }
+
+    /**
+     * Returns the number of results in the store, including expired ones which have not been compacted yet.
+     *
+     * @return the number of results
+     */
+    synchronized int getSize() {
+        int size = 0;
+        for (int slot = 0; slot < indexSlots; slot++) {
+            long offset = index.getLong(slot * 16 + 8);
+            if (offset != EMPTY_SLOT && offset != DELETED_SLOT) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            buffer.force();
+            channel.close();
+            channel = null;
+        }
+    }
+
+    private void map() throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    private void load() {
+        // bring the file into memory right away rather than on first calls
+        buffer.load();
+        clearIndex(INITIAL_INDEX_SLOTS);
+        long now = System.currentTimeMillis();
+        int offset = 0;
+        int loaded = 0;
+        // read records until the end of the log or the first damaged record
+        while (offset + HEADER_LENGTH <= capacity) {
+            int length = buffer.getInt(offset);
+            if (length < HEADER_LENGTH || offset + length > capacity || !isConsistent(offset, length) ||
+                    checksum(offset, length) != buffer.getInt(offset + 4)) {
+                break;
+            }
+            byte[] methodBytes = readMethod(offset);
+            byte[] parameters = readParameters(offset);
+            int slot = findSlot(hash(methodBytes, parameters), methodBytes, parameters);
+            if (slot >= 0) {
+                index.putLong(slot * 16 + 8, DELETED_SLOT);
+            }
+            boolean tombstone = buffer.getInt(offset + 36) == TOMBSTONE;
+            if (!tombstone && buffer.getLong(offset + 16) > now) {
+                indexRecord(hash(methodBytes, parameters), offset);
+                loaded++;
+            }
+            offset += length;
+        }
+        this.position = offset;
+        LOGGER.debug("Loaded {} cached results from {}", loaded, file);
+    }
+
+    private void append(byte[] methodBytes, byte[] parameters, byte[] value, int httpResponseStatus,
+                        long expiresAtMillis, long staleUntilMillis) {
+        if (channel == null) {
+            return;
+        }
+        // the index always points to the latest record of the key, forget the previous one
+        long hash = hash(methodBytes, parameters);
+        int slot = findSlot(hash, methodBytes, parameters);
+        if (slot >= 0) {
+            index.putLong(slot * 16 + 8, DELETED_SLOT);
+        }
+        int length = HEADER_LENGTH + methodBytes.length + parameters.length + (value == null ? 0 : value.length);
+        // keep room for the end marker
+        if (position + length + 4 > capacity) {
+            compact();
+            if (position + length + 4 > capacity) {
+                LOGGER.debug("Result of size {} does not fit into {}, not storing it", length, file);
+                return;
+            }
+        }
+        int offset = position;
+        ByteBuffer record = buffer.duplicate();
+        record.position(offset + 8);
+        record.putLong(expiresAtMillis);
+        record.putLong(staleUntilMillis);
+        record.putInt(httpResponseStatus);
+        record.putInt(methodBytes.length);
+        record.putInt(parameters.length);
+        record.putInt(value == null ? TOMBSTONE : value.length);
+        record.put(methodBytes);
+        record.put(parameters);
+        if (value != null) {
+            record.put(value);
+        }
+        // mark the end of the log so that older data behind the record is not mistaken for records
+        buffer.putInt(offset + length, 0);
+        buffer.putInt(offset + 4, checksum(offset, length));
+        // the length goes last, an incomplete record is not valid
+        buffer.putInt(offset, length);
+        position = offset + length;
+        if (value != null) {
+            indexRecord(hash, offset);
+        }
+    }
+
+    private void compact() {
+        Path compacted = file.resolveSibling(file.getFileName() + ".compact");
+        long now = System.currentTimeMillis();
+        try {
+            Files.deleteIfExists(compacted);
+            int slots = indexSlots;
+            ByteBuffer oldIndex = index;
+            MappedByteBuffer oldBuffer = buffer;
+            try (FileChannel target = FileChannel.open(compacted, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer targetBuffer = target.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+                clearIndex(INITIAL_INDEX_SLOTS);
+                int targetPosition = 0;
+                // copy the latest records of all keys which can still be used
+                for (int slot = 0; slot < slots; slot++) {
+                    long offset = oldIndex.getLong(slot * 16 + 8);
+                    if (offset == EMPTY_SLOT || offset == DELETED_SLOT) {
+                        continue;
+                    }
+                    int recordOffset = (int) offset - 1;
+                    if (oldBuffer.getLong(recordOffset + 16) <= now) {
+                        continue;
+                    }
+                    int length = oldBuffer.getInt(recordOffset);
+                    ByteBuffer record = oldBuffer.duplicate();
+                    record.position(recordOffset).limit(recordOffset + length);
+                    targetBuffer.position(targetPosition);
+                    targetBuffer.put(record);
+                    indexRecord(oldIndex.getLong(slot * 16), targetPosition);
+                    targetPosition += length;
+                }
+                targetBuffer.force();
+                this.position = targetPosition;
+            }
+            channel.close();
+            Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            map();
+            LOGGER.debug("Compacted {} to {} bytes", file, position);
+        } catch (IOException e) {
+            LOGGER.warn("Could not compact {}, dropping cached results", file, e);
+            // the old mapping may not be usable any more, start over with an empty store
+            try {
+                if (channel.isOpen()) {
+                    channel.close();
+                }
+                Files.deleteIfExists(file);
+                map();
+                position = 0;
+                clearIndex(INITIAL_INDEX_SLOTS);
+            } catch (IOException again) {
+                LOGGER.warn("Could not reopen {}, persistent cache turned off", file, again);
+                channel = null;
+            }
+        }
+    }
+
+    private void clearIndex(int slots) {
+        this.index = ByteBuffer.allocateDirect(slots * 16);
+        this.indexSlots = slots;
+        this.indexUsed = 0;
+    }
+
+    private void indexRecord(long hash, int offset) {
+        // keep the table at most half full, deleted slots included
+        if ((indexUsed + 1) * 2 > indexSlots) {
+            ByteBuffer old = index;
+            int oldSlots = indexSlots;
+            clearIndex(indexSlots * 2);
+            for (int slot = 0; slot < oldSlots; slot++) {
+                long oldOffset = old.getLong(slot * 16 + 8);
+                if (oldOffset != EMPTY_SLOT && oldOffset != DELETED_SLOT) {
+                    insert(old.getLong(slot * 16), oldOffset);
+                }
+            }
+        }
+        insert(hash, offset + 1);
+    }
+
+    private void insert(long hash, long offsetPlusOne) {
+        int slot = (int) ((hash & Long.MAX_VALUE) % indexSlots);
+        while (index.getLong(slot * 16 + 8) != EMPTY_SLOT) {
+            slot = (slot + 1) % indexSlots;
+        }
+        index.putLong(slot * 16, hash);
+        index.putLong(slot * 16 + 8, offsetPlusOne);
+        indexUsed++;
+    }
+
+    private int findSlot(long hash, byte[] methodBytes, byte[] parameters) {
+        int slot = (int) ((hash & Long.MAX_VALUE) % indexSlots);
+        for (int probes = 0; probes < indexSlots; probes++) {
+            long offset = index.getLong(slot * 16 + 8);
+            if (offset == EMPTY_SLOT) {
+                return -1;
+            }
+            // hashes may collide, compare the keys themselves as well
+            if (offset != DELETED_SLOT && index.getLong(slot * 16) == hash &&
+                    Arrays.equals(readMethod((int) offset - 1), methodBytes) &&
+                    Arrays.equals(readParameters((int) offset - 1), parameters)) {
+                return slot;
+            }
+            slot = (slot + 1) % indexSlots;
+        }
+        return -1;
+    }
+
+    private byte[] readMethod(int offset) {
+        byte[] method = new byte[buffer.getInt(offset + 28)];
+        ByteBuffer record = buffer.duplicate();
+        record.position(offset + HEADER_LENGTH);
+        record.get(method);
+        return method;
+    }
+
+    private byte[] readParameters(int offset) {
+        byte[] parameters = new byte[buffer.getInt(offset + 32)];
+        ByteBuffer record = buffer.duplicate();
+        record.position(offset + HEADER_LENGTH + buffer.getInt(offset + 28));
+        record.get(parameters);
+        return parameters;
+    }
+
+    private boolean isConsistent(int offset, int length) {
+        int methodLength = buffer.getInt(offset + 28);
+        int parametersLength = buffer.getInt(offset + 32);
+        int valueLength = buffer.getInt(offset + 36);
+        return methodLength >= 0 && parametersLength >= 0 && valueLength >= TOMBSTONE &&
+                (long) HEADER_LENGTH + methodLength + parametersLength + Math.max(valueLength, 0) == length;
+    }
+
+    private int checksum(int offset, int length) {
+        CRC32 crc = new CRC32();
+        ByteBuffer record = buffer.duplicate();
+        record.position(offset + 8).limit(offset + length);
+        crc.update(record);
+        return (int) crc.getValue();
+    }
+
+    private static long hash(byte[] methodBytes, byte[] parameters) {
+        byte[] key = Arrays.copyOf(methodBytes, methodBytes.length + parameters.length);
+        System.arraycopy(parameters, 0, key, methodBytes.length, parameters.length);
+        return FrpcHashRing.hash(key);
+    }
+
+}
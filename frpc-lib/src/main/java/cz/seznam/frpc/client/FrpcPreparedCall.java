@@ -0,0 +1,168 @@
+package cz.seznam.frpc.client;
+
+import cz.seznam.frpc.core.ConversionResult;
+import cz.seznam.frpc.core.FrpcTypesConverter;
+import cz.seznam.frpc.core.serialization.FrpcMarshaller;
+import cz.seznam.frpc.core.transport.Protocol;
+import org.apache.commons.io.output.ByteArrayOutputStream;
+
+import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * Immutable, thread-safe template of calls to single {@code FRPC} method, created by
+ * {@link FrpcClient#prepare(String, Class)}. Everything the calls have in common is resolved just once when the
+ * template is created: the implicit parameters, the conversion of results to the Java type and, if the client uses
+ * binary {@code FRPC} protocol, also the serialized magic number, method name and implicit parameters. Each call
+ * then only serializes its own parameters and appends them to the serialized fixed part, which makes templates well
+ * suited for methods called often, with the same authentication tokens or tenant ids sent along every time.
+ * <p>
+ * Calls made by a template behave just like calls made by {@link FrpcClient#call(String, Object...)}, including
+ * retries, load balancing and call coalescing. Calls prepared by {@link #prepareCall(Object...)} can still override
+ * settings of the client; if they change implicit parameters, their requests are serialized as a whole.
+ *
+ * @param <T> type results of the calls are converted to
+ * @author David Moidl david.moidl@firma.seznam.cz
+ */
+public class FrpcPreparedCall<T> {
+
+    private final FrpcClient frpcClient;
+    private final String method;
+    private final Type resultType;
+    private final Function<Object, ConversionResult> resultConverter;
+    private final Protocol protocol;
+    private final List<Object> implicitParameters;
+    private final boolean prependImplicitParams;
+    private final byte[] prefix;
+    private final byte[] suffix;
+
+    FrpcPreparedCall(FrpcClient frpcClient, String method, Type resultType) {
+        this.frpcClient = Objects.requireNonNull(frpcClient);
+        this.method = Objects.requireNonNull(method);
+        this.resultType = Objects.requireNonNull(resultType);
+        this.resultConverter = FrpcTypesConverter.converterFor(resultType);
+        this.protocol = frpcClient.getProtocol();
+        this.implicitParameters = frpcClient.getImplicitParameters();
+        this.prependImplicitParams = frpcClient.isPrependImplicitParams();
+        // serialize the fixed parts of the request just once, binary format allows for simply concatenating them
+        if (protocol == Protocol.FRPC) {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            FrpcMarshaller marshaller = new FrpcMarshaller(baos);
+            marshaller.writeRequestHeader(method);
+            if (prependImplicitParams) {
+                marshaller.writeRequestParameters(implicitParameters);
+            }
+            this.prefix = baos.toByteArray();
+            baos.reset();
+            if (!prependImplicitParams) {
+                marshaller.writeRequestParameters(implicitParameters);
+            }
+            this.suffix = baos.toByteArray();
+        } else {
+            // XML-RPC requests are serialized as a whole
+            this.prefix = null;
+            this.suffix = null;
+        }
+    }
+
+    /**
+     * Returns the name of the method this template calls.
+     *
+     * @return name of the {@code FRPC} method
+     */
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * Returns the Java type results of the calls are converted to.
+     *
+     * @return the result type
+     */
+    public Type getResultType() {
+        return resultType;
+    }
+
+    /**
+     * Prepares call of the method with given parameters and returns it without executing. This can be useful for
+     * one-time overrides of properties set to the {@code FrpcClient}.
+     *
+     * @param params {@code FRPC} method params
+     * @return instance of {@link FrpcMethodCall} representing the method call which has not yet been executed
+     */
+    public FrpcMethodCall prepareCall(Object... params) {
+        return new FrpcMethodCall(this, Arrays.asList(Objects.requireNonNull(params)));
+    }
+
+    /**
+     * Calls the method with given parameters and returns its result converted to the result type of this template.
+     *
+     * @param params {@code FRPC} method params
+     * @return result of remote method invocation
+     * @throws FrpcFaultException if the method returned a fault
+     * @throws ClassCastException if the result could not be converted to the result type
+     * @see FrpcClient#call(String, Object...)
+     */
+    public T call(Object... params) {
+        return convert(frpcClient.execute(prepareCall(params)));
+    }
+
+    /**
+     * Calls the method with given parameters asynchronously. The result is converted to the result type of this
+     * template.
+     *
+     * @param params {@code FRPC} method params
+     * @return future completed by the result of remote method invocation
+     * @see FrpcClient#callAsync(String, Object...)
+     */
+    public CompletableFuture<T> callAsync(Object... params) {
+        return frpcClient.executeAsync(prepareCall(params)).thenApply(this::convert);
+    }
+
+    @SuppressWarnings("unchecked")
+    private T convert(FrpcCallResult<Object> result) {
+        return (T) result.as(resultConverter, resultType);
+    }
+
+    FrpcClient getFrpcClient() {
+        return frpcClient;
+    }
+
+    List<Object> getImplicitParameters() {
+        return implicitParameters;
+    }
+
+    boolean isPrependImplicitParams() {
+        return prependImplicitParams;
+    }
+
+    /**
+     * Checks whether the fixed parts of requests are serialized for calls with given settings.
+     *
+     * @param protocol              protocol of the call
+     * @param implicitParameters    implicit parameters of the call
+     * @param prependImplicitParams whether the call prepends its implicit parameters
+     * @return {@code true} if {@link #createEntity(List)} can be used for the call
+     */
+    boolean isSerializedFor(Protocol protocol, List<Object> implicitParameters, boolean prependImplicitParams) {
+        // implicit parameters of a call are copied before they are changed, so the identity is enough
+        return prefix != null && protocol == this.protocol && implicitParameters == this.implicitParameters &&
+                prependImplicitParams == this.prependImplicitParams;
+    }
+
+    /**
+     * Creates the entity of a request with given variable parameters.
+     *
+     * @param parameters the variable parameters
+     * @return new request entity
+     */
+    FrpcRequestEntity createEntity(List<Object> parameters) {
+        return new FrpcRequestEntity(prefix, parameters == null ? Collections.emptyList() : parameters, suffix);
+    }
+
+}
@@ -0,0 +1,153 @@
+package cz.seznam.frpc.client;
+
+import cz.seznam.frpc.core.serialization.FrpcMarshaller;
+import cz.seznam.frpc.core.transport.FrpcRequest;
+import cz.seznam.frpc.core.transport.FrpcRequestWriter;
+import cz.seznam.frpc.core.transport.FrpcTransportException;
+import cz.seznam.frpc.core.transport.Protocol;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.http.entity.AbstractHttpEntity;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Repeatable HTTP entity carrying single {@link FrpcRequest}. The request is first serialized into a counting stream
+ * which discards the data, so that the exact content length is known without holding the serialized request in
+ * memory. Small requests are then serialized once into a buffer shared by all attempts (retries and hedges) of the
+ * call. Large ones are serialized straight into the connection each time the entity is written, which avoids holding
+ * several copies of a large request in the heap.
+ * <p>
+ * Requests made by {@link FrpcPreparedCall} may come with their fixed parts (magic number, method name and implicit
+ * parameters) already serialized in binary {@code FRPC} format, only the variable parameters are serialized then.
+ * <p>
+ * Writers streaming into the connection are only used by blocking calls; asynchronous calls read the content of the
+ * entity through {@link #getContent()}, which serializes large requests into a buffer of its own.
+ *
+ * @author David Moidl david.moidl@firma.seznam.cz
+ */
+class FrpcRequestEntity extends AbstractHttpEntity {
+
+    /**
+     * Size of the largest request kept serialized in memory across attempts.
+     */
+    static final int MAX_BUFFERED_SIZE = 64 * 1024;
+
+    private Protocol protocol;
+    private FrpcRequest request;
+    private byte[] prefix;
+    private List<Object> parameters;
+    private byte[] suffix;
+    private long contentLength;
+    private byte[] buffer;
+
+    /**
+     * Creates new entity of given request.
+     *
+     * @param protocol protocol to serialize the request with
+     * @param request  the request
+     */
+    FrpcRequestEntity(Protocol protocol, FrpcRequest request) {
+        this.protocol = Objects.requireNonNull(protocol);
+        this.request = Objects.requireNonNull(request);
+        init();
+    }
+
+    /**
+     * Creates new entity of binary {@code FRPC} request whose fixed parts are already serialized.
+     *
+     * @param prefix     serialized beginning of the request, that is magic number, method name and implicit
+     *                   parameters if they are prepended
+     * @param parameters the variable parameters of the request
+     * @param suffix     serialized end of the request, that is implicit parameters if they are appended
+     */
+    FrpcRequestEntity(byte[] prefix, List<Object> parameters, byte[] suffix) {
+        this.protocol = Protocol.FRPC;
+        this.prefix = Objects.requireNonNull(prefix);
+        this.parameters = Objects.requireNonNull(parameters);
+        this.suffix = Objects.requireNonNull(suffix);
+        init();
+    }
+
+    private void init() {
+        // sizing pass, only counts the bytes
+        CountingOutputStream counter = new CountingOutputStream(NullOutputStream.NULL_OUTPUT_STREAM);
+        write(counter);
+        this.contentLength = counter.getByteCount();
+        // small requests are cheaper to keep than to serialize again for each attempt
+        if (contentLength <= MAX_BUFFERED_SIZE) {
+            this.buffer = serialize();
+        }
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    @Override
+    public InputStream getContent() {
+        byte[] content = buffer != null ? buffer : serialize();
+        return new ByteArrayInputStream(content);
+    }
+
+    @Override
+    public void writeTo(OutputStream outputStream) throws IOException {
+        Objects.requireNonNull(outputStream);
+        if (buffer != null) {
+            outputStream.write(buffer);
+        } else {
+            try {
+                write(outputStream);
+            } catch (FrpcTransportException e) {
+                // failures of the connection must stay I/O errors, so that the call can be retried
+                Throwable cause = e.getCause();
+                while (cause != null && !(cause instanceof IOException)) {
+                    cause = cause.getCause();
+                }
+                if (cause != null) {
+                    throw (IOException) cause;
+                }
+                throw e;
+            }
+        }
+        outputStream.flush();
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+    private byte[] serialize() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream((int) Math.min(contentLength, Integer.MAX_VALUE - 8));
+        write(baos);
+        return baos.toByteArray();
+    }
+
+    private void write(OutputStream outputStream) {
+        if (request != null) {
+            FrpcRequestWriter.forProtocol(protocol).write(request, outputStream);
+            return;
+        }
+        try {
+            outputStream.write(prefix);
+            new FrpcMarshaller(outputStream).writeRequestParameters(parameters);
+            outputStream.write(suffix);
+        } catch (IOException e) {
+            throw new FrpcTransportException("Error while writing FRPC request into the stream", e);
+        }
+    }
+
+}
@@ -0,0 +1,542 @@
+package cz.seznam.frpc.client;
+
+import cz.seznam.frpc.core.FrpcProjection;
+import cz.seznam.frpc.core.serialization.FrpcMarshaller;
+import cz.seznam.frpc.core.transport.BinaryFrpcResponseReader;
+import org.apache.commons.io.output.ByteArrayOutputStream;
+import org.apache.http.HttpStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * In-memory cache of results of {@code FRPC} methods, used by {@link FrpcClient} when configured to (see
+ * {@link FrpcClient.Builder#responseCache(FrpcResponseCacheConfig)}). Results are cached by method name and
+ * parameters (including implicit ones) of the call, for the time configured for each method.
+ * <p>
+ * Results are kept serialized in binary {@code FRPC} format and deserialized for each call, so that callers always get
+ * their own instances and cannot change results seen by other callers. Only successful results are cached, faults
+ * and failures never are. When the cache is full, the least recently used results are evicted.
+ * <p>
+ * Concurrent calls which miss the same result are collapsed into single call of the method, the others wait for its
+ * result. Expired results may still be used for a while (see
+ * {@link FrpcResponseCacheConfig.Builder#staleWhileRevalidate(long, TimeUnit)}) while single
+ * call refreshes them in the background.
+ * <p>
+ * Results the server sent along with a version tag (see {@link FrpcCallResult#getVersionTag()}) are not dropped once
+ * they expire, they are revalidated instead: the call loading the fresh result sends the tag and if the result has
+ * not changed, the server answers by {@code 304 Not Modified} with no body and the cached result is used again.
+ * <p>
+ * The cache may have a persistent tier (see {@link FrpcResponseCacheConfig.Builder#persistent(java.nio.file.Path,
+ * long)}) keeping results in a memory-mapped file. Results stored there survive restarts of the application and are
+ * moved to memory when needed, so that the cache in memory can stay small. Results are written to the persistent tier
+ * by a dedicated thread, so that threads completing calls (such as I/O dispatchers of {@link
+ * org.apache.http.nio.client.HttpAsyncClient}) never wait for the file to be compacted or flushed.
+ *
+ * @author David Moidl david.moidl@firma.seznam.cz
+ */
+public class FrpcResponseCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FrpcResponseCache.class);
+
+    /**
+     * Estimate of the memory taken by an entry besides the serialized result and parameters.
+     */
+    private static final int ENTRY_OVERHEAD = 128;
+
+    /**
+     * Maximum time {@link #close()} waits for results still being written to the persistent tier.
+     */
+    private static final long PERSISTENCE_SHUTDOWN_TIMEOUT_SECONDS = 10;
+
+    /**
+     * Key of a cached result, that is method name and serialized parameters of the call.
+     */
+    static final class Key {
+
+        private final String method;
+        private final byte[] parameters;
+        private final int hash;
+
+        private Key(String method, byte[] parameters) {
+            this.method = method;
+            this.parameters = parameters;
+            this.hash = 31 * method.hashCode() + (int) FrpcHashRing.hash(parameters);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return hash == key.hash && method.equals(key.method) && Arrays.equals(parameters, key.parameters);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+    }
+
+    /**
+     * Cached result along with its expiration.
+     */
+    private static final class Entry {
+
+        private final byte[] value;
+        private final FrpcCallResult<Object> result;
+        private final int httpResponseStatus;
+        private final long expiresAtNanos;
+        private final long staleUntilNanos;
+        private final long weight;
+        private final String versionTag;
+
+        private Entry(byte[] value, FrpcCallResult<Object> result, int httpResponseStatus, long expiresAtNanos,
+                      long staleUntilNanos, long weight, String versionTag) {
+            this.value = value;
+            this.result = result;
+            this.httpResponseStatus = httpResponseStatus;
+            this.expiresAtNanos = expiresAtNanos;
+            this.staleUntilNanos = staleUntilNanos;
+            this.weight = weight;
+            this.versionTag = versionTag;
+        }
+
+        private static Entry uncached(FrpcCallResult<Object> result) {
+            return new Entry(null, result, result.getHttpResponseStatus(), 0, 0, 0, null);
+        }
+
+        private FrpcCallResult<Object> decode() {
+            if (value == null) {
+                // the result could not be serialized and was not cached, waiting callers share it then
+                return result;
+            }
+            Object decoded = new BinaryFrpcResponseReader().read(new ByteArrayInputStream(value), value.length);
+            return new FrpcCallResult<>(decoded, httpResponseStatus, versionTag);
+        }
+
+    }
+
+    private FrpcResponseCacheConfig config;
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final ConcurrentMap<Key, CompletableFuture<Entry>> loading = new ConcurrentHashMap<>();
+    private long weight;
+    private FrpcPersistentCacheStore persistentStore;
+    private ExecutorService persistenceExecutor;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder staleHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder persistentHits = new LongAdder();
+    private final LongAdder revalidations = new LongAdder();
+
+    FrpcResponseCache(FrpcResponseCacheConfig config) {
+        this.config = Objects.requireNonNull(config);
+        if (config.getPersistentFile() != null) {
+            try {
+                this.persistentStore = new FrpcPersistentCacheStore(config.getPersistentFile(),
+                        config.getPersistentMaxSize());
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not open persistent response cache " +
+                        config.getPersistentFile(), e);
+            }
+            // single thread keeps writes (and invalidations) in order
+            this.persistenceExecutor = Executors.newSingleThreadExecutor(
+                    new FrpcDaemonThreadFactory("frpc-cache-persistence-"));
+        }
+    }
+
+    /**
+     * Returns the number of calls answered by a cached result which was not expired.
+     *
+     * @return the number of hits
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of calls answered by an expired result while it was being refreshed.
+     *
+     * @return the number of stale hits
+     */
+    public long getStaleHitCount() {
+        return staleHits.sum();
+    }
+
+    /**
+     * Returns the number of calls which found no usable result in the cache. Since concurrent misses of the same
+     * result are collapsed, this may be more than the number of calls of methods made (see {@link #getLoadCount()}).
+     *
+     * @return the number of misses
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the number of calls of methods made to load or refresh cached results.
+     *
+     * @return the number of loads
+     */
+    public long getLoadCount() {
+        return loads.sum();
+    }
+
+    /**
+     * Returns the number of results evicted to keep the cache within its limits.
+     *
+     * @return the number of evictions
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * Returns the number of results moved to memory from the persistent tier of the cache.
+     *
+     * @return the number of results found in the persistent tier
+     */
+    public long getPersistentHitCount() {
+        return persistentHits.sum();
+    }
+
+    /**
+     * Returns the number of expired results the server confirmed to be still current by {@code 304 Not Modified}, so
+     * that they did not have to be downloaded again.
+     *
+     * @return the number of revalidated results
+     */
+    public long getRevalidationCount() {
+        return revalidations.sum();
+    }
+
+    /**
+     * Returns the number of results currently cached in memory.
+     *
+     * @return the number of cached results
+     */
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the estimated size of results currently cached, in bytes.
+     *
+     * @return the weight of cached results
+     */
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    /**
+     * Removes all cached results of given method.
+     *
+     * @param method name of the method
+     */
+    public void invalidate(String method) {
+        Objects.requireNonNull(method, "Method must not be null");
+        synchronized (this) {
+            Iterator<Map.Entry<Key, Entry>> iterator = entries.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Key, Entry> entry = iterator.next();
+                if (entry.getKey().method.equals(method)) {
+                    weight -= entry.getValue().weight;
+                    iterator.remove();
+                }
+            }
+        }
+        if (persistentStore != null) {
+            persist(() -> persistentStore.invalidate(method), true);
+        }
+    }
+
+    /**
+     * Removes all cached results.
+     */
+    public void invalidateAll() {
+        synchronized (this) {
+            entries.clear();
+            weight = 0;
+        }
+        if (persistentStore != null) {
+            persist(persistentStore::invalidateAll, true);
+        }
+    }
+
+    /**
+     * Closes the persistent tier of the cache, if there is one. Results still waiting to be written to it are written
+     * first.
+     */
+    void close() {
+        if (persistentStore != null) {
+            persistenceExecutor.shutdown();
+            try {
+                if (!persistenceExecutor.awaitTermination(PERSISTENCE_SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    LOGGER.warn("Results still being written to persistent response cache after {} seconds",
+                            PERSISTENCE_SHUTDOWN_TIMEOUT_SECONDS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            try {
+                persistentStore.close();
+            } catch (IOException e) {
+                LOGGER.warn("Could not close persistent response cache", e);
+            }
+        }
+    }
+
+    /**
+     * Checks whether results of given method are cached.
+     *
+     * @param method name of the method
+     * @return {@code true} if results of the method are cached and {@code false} otherwise
+     */
+    boolean isCached(String method) {
+        return config.getTimeToLiveNanos(method) > 0;
+    }
+
+    /**
+     * Creates the key of result of call with given method name, parameters and projection.
+     *
+     * @param method     name of the method
+     * @param parameters all parameters of the call, including implicit ones
+     * @param projection projection of the result, {@code null} if the whole result is requested
+     * @return the key
+     */
+    Key createKey(String method, List<Object> parameters, FrpcProjection projection) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        new FrpcMarshaller(baos).writeRequestParameters(parameters);
+        if (projection != null) {
+            // no serialized parameter starts with zero byte, so the projection cannot be mistaken for one
+            baos.write(0);
+            byte[] paths = projection.toHeaderValue().getBytes(StandardCharsets.UTF_8);
+            baos.write(paths, 0, paths.length);
+        }
+        return new Key(method, baos.toByteArray());
+    }
+
+    /**
+     * Returns result of the call identified by given key, either cached or loaded by given loader.
+     *
+     * @param key       key of the result
+     * @param loader    calls the method when the result is not cached, given version tag of the expired result to
+     *                  revalidate (or {@code null}); may complete the returned future right away
+     * @param refresher calls the method to refresh expired result in the background, given version tag of the
+     *                  expired result (or {@code null})
+     * @return future completed by the result
+     */
+    CompletableFuture<FrpcCallResult<Object>> get(Key key,
+                                                  Function<String, CompletableFuture<FrpcCallResult<Object>>> loader,
+                                                  Function<String, CompletableFuture<FrpcCallResult<Object>>> refresher) {
+        Entry entry = lookup(key);
+        long now = System.nanoTime();
+        if (entry != null && now - entry.staleUntilNanos < 0) {
+            if (now - entry.expiresAtNanos < 0) {
+                hits.increment();
+                return CompletableFuture.completedFuture(entry.decode());
+            }
+            // expired, but still good enough until a fresh result arrives
+            staleHits.increment();
+            load(key, refresher, entry);
+            return CompletableFuture.completedFuture(entry.decode());
+        }
+        // either not cached at all or expired for good but carrying a version tag to revalidate it by
+        misses.increment();
+        return load(key, loader, entry);
+    }
+
+    private CompletableFuture<FrpcCallResult<Object>> load(Key key,
+            Function<String, CompletableFuture<FrpcCallResult<Object>>> loader, Entry previous) {
+        CompletableFuture<Entry> loaded = new CompletableFuture<>();
+        CompletableFuture<Entry> existing = loading.putIfAbsent(key, loaded);
+        if (existing != null) {
+            // somebody is loading the result already, wait for it
+            return existing.thenApply(Entry::decode);
+        }
+        loads.increment();
+        CompletableFuture<FrpcCallResult<Object>> result;
+        try {
+            result = loader.apply(previous == null || previous.value == null ? null : previous.versionTag);
+        } catch (RuntimeException e) {
+            result = new CompletableFuture<>();
+            result.completeExceptionally(e);
+        }
+        return result.handle((value, e) -> {
+            Entry entry = null;
+            try {
+                // store the result before the load is finished, so that nobody starts another one in between
+                if (e == null) {
+                    entry = store(key, value, previous);
+                }
+            } catch (RuntimeException storeFailure) {
+                // the result is still good, it is just not cached
+                LOGGER.warn("Could not cache result of method {}", key.method, storeFailure);
+                entry = Entry.uncached(value);
+            } finally {
+                // whatever happens, the load is over and callers waiting for it have to be released
+                loading.remove(key, loaded);
+                if (entry != null) {
+                    loaded.complete(entry);
+                } else {
+                    loaded.completeExceptionally(e != null ? e :
+                            new IllegalStateException("Result of method " + key.method + " could not be stored"));
+                }
+            }
+            if (e != null) {
+                throw e instanceof CompletionException ? (CompletionException) e : new CompletionException(e);
+            }
+            // the caller keeps the instance it got, unless the server just confirmed the cached result
+            return entry.result == value ? value : entry.decode();
+        });
+    }
+
+    private Entry lookup(Key key) {
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.versionTag == null && System.nanoTime() - entry.staleUntilNanos >= 0) {
+                // expired for good and there is no way to revalidate it
+                remove(key);
+                return null;
+            }
+            if (entry != null || persistentStore == null) {
+                return entry;
+            }
+        }
+        // look into the persistent tier, it keeps expirations in wall clock time
+        FrpcPersistentCacheStore.StoredResult stored = persistentStore.get(key.method, key.parameters);
+        if (stored == null) {
+            return null;
+        }
+        persistentHits.increment();
+        long nowNanos = System.nanoTime();
+        long nowMillis = System.currentTimeMillis();
+        Entry entry = new Entry(stored.value, null, stored.httpResponseStatus,
+                nowNanos + TimeUnit.MILLISECONDS.toNanos(stored.expiresAtMillis - nowMillis),
+                nowNanos + TimeUnit.MILLISECONDS.toNanos(stored.staleUntilMillis - nowMillis),
+                weigh(key, stored.value), null);
+        if (entry.weight <= config.getMaxWeight()) {
+            insert(key, entry);
+        }
+        return entry;
+    }
+
+    private Entry store(Key key, FrpcCallResult<Object> result, Entry previous) {
+        long timeToLive = config.getTimeToLiveNanos(key.method);
+        long staleWhileRevalidate = config.getStaleWhileRevalidateNanos();
+        long now = System.nanoTime();
+        if (result.getHttpResponseStatus() == HttpStatus.SC_NOT_MODIFIED && previous != null &&
+                previous.value != null) {
+            // the cached result is still current, it only gets new expiration
+            revalidations.increment();
+            Entry entry = new Entry(previous.value, null, previous.httpResponseStatus, now + timeToLive,
+                    now + timeToLive + staleWhileRevalidate, previous.weight, previous.versionTag);
+            insert(key, entry);
+            return entry;
+        }
+        // serialize the result, the caller keeps the instance it got
+        byte[] value;
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            new FrpcMarshaller(baos).writeResponse(result.isNull() ? null : result.asObject());
+            value = baos.toByteArray();
+        } catch (RuntimeException e) {
+            LOGGER.debug("Result of method {} could not be serialized, not caching it", key.method, e);
+            return Entry.uncached(result);
+        }
+        Entry entry = new Entry(value, result, result.getHttpResponseStatus(), now + timeToLive,
+                now + timeToLive + staleWhileRevalidate, weigh(key, value), result.getVersionTag());
+        // faults and failed responses are only shared with callers waiting for them
+        if (result.isFault() || result.getHttpResponseStatus() != HttpStatus.SC_OK) {
+            return entry;
+        }
+        if (entry.weight <= config.getMaxWeight()) {
+            insert(key, entry);
+        }
+        if (persistentStore != null) {
+            long nowMillis = System.currentTimeMillis();
+            persist(() -> persistentStore.put(key.method, key.parameters, value, entry.httpResponseStatus,
+                    nowMillis + TimeUnit.NANOSECONDS.toMillis(timeToLive),
+                    nowMillis + TimeUnit.NANOSECONDS.toMillis(timeToLive + staleWhileRevalidate)), false);
+        }
+        return entry;
+    }
+
+    /**
+     * Runs given operation on the persistent tier by the persistence thread.
+     *
+     * @param operation the operation
+     * @param wait      whether to wait until the operation is done, so that it is visible to subsequent lookups
+     */
+    private void persist(Runnable operation, boolean wait) {
+        CompletableFuture<Void> done;
+        try {
+            done = CompletableFuture.runAsync(operation, persistenceExecutor).exceptionally(e -> {
+                LOGGER.warn("Operation on persistent response cache failed", e);
+                return null;
+            });
+        } catch (RejectedExecutionException e) {
+            // the cache is closed already, so is the persistent tier
+            return;
+        }
+        if (wait) {
+            try {
+                done.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                // failures are logged above
+            }
+        }
+    }
+
+    private synchronized void insert(Key key, Entry entry) {
+        remove(key);
+        entries.put(key, entry);
+        weight += entry.weight;
+        // evict the least recently used entries until the cache fits its limits
+        Iterator<Map.Entry<Key, Entry>> eldest = entries.entrySet().iterator();
+        while ((entries.size() > config.getMaxEntries() || weight > config.getMaxWeight()) && eldest.hasNext()) {
+            Entry evicted = eldest.next().getValue();
+            eldest.remove();
+            weight -= evicted.weight;
+            evictions.increment();
+        }
+    }
+
+    private static long weigh(Key key, byte[] value) {
+        return value.length + key.parameters.length + 2L * key.method.length() + ENTRY_OVERHEAD;
+    }
+
+    private void remove(Key key) {
+        Entry removed = entries.remove(key);
+        if (removed != null) {
+            weight -= removed.weight;
+        }
+    }
+
+}
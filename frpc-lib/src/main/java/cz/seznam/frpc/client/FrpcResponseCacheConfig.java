@@ -0,0 +1,195 @@
+package cz.seznam.frpc.client;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Immutable configuration of the response cache of {@link FrpcClient} (see
+ * {@link FrpcClient.Builder#responseCache(FrpcResponseCacheConfig)}). Caching is opt-in per method: only results of
+ * methods given a time to live are cached, which should only be done for idempotent methods whose results may be
+ * somewhat out of date, such as lookups of configuration. See {@link FrpcResponseCache} for details.
+ *
+ * @author David Moidl david.moidl@firma.seznam.cz
+ */
+public class FrpcResponseCacheConfig {
+
+    private Map<String, Long> timesToLiveNanos;
+    private long staleWhileRevalidateNanos;
+    private int maxEntries;
+    private long maxWeight;
+    private Path persistentFile;
+    private int persistentMaxSize;
+
+    private FrpcResponseCacheConfig(Builder builder) {
+        this.timesToLiveNanos = Collections.unmodifiableMap(new HashMap<>(builder.timesToLiveNanos));
+        this.staleWhileRevalidateNanos = builder.staleWhileRevalidateNanos;
+        this.maxEntries = builder.maxEntries;
+        this.maxWeight = builder.maxWeight;
+        this.persistentFile = builder.persistentFile;
+        this.persistentMaxSize = builder.persistentMaxSize;
+    }
+
+    /**
+     * Builder used to create {@link FrpcResponseCacheConfig} instances.
+     */
+    public static final class Builder {
+
+        private Map<String, Long> timesToLiveNanos = new HashMap<>();
+        private long staleWhileRevalidateNanos;
+        private int maxEntries = 10_000;
+        private long maxWeight = 32 * 1024 * 1024;
+        private Path persistentFile;
+        private int persistentMaxSize;
+
+        private Builder() {
+        }
+
+        /**
+         * Turns on caching of results of given method for given time.
+         *
+         * @param method     name of the method
+         * @param timeToLive how long a result is used before the method is called again
+         * @param timeUnit   the time unit
+         * @return this {@code Builder} instance so that calls can be chained
+         */
+        public Builder method(String method, long timeToLive, TimeUnit timeUnit) {
+            Objects.requireNonNull(method, "Method must not be null");
+            if (timeToLive <= 0) {
+                throw new IllegalArgumentException("Time to live must be positive");
+            }
+            this.timesToLiveNanos.put(method, Objects.requireNonNull(timeUnit, "Time unit must not be null")
+                    .toNanos(timeToLive));
+            return this;
+        }
+
+        /**
+         * Sets how long an expired result may still be used while it is being refreshed in the background. Calls made
+         * within this time after the result expired get the expired result right away and only the first of them
+         * triggers a call of the method refreshing the result.
+         * <p>
+         * Defaults to 0, that is expired results are never used.
+         *
+         * @param time     the time to use expired results for
+         * @param timeUnit the time unit
+         * @return this {@code Builder} instance so that calls can be chained
+         */
+        public Builder staleWhileRevalidate(long time, TimeUnit timeUnit) {
+            if (time < 0) {
+                throw new IllegalArgumentException("Time must not be negative");
+            }
+            this.staleWhileRevalidateNanos = Objects.requireNonNull(timeUnit, "Time unit must not be null")
+                    .toNanos(time);
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of results kept in the cache. The least recently used results are evicted once
+         * the limit is exceeded.
+         * <p>
+         * Defaults to 10000.
+         *
+         * @param maxEntries the maximum number of results
+         * @return this {@code Builder} instance so that calls can be chained
+         */
+        public Builder maxEntries(int maxEntries) {
+            if (maxEntries <= 0) {
+                throw new IllegalArgumentException("Maximum number of entries must be positive");
+            }
+            this.maxEntries = maxEntries;
+            return this;
+        }
+
+        /**
+         * Sets the maximum total size of results kept in the cache, in bytes of their serialized form. The least
+         * recently used results are evicted once the limit is exceeded.
+         * <p>
+         * Defaults to 32 MiB.
+         *
+         * @param maxWeight the maximum size in bytes
+         * @return this {@code Builder} instance so that calls can be chained
+         */
+        public Builder maxWeight(long maxWeight) {
+            if (maxWeight <= 0) {
+                throw new IllegalArgumentException("Maximum weight must be positive");
+            }
+            this.maxWeight = maxWeight;
+            return this;
+        }
+
+        /**
+         * Turns on the persistent tier of the cache, keeping cached results in given memory-mapped file so that they
+         * survive restarts of the application. Results found in the file are loaded when the {@link FrpcClient} is
+         * built, results no longer cached in memory are looked up in the file before methods are called. Given file
+         * must not be used by any other cache, not even of another process.
+         * <p>
+         * Turned off by default.
+         *
+         * @param file    the file to keep cached results in, created if it does not exist
+         * @param maxSize maximum size of the file in bytes, at most 2 GiB
+         * @return this {@code Builder} instance so that calls can be chained
+         */
+        public Builder persistent(Path file, long maxSize) {
+            if (maxSize <= 0 || maxSize > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Maximum size must be positive and at most 2 GiB");
+            }
+            this.persistentFile = Objects.requireNonNull(file, "File must not be null");
+            this.persistentMaxSize = (int) maxSize;
+            return this;
+        }
+
+        /**
+         * Builds new {@link FrpcResponseCacheConfig} from properties set on this builder.
+         *
+         * @return new instance of {@code FrpcResponseCacheConfig}
+         */
+        public FrpcResponseCacheConfig build() {
+            return new FrpcResponseCacheConfig(this);
+        }
+
+    }
+
+    /**
+     * Creates new {@link Builder} instance.
+     *
+     * @return new {@link Builder} instance
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Returns the time results of given method are cached for.
+     *
+     * @param method name of the method
+     * @return time to live in nanoseconds or 0 if results of the method are not cached
+     */
+    long getTimeToLiveNanos(String method) {
+        Long timeToLive = timesToLiveNanos.get(method);
+        return timeToLive == null ? 0 : timeToLive;
+    }
+
+    long getStaleWhileRevalidateNanos() {
+        return staleWhileRevalidateNanos;
+    }
+
+    int getMaxEntries() {
+        return maxEntries;
+    }
+
+    long getMaxWeight() {
+        return maxWeight;
+    }
+
+    Path getPersistentFile() {
+        return persistentFile;
+    }
+
+    int getPersistentMaxSize() {
+        return persistentMaxSize;
+    }
+
+}
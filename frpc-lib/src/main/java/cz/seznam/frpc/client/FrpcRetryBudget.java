@@ -0,0 +1,127 @@
+package cz.seznam.frpc.client;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Client-wide limit of retries preventing retry storms. Within a sliding time window, the number of retries may not
+ * exceed given ratio of successful calls plus given minimum number of retries per second. When a backend struggles
+ * and most calls fail, retries are thus cut down to a small fraction of the traffic instead of multiplying it.
+ * <p>
+ * The window is divided into one-second buckets, so the counts are slightly approximate, which is fine for this
+ * purpose. A budget is created by {@link FrpcRetryPolicy} and shared by all calls made by one {@link FrpcClient}.
+ *
+ * @author David Moidl david.moidl@firma.seznam.cz
+ */
+public class FrpcRetryBudget {
+
+    private static final long BUCKET_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * Counts of one second of the window.
+     */
+    private static class Bucket {
+        private volatile long second = Long.MIN_VALUE;
+        private final LongAdder successes = new LongAdder();
+        private final LongAdder retries = new LongAdder();
+    }
+
+    private double ratio;
+    private long minRetries;
+    private Bucket[] buckets;
+
+    private final LongAdder retriesAllowed = new LongAdder();
+    private final LongAdder retriesRejected = new LongAdder();
+
+    /**
+     * Creates new instance from given arguments.
+     *
+     * @param ratio               maximum ratio of retries to successful calls
+     * @param minRetriesPerSecond number of retries per second allowed regardless of the ratio
+     * @param windowMillis        length of the window in milliseconds
+     */
+    FrpcRetryBudget(double ratio, int minRetriesPerSecond, long windowMillis) {
+        int seconds = (int) Math.max(1, TimeUnit.MILLISECONDS.toSeconds(windowMillis));
+        this.ratio = ratio;
+        this.minRetries = (long) minRetriesPerSecond * seconds;
+        this.buckets = new Bucket[seconds];
+        for (int i = 0; i < seconds; i++) {
+            buckets[i] = new Bucket();
+        }
+    }
+
+    /**
+     * Records a successful call, that is a call which got any response from the server.
+     */
+    void recordSuccess() {
+        currentBucket().successes.increment();
+    }
+
+    /**
+     * Tries to withdraw one retry from the budget.
+     *
+     * @return {@code true} if the retry may be made and {@code false} if the budget is exhausted
+     */
+    boolean tryAcquireRetry() {
+        long second = currentSecond();
+        long successes = 0;
+        long retries = 0;
+        for (Bucket bucket : buckets) {
+            // only count buckets which belong to current window
+            if (bucket.second > second - buckets.length) {
+                successes += bucket.successes.sum();
+                retries += bucket.retries.sum();
+            }
+        }
+        if (retries >= minRetries + ratio * successes) {
+            retriesRejected.increment();
+            return false;
+        }
+        bucketOf(second).retries.increment();
+        retriesAllowed.increment();
+        return true;
+    }
+
+    /**
+     * Returns the total number of retries allowed by this budget.
+     *
+     * @return the total number of retries allowed by this budget
+     */
+    public long getRetriesAllowed() {
+        return retriesAllowed.sum();
+    }
+
+    /**
+     * Returns the total number of retries rejected by this budget, that is the number of calls which failed because
+     * the budget was exhausted.
+     *
+     * @return the total number of retries rejected by this budget
+     */
+    public long getRetriesRejected() {
+        return retriesRejected.sum();
+    }
+
+    private Bucket currentBucket() {
+        return bucketOf(currentSecond());
+    }
+
+    private Bucket bucketOf(long second) {
+        Bucket bucket = buckets[(int) Math.floorMod(second, (long) buckets.length)];
+        if (bucket.second != second) {
+            synchronized (bucket) {
+                // the bucket holds counts of a second which already left the window, reset it
+                if (bucket.second != second) {
+                    bucket.successes.reset();
+                    bucket.retries.reset();
+                    bucket.second = second;
+                }
+            }
+        }
+        return bucket;
+    }
+
+    private static long currentSecond() {
+        return System.nanoTime() / BUCKET_NANOS;
+    }
+
+}
@@ -0,0 +1,316 @@
+package cz.seznam.frpc.client;
+
+import org.apache.http.conn.ConnectTimeoutException;
+
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Immutable description of how failed {@code FRPC} calls are retried. Delays between attempts grow exponentially from
+ * the initial delay up to the maximum delay and, unless turned off, are randomized using "full jitter" (the actual
+ * delay is picked uniformly from zero to the exponential delay) so that clients hit by the same failure do not retry
+ * in lockstep.
+ * <p>
+ * Only transport errors are ever retried. Calls to <i>idempotent</i> methods are retried on any transport error, calls
+ * to non-idempotent methods only if the request certainly did not reach the server (the connection could not be
+ * established). Methods are considered idempotent by default, which can be changed both globally and per method.
+ * <p>
+ * Retries are further limited by a client-wide retry budget, see {@link FrpcRetryBudget}.
+ *
+ * @author David Moidl david.moidl@firma.seznam.cz
+ */
+public class FrpcRetryPolicy {
+
+    private long initialDelayMillis;
+    private long maxDelayMillis;
+    private double multiplier;
+    private boolean jitter;
+    private boolean idempotentByDefault;
+    private Set<String> idempotentMethods;
+    private Set<String> nonIdempotentMethods;
+    private double budgetRatio;
+    private int budgetMinRetriesPerSecond;
+    private long budgetWindowMillis;
+
+    private FrpcRetryPolicy(Builder builder) {
+        this.initialDelayMillis = builder.initialDelayMillis;
+        this.maxDelayMillis = builder.maxDelayMillis;
+        this.multiplier = builder.multiplier;
+        this.jitter = builder.jitter;
+        this.idempotentByDefault = builder.idempotentByDefault;
+        this.idempotentMethods = Collections.unmodifiableSet(new HashSet<>(builder.idempotentMethods));
+        this.nonIdempotentMethods = Collections.unmodifiableSet(new HashSet<>(builder.nonIdempotentMethods));
+        this.budgetRatio = builder.budgetRatio;
+        this.budgetMinRetriesPerSecond = builder.budgetMinRetriesPerSecond;
+        this.budgetWindowMillis = builder.budgetWindowMillis;
+    }
+
+    /**
+     * Builder used to create {@link FrpcRetryPolicy} instances.
+     */
+    public static final class Builder {
+
+        private long initialDelayMillis = 50;
+        private long maxDelayMillis = 5000;
+        private double multiplier = 2;
+        private boolean jitter = true;
+        private boolean idempotentByDefault = true;
+        private Set<String> idempotentMethods = new HashSet<>();
+        private Set<String> nonIdempotentMethods = new HashSet<>();
+        private double budgetRatio = 0.2;
+        private int budgetMinRetriesPerSecond = 10;
+        private long budgetWindowMillis = 10000;
+
+        private Builder() {
+        }
+
+        /**
+         * Sets the delay before the first retry and the maximum delay between any two attempts. The delay before
+         * {@code n}-th retry is {@code initialDelay * multiplier^(n - 1)}, capped by {@code maxDelay}.
+         * <p>
+         * Defaults to 50 milliseconds and 5 seconds respectively.
+         *
+         * @param initialDelay delay before the first retry, zero means no delay at all
+         * @param maxDelay     maximum delay between two attempts
+         * @param timeUnit     time unit of both delays
+         * @return this {@code Builder} instance so that calls can be chained
+         */
+        public Builder backoff(long initialDelay, long maxDelay, TimeUnit timeUnit) {
+            Objects.requireNonNull(timeUnit, "Time unit must not be null");
+            if (initialDelay < 0 || maxDelay < initialDelay) {
+                throw new IllegalArgumentException("Delays must not be negative and maximum delay must not be " +
+                        "lower than the initial one");
+            }
+            this.initialDelayMillis = timeUnit.toMillis(initialDelay);
+            this.maxDelayMillis = timeUnit.toMillis(maxDelay);
+            return this;
+        }
+
+        /**
+         * Sets the factor by which the delay grows with every retry.
+         * <p>
+         * Defaults to 2.
+         *
+         * @param multiplier the factor, at least 1
+         * @return this {@code Builder} instance so that calls can be chained
+         */
+        public Builder multiplier(double multiplier) {
+            if (multiplier < 1) {
+                throw new IllegalArgumentException("Multiplier must be at least 1");
+            }
+            this.multiplier = multiplier;
+            return this;
+        }
+
+        /**
+         * Turns randomization of delays ("full jitter") on or off.
+         * <p>
+         * Defaults to {@code true}.
+         *
+         * @param jitter whether to randomize delays
+         * @return this {@code Builder} instance so that calls can be chained
+         */
+        public Builder jitter(boolean jitter) {
+            this.jitter = jitter;
+            return this;
+        }
+
+        /**
+         * Sets whether methods not listed by {@link #idempotentMethods(String...)} or
+         * {@link #nonIdempotentMethods(String...)} are considered idempotent.
+         * <p>
+         * Defaults to {@code true}.
+         *
+         * @param idempotentByDefault whether methods are idempotent unless stated otherwise
+         * @return this {@code Builder} instance so that calls can be chained
+         */
+        public Builder idempotentByDefault(boolean idempotentByDefault) {
+            this.idempotentByDefault = idempotentByDefault;
+            return this;
+        }
+
+        /**
+         * Marks methods of given names as idempotent, that is safe to be retried even if the request might have
+         * reached the server.
+         *
+         * @param methods full names of the methods
+         * @return this {@code Builder} instance so that calls can be chained
+         */
+        public Builder idempotentMethods(String... methods) {
+            for (String method : Objects.requireNonNull(methods)) {
+                idempotentMethods.add(Objects.requireNonNull(method, "Method name must not be null"));
+                nonIdempotentMethods.remove(method);
+            }
+            return this;
+        }
+
+        /**
+         * Marks methods of given names as not idempotent, that is only to be retried if the request certainly did not
+         * reach the server.
+         *
+         * @param methods full names of the methods
+         * @return this {@code Builder} instance so that calls can be chained
+         */
+        public Builder nonIdempotentMethods(String... methods) {
+            for (String method : Objects.requireNonNull(methods)) {
+                nonIdempotentMethods.add(Objects.requireNonNull(method, "Method name must not be null"));
+                idempotentMethods.remove(method);
+            }
+            return this;
+        }
+
+        /**
+         * Configures client-wide retry budget. Within any time window of given length, the number of retries is
+         * limited to given ratio of successful calls plus given minimum number of retries per second (which keeps
+         * retries possible for clients making just a few calls).
+         * <p>
+         * Defaults to 20 % of successful calls plus 10 retries per second within 10 second window.
+         *
+         * @param ratio                maximum ratio of retries to successful calls, zero means only the minimum
+         *                             number of retries is allowed
+         * @param minRetriesPerSecond  number of retries per second allowed regardless of the ratio
+         * @param window               length of the time window
+         * @param timeUnit             time unit of the window
+         * @return this {@code Builder} instance so that calls can be chained
+         */
+        public Builder retryBudget(double ratio, int minRetriesPerSecond, long window, TimeUnit timeUnit) {
+            Objects.requireNonNull(timeUnit, "Time unit must not be null");
+            if (ratio < 0 || minRetriesPerSecond < 0 || timeUnit.toMillis(window) < 1000) {
+                throw new IllegalArgumentException("Ratio and minimum number of retries must not be negative and " +
+                        "the window must be at least one second long");
+            }
+            this.budgetRatio = ratio;
+            this.budgetMinRetriesPerSecond = minRetriesPerSecond;
+            this.budgetWindowMillis = timeUnit.toMillis(window);
+            return this;
+        }
+
+        /**
+         * Builds new {@link FrpcRetryPolicy} from properties set on this builder.
+         *
+         * @return new instance of {@code FrpcRetryPolicy}
+         */
+        public FrpcRetryPolicy build() {
+            return new FrpcRetryPolicy(this);
+        }
+
+    }
+
+    /**
+     * Creates new {@link Builder} instance.
+     *
+     * @return new {@link Builder} instance
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Returns the delay before the first retry in given time unit.
+     *
+     * @param timeUnit time unit to convert the value to
+     * @return the delay before the first retry
+     */
+    public long getInitialDelay(TimeUnit timeUnit) {
+        return timeUnit.convert(initialDelayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the maximum delay between two attempts in given time unit.
+     *
+     * @param timeUnit time unit to convert the value to
+     * @return the maximum delay between two attempts
+     */
+    public long getMaxDelay(TimeUnit timeUnit) {
+        return timeUnit.convert(maxDelayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Checks whether method of given name is considered idempotent by this policy.
+     *
+     * @param method full name of the method
+     * @return {@code true} if the method is idempotent and {@code false} otherwise
+     */
+    public boolean isIdempotent(String method) {
+        if (idempotentMethods.contains(method)) {
+            return true;
+        }
+        return !nonIdempotentMethods.contains(method) && idempotentByDefault;
+    }
+
+    /**
+     * Checks whether a call which failed with given exception may be retried.
+     *
+     * @param idempotent whether the called method is idempotent
+     * @param exception  the exception the call failed with
+     * @return {@code true} if the call may be retried and {@code false} otherwise
+     */
+    public boolean isRetryable(boolean idempotent, Exception exception) {
+        return idempotent || isNeverSent(exception);
+    }
+
+    /**
+     * Computes delay before given retry.
+     *
+     * @param retry              number of the retry, starting at 1
+     * @param initialDelayMillis delay before the first retry in milliseconds, allows calls to override the default
+     * @return the delay in milliseconds
+     */
+    long computeDelayMillis(int retry, long initialDelayMillis) {
+        if (initialDelayMillis <= 0) {
+            return 0;
+        }
+        double exponential = initialDelayMillis * Math.pow(multiplier, retry - 1);
+        long capped = (long) Math.min(exponential, Math.max(maxDelayMillis, initialDelayMillis));
+        // full jitter spreads the retries of many clients uniformly over the whole interval
+        return jitter ? ThreadLocalRandom.current().nextLong(capped + 1) : capped;
+    }
+
+    /**
+     * Creates new retry budget configured by this policy.
+     *
+     * @return new retry budget
+     */
+    FrpcRetryBudget createBudget() {
+        return new FrpcRetryBudget(budgetRatio, budgetMinRetriesPerSecond, budgetWindowMillis);
+    }
+
+    /**
+     * Creates copy of this policy with different initial delay.
+     *
+     * @param initialDelayMillis the initial delay in milliseconds
+     * @return copy of this policy
+     */
+    FrpcRetryPolicy withInitialDelayMillis(long initialDelayMillis) {
+        Builder builder = toBuilder();
+        builder.initialDelayMillis = initialDelayMillis;
+        builder.maxDelayMillis = Math.max(maxDelayMillis, initialDelayMillis);
+        return builder.build();
+    }
+
+    private Builder toBuilder() {
+        Builder builder = new Builder();
+        builder.initialDelayMillis = initialDelayMillis;
+        builder.maxDelayMillis = maxDelayMillis;
+        builder.multiplier = multiplier;
+        builder.jitter = jitter;
+        builder.idempotentByDefault = idempotentByDefault;
+        builder.idempotentMethods.addAll(idempotentMethods);
+        builder.nonIdempotentMethods.addAll(nonIdempotentMethods);
+        builder.budgetRatio = budgetRatio;
+        builder.budgetMinRetriesPerSecond = budgetMinRetriesPerSecond;
+        builder.budgetWindowMillis = budgetWindowMillis;
+        return builder;
+    }
+
+    private static boolean isNeverSent(Exception exception) {
+        // these are only thrown before any byte of the request is sent
+        return exception instanceof ConnectException || exception instanceof ConnectTimeoutException
+                || exception instanceof NoRouteToHostException || exception instanceof UnknownHostException;
+    }
+
+}
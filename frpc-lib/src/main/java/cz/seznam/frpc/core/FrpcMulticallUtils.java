@@ -0,0 +1,92 @@
+package cz.seznam.frpc.core;
+
+import cz.seznam.frpc.core.transport.FrpcFault;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Collection of constants and utility methods describing the {@code system.multicall} convention shared by both
+ * {@code FRPC} client and server. A multicall request has single parameter, an array of structures each containing
+ * the name of a method to call (under {@link #METHOD_NAME_KEY}) and an array of its parameters (under
+ * {@link #PARAMS_KEY}). The response is an array holding one item per sub-call. Successful sub-calls are represented by
+ * a single-item array containing the result, failed ones are represented by a structure containing
+ * {@link #FAULT_CODE_KEY} and {@link #FAULT_STRING_KEY}.
+ *
+ * @author David Moidl david.moidl@firma.seznam.cz
+ */
+public class FrpcMulticallUtils {
+
+    /**
+     * Name of the method used to call multiple methods within single request.
+     */
+    public static final String MULTICALL_METHOD_NAME = "system.multicall";
+    /**
+     * Key to store the name of the method under in sub-call structure.
+     */
+    public static final String METHOD_NAME_KEY = "methodName";
+    /**
+     * Key to store method parameters under in sub-call structure.
+     */
+    public static final String PARAMS_KEY = "params";
+    /**
+     * Key to store fault status code under in sub-call fault structure.
+     */
+    public static final String FAULT_CODE_KEY = "faultCode";
+    /**
+     * Key to store fault status message under in sub-call fault structure.
+     */
+    public static final String FAULT_STRING_KEY = "faultString";
+
+    /**
+     * Creates a structure describing single sub-call of {@code system.multicall}.
+     *
+     * @param methodName name of the method to call
+     * @param parameters parameters of the method
+     * @return a map describing the sub-call
+     */
+    public static Map<String, Object> subCall(String methodName, Object[] parameters) {
+        Map<String, Object> subCall = new HashMap<>();
+        subCall.put(METHOD_NAME_KEY, Objects.requireNonNull(methodName, "Method name must not be null"));
+        subCall.put(PARAMS_KEY, parameters == null ? new Object[0] : parameters);
+        return subCall;
+    }
+
+    /**
+     * Converts given fault into a structure representing failed sub-call of {@code system.multicall}.
+     *
+     * @param fault fault to convert
+     * @return a map containing status code and status message of given fault
+     */
+    public static Map<String, Object> faultToStruct(FrpcFault fault) {
+        Map<String, Object> struct = new HashMap<>();
+        struct.put(FAULT_CODE_KEY, fault.getStatusCode());
+        struct.put(FAULT_STRING_KEY, fault.getStatusMessage());
+        return struct;
+    }
+
+    /**
+     * Checks whether given object is a structure representing failed sub-call of {@code system.multicall}.
+     *
+     * @param object object to check
+     * @return {@code true} if given object is a map containing {@link #FAULT_CODE_KEY} and {@code false} otherwise
+     */
+    public static boolean isFaultStruct(Object object) {
+        return object instanceof Map && ((Map<?, ?>) object).containsKey(FAULT_CODE_KEY);
+    }
+
+    /**
+     * Converts a structure representing failed sub-call of {@code system.multicall} back to {@link FrpcFault}.
+     *
+     * @param struct structure to convert
+     * @return instance of {@code FrpcFault} created from given structure
+     */
+    public static FrpcFault structToFault(Map<?, ?> struct) {
+        Object code = struct.get(FAULT_CODE_KEY);
+        Object message = struct.get(FAULT_STRING_KEY);
+        return new FrpcFault(code instanceof Number ? ((Number) code).intValue() : null,
+                message == null ? null : message.toString());
+    }
+
+}
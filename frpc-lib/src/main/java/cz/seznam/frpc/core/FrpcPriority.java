@@ -0,0 +1,82 @@
+package cz.seznam.frpc.core;
+
+import java.util.Locale;
+
+/**
+ * Priority class of {@code FRPC} calls. Servers scheduling calls by priority (see
+ * {@link cz.seznam.frpc.server.PrioritizingFrpcRequestProcessor}) process each class with capacity of its own, so
+ * that a flood of low priority calls, such as a nightly export, cannot starve calls users wait for.
+ * <p>
+ * Methods declare their priority on the server, callers may override it by
+ * {@link cz.seznam.frpc.core.transport.FrpcHttpHeaders#PRIORITY} header. {@link #UNSPECIFIED} is not a priority class
+ * of its own, it stands for no priority where a value is required (such as in annotations), so that the priority
+ * which applies otherwise is used.
+ *
+ * @author David Moidl david.moidl@firma.seznam.cz
+ */
+public enum FrpcPriority {
+
+    /**
+     * Calls somebody is waiting for right now, such as those made to render a page.
+     */
+    HIGH,
+    /**
+     * Ordinary calls, the priority of methods which do not declare any.
+     */
+    NORMAL,
+    /**
+     * Calls nobody waits for, such as batch processing and reporting.
+     */
+    LOW,
+    /**
+     * No priority, the priority which applies otherwise is used. Calls are never processed with this priority.
+     */
+    UNSPECIFIED;
+
+    /**
+     * Parses priority from the value of {@link cz.seznam.frpc.core.transport.FrpcHttpHeaders#PRIORITY} header.
+     *
+     * @param headerValue value of the header, may be {@code null}
+     * @return the priority or {@code null} if the value is {@code null}, {@link #UNSPECIFIED} or not a known priority
+     */
+    public static FrpcPriority fromHeaderValue(String headerValue) {
+        if (headerValue == null) {
+            return null;
+        }
+        try {
+            return specifiedOrNull(valueOf(headerValue.trim().toUpperCase(Locale.ROOT)));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Checks whether this is an actual priority class, that is anything but {@link #UNSPECIFIED}.
+     *
+     * @return {@code true} if calls may be processed with this priority and {@code false} otherwise
+     */
+    public boolean isSpecified() {
+        return this != UNSPECIFIED;
+    }
+
+    /**
+     * Converts {@link #UNSPECIFIED} to {@code null}, which is how the lack of priority is represented outside of
+     * annotations.
+     *
+     * @param priority the priority, may be {@code null}
+     * @return given priority or {@code null} if it is {@code null} or {@link #UNSPECIFIED}
+     */
+    public static FrpcPriority specifiedOrNull(FrpcPriority priority) {
+        return priority == null || !priority.isSpecified() ? null : priority;
+    }
+
+    /**
+     * Converts this priority to the value of {@link cz.seznam.frpc.core.transport.FrpcHttpHeaders#PRIORITY} header.
+     *
+     * @return the header value
+     */
+    public String toHeaderValue() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+
+}
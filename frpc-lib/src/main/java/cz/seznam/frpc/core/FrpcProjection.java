@@ -0,0 +1,225 @@
+package cz.seznam.frpc.core;
+
+import java.util.*;
+
+/**
+ * Immutable projection of {@code FRPC} values, that is a set of paths to members of structures which are of interest
+ * to the client. Each path is a sequence of member names separated by dots, such as {@code "user.address.city"}.
+ * Members not on any path are left out of projected structures, while members at the end of a path are kept whole,
+ * including all their nested members. Arrays are transparent for projections, the same projection applies to each
+ * of their items, so that {@code "items.name"} keeps just names of items of array {@code items}. Other values are
+ * kept as they are.
+ * <p>
+ * Projections travel from the client to the server in {@link cz.seznam.frpc.core.transport.FrpcHttpHeaders#PROJECTION}
+ * header, so that the server only sends members the client reads.
+ *
+ * @author David Moidl david.moidl@firma.seznam.cz
+ */
+public final class FrpcProjection {
+
+    /**
+     * Projection keeping values whole.
+     */
+    private static final FrpcProjection ALL = new FrpcProjection(null);
+
+    /**
+     * Projections of members kept in projected structures by their names, {@code null} if values are kept whole.
+     */
+    private final Map<String, FrpcProjection> members;
+
+    private FrpcProjection(Map<String, FrpcProjection> members) {
+        this.members = members;
+    }
+
+    /**
+     * Creates new projection keeping members on given paths.
+     *
+     * @param paths paths to members to keep, each being member names separated by dots
+     * @return new projection
+     * @throws IllegalArgumentException if no path is given or any path is malformed
+     */
+    public static FrpcProjection of(String... paths) {
+        return of(Arrays.asList(Objects.requireNonNull(paths, "Paths must not be null")));
+    }
+
+    /**
+     * Creates new projection keeping members on given paths.
+     *
+     * @param paths paths to members to keep, each being member names separated by dots
+     * @return new projection
+     * @throws IllegalArgumentException if no path is given or any path is malformed
+     */
+    public static FrpcProjection of(Collection<String> paths) {
+        Objects.requireNonNull(paths, "Paths must not be null");
+        if (paths.isEmpty()) {
+            throw new IllegalArgumentException("Projection needs at least one path");
+        }
+        // build a tree of member names, null children stand for members kept whole
+        Map<String, Object> tree = new LinkedHashMap<>();
+        for (String path : paths) {
+            Objects.requireNonNull(path, "Path must not be null");
+            String[] names = path.split("\\.", -1);
+            Map<String, Object> node = tree;
+            for (int i = 0; i < names.length; i++) {
+                String name = names[i];
+                if (name.isEmpty() || name.indexOf(',') >= 0 || !name.trim().equals(name)) {
+                    throw new IllegalArgumentException("Malformed projection path \"" + path + "\"");
+                }
+                if (node.containsKey(name) && node.get(name) == null) {
+                    // the member is kept whole already
+                    break;
+                }
+                if (i == names.length - 1) {
+                    node.put(name, null);
+                } else {
+                    @SuppressWarnings("unchecked")
+                    Map<String, Object> child = (Map<String, Object>) node.computeIfAbsent(name,
+                            n -> new LinkedHashMap<String, Object>());
+                    node = child;
+                }
+            }
+        }
+        return fromTree(tree);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static FrpcProjection fromTree(Map<String, Object> tree) {
+        Map<String, FrpcProjection> members = new LinkedHashMap<>();
+        tree.forEach((name, child) -> members.put(name, child == null ? ALL :
+                fromTree((Map<String, Object>) child)));
+        return new FrpcProjection(Collections.unmodifiableMap(members));
+    }
+
+    /**
+     * Parses projection from the value of {@link cz.seznam.frpc.core.transport.FrpcHttpHeaders#PROJECTION} header,
+     * that is from paths separated by commas.
+     *
+     * @param headerValue value of the header, may be {@code null}
+     * @return the projection or {@code null} if the value is {@code null} or blank
+     * @throws IllegalArgumentException if any path is malformed
+     */
+    public static FrpcProjection fromHeaderValue(String headerValue) {
+        if (headerValue == null || headerValue.trim().isEmpty()) {
+            return null;
+        }
+        List<String> paths = new ArrayList<>();
+        for (String path : headerValue.split(",")) {
+            paths.add(path.trim());
+        }
+        return of(paths);
+    }
+
+    /**
+     * Converts this projection to the value of {@link cz.seznam.frpc.core.transport.FrpcHttpHeaders#PROJECTION}
+     * header.
+     *
+     * @return paths of this projection separated by commas
+     */
+    public String toHeaderValue() {
+        List<String> paths = new ArrayList<>();
+        collectPaths("", paths);
+        return String.join(",", paths);
+    }
+
+    private void collectPaths(String prefix, List<String> paths) {
+        members.forEach((name, child) -> {
+            if (child.isAll()) {
+                paths.add(prefix + name);
+            } else {
+                child.collectPaths(prefix + name + ".", paths);
+            }
+        });
+    }
+
+    /**
+     * Checks whether this projection keeps values whole. This is true for projections of members at the end of
+     * paths.
+     *
+     * @return {@code true} if values are kept whole and {@code false} otherwise
+     */
+    public boolean isAll() {
+        return members == null;
+    }
+
+    /**
+     * Returns names of members kept in projected structures.
+     *
+     * @return unmodifiable set of member names, empty if values are kept whole (see {@link #isAll()})
+     */
+    public Set<String> getMemberNames() {
+        return members == null ? Collections.emptySet() : members.keySet();
+    }
+
+    /**
+     * Returns projection of given member of projected structures.
+     *
+     * @param name name of the member
+     * @return projection of the member or {@code null} if the member is left out
+     */
+    public FrpcProjection getMember(String name) {
+        return members == null ? ALL : members.get(name);
+    }
+
+    /**
+     * Applies this projection to given value. Structures are copied without members left out (nested structures too),
+     * arrays are copied with this projection applied to their items. Values are not copied if nothing is to be left
+     * out of them.
+     *
+     * @param value the value to apply this projection to
+     * @return projected value
+     */
+    public Object apply(Object value) {
+        if (members == null) {
+            return value;
+        }
+        if (value instanceof Map) {
+            Map<?, ?> struct = (Map<?, ?>) value;
+            Map<String, Object> projected = new LinkedHashMap<>();
+            members.forEach((name, child) -> {
+                if (struct.containsKey(name)) {
+                    projected.put(name, child.apply(struct.get(name)));
+                }
+            });
+            return projected;
+        }
+        if (value instanceof Object[]) {
+            Object[] array = (Object[]) value;
+            Object[] projected = new Object[array.length];
+            for (int i = 0; i < array.length; i++) {
+                projected[i] = apply(array[i]);
+            }
+            return projected;
+        }
+        if (value instanceof Collection) {
+            Collection<?> collection = (Collection<?>) value;
+            List<Object> projected = new ArrayList<>(collection.size());
+            for (Object item : collection) {
+                projected.add(apply(item));
+            }
+            return projected;
+        }
+        return value;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof FrpcProjection)) {
+            return false;
+        }
+        return Objects.equals(members, ((FrpcProjection) o).members);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(members);
+    }
+
+    @Override
+    public String toString() {
+        return members == null ? "*" : toHeaderValue();
+    }
+
+}
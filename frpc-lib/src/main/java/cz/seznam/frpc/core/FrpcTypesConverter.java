@@ -12,6 +12,7 @@ import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.util.*;
+import java.util.function.Function;
 import java.util.function.Supplier;
 
 /**
@@ -411,49 +412,68 @@ public class FrpcTypesConverter {
      * @return instance of {@code ConversionResult} indicating either success or failure of the conversion process
      */
     public static ConversionResult convertToCompatibleInstance(Object object, Type type) {
+        return converterFor(type).apply(object);
+    }
+
+    /**
+     * Resolves the conversion of objects to given type just once, so that objects converted to the same type over
+     * and over again do not have the type examined every time. Returned function converts given object the same way
+     * {@link #convertToCompatibleInstance(Object, Type)} does.
+     *
+     * @param type type to convert objects into
+     * @return function converting objects to given type, returning {@code ConversionResult} indicating either success
+     * or failure of the conversion
+     */
+    public static Function<Object, ConversionResult> converterFor(Type type) {
         // check the method parameter type implementation
         if (type instanceof Class) {
             // it's a simple class, convert it to object right away
-            return convertToObject(object, (Class<?>) type);
+            Class<?> clazz = (Class<?>) type;
+            return object -> convertToObject(object, clazz);
         } else if (type instanceof ParameterizedType) {
             // it's a parameterized type, check it's raw type and parameter arguments
             ParameterizedType parameterizedType = (ParameterizedType) type;
             // check that the raw type is supported
             Class<?> rawType = (Class) parameterizedType.getRawType();
             if (!FrpcTypesConverter.isSupportedRawType(rawType)) {
-                return error(rawType);
+                return failing(error(rawType));
             }
             // get actual type arguments
             Type[] typeArguments = parameterizedType.getActualTypeArguments();
-            // do the conversion
-            ConversionResult result;
-            // check whether it is a map or a collection
+            // check whether it is a map or a collection, if the result is an error, describe it and return an error
             if (FrpcTypesConverter.isSupportedMapType(rawType)) {
                 // try to convert it to type-safe map
-                result = convertToMap(object, rawType, typeArguments[0], typeArguments[1]);
+                Type keyType = typeArguments[0];
+                Type valueType = typeArguments[1];
+                return object -> describeErrorOrReturnSuccess(convertToMap(object, rawType, keyType, valueType),
+                        object, parameterizedType);
             } else if (FrpcTypesConverter.isSupportedCollectionType(rawType)) {
                 // try to convert it to collection
-                result = convertToCollection(object, rawType, typeArguments[0]);
+                Type valuesType = typeArguments[0];
+                return object -> describeErrorOrReturnSuccess(convertToCollection(object, rawType, valuesType),
+                        object, parameterizedType);
             } else {
                 throw new IllegalStateException("Unsupported parameterized type " + parameterizedType
                         .getTypeName() + " was reported as supported by " + FrpcTypesConverter.class.getSimpleName());
             }
-            // if the result is an error, describe it and return an error
-            return describeErrorOrReturnSuccess(result, object, parameterizedType);
         } else if (type instanceof GenericArrayType) {
             // generic array type
             GenericArrayType genericArrayType = ((GenericArrayType) type);
-            // try to convert it to array of given component type
-            ConversionResult conversionResult = convertToArray(object, genericArrayType.getGenericComponentType());
-            // if the result is an error, describe it and return an error
-            return describeErrorOrReturnSuccess(conversionResult, object, genericArrayType);
+            Type componentType = genericArrayType.getGenericComponentType();
+            // try to convert it to array of given component type, if the result is an error, describe it
+            return object -> describeErrorOrReturnSuccess(convertToArray(object, componentType), object,
+                    genericArrayType);
         } else if (type instanceof TypeVariable) {
-            return error("Type variables are not supported");
+            return failing(error("Type variables are not supported"));
         } else if (type instanceof WildcardType) {
-            return error("Wildcard types are not supported");
+            return failing(error("Wildcard types are not supported"));
         }
         // generic error
-        return error("Unknown Type implementation " + type.getClass().getCanonicalName());
+        return failing(error("Unknown Type implementation " + type.getClass().getCanonicalName()));
+    }
+
+    private static Function<Object, ConversionResult> failing(ConversionResult error) {
+        return object -> error;
     }
 
     private static Object convertParameter(Type[] methodParameterTypes, int i, Object parameter) {
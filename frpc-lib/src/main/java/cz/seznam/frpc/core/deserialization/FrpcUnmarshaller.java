@@ -2,9 +2,13 @@ package cz.seznam.frpc.core.deserialization;
 
 import cz.seznam.frpc.core.FrpcConstants;
 import cz.seznam.frpc.core.FrpcDataProcessingException;
+import cz.seznam.frpc.core.FrpcProjection;
 import cz.seznam.frpc.core.transport.FrpcFault;
 import cz.seznam.frpc.core.transport.FrpcRequest;
 
+import org.apache.commons.io.IOUtils;
+
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
@@ -91,6 +95,19 @@ public class FrpcUnmarshaller {
      * @throws FrpcDataProcessingException if anything goes wrong during deserialization
      */
     public Object readResponse() throws FrpcDataProcessingException {
+        return readResponse(null);
+    }
+
+    /**
+     * Reads {@code FRPC} response just like {@link #readResponse()}, but only decodes members of structures included
+     * in given projection. Other members are skipped right in the stream using the lengths encoded in the data, so that
+     * no objects are created for them (see {@link FrpcProjection}).
+     *
+     * @param projection projection of the response, {@code null} to read it whole
+     * @return the response deserialized from the stream, either projected response value or {@link FrpcFault}
+     * @throws FrpcDataProcessingException if anything goes wrong during deserialization
+     */
+    public Object readResponse(FrpcProjection projection) throws FrpcDataProcessingException {
         // read magic number
         readMagic();
         // make sure that we are reading method response or fault
@@ -98,7 +115,7 @@ public class FrpcUnmarshaller {
         // check if the response is a method response
         if(maskedData == FrpcConstants.TYPE_METHOD_RESPONSE) {
             // read single object
-            Object response = readObject();
+            Object response = readObject(projection);
             // check if it's not the NO_MORE_OBJECTS marker
             if(response == NO_MORE_OBJECTS) {
                 throw new FrpcDataProcessingException("The stream does not contain any response value");
@@ -248,20 +265,21 @@ public class FrpcUnmarshaller {
         return octets == 1;
     }
 
-    private Object[] readArray(int data) throws FrpcDataProcessingException {
+    private Object[] readArray(int data, FrpcProjection projection) throws FrpcDataProcessingException {
         int octets = data & FrpcConstants.MASK_ADD;
         int length = 0;
         for (int i = 0; i <= octets; i++) {
             length |= read() << (i << 3);
         }
         Object[] array = new Object[length];
+        // projections apply to items of arrays
         for (int i = 0; i < length; i++) {
-            array[i] = readObject();
+            array[i] = readObject(projection);
         }
         return array;
     }
 
-    private Map<String, Object> readStruct(int data) throws FrpcDataProcessingException {
+    private Map<String, Object> readStruct(int data, FrpcProjection projection) throws FrpcDataProcessingException {
         int octets = data & FrpcConstants.MASK_ADD;
         int length = 0;
         for (int i = 0; i <= octets; i++) {
@@ -275,7 +293,17 @@ public class FrpcUnmarshaller {
                 name.put((byte) read());
             }
             String key = new String(name.array(), StandardCharsets.UTF_8);
-            struct.put(key, readObject());
+            if (projection == null || projection.isAll()) {
+                struct.put(key, readObject());
+                continue;
+            }
+            // skip members left out by the projection without decoding them
+            FrpcProjection memberProjection = projection.getMember(key);
+            if (memberProjection == null) {
+                skipObject();
+            } else {
+                struct.put(key, readObject(memberProjection));
+            }
         }
         return struct;
     }
@@ -354,6 +382,10 @@ public class FrpcUnmarshaller {
     }
 
     private Object readObject() throws FrpcDataProcessingException {
+        return readObject(null);
+    }
+
+    private Object readObject(FrpcProjection projection) throws FrpcDataProcessingException {
         Object result;
         // check if there is anything left to read
         int data = read(false);
@@ -386,10 +418,10 @@ public class FrpcUnmarshaller {
                 result = readBoolean(data);
                 break;
             case FrpcConstants.TYPE_ARRAY:
-                result = readArray(data);
+                result = readArray(data, projection);
                 break;
             case FrpcConstants.TYPE_STRUCT:
-                result = readStruct(data);
+                result = readStruct(data, projection);
                 break;
             case FrpcConstants.TYPE_DATETIME:
                 result = readDateTime();
@@ -407,4 +439,62 @@ public class FrpcUnmarshaller {
         return result;
     }
 
+    private void skipObject() throws FrpcDataProcessingException {
+        int data = read();
+        // skip the value according to its type, containers have to be skipped item by item
+        switch (data & FrpcConstants.MASK) {
+            case FrpcConstants.TYPE_STRING:
+            case FrpcConstants.TYPE_BINARY:
+                skip(readLength(data));
+                break;
+            case FrpcConstants.TYPE_DOUBLE:
+                skip(8);
+                break;
+            case FrpcConstants.TYPE_INT_POS:
+            case FrpcConstants.TYPE_INT_NEG:
+                skip((data & FrpcConstants.MASK_ADD) + 1);
+                break;
+            case FrpcConstants.TYPE_BOOL:
+            case FrpcConstants.TYPE_NULL:
+                break;
+            case FrpcConstants.TYPE_DATETIME:
+                // zone, timestamp and 5 bytes of packed date and time
+                skip(10);
+                break;
+            case FrpcConstants.TYPE_ARRAY:
+                for (long i = readLength(data); i > 0; i--) {
+                    skipObject();
+                }
+                break;
+            case FrpcConstants.TYPE_STRUCT:
+                for (long i = readLength(data); i > 0; i--) {
+                    skip(read());
+                    skipObject();
+                }
+                break;
+            default:
+                throw new FrpcDataProcessingException("Unmarshalling error: unknown type specified by type definition "
+                        + (data & FrpcConstants.MASK));
+        }
+    }
+
+    private long readLength(int data) throws FrpcDataProcessingException {
+        int octets = data & FrpcConstants.MASK_ADD;
+        long length = 0;
+        for (int i = 0; i <= octets; i++) {
+            length |= (long) read() << (i << 3);
+        }
+        return length;
+    }
+
+    private void skip(long length) throws FrpcDataProcessingException {
+        try {
+            IOUtils.skipFully(input, length);
+        } catch (EOFException e) {
+            throw new EndOfStreamException("End of stream reached while skipping data of the input stream", e);
+        } catch (IOException e) {
+            throw new FrpcDataProcessingException("Error when reading data from the stream: ", e);
+        }
+    }
+
 }
@@ -2,6 +2,7 @@ package cz.seznam.frpc.core.serialization;
 
 import cz.seznam.frpc.core.FrpcConstants;
 import cz.seznam.frpc.core.FrpcDataProcessingException;
+import cz.seznam.frpc.core.FrpcProjection;
 import cz.seznam.frpc.core.transport.FrpcFault;
 import cz.seznam.frpc.core.transport.FrpcRequest;
 
@@ -55,13 +56,44 @@ public class FrpcMarshaller {
      */
     public void writeRequest(FrpcRequest request) throws FrpcDataProcessingException {
         Objects.requireNonNull(request, "Request must not be null");
+        writeRequestHeader(request.getMethodName());
+        writeRequestParameters(request.getParameters());
+    }
+
+    /**
+     * Writes the beginning of a {@code FRPC} request into the stream, that is the magic number followed by method
+     * name. Together with {@link #writeRequestParameters(Collection)} this allows for a request to be written in parts,
+     * for example to write the beginning just once and reuse it for many requests calling the same method.
+     *
+     * @param methodName name of the method to be called
+     * @throws FrpcDataProcessingException if anything goes wrong during serialization
+     * @see #writeRequest(FrpcRequest)
+     */
+    public void writeRequestHeader(String methodName) throws FrpcDataProcessingException {
+        Objects.requireNonNull(methodName, "Method name must not be null");
         try {
             // initialize non-data type
             writeMagic();
             // write method call identifier
-            writeMethodCallIdentifier(request.getMethodName());
+            writeMethodCallIdentifier(methodName);
+        } catch (IOException e) {
+            throw new FrpcDataProcessingException("Error while writing FRPC request into the stream", e);
+        }
+    }
+
+    /**
+     * Writes given parameters of a {@code FRPC} request into the stream one by one in order of iteration of the
+     * collection holding them.
+     *
+     * @param parameters request parameters to be written into the stream
+     * @throws FrpcDataProcessingException if anything goes wrong during serialization
+     * @see #writeRequestHeader(String)
+     */
+    public void writeRequestParameters(Collection<?> parameters) throws FrpcDataProcessingException {
+        Objects.requireNonNull(parameters, "Parameters must not be null");
+        try {
             // write method parameters
-            for(Object param : request.getParameters()) {
+            for(Object param : parameters) {
                 writeObject(param);
             }
         } catch (IOException e) {
@@ -90,6 +122,19 @@ public class FrpcMarshaller {
      * @throws FrpcDataProcessingException if anything goes wrong during serialization
      */
     public void writeResponse(Object response) throws FrpcDataProcessingException {
+        writeResponse(response, null);
+    }
+
+    /**
+     * Writes an object representing the response into the stream, leaving out members of structures not included in
+     * given projection. The response is written just like by {@link #writeResponse(Object)}, only the structures are
+     * written with members left out (and counts of members adjusted accordingly) without copying them.
+     *
+     * @param response   response object to be written into the stream
+     * @param projection projection of the response, {@code null} to write it whole
+     * @throws FrpcDataProcessingException if anything goes wrong during serialization
+     */
+    public void writeResponse(Object response, FrpcProjection projection) throws FrpcDataProcessingException {
         // if the object is a fault, write fault
         if(response instanceof FrpcFault) {
             writeFault(((FrpcFault) response));
@@ -102,7 +147,7 @@ public class FrpcMarshaller {
             // write method response identifier
             writeMethodResponseIdentifier();
             // write the object
-            writeObject(response);
+            writeObject(response, projection);
         } catch (IOException e) {
             throw new FrpcDataProcessingException("Error while writing FRPC response into the stream", e);
         }
@@ -301,20 +346,25 @@ public class FrpcMarshaller {
     }
     
     private void writeObject(Object object) throws IOException {
+        writeObject(object, null);
+    }
+
+    private void writeObject(Object object, FrpcProjection projection) throws IOException {
         if (object == null) {
             writeNull();
         } else if (object instanceof Object[]) {
             Object[] array = (Object[]) object;
             writeArray(array.length);
+            // projections apply to items of arrays
             for (Object obj : array) {
-                writeObject(obj);
+                writeObject(obj, projection);
             }
         } else if(object instanceof Collection) {
             Collection<?> collection = (Collection<?>) object;
             int size = collection.size();
             writeArray(size);
             for (Object aList : collection) {
-                writeObject(aList);
+                writeObject(aList, projection);
             }
         } else if (object instanceof double[]) {
             double[] array = (double[]) object;
@@ -354,6 +404,8 @@ public class FrpcMarshaller {
             writeString((String) object);
         } else if (object instanceof Boolean) {
             writeBool((Boolean) object);
+        } else if (object instanceof Map<?, ?> && projection != null && !projection.isAll()) {
+            writeProjectedStruct((Map<?, ?>) object, projection);
         } else if (object instanceof Map<?, ?>) {
             Map<?, ?> struct = (Map<?, ?>) object;
             writeStruct(struct.size());
@@ -388,4 +440,24 @@ public class FrpcMarshaller {
                     ", type " + object.getClass() + " is not a supported FRPC type");
         }
     }
+
+    private void writeProjectedStruct(Map<?, ?> struct, FrpcProjection projection) throws IOException {
+        // count the members first, the count precedes them
+        Set<String> names = projection.getMemberNames();
+        int count = 0;
+        for (String name : names) {
+            if (struct.containsKey(name)) {
+                count++;
+            }
+        }
+        writeStruct(count);
+        // only look up the members of interest, the structure may be much larger
+        for (String name : names) {
+            if (struct.containsKey(name)) {
+                writeStructMember(name);
+                writeObject(struct.get(name), projection.getMember(name));
+            }
+        }
+    }
+
 }
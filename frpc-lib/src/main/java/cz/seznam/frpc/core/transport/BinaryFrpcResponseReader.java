@@ -1,5 +1,6 @@
 package cz.seznam.frpc.core.transport;
 
+import cz.seznam.frpc.core.FrpcProjection;
 import cz.seznam.frpc.core.deserialization.CountingFrpcUnmarshaller;
 import cz.seznam.frpc.core.deserialization.FrpcUnmarshaller;
 import org.slf4j.Logger;
@@ -19,11 +20,20 @@ public class BinaryFrpcResponseReader implements FrpcResponseReader {
 
     @Override
     public Object read(InputStream inputStream, long contentLength) throws FrpcTransportException {
+        return read(inputStream, contentLength, null);
+    }
+
+    /**
+     * Reads the response skipping members left out by given projection right in the stream, without decoding them.
+     */
+    @Override
+    public Object read(InputStream inputStream, long contentLength, FrpcProjection projection)
+            throws FrpcTransportException {
         // create unmarshaller, either content length aware one or generic one
         FrpcUnmarshaller unmarshaller = contentLength >= 0 ?
                 new CountingFrpcUnmarshaller(inputStream) : new FrpcUnmarshaller(inputStream);
         // unmarshall one object
-        Object response = unmarshaller.readResponse();
+        Object response = unmarshaller.readResponse(projection);
         // if the content length is specified
         if (contentLength >= 0) {
             // check if we read exactly that many bytes of data
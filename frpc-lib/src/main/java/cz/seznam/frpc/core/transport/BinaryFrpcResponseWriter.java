@@ -1,5 +1,6 @@
 package cz.seznam.frpc.core.transport;
 
+import cz.seznam.frpc.core.FrpcProjection;
 import cz.seznam.frpc.core.serialization.FrpcMarshaller;
 
 import java.io.OutputStream;
@@ -21,6 +22,17 @@ public class BinaryFrpcResponseWriter extends AbstractFrpcResponseWriter {
         writeInternal(fault, outputStream);
     }
 
+    /**
+     * Writes given response leaving out members not included in given projection right while serializing it, without
+     * copying the response.
+     */
+    @Override
+    public void write(Object response, FrpcProjection projection, OutputStream outputStream)
+            throws FrpcTransportException {
+        FrpcMarshaller marshaller = new FrpcMarshaller(outputStream);
+        marshaller.writeResponse(response, projection);
+    }
+
     private void writeInternal(Object response, OutputStream outputStream) throws FrpcTransportException {
         FrpcMarshaller marshaller = new FrpcMarshaller(outputStream);
         marshaller.writeResponse(response);
@@ -0,0 +1,140 @@
+package cz.seznam.frpc.core.transport;
+
+import org.apache.commons.lang3.math.NumberUtils;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point in time by which a call has to be completed. Deadlines travel between client and server in
+ * {@link FrpcHttpHeaders#TIMEOUT} header as the remaining time rather than as a timestamp, so that they do not depend
+ * on clocks of different hosts being in sync. Each side converts the remaining time to a deadline of its own clock.
+ * <p>
+ * A deadline can be attached to current thread (see {@link #attach(FrpcDeadline)}). {@code FrpcRequestHandler} does
+ * this for the duration of each request carrying a deadline, so that handler code can check the remaining time by
+ * {@link #current()}, and calls made by {@code FrpcClient} from that thread inherit the deadline automatically.
+ *
+ * @author David Moidl david.moidl@firma.seznam.cz
+ */
+public final class FrpcDeadline {
+
+    private static final ThreadLocal<FrpcDeadline> CURRENT = new ThreadLocal<>();
+
+    private final long deadlineNanos;
+
+    private FrpcDeadline(long deadlineNanos) {
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    /**
+     * Creates a deadline given time from now.
+     *
+     * @param timeout  time from now
+     * @param timeUnit the time unit
+     * @return new deadline
+     */
+    public static FrpcDeadline after(long timeout, TimeUnit timeUnit) {
+        return new FrpcDeadline(System.nanoTime() + Objects.requireNonNull(timeUnit).toNanos(timeout));
+    }
+
+    /**
+     * Returns the deadline attached to current thread.
+     *
+     * @return the deadline attached to current thread or {@code null} if there is none
+     */
+    public static FrpcDeadline current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Attaches given deadline to current thread, replacing the deadline attached so far. Callers are expected to
+     * restore the previous deadline once done:
+     * <pre>
+     * FrpcDeadline previous = FrpcDeadline.attach(deadline);
+     * try {
+     *     ...
+     * } finally {
+     *     FrpcDeadline.attach(previous);
+     * }
+     * </pre>
+     *
+     * @param deadline the deadline to attach, {@code null} detaches current deadline
+     * @return the deadline attached so far, possibly {@code null}
+     */
+    public static FrpcDeadline attach(FrpcDeadline deadline) {
+        FrpcDeadline previous = CURRENT.get();
+        if (deadline == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(deadline);
+        }
+        return previous;
+    }
+
+    /**
+     * Returns the earlier of given deadlines.
+     *
+     * @param first  the first deadline, may be {@code null}
+     * @param second the second deadline, may be {@code null}
+     * @return the earlier deadline or the one which is not {@code null}, {@code null} if both are {@code null}
+     */
+    public static FrpcDeadline earlierOf(FrpcDeadline first, FrpcDeadline second) {
+        if (first == null) {
+            return second;
+        }
+        if (second == null) {
+            return first;
+        }
+        return first.deadlineNanos - second.deadlineNanos <= 0 ? first : second;
+    }
+
+    /**
+     * Parses value of {@link FrpcHttpHeaders#TIMEOUT} header.
+     *
+     * @param headerValue   value of the header, may be {@code null}
+     * @param elapsedMillis time in milliseconds which has passed since the request carrying the header was received,
+     *                      such as the time it waited in a queue
+     * @return the deadline or {@code null} if the value is missing or malformed
+     */
+    public static FrpcDeadline fromHeaderValue(String headerValue, long elapsedMillis) {
+        if (headerValue == null || !NumberUtils.isDigits(headerValue.trim())) {
+            return null;
+        }
+        return after(NumberUtils.toLong(headerValue.trim()) - Math.max(0, elapsedMillis), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the value of {@link FrpcHttpHeaders#TIMEOUT} header representing this deadline, that is the remaining
+     * time in milliseconds.
+     *
+     * @return the value of the header
+     */
+    public String toHeaderValue() {
+        return Long.toString(getRemaining(TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Returns the time remaining until this deadline.
+     *
+     * @param timeUnit time unit to convert the value to
+     * @return the remaining time, zero if the deadline has passed
+     */
+    public long getRemaining(TimeUnit timeUnit) {
+        return timeUnit.convert(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Checks whether this deadline has passed.
+     *
+     * @return {@code true} if this deadline has passed and {@code false} otherwise
+     */
+    public boolean isExpired() {
+        return deadlineNanos - System.nanoTime() <= 0;
+    }
+
+    @Override
+    public String toString() {
+        return "FrpcDeadline{remaining=" + getRemaining(TimeUnit.MILLISECONDS) + " ms}";
+    }
+
+}
@@ -0,0 +1,21 @@
+package cz.seznam.frpc.core.transport;
+
+/**
+ * Thrown when a call cannot be completed before its deadline. The client throws it without sending the request (or
+ * another attempt of it) if the deadline has passed, the server fails requests which arrive after their deadline by
+ * it without even decoding them.
+ *
+ * @author David Moidl david.moidl@firma.seznam.cz
+ * @see FrpcDeadline
+ */
+public class FrpcDeadlineExceededException extends FrpcTransportException {
+
+    public FrpcDeadlineExceededException(String message) {
+        super(message);
+    }
+
+    public FrpcDeadlineExceededException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+}
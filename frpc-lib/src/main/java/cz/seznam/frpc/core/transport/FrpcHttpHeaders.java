@@ -0,0 +1,36 @@
+package cz.seznam.frpc.core.transport;
+
+/**
+ * Names of {@code HTTP} headers used by {@code FRPC} client and server on top of the {@code FRPC} protocol itself.
+ *
+ * @author David Moidl david.moidl@firma.seznam.cz
+ */
+public class FrpcHttpHeaders {
+
+    /**
+     * Response header by which the server asks clients not to call it again for given number of milliseconds,
+     * typically sent along with a fault when the server is overloaded. Standard {@code Retry-After} header only
+     * supports whole seconds, which is too coarse for {@code RPC}. Responses carrying the header say nothing about
+     * the health or the latency of the server, {@code FrpcClient} leaves them out of its statistics of endpoints.
+     */
+    public static final String RETRY_AFTER = "X-Frpc-Retry-After";
+
+    /**
+     * Request header carrying paths to members of the result the client is interested in, separated by commas (see
+     * {@link cz.seznam.frpc.core.FrpcProjection}). Servers supporting it leave other members out of the response.
+     */
+    public static final String PROJECTION = "X-Frpc-Projection";
+
+    /**
+     * Request header carrying the time in milliseconds the client is willing to wait for the response, see
+     * {@link FrpcDeadline}.
+     */
+    public static final String TIMEOUT = "X-Frpc-Timeout";
+
+    /**
+     * Request header carrying the priority the caller wants its call processed with, overriding the priority declared
+     * by the method (see {@link cz.seznam.frpc.core.FrpcPriority}).
+     */
+    public static final String PRIORITY = "X-Frpc-Priority";
+
+}
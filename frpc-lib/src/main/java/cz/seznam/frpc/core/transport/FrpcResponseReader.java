@@ -1,5 +1,9 @@
 package cz.seznam.frpc.core.transport;
 
+import cz.seznam.frpc.core.FrpcProjection;
+
+import java.io.InputStream;
+
 /**
  * Specialization of {@link FrpcReader} capable of reading {@code FRPC} responses as objects.
  *
@@ -7,6 +11,23 @@ package cz.seznam.frpc.core.transport;
  */
 public interface FrpcResponseReader extends FrpcReader<Object> {
 
+    /**
+     * Reads response from given input stream, only keeping members of structures included in given projection (see
+     * {@link FrpcProjection}). Default implementation reads the whole response and projects it afterwards,
+     * implementations able to skip members while reading should override this method.
+     *
+     * @param inputStream   input stream to read data from
+     * @param contentLength content length, negative value means the content length is unknown
+     * @param projection    projection of the response, {@code null} to read it whole
+     * @return the response read from the stream
+     * @throws FrpcTransportException if anything goes wrong while reading the response from the input stream
+     */
+    public default Object read(InputStream inputStream, long contentLength, FrpcProjection projection)
+            throws FrpcTransportException {
+        Object response = read(inputStream, contentLength);
+        return projection == null || response instanceof FrpcFault ? response : projection.apply(response);
+    }
+
     /**
      * Returns proper implementation of the reader for given protocol.
      *
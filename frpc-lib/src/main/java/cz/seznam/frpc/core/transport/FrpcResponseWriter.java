@@ -1,5 +1,7 @@
 package cz.seznam.frpc.core.transport;
 
+import cz.seznam.frpc.core.FrpcProjection;
+
 import java.io.OutputStream;
 
 /**
@@ -11,6 +13,22 @@ public interface FrpcResponseWriter extends FrpcWriter<Object> {
 
     public void write(Object response, OutputStream outputStream) throws FrpcTransportException;
 
+    /**
+     * Writes given response into the stream, leaving out members of structures not included in given projection (see
+     * {@link FrpcProjection}). Default implementation writes projected copy of the response, implementations able to
+     * leave the members out while writing should override this method.
+     *
+     * @param response     response to be written into the stream
+     * @param projection   projection of the response, {@code null} to write it whole
+     * @param outputStream stream to write the response into
+     * @throws FrpcTransportException if anything goes wrong while writing the response into the stream
+     */
+    public default void write(Object response, FrpcProjection projection, OutputStream outputStream)
+            throws FrpcTransportException {
+        write(projection == null || response instanceof FrpcFault ? response : projection.apply(response),
+                outputStream);
+    }
+
     /**
      * Returns proper implementation of the writer for given protocol.
      *
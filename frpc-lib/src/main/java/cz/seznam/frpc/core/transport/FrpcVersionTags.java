@@ -0,0 +1,94 @@
+package cz.seznam.frpc.core.transport;
+
+import java.util.Objects;
+
+/**
+ * Utility methods for version tags of {@code FRPC} results. Version tags travel as standard {@code HTTP} entity tags:
+ * the server sends the tag of a result in {@code ETag} response header and the client sends tag of the result it
+ * already has in {@code If-None-Match} request header. If the tags match, the server answers by
+ * {@code 304 Not Modified} with no body instead of sending the result again.
+ *
+ * @author David Moidl david.moidl@firma.seznam.cz
+ */
+public final class FrpcVersionTags {
+
+    private FrpcVersionTags() {
+    }
+
+    /**
+     * Checks that given version tag can be sent as an entity tag, that is it is not empty and consists of visible
+     * {@code ASCII} characters other than double quotes.
+     *
+     * @param versionTag the version tag to check
+     * @return the version tag
+     * @throws IllegalArgumentException if the version tag cannot be sent as an entity tag
+     */
+    public static String check(String versionTag) {
+        Objects.requireNonNull(versionTag, "Version tag must not be null");
+        if (versionTag.isEmpty()) {
+            throw new IllegalArgumentException("Version tag must not be empty");
+        }
+        for (int i = 0; i < versionTag.length(); i++) {
+            char c = versionTag.charAt(i);
+            if (c <= 0x20 || c >= 0x7F || c == '"') {
+                throw new IllegalArgumentException("Version tag \"" + versionTag + "\" contains characters not " +
+                        "allowed in entity tags");
+            }
+        }
+        return versionTag;
+    }
+
+    /**
+     * Converts given version tag to the value of {@code ETag} or {@code If-None-Match} header.
+     *
+     * @param versionTag the version tag
+     * @return the header value
+     */
+    public static String toHeaderValue(String versionTag) {
+        return '"' + check(versionTag) + '"';
+    }
+
+    /**
+     * Extracts the version tag from the value of {@code ETag} header.
+     *
+     * @param headerValue value of the header, may be {@code null}
+     * @return the version tag or {@code null} if the value is {@code null} or not a valid entity tag
+     */
+    public static String fromHeaderValue(String headerValue) {
+        if (headerValue == null) {
+            return null;
+        }
+        String value = headerValue.trim();
+        // weak tags are as good as strong ones, results are compared as a whole anyway
+        if (value.startsWith("W/")) {
+            value = value.substring(2);
+        }
+        if (value.length() < 3 || value.charAt(0) != '"' || value.charAt(value.length() - 1) != '"') {
+            return null;
+        }
+        String versionTag = value.substring(1, value.length() - 1);
+        return versionTag.indexOf('"') < 0 ? versionTag : null;
+    }
+
+    /**
+     * Checks whether value of {@code If-None-Match} header matches given version tag, that is whether the client
+     * already has the result with given tag.
+     *
+     * @param headerValue value of the header, may be {@code null}
+     * @param versionTag  version tag of the result
+     * @return {@code true} if the header lists given tag, {@code false} otherwise
+     */
+    public static boolean matches(String headerValue, String versionTag) {
+        if (headerValue == null || versionTag == null) {
+            return false;
+        }
+        // the header may list several tags separated by commas
+        for (String candidate : headerValue.split(",")) {
+            if (versionTag.equals(fromHeaderValue(candidate))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -1,5 +1,6 @@
 package cz.seznam.frpc.server;
 
+import cz.seznam.frpc.core.transport.FrpcDeadlineExceededException;
 import cz.seznam.frpc.core.transport.FrpcFault;
 import org.eclipse.jetty.http.HttpStatus;
 
@@ -35,14 +36,24 @@ public class DefaultFrpcResultTransformer implements FrpcResultTransformer<Objec
     }
 
     /**
-     * Constructs new {@link FrpcFault} with status code {@code 500} and status message obtained by calling
-     * {@link Exception#getMessage()} on given exception.
+     * Constructs new {@link FrpcFault} with status code {@code 500} (or {@code 504} if the request missed its
+     * deadline, {@code 503} if it was rejected because the server is overloaded and {@code 429} if it was rejected by
+     * a full bulkhead of its method) and status message obtained by calling {@link Exception#getMessage()} on given exception.
      *
      * @param exception exception to transform into desired result type
      * @return new {@code FrpcFault} as described above
      */
     @Override
     public FrpcFault transformError(Exception exception) {
+        if (exception instanceof FrpcDeadlineExceededException) {
+            return new FrpcFault(HttpStatus.GATEWAY_TIMEOUT_504, exception.getMessage());
+        }
+        if (exception instanceof FrpcOverloadedException) {
+            return new FrpcFault(HttpStatus.SERVICE_UNAVAILABLE_503, exception.getMessage());
+        }
+        if (exception instanceof FrpcBulkheadFullException) {
+            return new FrpcFault(HttpStatus.TOO_MANY_REQUESTS_429, exception.getMessage());
+        }
         return new FrpcFault(HttpStatus.INTERNAL_SERVER_ERROR_500, exception.getMessage());
     }
 }
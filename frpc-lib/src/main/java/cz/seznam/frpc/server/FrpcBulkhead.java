@@ -0,0 +1,164 @@
+package cz.seznam.frpc.server;
+
+import cz.seznam.frpc.core.transport.FrpcDeadline;
+import cz.seznam.frpc.core.transport.FrpcDeadlineExceededException;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bulkhead limiting the number of calls of a method (or of all methods of a handler) processed concurrently, so that
+ * a heavy method cannot take all threads of the server from the others. Calls over the limit wait in a queue of
+ * limited length, calls which do not fit into the queue either are rejected right away by
+ * {@link FrpcBulkheadFullException}. Calls wait at most until their deadline (see {@link FrpcDeadline}).
+ * <p>
+ * Waiting calls do not hold any thread. Each of them is represented by a future which is completed once a call
+ * being processed releases its place, in first come first served order. The future is completed by the thread
+ * releasing the place, so the admitted call should be continued by an executor rather than by dependent stages of
+ * the future, otherwise the call releasing the place would be held up by the call it admits.
+ * <p>
+ * Bulkheads are configured by {@link cz.seznam.frpc.server.annotations.FrpcMethod#maxConcurrency()} for methods and
+ * by {@link FrpcHandlerMapping#setBulkhead(String, int, int)} for handlers. Their occupancy can be watched through
+ * {@link FrpcHandlerMapping#getMethodBulkheads()} and {@link FrpcHandlerMapping#getHandlerBulkheads()}.
+ *
+ * @author David Moidl david.moidl@firma.seznam.cz
+ */
+public final class FrpcBulkhead {
+
+    private final String name;
+    private final int maxConcurrency;
+    private final int maxQueue;
+    private final LongAdder rejectedCalls = new LongAdder();
+
+    // guarded by this
+    private int activeCalls;
+    private final Queue<CompletableFuture<Void>> waitingCalls = new ArrayDeque<>();
+
+    FrpcBulkhead(String name, int maxConcurrency, int maxQueue) {
+        if (maxConcurrency < 1 || maxQueue < 0) {
+            throw new IllegalArgumentException("Maximum concurrency of bulkhead " + name + " must be positive and " +
+                    "maximum queue length must not be negative");
+        }
+        this.name = name;
+        this.maxConcurrency = maxConcurrency;
+        this.maxQueue = maxQueue;
+    }
+
+    /**
+     * Admits a call, putting it into the queue if the bulkhead is full. Every call admitted this way has to be
+     * followed by {@link #release()}.
+     *
+     * @param deadline deadline of the call, {@code null} to wait in the queue for as long as it takes
+     * @return future completed once the call is admitted, which is right away unless the bulkhead is full; it
+     * completes exceptionally by {@link FrpcBulkheadFullException} if both the bulkhead and its queue are full and by
+     * {@link FrpcDeadlineExceededException} if the deadline passes while the call is waiting in the queue
+     */
+    CompletableFuture<Void> acquire(FrpcDeadline deadline) {
+        CompletableFuture<Void> admitted = new CompletableFuture<>();
+        synchronized (this) {
+            // calls in the queue go first
+            if (activeCalls < maxConcurrency && waitingCalls.isEmpty()) {
+                activeCalls++;
+                admitted.complete(null);
+                return admitted;
+            }
+            if (waitingCalls.size() >= maxQueue) {
+                rejectedCalls.increment();
+                admitted.completeExceptionally(new FrpcBulkheadFullException("Too many concurrent calls of " + name +
+                        ", call was rejected"));
+                return admitted;
+            }
+            waitingCalls.add(admitted);
+        }
+        if (deadline != null) {
+            ScheduledFuture<?> timeout = FrpcDeadlineTimer.schedule(deadline, () -> {
+                // only calls still in the queue time out, admitted ones own their place already
+                if (removeWaiting(admitted)) {
+                    admitted.completeExceptionally(new FrpcDeadlineExceededException("Deadline of the call " +
+                            "expired while it was waiting for bulkhead of " + name));
+                }
+            });
+            admitted.whenComplete((result, t) -> timeout.cancel(false));
+        }
+        return admitted;
+    }
+
+    /**
+     * Releases a call admitted by {@link #acquire(FrpcDeadline)}. Its place is handed over to the call waiting in the
+     * queue for the longest time, if there is one.
+     */
+    void release() {
+        CompletableFuture<Void> next;
+        synchronized (this) {
+            next = waitingCalls.poll();
+            if (next == null) {
+                activeCalls--;
+                return;
+            }
+        }
+        // the place passes to the next call directly, the number of active calls does not change
+        next.complete(null);
+    }
+
+    private synchronized boolean removeWaiting(CompletableFuture<Void> call) {
+        return waitingCalls.remove(call);
+    }
+
+    /**
+     * Returns the name of the method or handler this bulkhead belongs to.
+     *
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the maximum number of calls processed concurrently.
+     *
+     * @return the maximum concurrency
+     */
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * Returns the maximum number of calls waiting in the queue.
+     *
+     * @return the maximum queue length
+     */
+    public int getMaxQueue() {
+        return maxQueue;
+    }
+
+    /**
+     * Returns the number of calls being processed.
+     *
+     * @return the number of calls admitted and not released yet
+     */
+    public synchronized int getActiveCalls() {
+        return activeCalls;
+    }
+
+    /**
+     * Returns the number of calls waiting in the queue.
+     *
+     * @return the number of waiting calls
+     */
+    public synchronized int getQueuedCalls() {
+        return waitingCalls.size();
+    }
+
+    /**
+     * Returns the number of calls rejected because both the bulkhead and its queue were full.
+     *
+     * @return the number of rejected calls
+     */
+    public long getRejectedCalls() {
+        return rejectedCalls.sum();
+    }
+
+}
@@ -0,0 +1,15 @@
+package cz.seznam.frpc.server;
+
+/**
+ * Thrown when a call is rejected because the bulkhead of its method or handler is full, that is because too many
+ * calls of the method (or of the handler) are being processed and waiting already (see {@link FrpcBulkhead}).
+ *
+ * @author David Moidl david.moidl@firma.seznam.cz
+ */
+public class FrpcBulkheadFullException extends RuntimeException {
+
+    public FrpcBulkheadFullException(String message) {
+        super(message);
+    }
+
+}
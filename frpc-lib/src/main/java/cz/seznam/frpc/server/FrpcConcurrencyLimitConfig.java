@@ -0,0 +1,135 @@
+package cz.seznam.frpc.server;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Immutable configuration of adaptive concurrency limits applied by {@link LimitingFrpcRequestProcessor}. Describes
+ * the bounds the limits adapt within and what clients of rejected requests are told.
+ *
+ * @author David Moidl david.moidl@firma.seznam.cz
+ */
+public class FrpcConcurrencyLimitConfig {
+
+    private int initialLimit;
+    private int minLimit;
+    private int maxLimit;
+    private boolean perHandler;
+    private long retryAfterMillis;
+
+    private FrpcConcurrencyLimitConfig(Builder builder) {
+        this.initialLimit = builder.initialLimit;
+        this.minLimit = builder.minLimit;
+        this.maxLimit = builder.maxLimit;
+        this.perHandler = builder.perHandler;
+        this.retryAfterMillis = builder.retryAfterMillis;
+    }
+
+    /**
+     * Builder used to create {@link FrpcConcurrencyLimitConfig} instances.
+     */
+    public static final class Builder {
+
+        private int initialLimit = 20;
+        private int minLimit = 1;
+        private int maxLimit = 1000;
+        private boolean perHandler = true;
+        private long retryAfterMillis = 100;
+
+        private Builder() {
+        }
+
+        /**
+         * Sets the number of requests processed concurrently the limits start at and the bounds they adapt within.
+         * <p>
+         * Defaults to 20, 1 and 1000 requests respectively.
+         *
+         * @param initialLimit the limit to start at
+         * @param minLimit     the lowest limit
+         * @param maxLimit     the highest limit
+         * @return this {@code Builder} instance so that calls can be chained
+         */
+        public Builder limits(int initialLimit, int minLimit, int maxLimit) {
+            if (minLimit < 1 || initialLimit < minLimit || maxLimit < initialLimit) {
+                throw new IllegalArgumentException("Limits must be positive and the initial limit has to be " +
+                        "between the lowest and the highest one");
+            }
+            this.initialLimit = initialLimit;
+            this.minLimit = minLimit;
+            this.maxLimit = maxLimit;
+            return this;
+        }
+
+        /**
+         * Sets whether each handler (that is each prefix of method names, see {@link FrpcHandlerMapping}) gets its
+         * own limit on top of the global one, so that slow methods of one handler do not take all capacity of the
+         * server from the others.
+         * <p>
+         * Turned on by default.
+         *
+         * @param perHandler {@code true} to limit handlers separately as well
+         * @return this {@code Builder} instance so that calls can be chained
+         */
+        public Builder perHandler(boolean perHandler) {
+            this.perHandler = perHandler;
+            return this;
+        }
+
+        /**
+         * Sets the time clients of rejected requests are asked not to call the server for.
+         * <p>
+         * Defaults to 100 milliseconds.
+         *
+         * @param time     the time to back off for
+         * @param timeUnit the time unit
+         * @return this {@code Builder} instance so that calls can be chained
+         */
+        public Builder retryAfter(long time, TimeUnit timeUnit) {
+            if (time < 0) {
+                throw new IllegalArgumentException("Time must not be negative");
+            }
+            this.retryAfterMillis = Objects.requireNonNull(timeUnit, "Time unit must not be null").toMillis(time);
+            return this;
+        }
+
+        /**
+         * Builds new {@link FrpcConcurrencyLimitConfig} from properties set on this builder.
+         *
+         * @return new instance of {@code FrpcConcurrencyLimitConfig}
+         */
+        public FrpcConcurrencyLimitConfig build() {
+            return new FrpcConcurrencyLimitConfig(this);
+        }
+
+    }
+
+    /**
+     * Creates new {@link Builder} instance.
+     *
+     * @return new {@link Builder} instance
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    int getInitialLimit() {
+        return initialLimit;
+    }
+
+    int getMinLimit() {
+        return minLimit;
+    }
+
+    int getMaxLimit() {
+        return maxLimit;
+    }
+
+    boolean isPerHandler() {
+        return perHandler;
+    }
+
+    long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+
+}
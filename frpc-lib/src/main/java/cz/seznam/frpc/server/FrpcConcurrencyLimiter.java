@@ -0,0 +1,127 @@
+package cz.seznam.frpc.server;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Adaptive limit of requests processed concurrently, following the idea of {@code TCP Vegas}. The lowest latency
+ * observed is taken for the latency of a request which did not have to wait for anything. The ratio of that latency
+ * to the latency of each completed request tells how many of the requests processed concurrently were actually
+ * waiting (for threads, locks, database connections and so on) rather than being processed. The limit grows while
+ * only few requests wait and shrinks once too many of them do, or once requests start missing their deadlines.
+ * <p>
+ * The lowest latency is forgotten every now and then, so that the limit follows lasting changes of the latency of
+ * requests, such as when the data they process grow.
+ *
+ * @author David Moidl david.moidl@firma.seznam.cz
+ */
+final class FrpcConcurrencyLimiter {
+
+    /**
+     * Number of samples after which the lowest latency is measured anew.
+     */
+    private static final int SAMPLES_PER_PROBE = 1000;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    /**
+     * Current limit rounded down, read without locking by {@link #tryAcquire()}.
+     */
+    private volatile int limit;
+
+    // guarded by this
+    private double estimatedLimit;
+    private long minLatencyNanos = Long.MAX_VALUE;
+    private int samplesSinceProbe;
+
+    FrpcConcurrencyLimiter(FrpcConcurrencyLimitConfig config) {
+        this.minLimit = config.getMinLimit();
+        this.maxLimit = config.getMaxLimit();
+        this.estimatedLimit = config.getInitialLimit();
+        this.limit = config.getInitialLimit();
+    }
+
+    /**
+     * Tries to admit a request.
+     *
+     * @return {@code true} if the request may be processed, in which case either {@link #release(long, boolean)} or
+     * {@link #cancel()} has to be called once it is done, and {@code false} if the limit has been reached
+     */
+    boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Releases an admitted request without taking its latency into account, typically because it has not been
+     * processed at all.
+     */
+    void cancel() {
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * Releases an admitted request once it has been processed and adapts the limit to its latency.
+     *
+     * @param latencyNanos time it took to process the request in nanoseconds
+     * @param dropped      whether the request missed its deadline, which is a sign of overload regardless of latency
+     */
+    void release(long latencyNanos, boolean dropped) {
+        int concurrent = inFlight.getAndDecrement();
+        update(Math.max(1, latencyNanos), dropped, concurrent);
+    }
+
+    private synchronized void update(long latencyNanos, boolean dropped, int concurrent) {
+        if (++samplesSinceProbe >= SAMPLES_PER_PROBE) {
+            samplesSinceProbe = 0;
+            minLatencyNanos = latencyNanos;
+        } else if (latencyNanos < minLatencyNanos) {
+            minLatencyNanos = latencyNanos;
+        }
+        double newLimit = estimatedLimit;
+        // the step grows slowly with the limit, so that large limits do not take ages to adapt
+        double step = Math.max(1, Math.log10(newLimit));
+        if (dropped) {
+            newLimit -= step;
+        } else if (concurrent * 2 < newLimit) {
+            // the limit is not what holds the requests back, their latency says nothing about it
+            return;
+        } else {
+            // estimate the number of requests waiting rather than being processed
+            double waiting = newLimit * (1 - (double) minLatencyNanos / latencyNanos);
+            if (waiting < 3 * step) {
+                newLimit += step;
+            } else if (waiting > 6 * step) {
+                newLimit -= step;
+            }
+        }
+        estimatedLimit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+        limit = (int) estimatedLimit;
+    }
+
+    /**
+     * Returns the current limit.
+     *
+     * @return the number of requests which may be processed concurrently
+     */
+    int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Returns the number of requests being processed.
+     *
+     * @return the number of admitted requests not released yet
+     */
+    int getInFlight() {
+        return inFlight.get();
+    }
+
+}
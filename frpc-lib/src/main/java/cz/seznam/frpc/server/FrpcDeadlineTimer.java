@@ -0,0 +1,44 @@
+package cz.seznam.frpc.server;
+
+import cz.seznam.frpc.core.transport.FrpcDeadline;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timer shared by server components which have to act once the deadline of a request passes before its result is
+ * ready, such as failing suspended requests or releasing the capacity they occupy. Tasks run on single daemon thread
+ * and have to be short.
+ *
+ * @author David Moidl david.moidl@firma.seznam.cz
+ */
+final class FrpcDeadlineTimer {
+
+    private static final ScheduledThreadPoolExecutor TIMER;
+
+    static {
+        TIMER = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "frpc-deadline-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // most requests complete in time, do not keep their timeouts around
+        TIMER.setRemoveOnCancelPolicy(true);
+    }
+
+    private FrpcDeadlineTimer() {
+    }
+
+    /**
+     * Schedules given task to run once given deadline passes.
+     *
+     * @param deadline the deadline
+     * @param task     the task to run
+     * @return future to cancel the task by once it is no longer needed
+     */
+    static ScheduledFuture<?> schedule(FrpcDeadline deadline, Runnable task) {
+        return TIMER.schedule(task, deadline.getRemaining(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+    }
+
+}
@@ -11,10 +11,14 @@ public interface FrpcHandler {
     /**
      * Handles {@code FRPC} method call by either directly running the logic behind the method name or by delegating
      * the work elsewhere. Either way, the result is the actual result of the {@code FRPC} method.
+     * <p>
+     * Asynchronous methods return {@link java.util.concurrent.CompletionStage} instead and complete it with the
+     * actual result once it is ready. The request is resumed and its response written only when the stage completes,
+     * no thread waits for it in the meantime.
      *
      * @param frpcMethodName name of the {@code FRPC} method to call
      * @param args array of arguments for the {@code FRPC} method with given name
-     * @return actual result of the {@code FRPC} method
+     * @return actual result of the {@code FRPC} method or a stage completed with it
      * @throws Exception if anything goes wrong during computation
      */
     public Object handleFrpcMethodCall(String frpcMethodName, Object[] args) throws Exception;
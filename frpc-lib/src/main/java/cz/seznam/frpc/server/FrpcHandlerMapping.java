@@ -1,9 +1,12 @@
 package cz.seznam.frpc.server;
 
+import cz.seznam.frpc.core.FrpcPriority;
+
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Supplier;
 
 
@@ -19,6 +22,9 @@ import java.util.function.Supplier;
  * <p>
  * This class allows to map any class or {@link FrpcMethodNamesProvider} - {@link FrpcMethodMetaDataProvider} -
  * {@link FrpcHandler} triple to its name.
+ * <p>
+ * The mapping is thread-safe. Handlers may be added, removed and configured while the server is processing requests,
+ * which see each handler either before or after the change, never half-configured.
  *
  * @author David Moidl david.moidl@firma.seznam.cz
  * @see FrpcMethodMetaDataProvider
@@ -27,9 +33,10 @@ import java.util.function.Supplier;
 public class FrpcHandlerMapping {
 
     /**
-     * Holds the actual mapping from String names to DTOs representing the handlers.
+     * Holds the actual mapping from String names to DTOs representing the handlers. Request threads read it live,
+     * the DTOs are immutable and replaced as a whole when a handler is configured.
      */
-    private Map<String, FrpcMethodHandlerAndMethods> mapping = new HashMap<>();
+    private Map<String, FrpcMethodHandlerAndMethods> mapping = new ConcurrentHashMap<>();
 
     /**
      * Method validator used to validate resolved methods.
@@ -113,7 +120,7 @@ public class FrpcHandlerMapping {
         // validate methods
         validateMethods(methods, name);
         // create the mapping
-        mapping.put(name, new FrpcMethodHandlerAndMethods(methods, handler));
+        mapping.put(name, new FrpcMethodHandlerAndMethods(methods, handler, createBulkheads(name, methods)));
     }
 
     /**
@@ -208,7 +215,99 @@ public class FrpcHandlerMapping {
      * operation and {@code false} otherwise
      */
     public boolean removeHandler(String name) {
-        return mapping.remove(name) != null;
+        return name != null && mapping.remove(name) != null;
+    }
+
+    /**
+     * Sets the priority of calls of methods of the handler mapped to given name, unless the methods declare their own
+     * priority by {@link cz.seznam.frpc.server.annotations.FrpcMethod#priority()}. Only applies to servers scheduling
+     * calls by priority (see {@link PrioritizingFrpcRequestProcessor}).
+     *
+     * @param name     name of the handler
+     * @param priority the priority, {@code null} (or {@link FrpcPriority#UNSPECIFIED}) to use the default priority
+     * @throws IllegalArgumentException if there is no handler mapped to given name
+     */
+    public void setPriority(String name, FrpcPriority priority) {
+        // replace the handler atomically, so that concurrent changes of its configuration are not lost
+        if (mapping.computeIfPresent(Objects.requireNonNull(name),
+                (n, handlerAndMethods) -> handlerAndMethods.withPriority(priority)) == null) {
+            throw new IllegalArgumentException("There is no handler mapped to \"" + name + "\"");
+        }
+    }
+
+    /**
+     * Limits the number of calls of methods of the handler mapped to given name processed concurrently, in total
+     * across all methods of the handler (see {@link FrpcBulkhead}). Methods may limit their own concurrency on top
+     * of it by {@link cz.seznam.frpc.server.annotations.FrpcMethod#maxConcurrency()}.
+     *
+     * @param name           name of the handler
+     * @param maxConcurrency the maximum number of concurrent calls, 0 removes the limit
+     * @param maxQueue       the maximum number of calls waiting for others to complete, calls over this number are
+     *                       rejected by a fault
+     * @throws IllegalArgumentException if there is no handler mapped to given name or the limits are negative
+     */
+    public void setBulkhead(String name, int maxConcurrency, int maxQueue) {
+        Objects.requireNonNull(name);
+        if (maxConcurrency < 0) {
+            throw new IllegalArgumentException("Maximum concurrency must not be negative");
+        }
+        String bulkheadName = "handler " + (name.isEmpty() ? "mapped to empty name" : name);
+        FrpcBulkhead bulkhead = maxConcurrency == 0 ? null : new FrpcBulkhead(bulkheadName, maxConcurrency, maxQueue);
+        // replace the handler atomically, so that concurrent changes of its configuration are not lost
+        if (mapping.computeIfPresent(name, (n, handlerAndMethods) -> handlerAndMethods.withBulkhead(bulkhead)) ==
+                null) {
+            throw new IllegalArgumentException("There is no handler mapped to \"" + name + "\"");
+        }
+    }
+
+    /**
+     * Returns bulkheads of handlers (see {@link #setBulkhead(String, int, int)}), so that their occupancy can be
+     * watched.
+     *
+     * @return a map mapping handler names to their bulkheads, only of handlers with limited concurrency
+     */
+    public Map<String, FrpcBulkhead> getHandlerBulkheads() {
+        Map<String, FrpcBulkhead> result = new HashMap<>();
+        mapping.forEach((name, handlerAndMethods) -> {
+            if (handlerAndMethods.getBulkhead() != null) {
+                result.put(name, handlerAndMethods.getBulkhead());
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Returns bulkheads of methods (see {@link cz.seznam.frpc.server.annotations.FrpcMethod#maxConcurrency()}), so
+     * that their occupancy can be watched.
+     *
+     * @return a map mapping full method names to their bulkheads, only of methods with limited concurrency
+     */
+    public Map<String, FrpcBulkhead> getMethodBulkheads() {
+        Map<String, FrpcBulkhead> result = new HashMap<>();
+        mapping.forEach((name, handlerAndMethods) -> handlerAndMethods.getMethodBulkheads().forEach(
+                (methodName, bulkhead) -> result.put(name.isEmpty() ? methodName : name + "." + methodName,
+                        bulkhead)));
+        return result;
+    }
+
+    /**
+     * Returns the priority of calls of given method, as declared by the method or set to its handler.
+     *
+     * @param fullMethodName full name of the method, including the name of its handler
+     * @return the priority or {@code null} if neither the method nor its handler has one or the method is unknown
+     */
+    FrpcPriority getPriority(String fullMethodName) {
+        // everything up to the last dot is the handler name, the same as when the method is called
+        int lastDotIndex = fullMethodName.lastIndexOf('.');
+        FrpcMethodHandlerAndMethods handlerAndMethods = mapping.get(lastDotIndex < 0 ? "" :
+                fullMethodName.substring(0, lastDotIndex));
+        if (handlerAndMethods == null) {
+            return null;
+        }
+        FrpcMethodMetaData metaData = handlerAndMethods.getMethodsMetaData()
+                .get(fullMethodName.substring(lastDotIndex + 1));
+        return metaData != null && metaData.getPriority() != null ? metaData.getPriority() :
+                handlerAndMethods.getPriority();
     }
 
     /**
@@ -256,7 +355,22 @@ public class FrpcHandlerMapping {
         // create the handler
         ReflectiveFrpcHandler handler = new ReflectiveFrpcHandler(supplier, methodLocator);
         // save it into the map
-        mapping.put(Objects.requireNonNull(name), new FrpcMethodHandlerAndMethods(methods, handler));
+        mapping.put(Objects.requireNonNull(name), new FrpcMethodHandlerAndMethods(methods, handler,
+                createBulkheads(name, methods)));
+    }
+
+    private Map<String, FrpcBulkhead> createBulkheads(String handlerName, Map<String, FrpcMethodMetaData> methods) {
+        Map<String, FrpcBulkhead> bulkheads = new HashMap<>();
+        for (Map.Entry<String, FrpcMethodMetaData> entry : methods.entrySet()) {
+            // only methods with limited concurrency get a bulkhead
+            FrpcMethodMetaData metaData = entry.getValue();
+            if (metaData.getMaxConcurrency() > 0) {
+                String fullMethodName = handlerName.isEmpty() ? entry.getKey() : handlerName + "." + entry.getKey();
+                bulkheads.put(entry.getKey(), new FrpcBulkhead("method " + fullMethodName,
+                        metaData.getMaxConcurrency(), metaData.getMaxQueue()));
+            }
+        }
+        return bulkheads;
     }
 
     private void validateMethods(Map<String, FrpcMethodMetaData> methods, String handlerName) {
@@ -0,0 +1,182 @@
+package cz.seznam.frpc.server;
+
+import cz.seznam.frpc.core.FrpcPriority;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Executes tasks in lanes by priority. Each lane has threads reserved for it, which only execute tasks of that lane,
+ * and all lanes share the rest of the threads by weighted fair queueing: each task is tagged by a virtual finish
+ * time growing by the inverse of the weight of its lane and shared threads always execute the task with the lowest
+ * tag, so that lanes with tasks waiting get shares of shared threads proportional to their weights. The virtual time
+ * is the tag of the last task started (self-clocked fair queueing), so that a lane which has been idle does not get
+ * ahead of the others by the time it did not use.
+ *
+ * @author David Moidl david.moidl@firma.seznam.cz
+ */
+final class FrpcLaneScheduler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FrpcLaneScheduler.class);
+
+    private static final class Task {
+
+        private final Runnable runnable;
+        private final double finishTag;
+
+        private Task(Runnable runnable, double finishTag) {
+            this.runnable = runnable;
+            this.finishTag = finishTag;
+        }
+
+    }
+
+    private final class Lane {
+
+        private final ArrayDeque<Task> tasks = new ArrayDeque<>();
+        private final Condition taskAvailable = lock.newCondition();
+        private final double cost;
+        private double lastFinishTag;
+
+        private Lane(int weight) {
+            this.cost = 1.0 / weight;
+        }
+
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition sharedTaskAvailable = lock.newCondition();
+    private final Map<FrpcPriority, Lane> lanes = new EnumMap<>(FrpcPriority.class);
+    private final int queueCapacity;
+
+    // guarded by lock
+    private double virtualTime;
+    private boolean closed;
+
+    FrpcLaneScheduler(FrpcPriorityLanesConfig config) {
+        this.queueCapacity = config.getQueueCapacity();
+        for (FrpcPriority priority : FrpcPriority.values()) {
+            if (!priority.isSpecified()) {
+                continue;
+            }
+            Lane lane = new Lane(config.getWeight(priority));
+            lanes.put(priority, lane);
+            for (int i = 0; i < config.getReservedThreads(priority); i++) {
+                startThread("frpc-lane-" + priority.toHeaderValue() + "-" + i, lane);
+            }
+        }
+        for (int i = 0; i < config.getSharedThreads(); i++) {
+            startThread("frpc-lane-shared-" + i, null);
+        }
+    }
+
+    private void startThread(String name, Lane lane) {
+        Thread thread = new Thread(() -> work(lane), name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Submits given task to the lane of given priority.
+     *
+     * @param priority priority of the task
+     * @param runnable the task
+     * @return {@code true} if the task has been queued and {@code false} if the lane is full or the scheduler closed
+     */
+    boolean submit(FrpcPriority priority, Runnable runnable) {
+        Lane lane = lanes.get(priority);
+        lock.lock();
+        try {
+            if (closed || lane.tasks.size() >= queueCapacity) {
+                return false;
+            }
+            // the task finishes one cost after the previous task of the lane, but not earlier than the current time
+            double finishTag = Math.max(virtualTime, lane.lastFinishTag) + lane.cost;
+            lane.lastFinishTag = finishTag;
+            lane.tasks.addLast(new Task(runnable, finishTag));
+            // wake up a thread of the lane, or a shared one should the lane have no idle thread
+            lane.taskAvailable.signal();
+            sharedTaskAvailable.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void work(Lane ownLane) {
+        while (true) {
+            Task task;
+            lock.lock();
+            try {
+                while ((task = poll(ownLane)) == null) {
+                    if (closed) {
+                        return;
+                    }
+                    (ownLane == null ? sharedTaskAvailable : ownLane.taskAvailable).awaitUninterruptibly();
+                }
+                virtualTime = Math.max(virtualTime, task.finishTag);
+            } finally {
+                lock.unlock();
+            }
+            try {
+                task.runnable.run();
+            } catch (RuntimeException | Error e) {
+                LOGGER.error("Task of priority lane failed", e);
+            }
+        }
+    }
+
+    private Task poll(Lane ownLane) {
+        // reserved threads only execute tasks of their own lane
+        if (ownLane != null) {
+            return ownLane.tasks.pollFirst();
+        }
+        // shared threads execute the task with the lowest finish tag
+        Lane next = null;
+        for (Lane lane : lanes.values()) {
+            Task head = lane.tasks.peekFirst();
+            if (head != null && (next == null || head.finishTag < next.tasks.peekFirst().finishTag)) {
+                next = lane;
+            }
+        }
+        return next == null ? null : next.tasks.pollFirst();
+    }
+
+    /**
+     * Returns the number of tasks waiting in the lane of given priority.
+     *
+     * @param priority the priority
+     * @return the number of waiting tasks
+     */
+    int getQueuedTasks(FrpcPriority priority) {
+        Lane lane = lanes.get(priority);
+        lock.lock();
+        try {
+            return lane.tasks.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops accepting new tasks. Threads exit once they have executed the tasks already queued.
+     */
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            sharedTaskAvailable.signalAll();
+            for (Lane lane : lanes.values()) {
+                lane.taskAvailable.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+}
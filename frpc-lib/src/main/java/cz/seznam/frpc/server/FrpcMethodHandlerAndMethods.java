@@ -1,5 +1,7 @@
 package cz.seznam.frpc.server;
 
+import cz.seznam.frpc.core.FrpcPriority;
+
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
@@ -21,6 +23,18 @@ class FrpcMethodHandlerAndMethods {
      * The handler methods above belong to.
      */
     private FrpcHandler frpcHandler;
+    /**
+     * Priority of methods of the handler which do not declare their own, {@code null} if none was set.
+     */
+    private FrpcPriority priority;
+    /**
+     * Bulkheads of methods limiting their concurrency, by method names.
+     */
+    private Map<String, FrpcBulkhead> methodBulkheads;
+    /**
+     * Bulkhead limiting the concurrency of all methods of the handler, {@code null} if none was set.
+     */
+    private FrpcBulkhead bulkhead;
 
     /**
      * Creates new instance from given arguments.
@@ -30,8 +44,52 @@ class FrpcMethodHandlerAndMethods {
      */
     FrpcMethodHandlerAndMethods(
             Map<String, FrpcMethodMetaData> methodsMetaData, FrpcHandler frpcHandler) {
-        this.methodsMetaData = Collections.unmodifiableMap(new HashMap<>(Objects.requireNonNull(methodsMetaData)));
-        this.frpcHandler = Objects.requireNonNull(frpcHandler);
+        this(methodsMetaData, frpcHandler, Collections.emptyMap());
+    }
+
+    /**
+     * Creates new instance from given arguments.
+     *
+     * @param methodsMetaData mapping from {@code FRPC} method names to corresponding meta data
+     * @param frpcHandler the handler {@code methodsMetaData} belong to
+     * @param methodBulkheads bulkheads of methods limiting their concurrency, by method names
+     */
+    FrpcMethodHandlerAndMethods(
+            Map<String, FrpcMethodMetaData> methodsMetaData, FrpcHandler frpcHandler,
+            Map<String, FrpcBulkhead> methodBulkheads) {
+        this(Collections.unmodifiableMap(new HashMap<>(Objects.requireNonNull(methodsMetaData))),
+                Objects.requireNonNull(frpcHandler),
+                Collections.unmodifiableMap(new HashMap<>(Objects.requireNonNull(methodBulkheads))), null, null);
+    }
+
+    private FrpcMethodHandlerAndMethods(Map<String, FrpcMethodMetaData> methodsMetaData, FrpcHandler frpcHandler,
+                                        Map<String, FrpcBulkhead> methodBulkheads, FrpcPriority priority,
+                                        FrpcBulkhead bulkhead) {
+        this.methodsMetaData = methodsMetaData;
+        this.frpcHandler = frpcHandler;
+        this.methodBulkheads = methodBulkheads;
+        this.priority = FrpcPriority.specifiedOrNull(priority);
+        this.bulkhead = bulkhead;
+    }
+
+    /**
+     * Creates a copy of this instance with given priority of methods of the handler.
+     *
+     * @param priority priority of methods of the handler which do not declare their own, may be {@code null}
+     * @return the copy
+     */
+    FrpcMethodHandlerAndMethods withPriority(FrpcPriority priority) {
+        return new FrpcMethodHandlerAndMethods(methodsMetaData, frpcHandler, methodBulkheads, priority, bulkhead);
+    }
+
+    /**
+     * Creates a copy of this instance with given bulkhead of the handler.
+     *
+     * @param bulkhead bulkhead limiting the concurrency of all methods of the handler, may be {@code null}
+     * @return the copy
+     */
+    FrpcMethodHandlerAndMethods withBulkhead(FrpcBulkhead bulkhead) {
+        return new FrpcMethodHandlerAndMethods(methodsMetaData, frpcHandler, methodBulkheads, priority, bulkhead);
     }
 
     /**
@@ -51,4 +109,31 @@ class FrpcMethodHandlerAndMethods {
     FrpcHandler getFrpcHandler() {
         return frpcHandler;
     }
+
+    /**
+     * Returns the priority of methods of the handler which do not declare their own.
+     *
+     * @return the priority or {@code null} if none was set
+     */
+    FrpcPriority getPriority() {
+        return priority;
+    }
+
+    /**
+     * Returns an unmodifiable map of bulkheads of methods limiting their concurrency.
+     *
+     * @return bulkheads by method names, only of methods with limited concurrency
+     */
+    Map<String, FrpcBulkhead> getMethodBulkheads() {
+        return methodBulkheads;
+    }
+
+    /**
+     * Returns the bulkhead limiting the concurrency of all methods of the handler.
+     *
+     * @return the bulkhead or {@code null} if none was set
+     */
+    FrpcBulkhead getBulkhead() {
+        return bulkhead;
+    }
 }
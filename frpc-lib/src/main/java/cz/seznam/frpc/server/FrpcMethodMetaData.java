@@ -1,5 +1,8 @@
 package cz.seznam.frpc.server;
 
+import cz.seznam.frpc.core.FrpcPriority;
+import cz.seznam.frpc.server.annotations.FrpcMethod;
+
 import java.lang.reflect.Method;
 import java.lang.reflect.Type;
 import java.util.Collections;
@@ -26,6 +29,18 @@ public class FrpcMethodMetaData {
      * Key to store the result of this method under in the result map.
      */
     private Map<String, Object> additionalData;
+    /**
+     * Priority declared by the method, {@code null} if the priority of its handler applies.
+     */
+    private FrpcPriority priority;
+    /**
+     * Maximum number of calls of the method processed concurrently, 0 if unlimited.
+     */
+    private final int maxConcurrency;
+    /**
+     * Maximum number of calls of the method waiting for others to complete.
+     */
+    private final int maxQueue;
 
     /**
      * Creates new instance from given arguments.
@@ -35,10 +50,48 @@ public class FrpcMethodMetaData {
      * @param additionalData
      */
     public FrpcMethodMetaData(Type[] parameterTypes, Type returnType, Map<String, Object> additionalData) {
+        this(parameterTypes, returnType, additionalData, null);
+    }
+
+    /**
+     * Creates new instance from given arguments.
+     *
+     * @param parameterTypes array of parameter types of the method
+     * @param returnType     return type of the method
+     * @param additionalData any additional meta data of the method, may be {@code null}
+     * @param priority       priority declared by the method, {@code null} (or {@link FrpcPriority#UNSPECIFIED}) if the
+     *                       priority of its handler applies
+     */
+    public FrpcMethodMetaData(Type[] parameterTypes, Type returnType, Map<String, Object> additionalData,
+                              FrpcPriority priority) {
+        this(parameterTypes, returnType, additionalData, priority, 0, 0);
+    }
+
+    /**
+     * Creates new instance from given arguments.
+     *
+     * @param parameterTypes array of parameter types of the method
+     * @param returnType     return type of the method
+     * @param additionalData any additional meta data of the method, may be {@code null}
+     * @param priority       priority declared by the method, {@code null} (or {@link FrpcPriority#UNSPECIFIED}) if the
+     *                       priority of its handler applies
+     * @param maxConcurrency maximum number of calls of the method processed concurrently, 0 if unlimited
+     * @param maxQueue       maximum number of calls of the method waiting for others to complete
+     * @throws IllegalArgumentException if any of the limits is negative
+     */
+    public FrpcMethodMetaData(Type[] parameterTypes, Type returnType, Map<String, Object> additionalData,
+                              FrpcPriority priority, int maxConcurrency, int maxQueue) {
+        if (maxConcurrency < 0 || maxQueue < 0) {
+            throw new IllegalArgumentException("Maximum concurrency and queue length of a method must not be " +
+                    "negative");
+        }
         this.parameterTypes = Objects.requireNonNull(parameterTypes);
         this.returnType = Objects.requireNonNull(returnType);
         this.additionalData = additionalData == null ? Collections.emptyMap() : Collections
                 .unmodifiableMap(new HashMap<>(additionalData));
+        this.priority = FrpcPriority.specifiedOrNull(priority);
+        this.maxConcurrency = maxConcurrency;
+        this.maxQueue = maxQueue;
     }
 
     /**
@@ -69,6 +122,33 @@ public class FrpcMethodMetaData {
         return additionalData;
     }
 
+    /**
+     * Returns the priority declared by the method.
+     *
+     * @return the priority or {@code null} if the priority of the handler of the method applies
+     */
+    FrpcPriority getPriority() {
+        return priority;
+    }
+
+    /**
+     * Returns the maximum number of calls of the method processed concurrently.
+     *
+     * @return the maximum concurrency or 0 if unlimited
+     */
+    int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * Returns the maximum number of calls of the method waiting for others to complete.
+     *
+     * @return the maximum queue length
+     */
+    int getMaxQueue() {
+        return maxQueue;
+    }
+
     /**
      * Reads meta data of given method and creates an instance of {@code FrpcMethodMetaData} out of them.
      *
@@ -78,7 +158,10 @@ public class FrpcMethodMetaData {
     static FrpcMethodMetaData fromMethod(Method method) {
         Objects.requireNonNull(method, "Method must not be null");
         // create FrpcMethodMetaData and return it
-        return new FrpcMethodMetaData(method.getGenericParameterTypes(), method.getGenericReturnType(), null);
+        FrpcMethod annotation = method.getAnnotation(FrpcMethod.class);
+        return new FrpcMethodMetaData(method.getGenericParameterTypes(), method.getGenericReturnType(), null,
+                getPriority(annotation), annotation == null ? 0 : annotation.maxConcurrency(),
+                annotation == null ? 0 : annotation.maxQueue());
     }
 
     /**
@@ -92,7 +175,14 @@ public class FrpcMethodMetaData {
     static FrpcMethodMetaData fromMethodWithAdditionalData(Method method, Map<String, Object> additionalData) {
         Objects.requireNonNull(method, "Method must not be null");
         // create FrpcMethodMetaData and return it
-        return new FrpcMethodMetaData(method.getGenericParameterTypes(), method.getGenericReturnType(), additionalData);
+        FrpcMethod annotation = method.getAnnotation(FrpcMethod.class);
+        return new FrpcMethodMetaData(method.getGenericParameterTypes(), method.getGenericReturnType(), additionalData,
+                getPriority(annotation), annotation == null ? 0 : annotation.maxConcurrency(),
+                annotation == null ? 0 : annotation.maxQueue());
+    }
+
+    private static FrpcPriority getPriority(FrpcMethod annotation) {
+        return annotation == null ? null : FrpcPriority.specifiedOrNull(annotation.priority());
     }
 
 }
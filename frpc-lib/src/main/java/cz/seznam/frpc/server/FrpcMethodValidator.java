@@ -4,6 +4,7 @@ import cz.seznam.frpc.core.FrpcTypesConverter;
 import org.apache.commons.lang3.StringUtils;
 
 import java.lang.reflect.*;
+import java.util.concurrent.CompletionStage;
 import java.util.regex.Pattern;
 
 
@@ -11,7 +12,9 @@ import java.util.regex.Pattern;
  * Abstract class providing core method validation logic. There are certain criteria any {@code FRPC} method has to meet
  * should it be compatible with this framework. The most important criteria are that types of all parameters of a
  * {@code FRPC} method as well as its return type are supported by this framework and can be converted into objects
- * which can be read and written by {@code FRPC} un/marshaller. <br />
+ * which can be read and written by {@code FRPC} un/marshaller. Methods returning {@link CompletionStage} are
+ * asynchronous and the type they are checked against is the type of the value their stage completes with, so that
+ * {@code CompletionStage<Map<String, Object>>} is as good a return type as {@code Map<String, Object>}. <br />
  * Custom implementations of this class may impose additional constraints via
  * {@link #doAdditionalValidation(String, FrpcMethodMetaData)} method.
  *
@@ -72,9 +75,9 @@ public abstract class FrpcMethodValidator {
                         "Method parameter #" + (i + 1) + " is invalid - " + e.getMessage());
             }
         }
-        // validate return type
+        // validate return type, asynchronous methods are validated by the result of the stage they return
         try {
-            validateParameterType(methodMetaData.getReturnType());
+            validateParameterType(getResultType(methodMetaData.getReturnType()));
         } catch (ParameterCheckException e) {
             return new FrpcMethodValidationResult(false,
                     "Method return type is invalid - " + e.getMessage());
@@ -86,6 +89,21 @@ public abstract class FrpcMethodValidator {
                 .isValid() ? additionalValidationResult : new FrpcMethodValidationResult(true, null);
     }
 
+    private Type getResultType(Type returnType) {
+        Type rawType = returnType instanceof ParameterizedType ? ((ParameterizedType) returnType).getRawType() :
+                returnType;
+        // anything other than a stage is the result itself
+        if (!(rawType instanceof Class) || !CompletionStage.class.isAssignableFrom((Class<?>) rawType)) {
+            return returnType;
+        }
+        // the type of the result has to be known, otherwise it cannot be converted
+        if (!(returnType instanceof ParameterizedType)) {
+            throw new ParameterCheckException("Class " + returnType.getTypeName() + " does not declare type of " +
+                    "the result it completes with");
+        }
+        return ((ParameterizedType) returnType).getActualTypeArguments()[0];
+    }
+
     private void validateParameterType(Type type) {
         if (type instanceof Class) {
             // check that it is compatible raw type
@@ -0,0 +1,47 @@
+package cz.seznam.frpc.server;
+
+import cz.seznam.frpc.core.FrpcMulticallUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Specialization of {@link FrpcRequestProcessingResult} representing the result of
+ * {@value FrpcMulticallUtils#MULTICALL_METHOD_NAME} call. Holds one result per sub-call, in the order the sub-calls
+ * were given in the request. Each result is either an instance of {@link FrpcRequestProcessingResult} (if the sub-call
+ * succeeded) or an {@link Exception} (if it failed) so that failures of individual sub-calls are isolated from each
+ * other.
+ *
+ * @author David Moidl david.moidl@firma.seznam.cz
+ */
+public class FrpcMulticallProcessingResult extends FrpcRequestProcessingResult {
+
+    /**
+     * Results of individual sub-calls.
+     */
+    private List<Object> subResults;
+
+    /**
+     * Creates new instance from given sub-call results.
+     *
+     * @param subResults results of individual sub-calls, each being either {@link FrpcRequestProcessingResult} or
+     *                   {@link Exception}
+     */
+    public FrpcMulticallProcessingResult(List<Object> subResults) {
+        super(null, null);
+        this.subResults = Collections.unmodifiableList(new ArrayList<>(Objects.requireNonNull(subResults)));
+    }
+
+    /**
+     * Returns an unmodifiable list of results of individual sub-calls. Each item is either an instance of
+     * {@link FrpcRequestProcessingResult} or an {@link Exception}.
+     *
+     * @return an unmodifiable list of results of individual sub-calls
+     */
+    public List<Object> getSubResults() {
+        return subResults;
+    }
+
+}
@@ -0,0 +1,38 @@
+package cz.seznam.frpc.server;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Thrown when a request is rejected because the server is processing as many requests as it can handle (see
+ * {@link LimitingFrpcRequestProcessor}). The client is asked not to call the server again for the time returned by
+ * {@link #getRetryAfter(TimeUnit)}, {@link FrpcRequestHandler} sends it in
+ * {@link cz.seznam.frpc.core.transport.FrpcHttpHeaders#RETRY_AFTER} header along with the fault.
+ *
+ * @author David Moidl david.moidl@firma.seznam.cz
+ */
+public class FrpcOverloadedException extends RuntimeException {
+
+    /**
+     * Message of all instances, so that the fault they are transformed to can be encoded just once.
+     */
+    static final String MESSAGE = "Server is overloaded, request was rejected";
+
+    private long retryAfterMillis;
+
+    public FrpcOverloadedException(long retryAfterMillis) {
+        super(MESSAGE);
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    /**
+     * Returns the time the client should not call the server for.
+     *
+     * @param timeUnit the time unit to return the time in
+     * @return the time to back off for
+     */
+    public long getRetryAfter(TimeUnit timeUnit) {
+        return Objects.requireNonNull(timeUnit).convert(retryAfterMillis, TimeUnit.MILLISECONDS);
+    }
+
+}
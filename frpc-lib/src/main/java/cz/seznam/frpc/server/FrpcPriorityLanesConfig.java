@@ -0,0 +1,176 @@
+package cz.seznam.frpc.server;
+
+import cz.seznam.frpc.core.FrpcPriority;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Immutable configuration of priority lanes of {@link PrioritizingFrpcRequestProcessor}. Each priority has its own
+ * lane with threads reserved for it and a weight deciding its share of the threads shared by all lanes.
+ *
+ * @author David Moidl david.moidl@firma.seznam.cz
+ */
+public class FrpcPriorityLanesConfig {
+
+    private Map<FrpcPriority, Integer> reservedThreads;
+    private Map<FrpcPriority, Integer> weights;
+    private int sharedThreads;
+    private int queueCapacity;
+    private long retryAfterMillis;
+
+    private FrpcPriorityLanesConfig(Builder builder) {
+        this.reservedThreads = new EnumMap<>(builder.reservedThreads);
+        this.weights = new EnumMap<>(builder.weights);
+        this.sharedThreads = builder.sharedThreads;
+        this.queueCapacity = builder.queueCapacity;
+        this.retryAfterMillis = builder.retryAfterMillis;
+    }
+
+    /**
+     * Builder used to create {@link FrpcPriorityLanesConfig} instances.
+     */
+    public static final class Builder {
+
+        private Map<FrpcPriority, Integer> reservedThreads = new EnumMap<>(FrpcPriority.class);
+        private Map<FrpcPriority, Integer> weights = new EnumMap<>(FrpcPriority.class);
+        private int sharedThreads = 8;
+        private int queueCapacity = 1000;
+        private long retryAfterMillis = 100;
+
+        private Builder() {
+            lane(FrpcPriority.HIGH, 2, 8);
+            lane(FrpcPriority.NORMAL, 2, 4);
+            lane(FrpcPriority.LOW, 1, 1);
+        }
+
+        /**
+         * Sets the number of threads reserved for calls of given priority and the weight of the priority. Reserved
+         * threads only process calls of their priority, so that calls of other priorities cannot take all threads.
+         * Shared threads process calls of all priorities, each of them getting a share proportional to its weight
+         * while calls of more priorities wait.
+         * <p>
+         * Defaults to 2 threads and weight 8 for {@link FrpcPriority#HIGH}, 2 threads and weight 4 for
+         * {@link FrpcPriority#NORMAL} and 1 thread and weight 1 for {@link FrpcPriority#LOW}.
+         *
+         * @param priority        the priority
+         * @param reservedThreads number of threads reserved for the priority, may be 0
+         * @param weight          the weight of the priority, positive
+         * @return this {@code Builder} instance so that calls can be chained
+         */
+        public Builder lane(FrpcPriority priority, int reservedThreads, int weight) {
+            Objects.requireNonNull(priority, "Priority must not be null");
+            if (!priority.isSpecified()) {
+                throw new IllegalArgumentException("There is no lane for unspecified priority");
+            }
+            if (reservedThreads < 0 || weight < 1) {
+                throw new IllegalArgumentException("Number of reserved threads must not be negative and weight " +
+                        "must be positive");
+            }
+            this.reservedThreads.put(priority, reservedThreads);
+            this.weights.put(priority, weight);
+            return this;
+        }
+
+        /**
+         * Sets the number of threads shared by all priorities.
+         * <p>
+         * Defaults to 8.
+         *
+         * @param sharedThreads number of shared threads, may be 0
+         * @return this {@code Builder} instance so that calls can be chained
+         */
+        public Builder sharedThreads(int sharedThreads) {
+            if (sharedThreads < 0) {
+                throw new IllegalArgumentException("Number of shared threads must not be negative");
+            }
+            this.sharedThreads = sharedThreads;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of calls waiting in each lane. Calls over the capacity are rejected right away
+         * by {@link FrpcOverloadedException}.
+         * <p>
+         * Defaults to 1000.
+         *
+         * @param queueCapacity the maximum number of waiting calls of each priority
+         * @return this {@code Builder} instance so that calls can be chained
+         */
+        public Builder queueCapacity(int queueCapacity) {
+            if (queueCapacity < 1) {
+                throw new IllegalArgumentException("Queue capacity must be positive");
+            }
+            this.queueCapacity = queueCapacity;
+            return this;
+        }
+
+        /**
+         * Sets the time clients of rejected calls are asked not to call the server for.
+         * <p>
+         * Defaults to 100 milliseconds.
+         *
+         * @param time     the time to back off for
+         * @param timeUnit the time unit
+         * @return this {@code Builder} instance so that calls can be chained
+         */
+        public Builder retryAfter(long time, TimeUnit timeUnit) {
+            if (time < 0) {
+                throw new IllegalArgumentException("Time must not be negative");
+            }
+            this.retryAfterMillis = Objects.requireNonNull(timeUnit, "Time unit must not be null").toMillis(time);
+            return this;
+        }
+
+        /**
+         * Builds new {@link FrpcPriorityLanesConfig} from properties set on this builder.
+         *
+         * @return new instance of {@code FrpcPriorityLanesConfig}
+         * @throws IllegalStateException if there would be no thread at all to process calls of some priority
+         */
+        public FrpcPriorityLanesConfig build() {
+            if (sharedThreads == 0) {
+                for (Map.Entry<FrpcPriority, Integer> entry : reservedThreads.entrySet()) {
+                    if (entry.getValue() == 0) {
+                        throw new IllegalStateException("Calls of priority " + entry.getKey() + " would have no " +
+                                "thread to process them");
+                    }
+                }
+            }
+            return new FrpcPriorityLanesConfig(this);
+        }
+
+    }
+
+    /**
+     * Creates new {@link Builder} instance.
+     *
+     * @return new {@link Builder} instance
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    int getReservedThreads(FrpcPriority priority) {
+        return reservedThreads.get(priority);
+    }
+
+    int getWeight(FrpcPriority priority) {
+        return weights.get(priority);
+    }
+
+    int getSharedThreads() {
+        return sharedThreads;
+    }
+
+    int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+
+}
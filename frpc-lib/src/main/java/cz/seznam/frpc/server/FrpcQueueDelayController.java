@@ -0,0 +1,80 @@
+package cz.seznam.frpc.server;
+
+/**
+ * Decides which requests to shed based on the time they spent waiting to be processed, following the idea of
+ * {@code CoDel} (controlled delay) as adapted for request queues of servers. Short bursts of requests make them wait
+ * for a while and that is fine, the queue absorbs the burst. A queue which does not get short even once within an
+ * interval is a standing queue though, it only delays every request without any benefit. Whenever even the shortest
+ * wait within the last interval exceeds the target, the server is considered overloaded and requests waiting longer
+ * than the target are shed, so that the queue drains and the rest of the requests are processed in time. The server
+ * stops shedding as soon as a request waits no longer than the target. Otherwise, only requests waiting longer than
+ * the whole interval are shed.
+ * <p>
+ * Intervals start with the first request, so that time the server spends idle is not mistaken for a standing queue.
+ *
+ * @author David Moidl david.moidl@firma.seznam.cz
+ */
+final class FrpcQueueDelayController {
+
+    private final long targetNanos;
+    private final long intervalNanos;
+
+    // guarded by this
+    private long intervalStartNanos;
+    private long minDelayNanos = Long.MAX_VALUE;
+    private boolean overloaded;
+
+    FrpcQueueDelayController(long targetNanos, long intervalNanos) {
+        this.targetNanos = targetNanos;
+        this.intervalNanos = intervalNanos;
+    }
+
+    /**
+     * Records the time a request spent waiting and decides whether it should be shed.
+     *
+     * @param delayNanos time the request spent waiting before being processed, in nanoseconds
+     * @return {@code true} if the request should be shed and {@code false} if it should be processed
+     */
+    boolean shouldShed(long delayNanos) {
+        return shouldShed(delayNanos, System.nanoTime());
+    }
+
+    /**
+     * Records the time a request spent waiting and decides whether it should be shed, as of given time.
+     *
+     * @param delayNanos time the request spent waiting before being processed, in nanoseconds
+     * @param nowNanos   current value of {@link System#nanoTime()}
+     * @return {@code true} if the request should be shed and {@code false} if it should be processed
+     */
+    boolean shouldShed(long delayNanos, long nowNanos) {
+        boolean overloaded;
+        synchronized (this) {
+            if (minDelayNanos == Long.MAX_VALUE) {
+                // no request has been seen yet, this one starts the interval
+                intervalStartNanos = nowNanos;
+            } else if (nowNanos - intervalStartNanos >= intervalNanos) {
+                // evaluate the interval which just ended
+                this.overloaded = minDelayNanos > targetNanos;
+                minDelayNanos = Long.MAX_VALUE;
+                intervalStartNanos = nowNanos;
+            }
+            minDelayNanos = Math.min(minDelayNanos, delayNanos);
+            // the queue has drained, there is nothing to shed any more
+            if (delayNanos <= targetNanos) {
+                this.overloaded = false;
+            }
+            overloaded = this.overloaded;
+        }
+        return delayNanos > (overloaded ? targetNanos : intervalNanos);
+    }
+
+    /**
+     * Returns the interval the shortest wait is evaluated over.
+     *
+     * @return the interval in nanoseconds
+     */
+    long getIntervalNanos() {
+        return intervalNanos;
+    }
+
+}
@@ -0,0 +1,147 @@
+package cz.seznam.frpc.server;
+
+import cz.seznam.frpc.core.transport.FrpcVersionTags;
+import org.eclipse.jetty.http.HttpHeader;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+
+/**
+ * Context of {@code FRPC} request being processed, attached to the processing thread by {@link FrpcRequestHandler} for
+ * the duration of the request. Handler code can obtain it by {@link #current()} to read headers of the request and to
+ * attach a version tag to the result it returns.
+ * <p>
+ * Version tags allow clients to skip downloading results they already have. A handler returning large result which
+ * changes rarely (such as a tree of categories) sets a tag identifying the version of the result, typically a revision
+ * number of the data it is built from. The tag is sent to the client along with the result and the client sends it
+ * back with the next call of the same method. If the result still has the same tag, the server answers just by
+ * {@code 304 Not Modified} and the client uses the result it has cached. Handlers can even skip building the result
+ * when {@link #isCurrentVersion(String)} tells them the client already has it:
+ * <pre>
+ * FrpcRequestContext context = FrpcRequestContext.current();
+ * String versionTag = Long.toString(categories.getRevision());
+ * context.setVersionTag(versionTag);
+ * if (context.isCurrentVersion(versionTag)) {
+ *     // the result is not sent anyway
+ *     return null;
+ * }
+ * return categories.toTree();
+ * </pre>
+ * Tags only apply to single calls, results of calls within {@code system.multicall} are always sent as a whole.
+ *
+ * @author David Moidl david.moidl@firma.seznam.cz
+ */
+public final class FrpcRequestContext {
+
+    private static final ThreadLocal<FrpcRequestContext> CURRENT = new ThreadLocal<>();
+
+    private final HttpServletRequest request;
+    private String versionTag;
+    private volatile Executor executor;
+
+    FrpcRequestContext(HttpServletRequest request) {
+        this.request = Objects.requireNonNull(request);
+    }
+
+    /**
+     * Returns the context of the request processed by current thread.
+     *
+     * @return the context of current request or {@code null} if current thread is not processing any request
+     */
+    public static FrpcRequestContext current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Attaches given context to current thread, replacing the context attached so far.
+     *
+     * @param context the context to attach, {@code null} detaches current context
+     * @return the context attached so far, possibly {@code null}
+     */
+    static FrpcRequestContext attach(FrpcRequestContext context) {
+        FrpcRequestContext previous = CURRENT.get();
+        if (context == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(context);
+        }
+        return previous;
+    }
+
+    /**
+     * Returns the version tag set to current context and clears it, so that it does not apply to other calls
+     * processed by the same thread.
+     *
+     * @return the version tag set by the handler or {@code null} if there is no context or no tag was set
+     */
+    static String takeVersionTag() {
+        FrpcRequestContext context = CURRENT.get();
+        if (context == null) {
+            return null;
+        }
+        String versionTag = context.versionTag;
+        context.versionTag = null;
+        return versionTag;
+    }
+
+    /**
+     * Returns the executor processing the request. Parts of the request which have to wait (for a place in a
+     * bulkhead, for example) are resumed by it, so that they do not escape the limits of the executor.
+     *
+     * @return the executor processing the request or {@code null} if it is processed by a thread of the server
+     */
+    Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Sets the executor processing the request.
+     *
+     * @param executor the executor processing the request, {@code null} if it is processed by a thread of the server
+     */
+    void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Returns the value of given header of the request.
+     *
+     * @param name name of the header
+     * @return value of the header or {@code null} if the request does not have it
+     */
+    public String getHeader(String name) {
+        return request.getHeader(Objects.requireNonNull(name));
+    }
+
+    /**
+     * Returns the version tag set to the result of current call.
+     *
+     * @return the version tag or {@code null} if none was set
+     */
+    public String getVersionTag() {
+        return versionTag;
+    }
+
+    /**
+     * Sets version tag of the result of current call. The tag must change whenever the result does.
+     *
+     * @param versionTag the version tag consisting of visible {@code ASCII} characters other than double quotes,
+     *                   {@code null} removes the tag set so far
+     * @throws IllegalArgumentException if the tag contains characters not allowed in {@code HTTP} entity tags
+     */
+    public void setVersionTag(String versionTag) {
+        this.versionTag = versionTag == null ? null : FrpcVersionTags.check(versionTag);
+    }
+
+    /**
+     * Checks whether the client already has the version of the result identified by given tag.
+     *
+     * @param versionTag the version tag
+     * @return {@code true} if the client sent given tag in {@code If-None-Match} header, {@code false} otherwise
+     */
+    public boolean isCurrentVersion(String versionTag) {
+        return FrpcVersionTags.matches(request.getHeader(HttpHeader.IF_NONE_MATCH.asString()), versionTag);
+    }
+
+}
@@ -1,6 +1,8 @@
 package cz.seznam.frpc.server;
 
 import cz.seznam.frpc.core.FrpcDataProcessingException;
+import cz.seznam.frpc.core.FrpcMulticallUtils;
+import cz.seznam.frpc.core.FrpcProjection;
 import cz.seznam.frpc.core.transport.*;
 import org.apache.commons.io.output.ByteArrayOutputStream;
 import org.eclipse.jetty.http.HttpHeader;
@@ -11,16 +13,65 @@ import org.eclipse.jetty.server.handler.AbstractHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.ReadListener;
 import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Default <strong>request</strong> handler for {@code FRPC} requests designed to work with Jetty HTTP server.
  * Do not mistake with {@link FrpcHandler} which handles the actual method call. This class handles HTTP requests
  * received by the HTTP server and delegates them to {@link FrpcRequestProcessor}.
+ * <p>
+ * Requests carrying a deadline (see {@link FrpcDeadline}) which has already passed by the time the request is handled
+ * are failed right away without being decoded, since nobody waits for their results any more. Other requests are
+ * processed with their deadline attached to the processing thread, so that handler code can learn the remaining time
+ * by {@link FrpcDeadline#current()} and calls it makes by {@code FrpcClient} inherit the deadline.
+ * <p>
+ * Results of single calls may carry a version tag, either set by the handler (see {@link FrpcRequestContext}) or,
+ * if turned on by {@link #setVersionTagsFromContent(boolean)}, computed as a hash of the serialized result. The tag is
+ * sent in {@code ETag} header and if the request already carries the same tag in {@code If-None-Match} header, the
+ * result is not sent at all and the response is just {@code 304 Not Modified}.
+ * <p>
+ * Results of single calls are also projected as requested by the client in {@link FrpcHttpHeaders#PROJECTION}
+ * header, that is members of structures the client is not interested in are left out of the response (see
+ * {@link FrpcProjection}). Handlers do not have to know about it.
+ * <p>
+ * By default, requests are processed synchronously by the thread of the server which received them, so that slow
+ * handlers occupy threads the server needs to handle connections. Handlers created with a business executor (see
+ * {@link #FrpcRequestHandler(FrpcRequestProcessor, FrpcResultTransformer, Executor)}) process requests asynchronously
+ * instead: the body of the request is read by non-blocking I/O and once complete, the request is decoded, processed
+ * and its response written by the business executor. The server thread is released as soon as the reading starts.
+ * The executor should be bounded (for instance {@link java.util.concurrent.ThreadPoolExecutor} with bounded queue),
+ * requests it rejects are answered by a fault right away.
+ * <p>
+ * Either way, requests handled by asynchronous methods (returning {@link java.util.concurrent.CompletionStage}, see
+ * {@link FrpcHandler}) are suspended until the stage completes and their response is written by the thread completing
+ * it, no thread waits for the result in the meantime. If the request carries a deadline which passes before the
+ * stage completes, the request is answered by a fault right away and the result is dropped once it is ready.
+ * <p>
+ * Requests rejected by {@link FrpcOverloadedException} (see {@link LimitingFrpcRequestProcessor}) are answered by
+ * a fault which is transformed and encoded just once for each protocol, so that rejecting requests costs the server
+ * as little as possible. The response carries {@link FrpcHttpHeaders#RETRY_AFTER} header telling the client how long
+ * to back off for.
+ * <p>
+ * Queueing delay of requests can be controlled as well (see {@link #setQueueDelayTarget(long, long, TimeUnit)}).
+ * The time each request spent waiting for a thread of the server (and for the business executor in asynchronous
+ * mode) is measured from the moment it arrived and once the queue stays long for a while, requests which waited too
+ * long are shed before they are even decoded, the same way as if they were rejected by a concurrency limit.
  *
  * @author David Moidl david.moidl@firma.seznam.cz
  */
@@ -30,6 +81,92 @@ public class FrpcRequestHandler extends AbstractHandler {
 
     private FrpcRequestProcessor frpcRequestProcessor;
     private FrpcResultTransformer<?, ?> frpcResultTransformer;
+    private Executor businessExecutor;
+    private boolean versionTagsFromContent;
+    private volatile FrpcQueueDelayController queueDelayController;
+    private final LongAdder expiredRequests = new LongAdder();
+    private final LongAdder notModifiedResponses = new LongAdder();
+    private final LongAdder asyncRequests = new LongAdder();
+    private final LongAdder rejectedRequests = new LongAdder();
+    private final LongAdder queueTimeNanos = new LongAdder();
+    private final LongAdder executionTimeNanos = new LongAdder();
+    private final LongAdder suspendedRequests = new LongAdder();
+    private final LongAdder timedOutRequests = new LongAdder();
+    private final LongAdder shedRequests = new LongAdder();
+    /**
+     * Encoded responses to requests rejected because the server is overloaded, by protocol.
+     */
+    private final ConcurrentMap<Protocol, byte[]> overloadedResponses = new ConcurrentHashMap<>();
+
+    /**
+     * State of single exchange of request and response.
+     */
+    private static final class Exchange {
+
+        private final Request baseRequest;
+        private final HttpServletRequest request;
+        private final HttpServletResponse response;
+        // default protocol is XML-RPC
+        private Protocol protocol = Protocol.XML_RPC;
+        private FrpcProjection projection;
+        private FrpcDeadline deadline;
+        // time the request spent waiting to be processed so far
+        private long waitedNanos;
+
+        private Exchange(Request baseRequest, HttpServletRequest request, HttpServletResponse response) {
+            this.baseRequest = baseRequest;
+            this.request = request;
+            this.response = response;
+        }
+
+    }
+
+    /**
+     * Reads body of a request by non-blocking I/O and dispatches the request to the business executor once the body
+     * is complete.
+     */
+    private final class RequestBodyReader implements ReadListener {
+
+        private final Exchange exchange;
+        private final AsyncContext asyncContext;
+        private final ServletInputStream input;
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        private final byte[] buffer = new byte[8192];
+
+        private RequestBodyReader(Exchange exchange, AsyncContext asyncContext, ServletInputStream input) {
+            this.exchange = exchange;
+            this.asyncContext = asyncContext;
+            this.input = input;
+        }
+
+        @Override
+        public void onDataAvailable() throws IOException {
+            // read as long as it is possible without blocking, the server calls again once there is more data
+            while (input.isReady()) {
+                int read = input.read(buffer);
+                if (read < 0) {
+                    return;
+                }
+                body.write(buffer, 0, read);
+            }
+        }
+
+        @Override
+        public void onAllDataRead() {
+            dispatch(exchange, asyncContext, body.toByteArray());
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            LOGGER.debug("Error while reading body of request", t);
+            try {
+                respond(exchange, new FrpcTransportException("Error while reading body of request", t));
+            } finally {
+                asyncContext.complete();
+            }
+        }
+
+    }
 
     /**
      * Creates new instance with given {@code FrpcRequestProcessor} used to process requests and
@@ -53,59 +190,62 @@ public class FrpcRequestHandler extends AbstractHandler {
         this.frpcResultTransformer = Objects.requireNonNull(frpcResultTransformer);
     }
 
+    /**
+     * Creates new instance processing requests asynchronously by given business executor.
+     *
+     * @param frpcRequestProcessor request processor to be used to process incoming requests
+     * @param frpcResultTransformer result transformer used to transform results
+     * @param businessExecutor executor used to decode and process requests and to write their responses, should be
+     *                         bounded; requests it rejects are answered by a fault
+     */
+    public FrpcRequestHandler(FrpcRequestProcessor frpcRequestProcessor,
+                              FrpcResultTransformer<?, ?> frpcResultTransformer, Executor businessExecutor) {
+        this(frpcRequestProcessor, frpcResultTransformer);
+        this.businessExecutor = Objects.requireNonNull(businessExecutor);
+    }
+
     /**
      * Handles Jetty's HTTP request. Internally only takes the request body and delegates its processing to specified
      * {@link FrpcRequestProcessor}. The result (which might be either a value returned by the request processor or any
      * exception it throws) is then handled by specified {@link FrpcResultTransformer}.
+     * <p>
+     * In asynchronous mode the request is only checked by the calling thread, the rest is left to the business
+     * executor once the body of the request has been read.
      */
     @Override
     public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response)
             throws IOException, ServletException {
         // only handle POST request as FRPC method calls
         if(HttpMethod.POST.is(request.getMethod())) {
-            Object result;
-            // try to handle the request
-            Object handlerResult;
-            // default protocol is XML-RPC
-            Protocol protocol = Protocol.XML_RPC;
+            Exchange exchange = new Exchange(baseRequest, request, response);
             try {
-                // get content type
-                String contentType = request.getContentType();
-                if(contentType == null) {
-                    contentType = Protocol.XML_RPC.getContentType();
-                    LOGGER.debug("Content type header is missing, defaulting to {}", contentType);
-                }
-                // try to get Protocol from content type
-                try {
-                    protocol = Protocol.fromContentType(contentType);
-                } catch (IllegalArgumentException e) {
-                    throw new FrpcTransportException("Given content type is not supported by any known protocol", e);
-                }
-                // check that content length is specified
-                if(protocol == Protocol.FRPC && request.getContentLengthLong() < 0) {
-                    throw new FrpcTransportException("Content length must be specified");
-                }
-
-                handlerResult = doHandle(request, protocol);
+                prepare(exchange);
             } catch (Exception e) {
                 LOGGER.debug("Caught exception from method {}", request.getMethod(), e);
-                handlerResult = e;
+                respond(exchange, e);
+                return;
             }
-
-            try {
-                // if the result is an exception
-                if(handlerResult instanceof Exception) {
-                    // transform the exception into result map
-                    result = frpcResultTransformer.transformError((Exception) handlerResult);
+            if (businessExecutor == null) {
+                CompletableFuture<Object> outcome = process(exchange, request.getInputStream(),
+                        request.getContentLength());
+                if (outcome.isDone()) {
+                    respond(exchange, outcome.join());
                 } else {
-                    // otherwise transform the result into result map
-                    result = frpcResultTransformer.transformOkResponse((FrpcRequestProcessingResult) handlerResult);
+                    // do not hold the thread of the server while asynchronous method computes the result
+                    AsyncContext asyncContext = request.startAsync();
+                    asyncContext.setTimeout(0);
+                    baseRequest.setHandled(true);
+                    respondWhenDone(exchange, outcome, asyncContext);
                 }
-                // serialize the result into the response
-                handleResponse(result, response, protocol);
-            } catch (Exception e) {
-                // if we can't properly handle the response, just return 500 with no content
-                response.setStatus(HttpStatus.INTERNAL_SERVER_ERROR_500);
+            } else {
+                // read the body without blocking and process the request once it is complete
+                AsyncContext asyncContext = request.startAsync();
+                // deadlines of the requests are checked by the processing itself
+                asyncContext.setTimeout(0);
+                ServletInputStream input = request.getInputStream();
+                input.setReadListener(new RequestBodyReader(exchange, asyncContext, input));
+                // set the request as handled, the response is completed later
+                baseRequest.setHandled(true);
             }
         } else {
             // if the HTTP method is not POST, return 405
@@ -113,34 +253,418 @@ public class FrpcRequestHandler extends AbstractHandler {
             // and set the request as handled so that the server know we actually did something (otherwise it would
             // return 404 even though we specified 405)
             baseRequest.setHandled(true);
+            // add response headers
+            addResponseHeaders(response);
+        }
+    }
+
+    private void prepare(Exchange exchange) {
+        HttpServletRequest request = exchange.request;
+        // get content type
+        String contentType = request.getContentType();
+        if(contentType == null) {
+            contentType = Protocol.XML_RPC.getContentType();
+            LOGGER.debug("Content type header is missing, defaulting to {}", contentType);
+        }
+        // try to get Protocol from content type
+        try {
+            exchange.protocol = Protocol.fromContentType(contentType);
+        } catch (IllegalArgumentException e) {
+            throw new FrpcTransportException("Given content type is not supported by any known protocol", e);
         }
+        // check that content length is specified
+        if(exchange.protocol == Protocol.FRPC && request.getContentLengthLong() < 0) {
+            throw new FrpcTransportException("Content length must be specified");
+        }
+        // check the projection before doing any work, malformed one makes the request fail
+        exchange.projection = FrpcProjection.fromHeaderValue(request.getHeader(FrpcHttpHeaders.PROJECTION));
+        exchange.deadline = getDeadline(exchange.baseRequest, request);
+        exchange.waitedNanos = getWaitedNanos(exchange.baseRequest);
+    }
+
+    private CompletableFuture<Object> process(Exchange exchange, InputStream body, long contentLength) {
+        FrpcDeadline deadline = exchange.deadline;
+        CompletableFuture<FrpcRequestProcessingResult> processing;
+        try {
+            // drop requests nobody waits for any more
+            if (deadline != null && deadline.isExpired()) {
+                expiredRequests.increment();
+                throw new FrpcDeadlineExceededException("Deadline of the request expired before it was processed");
+            }
+            // shed requests stuck in a standing queue, before any work is spent on them
+            FrpcQueueDelayController queueDelayController = this.queueDelayController;
+            if (queueDelayController != null && queueDelayController.shouldShed(exchange.waitedNanos)) {
+                shedRequests.increment();
+                throw new FrpcOverloadedException(
+                        TimeUnit.NANOSECONDS.toMillis(queueDelayController.getIntervalNanos()));
+            }
+            // make the deadline and the request context available to handler code and outgoing calls
+            FrpcDeadline previousDeadline = FrpcDeadline.attach(deadline);
+            FrpcRequestContext context = new FrpcRequestContext(exchange.request);
+            context.setExecutor(businessExecutor);
+            FrpcRequestContext previousContext = FrpcRequestContext.attach(context);
+            try {
+                processing = doHandle(body, contentLength, exchange.protocol);
+            } finally {
+                FrpcRequestContext.attach(previousContext);
+                FrpcDeadline.attach(previousDeadline);
+            }
+        } catch (Exception e) {
+            LOGGER.debug("Caught exception from method {}", exchange.request.getMethod(), e);
+            return CompletableFuture.completedFuture(e);
+        }
+        // the outcome is either the result or the exception the processing failed with
+        CompletableFuture<Object> outcome = new CompletableFuture<>();
+        processing.whenComplete((result, t) -> {
+            if (t == null) {
+                outcome.complete(result);
+            } else {
+                LOGGER.debug("Caught exception from method {}", exchange.request.getMethod(), t);
+                outcome.complete(unwrap(t));
+            }
+        });
+        // do not let the client wait for asynchronous method longer than it is willing to
+        if (!outcome.isDone() && deadline != null) {
+            ScheduledFuture<?> timeout = FrpcDeadlineTimer.schedule(deadline, () -> {
+                if (outcome.complete(new FrpcDeadlineExceededException(
+                        "Deadline of the request expired before its result was ready"))) {
+                    timedOutRequests.increment();
+                }
+            });
+            outcome.whenComplete((result, t) -> timeout.cancel(false));
+        }
+        return outcome;
+    }
+
+    private void respondWhenDone(Exchange exchange, CompletableFuture<Object> outcome, AsyncContext asyncContext) {
+        suspendedRequests.increment();
+        // the outcome never completes exceptionally, the response is written by the thread completing it
+        outcome.thenAccept(handlerResult -> {
+            try {
+                respond(exchange, handlerResult);
+            } finally {
+                asyncContext.complete();
+            }
+        });
+    }
+
+    private static Exception unwrap(Throwable t) {
+        // stages wrap failures of the stages they depend on
+        Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+        return cause instanceof Exception ? (Exception) cause : new RuntimeException(cause);
+    }
+
+    private void respond(Exchange exchange, Object handlerResult) {
+        HttpServletResponse response = exchange.response;
+        try {
+            Object result;
+            // only results of single calls can be versioned
+            boolean versionable = false;
+            String versionTag = null;
+            // if the result is an exception
+            if (handlerResult instanceof FrpcOverloadedException) {
+                // rejected requests get the same response every time
+                overloaded(exchange, (FrpcOverloadedException) handlerResult);
+                result = null;
+            } else if(handlerResult instanceof Exception) {
+                // transform the exception into result map
+                result = frpcResultTransformer.transformError((Exception) handlerResult);
+            } else if(handlerResult instanceof FrpcMulticallProcessingResult) {
+                // multicall results are transformed one by one
+                result = transformMulticallResult((FrpcMulticallProcessingResult) handlerResult);
+            } else {
+                // otherwise transform the result into result map
+                FrpcRequestProcessingResult processingResult = (FrpcRequestProcessingResult) handlerResult;
+                result = frpcResultTransformer.transformOkResponse(processingResult);
+                versionable = !(result instanceof FrpcFault);
+                versionTag = processingResult.getVersionTag();
+            }
+            // serialize the result into the response, unless it has been written already
+            if (!(handlerResult instanceof FrpcOverloadedException)) {
+                handleResponse(result, exchange.request, response, exchange.protocol, versionable, versionTag,
+                        versionable ? exchange.projection : null);
+            }
+        } catch (Exception e) {
+            // if we can't properly handle the response, just return 500 with no content
+            response.setStatus(HttpStatus.INTERNAL_SERVER_ERROR_500);
+        }
+        // set the request as handled, otherwise responses with no content would be turned into 404
+        exchange.baseRequest.setHandled(true);
         // add response headers
         addResponseHeaders(response);
     }
 
-    private FrpcRequestProcessingResult doHandle(HttpServletRequest request, Protocol protocol) throws Exception {
+    private void dispatch(Exchange exchange, AsyncContext asyncContext, byte[] body) {
+        long queuedAt = System.nanoTime();
+        try {
+            businessExecutor.execute(() -> {
+                long startedAt = System.nanoTime();
+                queueTimeNanos.add(startedAt - queuedAt);
+                exchange.waitedNanos += startedAt - queuedAt;
+                boolean suspended = false;
+                try {
+                    CompletableFuture<Object> outcome = process(exchange, new ByteArrayInputStream(body),
+                            body.length);
+                    if (outcome.isDone()) {
+                        respond(exchange, outcome.join());
+                    } else {
+                        // asynchronous method, respond once its result is ready without holding the thread
+                        respondWhenDone(exchange, outcome, asyncContext);
+                        suspended = true;
+                    }
+                } finally {
+                    executionTimeNanos.add(System.nanoTime() - startedAt);
+                    asyncRequests.increment();
+                    if (!suspended) {
+                        asyncContext.complete();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // the executor is saturated, fail the request right away rather than letting it wait
+            rejectedRequests.increment();
+            LOGGER.debug("Business executor rejected request", e);
+            try {
+                respond(exchange, new RejectedExecutionException("Server is overloaded, request was rejected", e));
+            } finally {
+                asyncContext.complete();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of requests dropped because their deadline expired before they were processed.
+     *
+     * @return the number of expired requests
+     */
+    public long getExpiredRequests() {
+        return expiredRequests.sum();
+    }
+
+    /**
+     * Returns the number of requests suspended until the stage returned by an asynchronous method completed.
+     *
+     * @return the number of suspended requests
+     */
+    public long getSuspendedRequests() {
+        return suspendedRequests.sum();
+    }
+
+    /**
+     * Returns the number of suspended requests answered by a fault because their deadline expired before the stage
+     * returned by an asynchronous method completed.
+     *
+     * @return the number of timed out requests
+     */
+    public long getTimedOutRequests() {
+        return timedOutRequests.sum();
+    }
+
+    /**
+     * Turns on shedding of requests which waited too long to be processed, measured from the moment the server
+     * received them until a thread started processing them. Once even the shortest wait within given interval
+     * exceeds given target, requests waiting longer than the target are shed without being decoded, until the waits
+     * drop below the target again. Otherwise, only requests waiting longer than the interval are shed. Shed requests
+     * are answered by the same fault as requests rejected by a concurrency limit (see
+     * {@link FrpcOverloadedException}), asking the client to back off for the interval.
+     * <p>
+     * Turned off by default. The server only stamps requests once it has parsed their headers, so the time they
+     * wait for a thread to even read them is not seen, nor is it measured more precisely than in milliseconds. The
+     * wait for the business executor is measured exactly, so the shedding works best in asynchronous mode. Targets of
+     * a few milliseconds and intervals of about a hundred milliseconds work well.
+     *
+     * @param target   the longest wait not considered a standing queue, {@code 0} turns the shedding off
+     * @param interval the interval the shortest wait is evaluated over
+     * @param timeUnit the time unit
+     */
+    public void setQueueDelayTarget(long target, long interval, TimeUnit timeUnit) {
+        Objects.requireNonNull(timeUnit, "Time unit must not be null");
+        if (target < 0 || (target > 0 && interval < target)) {
+            throw new IllegalArgumentException("Target must not be negative and interval must not be shorter than " +
+                    "the target");
+        }
+        this.queueDelayController = target == 0 ? null :
+                new FrpcQueueDelayController(timeUnit.toNanos(target), timeUnit.toNanos(interval));
+    }
+
+    /**
+     * Returns the number of requests shed because they waited too long to be processed.
+     *
+     * @return the number of shed requests
+     */
+    public long getShedRequests() {
+        return shedRequests.sum();
+    }
+
+    /**
+     * Sets whether results of single calls not given a version tag by their handler get a tag computed as a hash of
+     * the serialized result. This saves sending results the client already has, but not their serialization.
+     * <p>
+     * Turned off by default.
+     *
+     * @param versionTagsFromContent {@code true} to compute version tags of results without one
+     */
+    public void setVersionTagsFromContent(boolean versionTagsFromContent) {
+        this.versionTagsFromContent = versionTagsFromContent;
+    }
+
+    /**
+     * Returns the number of responses answered by {@code 304 Not Modified} because the client already had the result.
+     *
+     * @return the number of responses not sending the result
+     */
+    public long getNotModifiedResponses() {
+        return notModifiedResponses.sum();
+    }
+
+    /**
+     * Returns the number of requests processed asynchronously by the business executor.
+     *
+     * @return the number of asynchronously processed requests
+     */
+    public long getAsyncRequests() {
+        return asyncRequests.sum();
+    }
+
+    /**
+     * Returns the number of requests rejected by the business executor.
+     *
+     * @return the number of rejected requests
+     */
+    public long getRejectedRequests() {
+        return rejectedRequests.sum();
+    }
+
+    /**
+     * Returns the total time requests processed asynchronously spent waiting in the queue of the business executor,
+     * that is from the moment their body had been read until the executor started processing them.
+     *
+     * @param timeUnit the time unit to return the time in
+     * @return total queue time of asynchronously processed requests
+     */
+    public long getTotalQueueTime(TimeUnit timeUnit) {
+        return Objects.requireNonNull(timeUnit).convert(queueTimeNanos.sum(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the total time the business executor spent processing requests, including decoding them and writing
+     * their responses.
+     *
+     * @param timeUnit the time unit to return the time in
+     * @return total execution time of asynchronously processed requests
+     */
+    public long getTotalExecutionTime(TimeUnit timeUnit) {
+        return Objects.requireNonNull(timeUnit).convert(executionTimeNanos.sum(), TimeUnit.NANOSECONDS);
+    }
+
+    private long getWaitedNanos(Request baseRequest) {
+        // the server only records the time requests arrive with millisecond precision
+        long receivedAt = baseRequest.getTimeStamp();
+        return receivedAt > 0 ? TimeUnit.MILLISECONDS.toNanos(Math.max(0, System.currentTimeMillis() - receivedAt)) :
+                0;
+    }
+
+    private FrpcDeadline getDeadline(Request baseRequest, HttpServletRequest request) {
+        // the time the request has spent waiting for a thread counts as well
+        long receivedAt = baseRequest.getTimeStamp();
+        long elapsedMillis = receivedAt > 0 ? System.currentTimeMillis() - receivedAt : 0;
+        return FrpcDeadline.fromHeaderValue(request.getHeader(FrpcHttpHeaders.TIMEOUT), elapsedMillis);
+    }
+
+    private CompletableFuture<FrpcRequestProcessingResult> doHandle(InputStream body, long contentLength,
+                                                                    Protocol protocol) throws Exception {
         // get request reader for protocol
         FrpcRequestReader requestReader = FrpcRequestReader.forProtocol(protocol);
         // read the request
-        FrpcRequest frpcRequest = requestReader.read(request.getInputStream(), request.getContentLength());
-        // process it using the request processor
-        return frpcRequestProcessor.process(frpcRequest);
+        FrpcRequest frpcRequest = requestReader.read(body, contentLength);
+        // process it using the request processor, without waiting for asynchronous methods
+        return frpcRequestProcessor.processAsync(frpcRequest);
+    }
+
+    private Object[] transformMulticallResult(FrpcMulticallProcessingResult multicallResult) {
+        List<Object> subResults = multicallResult.getSubResults();
+        Object[] result = new Object[subResults.size()];
+        for (int i = 0; i < result.length; i++) {
+            Object subResult = subResults.get(i);
+            // transform each sub-result the same way a result of single call would be transformed
+            Object transformed = subResult instanceof Exception ?
+                    frpcResultTransformer.transformError((Exception) subResult) :
+                    frpcResultTransformer.transformOkResponse((FrpcRequestProcessingResult) subResult);
+            // faults are represented by fault structures, anything else is wrapped in single-item array
+            if (transformed instanceof FrpcFault) {
+                result[i] = FrpcMulticallUtils.faultToStruct((FrpcFault) transformed);
+            } else {
+                result[i] = new Object[]{transformed};
+            }
+        }
+        return result;
     }
 
-    private void handleResponse(Object result, HttpServletResponse response, Protocol protocol) throws FrpcDataProcessingException,
-            IOException {
+    private void handleResponse(Object result, HttpServletRequest request, HttpServletResponse response,
+                                Protocol protocol, boolean versionable, String versionTag, FrpcProjection projection)
+            throws FrpcDataProcessingException, IOException {
+        String ifNoneMatch = versionable ? request.getHeader(HttpHeader.IF_NONE_MATCH.asString()) : null;
+        // do not even serialize the result if the client has it already
+        if (versionTag != null && FrpcVersionTags.matches(ifNoneMatch, versionTag)) {
+            notModified(response, versionTag);
+            return;
+        }
         // create response writer for given protocol
         FrpcResponseWriter responseWriter = FrpcResponseWriter.forProtocol(protocol);
         // write response to byte array so that we can set content length header properly
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         // write result to the response
-        responseWriter.write(result, baos);
+        responseWriter.write(result, projection, baos);
+        byte[] body = baos.toByteArray();
+        // tag the result by its content if the handler did not
+        if (versionable && versionTag == null && versionTagsFromContent) {
+            versionTag = hash(body);
+            if (FrpcVersionTags.matches(ifNoneMatch, versionTag)) {
+                notModified(response, versionTag);
+                return;
+            }
+        }
+        if (versionable && versionTag != null) {
+            response.setHeader(HttpHeader.ETAG.asString(), FrpcVersionTags.toHeaderValue(versionTag));
+        }
         // set response properties
         response.setStatus(HttpStatus.OK_200);
         response.setContentType(protocol.getContentType());
-        response.setContentLength(baos.size());
+        response.setContentLength(body.length);
         // write response body
-        response.getOutputStream().write(baos.toByteArray());
+        response.getOutputStream().write(body);
+    }
+
+    private void overloaded(Exchange exchange, FrpcOverloadedException exception) throws IOException {
+        // the fault never changes, transform and encode it just once for each protocol
+        byte[] body = overloadedResponses.computeIfAbsent(exchange.protocol, protocol -> {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            FrpcResponseWriter.forProtocol(protocol).write(frpcResultTransformer.transformError(exception), baos);
+            return baos.toByteArray();
+        });
+        HttpServletResponse response = exchange.response;
+        response.setHeader(FrpcHttpHeaders.RETRY_AFTER,
+                Long.toString(exception.getRetryAfter(TimeUnit.MILLISECONDS)));
+        response.setStatus(HttpStatus.OK_200);
+        response.setContentType(exchange.protocol.getContentType());
+        response.setContentLength(body.length);
+        response.getOutputStream().write(body);
+    }
+
+    private void notModified(HttpServletResponse response, String versionTag) {
+        notModifiedResponses.increment();
+        response.setStatus(HttpStatus.NOT_MODIFIED_304);
+        response.setHeader(HttpHeader.ETAG.asString(), FrpcVersionTags.toHeaderValue(versionTag));
+    }
+
+    private static String hash(byte[] body) {
+        try {
+            // 128 bits of SHA-256 are plenty to tell versions of the same result apart
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(body);
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(digest, 16));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported", e);
+        }
     }
 
     private void addResponseHeaders(HttpServletResponse response) {
@@ -1,5 +1,7 @@
 package cz.seznam.frpc.server;
 
+import cz.seznam.frpc.core.transport.FrpcVersionTags;
+
 /**
  * Immutable DTO class holding result of {@code FRPC} method invocation and string key (which is possibly null) under
  * which to store the result in the response map.
@@ -18,6 +20,10 @@ public class FrpcRequestProcessingResult {
      * method-specific data it needs.
      */
     private FrpcMethodMetaData methodMetaData;
+    /**
+     * Version tag of the result, possibly {@code null}. See {@link FrpcRequestContext#setVersionTag(String)}.
+     */
+    private String versionTag;
 
     /**
      * Creates new instance from given object and result key.
@@ -27,8 +33,21 @@ public class FrpcRequestProcessingResult {
      *                       carry out the request
      */
     public FrpcRequestProcessingResult(Object methodResult, FrpcMethodMetaData methodMetaData) {
+        this(methodResult, methodMetaData, null);
+    }
+
+    /**
+     * Creates new instance from given object, result key and version tag.
+     *
+     * @param methodResult result of {@code FRPC} method invocation
+     * @param methodMetaData instance of {@link FrpcMethodMetaData} providing information about the method used to
+     *                       carry out the request
+     * @param versionTag version tag identifying the result, {@code null} if the result has none
+     */
+    public FrpcRequestProcessingResult(Object methodResult, FrpcMethodMetaData methodMetaData, String versionTag) {
         this.methodResult = methodResult;
         this.methodMetaData = methodMetaData;
+        this.versionTag = versionTag == null ? null : FrpcVersionTags.check(versionTag);
     }
 
     /**
@@ -50,4 +69,14 @@ public class FrpcRequestProcessingResult {
         return methodMetaData;
     }
 
+    /**
+     * Returns the version tag identifying the result. If the client already has the result with the same tag,
+     * {@link FrpcRequestHandler} answers by {@code 304 Not Modified} instead of sending the result.
+     *
+     * @return the version tag or {@code null} if the result has none
+     */
+    public String getVersionTag() {
+        return versionTag;
+    }
+
 }
@@ -2,6 +2,8 @@ package cz.seznam.frpc.server;
 
 import cz.seznam.frpc.core.transport.FrpcRequest;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * Top-level abstraction of any object capable of processing {@code FRPC} requests. This class takes a request
  * in form of an {@link FrpcRequest} and returns an instance of {@link FrpcRequestProcessingResult} which
@@ -30,4 +32,26 @@ public interface FrpcRequestProcessor {
      */
     public FrpcRequestProcessingResult process(FrpcRequest frpcRequest) throws Exception;
 
+    /**
+     * Processes single {@code FRPC} request the same way {@link #process(FrpcRequest)} does, except that the result
+     * may not be ready by the time this method returns. This is the case of {@code FRPC} methods which return
+     * {@link java.util.concurrent.CompletionStage} and complete it once their result is ready, without holding
+     * the thread which called them.
+     * <p>
+     * Default implementation simply calls {@link #process(FrpcRequest)} and returns its result as a completed future.
+     *
+     * @param frpcRequest request to be processed
+     * @return future completed with the result of {@code FRPC} method call represented by the request body, or
+     * completed exceptionally if anything goes wrong
+     */
+    public default CompletableFuture<FrpcRequestProcessingResult> processAsync(FrpcRequest frpcRequest) {
+        CompletableFuture<FrpcRequestProcessingResult> future = new CompletableFuture<>();
+        try {
+            future.complete(process(frpcRequest));
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
 }
@@ -1,17 +1,39 @@
 package cz.seznam.frpc.server;
 
+import cz.seznam.frpc.core.FrpcMulticallUtils;
 import cz.seznam.frpc.core.FrpcTypesConverter;
+import cz.seznam.frpc.core.transport.FrpcDeadline;
 import cz.seznam.frpc.core.transport.FrpcRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.*;
+import java.util.function.Function;
 
 /**
  * Implementation of {@link FrpcRequestProcessor} using {@link FrpcHandlerMapping} to delegate {@code FRPC} request to
  * proper methods of proper handlers.
+ * <p>
+ * Calls to {@value FrpcMulticallUtils#MULTICALL_METHOD_NAME} are handled by this class directly. Individual sub-calls
+ * are executed using an {@link Executor} given at instantiation time (which makes it possible to execute them in
+ * parallel) and failure of any sub-call does not affect the others.
+ * <p>
+ * Handlers returning {@link CompletionStage} are asynchronous, their result is the value the stage completes with.
+ * {@link #processAsync(FrpcRequest)} does not wait for it, while {@link #process(FrpcRequest)} does. Version tags
+ * (see {@link FrpcRequestContext}) have to be set by asynchronous handlers before they return the stage, since the
+ * context of the request is only available to the thread which called the handler.
+ * <p>
+ * Calls of methods (and handlers) with limited concurrency pass through their bulkheads (see {@link FrpcBulkhead})
+ * before the handler is called and release them once the result is ready, which for asynchronous handlers is when
+ * their stage completes. Calls which have to wait in the queue of a bulkhead do not block the calling thread. Once
+ * admitted, they are resumed by the executor processing their request (see {@link FrpcRequestHandler} and
+ * {@link PrioritizingFrpcRequestProcessor}), or by {@link ForkJoinPool#commonPool()} if the request is processed by
+ * a thread of the server, with the deadline and context of their request attached.
  *
  * @author David Moidl david.moidl@firma.seznam.cz
  */
@@ -22,23 +44,147 @@ public class HandlerUsingFrpcRequestProcesor implements FrpcRequestProcessor {
     private static final String DEFAULT_HANDLER_NAME = "";
 
     private Map<String, FrpcMethodHandlerAndMethods> handlerMapping;
+    /**
+     * Executor used to execute sub-calls of {@value FrpcMulticallUtils#MULTICALL_METHOD_NAME}.
+     */
+    private Executor multicallExecutor;
 
     /**
-     * Creates new instance from given argument.
+     * Creates new instance from given argument. Sub-calls of {@value FrpcMulticallUtils#MULTICALL_METHOD_NAME} are
+     * executed sequentially by the thread processing the request.
      *
      * @param handlerMapping handler mapping to use when delegating {@code FRPC} request to proper methods of proper
      *                       handlers
      */
     public HandlerUsingFrpcRequestProcesor(FrpcHandlerMapping handlerMapping) {
+        this(handlerMapping, Runnable::run);
+    }
+
+    /**
+     * Creates new instance from given arguments.
+     *
+     * @param handlerMapping    handler mapping to use when delegating {@code FRPC} request to proper methods of proper
+     *                          handlers
+     * @param multicallExecutor executor used to execute sub-calls of
+     *                          {@value FrpcMulticallUtils#MULTICALL_METHOD_NAME}; sub-calls rejected by the executor
+     *                          are executed by the thread processing the request
+     */
+    public HandlerUsingFrpcRequestProcesor(FrpcHandlerMapping handlerMapping, Executor multicallExecutor) {
         Objects.requireNonNull(handlerMapping);
         this.handlerMapping = handlerMapping.getMapping();
+        this.multicallExecutor = Objects.requireNonNull(multicallExecutor);
     }
 
     @Override
     public FrpcRequestProcessingResult process(FrpcRequest frpcRequest) throws Exception {
-        // get request method value
-        String fullMethodName = frpcRequest.getMethodName();
-        LOGGER.debug("Unmarshalled FRPC method value: {}", fullMethodName);
+        // wait for the result of asynchronous methods
+        try {
+            return processAsync(frpcRequest).get();
+        } catch (ExecutionException e) {
+            throw unwrap(e.getCause());
+        }
+    }
+
+    @Override
+    public CompletableFuture<FrpcRequestProcessingResult> processAsync(FrpcRequest frpcRequest) {
+        try {
+            // get request method value
+            String fullMethodName = frpcRequest.getMethodName();
+            LOGGER.debug("Unmarshalled FRPC method value: {}", fullMethodName);
+            // multicall is handled separately
+            if (FrpcMulticallUtils.MULTICALL_METHOD_NAME.equals(fullMethodName)) {
+                return processMulticall(frpcRequest.getParametersAsArray());
+            }
+            return processSingleCall(fullMethodName, frpcRequest.getParametersAsArray());
+        } catch (Exception e) {
+            return failed(e);
+        }
+    }
+
+    private CompletableFuture<FrpcRequestProcessingResult> processMulticall(Object[] parameters) {
+        // multicall takes exactly one parameter which is an array of sub-calls
+        if (parameters.length != 1 || !(parameters[0] instanceof Object[])) {
+            throw new IllegalArgumentException(FrpcMulticallUtils.MULTICALL_METHOD_NAME + " expects single " +
+                    "parameter which is an array of structures describing individual calls");
+        }
+        Object[] subCalls = (Object[]) parameters[0];
+        LOGGER.debug("Processing {} with {} sub-calls", FrpcMulticallUtils.MULTICALL_METHOD_NAME, subCalls.length);
+        // sub-calls executed by other threads are subject to the same deadline and see the same request context
+        FrpcDeadline deadline = FrpcDeadline.current();
+        FrpcRequestContext context = FrpcRequestContext.current();
+        // submit all sub-calls to the executor
+        List<CompletableFuture<Object>> futures = new ArrayList<>(subCalls.length);
+        for (Object subCall : subCalls) {
+            CompletableFuture<Object> future;
+            try {
+                future = CompletableFuture.supplyAsync(() -> processSubCall(subCall, deadline, context),
+                        multicallExecutor).thenCompose(Function.identity());
+            } catch (RejectedExecutionException e) {
+                // if the executor is saturated, process the sub-call in this thread
+                future = processSubCall(subCall);
+            }
+            futures.add(future);
+        }
+        // complete once all of them complete, sub-calls never complete exceptionally
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).thenApply(ignored -> {
+            List<Object> subResults = new ArrayList<>(futures.size());
+            for (CompletableFuture<Object> future : futures) {
+                subResults.add(future.join());
+            }
+            return new FrpcMulticallProcessingResult(subResults);
+        });
+    }
+
+    private CompletableFuture<Object> processSubCall(Object subCall, FrpcDeadline deadline,
+                                                     FrpcRequestContext context) {
+        FrpcDeadline previousDeadline = FrpcDeadline.attach(deadline);
+        FrpcRequestContext previousContext = FrpcRequestContext.attach(context);
+        try {
+            return processSubCall(subCall);
+        } finally {
+            FrpcRequestContext.attach(previousContext);
+            FrpcDeadline.attach(previousDeadline);
+        }
+    }
+
+    private CompletableFuture<Object> processSubCall(Object subCall) {
+        CompletableFuture<? extends Object> future;
+        try {
+            // each sub-call has to be a structure containing method name and array of parameters
+            if (!(subCall instanceof Map)) {
+                throw new IllegalArgumentException("Each call within " + FrpcMulticallUtils.MULTICALL_METHOD_NAME +
+                        " has to be a structure");
+            }
+            Map<?, ?> subCallStruct = (Map<?, ?>) subCall;
+            Object methodName = subCallStruct.get(FrpcMulticallUtils.METHOD_NAME_KEY);
+            Object params = subCallStruct.get(FrpcMulticallUtils.PARAMS_KEY);
+            if (!(methodName instanceof String)) {
+                throw new IllegalArgumentException("Call within " + FrpcMulticallUtils.MULTICALL_METHOD_NAME +
+                        " does not specify method name");
+            }
+            if (FrpcMulticallUtils.MULTICALL_METHOD_NAME.equals(methodName)) {
+                throw new IllegalArgumentException(FrpcMulticallUtils.MULTICALL_METHOD_NAME + " cannot be nested");
+            }
+            if (params != null && !(params instanceof Object[])) {
+                throw new IllegalArgumentException("Parameters of call to \"" + methodName + "\" within " +
+                        FrpcMulticallUtils.MULTICALL_METHOD_NAME + " have to be an array");
+            }
+            future = processSingleCall((String) methodName, params == null ? new Object[0] : (Object[]) params);
+        } catch (Exception e) {
+            future = failed(e);
+        }
+        // failure of a sub-call is its result
+        return future.handle((result, t) -> {
+            if (t == null) {
+                return result;
+            }
+            LOGGER.debug("Call within {} failed", FrpcMulticallUtils.MULTICALL_METHOD_NAME, t);
+            return unwrap(t);
+        });
+    }
+
+    private CompletableFuture<FrpcRequestProcessingResult> processSingleCall(String fullMethodName,
+                                                                             Object[] parameters) throws Exception {
         // check if there is a dot somewhere in the method value
         int lastDotIndex = fullMethodName.lastIndexOf('.');
 
@@ -61,11 +207,11 @@ public class HandlerUsingFrpcRequestProcesor implements FrpcRequestProcessor {
                 handlerName);
 
         // invoke the method
-        return invokeHandler(handlerName, handlerMethodName, fullMethodName, frpcRequest.getParametersAsArray());
+        return invokeHandler(handlerName, handlerMethodName, fullMethodName, parameters);
     }
 
-    private FrpcRequestProcessingResult invokeHandler(String handlerName, String handlerMethodName,
-                                                      String fullMethodName, Object[] parameters)
+    private CompletableFuture<FrpcRequestProcessingResult> invokeHandler(String handlerName, String handlerMethodName,
+                                                                         String fullMethodName, Object[] parameters)
             throws Exception {
         // try to find the handler first
         FrpcMethodHandlerAndMethods methodHandler = handlerMapping.get(handlerName);
@@ -89,10 +235,126 @@ public class HandlerUsingFrpcRequestProcesor implements FrpcRequestProcessor {
         Object[] arguments = FrpcTypesConverter
                 .checkAndConvertMethodParameters(fullMethodName, parameterTypes, parameters);
 
-        // call the method handler
-        Object methodResult = methodHandler.getFrpcHandler().handleFrpcMethodCall(handlerMethodName, arguments);
-        // create proper object to return
-        return new FrpcRequestProcessingResult(methodResult, methodMetaData);
+        // take places in bulkheads of the handler and of the method, if their concurrency is limited
+        FrpcBulkhead handlerBulkhead = methodHandler.getBulkhead();
+        FrpcBulkhead methodBulkhead = methodHandler.getMethodBulkheads().get(handlerMethodName);
+        FrpcDeadline deadline = FrpcDeadline.current();
+        CompletableFuture<Void> admitted = acquire(handlerBulkhead, methodBulkhead, deadline);
+        // calls admitted (or rejected) right away are processed by current thread
+        if (admitted.isDone()) {
+            try {
+                admitted.join();
+            } catch (CompletionException e) {
+                throw unwrap(e);
+            }
+            return callHandler(methodHandler, handlerMethodName, methodMetaData, arguments, handlerBulkhead,
+                    methodBulkhead);
+        }
+        // queued calls are resumed by the executor processing the request, with its deadline and context attached
+        FrpcRequestContext context = FrpcRequestContext.current();
+        Executor executor = context == null || context.getExecutor() == null
+                ? ForkJoinPool.commonPool()
+                : context.getExecutor();
+        CompletableFuture<FrpcRequestProcessingResult> future = new CompletableFuture<>();
+        admitted.whenComplete((ignored, t) -> {
+            if (t != null) {
+                future.completeExceptionally(unwrap(t));
+                return;
+            }
+            try {
+                executor.execute(() -> {
+                    FrpcDeadline previousDeadline = FrpcDeadline.attach(deadline);
+                    FrpcRequestContext previousContext = FrpcRequestContext.attach(context);
+                    try {
+                        callHandler(methodHandler, handlerMethodName, methodMetaData, arguments, handlerBulkhead,
+                                methodBulkhead).whenComplete((result, failure) -> {
+                            if (failure == null) {
+                                future.complete(result);
+                            } else {
+                                future.completeExceptionally(unwrap(failure));
+                            }
+                        });
+                    } catch (Exception | Error e) {
+                        future.completeExceptionally(e);
+                    } finally {
+                        FrpcRequestContext.attach(previousContext);
+                        FrpcDeadline.attach(previousDeadline);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // the call got its places but cannot run, let the next one have them
+                release(handlerBulkhead, methodBulkhead);
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    private static CompletableFuture<FrpcRequestProcessingResult> callHandler(
+            FrpcMethodHandlerAndMethods methodHandler, String handlerMethodName, FrpcMethodMetaData methodMetaData,
+            Object[] arguments, FrpcBulkhead handlerBulkhead, FrpcBulkhead methodBulkhead) throws Exception {
+        Object methodResult;
+        String versionTag;
+        try {
+            // drop any version tag left behind by a failed call processed by this thread before
+            FrpcRequestContext.takeVersionTag();
+            // call the method handler
+            methodResult = methodHandler.getFrpcHandler().handleFrpcMethodCall(handlerMethodName, arguments);
+            // the version tag has to be set by the time the handler returns, even if it is asynchronous
+            versionTag = FrpcRequestContext.takeVersionTag();
+        } catch (Exception | Error e) {
+            release(handlerBulkhead, methodBulkhead);
+            throw e;
+        }
+        // asynchronous handlers return a stage completed with the result once it is ready
+        if (methodResult instanceof CompletionStage) {
+            // and the call occupies its bulkheads until then
+            return ((CompletionStage<?>) methodResult).toCompletableFuture()
+                    .whenComplete((result, t) -> release(handlerBulkhead, methodBulkhead))
+                    .thenApply(result -> new FrpcRequestProcessingResult(result, methodMetaData, versionTag));
+        }
+        release(handlerBulkhead, methodBulkhead);
+        // create proper object to return, along with the version tag the handler might have set
+        return CompletableFuture.completedFuture(
+                new FrpcRequestProcessingResult(methodResult, methodMetaData, versionTag));
+    }
+
+    private static CompletableFuture<Void> acquire(FrpcBulkhead handlerBulkhead, FrpcBulkhead methodBulkhead,
+                                                   FrpcDeadline deadline) {
+        // the method first, so that calls waiting for it do not take places of other methods of the handler
+        CompletableFuture<Void> admitted = methodBulkhead == null
+                ? CompletableFuture.completedFuture(null)
+                : methodBulkhead.acquire(deadline);
+        if (handlerBulkhead == null) {
+            return admitted;
+        }
+        return admitted.thenCompose(ignored -> handlerBulkhead.acquire(deadline).whenComplete((result, t) -> {
+            // a call which did not get into the handler bulkhead gives up its place in the method one
+            if (t != null && methodBulkhead != null) {
+                methodBulkhead.release();
+            }
+        }));
+    }
+
+    private static void release(FrpcBulkhead handlerBulkhead, FrpcBulkhead methodBulkhead) {
+        if (handlerBulkhead != null) {
+            handlerBulkhead.release();
+        }
+        if (methodBulkhead != null) {
+            methodBulkhead.release();
+        }
+    }
+
+    private static <T> CompletableFuture<T> failed(Throwable t) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(t);
+        return future;
+    }
+
+    private static Exception unwrap(Throwable t) {
+        // stages wrap failures of the stages they depend on
+        Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+        return cause instanceof Exception ? (Exception) cause : new RuntimeException(cause);
     }
 
 }
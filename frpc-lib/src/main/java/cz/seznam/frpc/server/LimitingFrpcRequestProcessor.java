@@ -0,0 +1,201 @@
+package cz.seznam.frpc.server;
+
+import cz.seznam.frpc.core.transport.FrpcDeadline;
+import cz.seznam.frpc.core.transport.FrpcDeadlineExceededException;
+import cz.seznam.frpc.core.transport.FrpcRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Implementation of {@link FrpcRequestProcessor} admitting requests to another processor only as long as the server
+ * is able to handle them. Without it, an overloaded server accepts every request and lets it wait for a thread until
+ * it is too late for all of them, so that the server stays busy but nobody gets any result.
+ * <p>
+ * Requests are admitted up to an adaptive limit of requests processed concurrently. The limit follows the latency of
+ * processed requests: it grows while requests are processed as fast as when the server is idle and shrinks once they
+ * take longer, that is once they spend time waiting for some resource instead of being processed (see
+ * {@link FrpcConcurrencyLimiter}). There is a global limit and, unless turned off by
+ * {@link FrpcConcurrencyLimitConfig.Builder#perHandler(boolean)}, each handler has its own limit as well.
+ * <p>
+ * Requests over the limit are rejected right away by {@link FrpcOverloadedException}, which {@link FrpcRequestHandler}
+ * answers by a fault it encodes just once and by a hint telling the client how long to back off for.
+ * <p>
+ * Requests missing their deadline count as dropped, which makes the limit shrink. Asynchronous methods are not waited
+ * for past the deadline of the request (see {@link FrpcDeadline}): once it passes, the request is released as dropped
+ * even though the method may still be running, just like {@link FrpcRequestHandler} fails the request at that moment.
+ *
+ * @author David Moidl david.moidl@firma.seznam.cz
+ */
+public class LimitingFrpcRequestProcessor implements FrpcRequestProcessor {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LimitingFrpcRequestProcessor.class);
+
+    /**
+     * Maximum number of handlers limited separately, protecting against requests for random method names. Requests
+     * for handlers over this number are only limited globally.
+     */
+    private static final int MAX_HANDLER_LIMITERS = 256;
+
+    private FrpcRequestProcessor frpcRequestProcessor;
+    private FrpcConcurrencyLimitConfig config;
+    private FrpcConcurrencyLimiter globalLimiter;
+    private final ConcurrentMap<String, FrpcConcurrencyLimiter> handlerLimiters = new ConcurrentHashMap<>();
+    private final LongAdder rejectedRequests = new LongAdder();
+
+    /**
+     * Creates new instance from given arguments.
+     *
+     * @param frpcRequestProcessor request processor to process admitted requests
+     * @param config               configuration of the limits
+     */
+    public LimitingFrpcRequestProcessor(FrpcRequestProcessor frpcRequestProcessor,
+                                        FrpcConcurrencyLimitConfig config) {
+        this.frpcRequestProcessor = Objects.requireNonNull(frpcRequestProcessor);
+        this.config = Objects.requireNonNull(config);
+        this.globalLimiter = new FrpcConcurrencyLimiter(config);
+    }
+
+    @Override
+    public FrpcRequestProcessingResult process(FrpcRequest frpcRequest) throws Exception {
+        FrpcConcurrencyLimiter handlerLimiter = acquire(frpcRequest);
+        long startedAt = System.nanoTime();
+        boolean dropped = false;
+        try {
+            return frpcRequestProcessor.process(frpcRequest);
+        } catch (FrpcDeadlineExceededException e) {
+            dropped = true;
+            throw e;
+        } finally {
+            release(handlerLimiter, System.nanoTime() - startedAt, dropped);
+        }
+    }
+
+    @Override
+    public CompletableFuture<FrpcRequestProcessingResult> processAsync(FrpcRequest frpcRequest) {
+        FrpcConcurrencyLimiter handlerLimiter;
+        try {
+            handlerLimiter = acquire(frpcRequest);
+        } catch (FrpcOverloadedException e) {
+            CompletableFuture<FrpcRequestProcessingResult> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
+        long startedAt = System.nanoTime();
+        CompletableFuture<FrpcRequestProcessingResult> future;
+        try {
+            future = frpcRequestProcessor.processAsync(frpcRequest);
+        } catch (RuntimeException | Error e) {
+            release(handlerLimiter, System.nanoTime() - startedAt, false);
+            throw e;
+        }
+        // asynchronous methods occupy the capacity until their result is ready or their deadline passes, whichever
+        // happens first; the request is released just once either way
+        AtomicBoolean released = new AtomicBoolean();
+        FrpcDeadline deadline = FrpcDeadline.current();
+        ScheduledFuture<?> timeout = deadline == null || future.isDone() ? null :
+                FrpcDeadlineTimer.schedule(deadline, () -> {
+                    if (released.compareAndSet(false, true)) {
+                        release(handlerLimiter, System.nanoTime() - startedAt, true);
+                    }
+                });
+        return future.whenComplete((result, t) -> {
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+            if (released.compareAndSet(false, true)) {
+                release(handlerLimiter, System.nanoTime() - startedAt, isDropped(t));
+            }
+        });
+    }
+
+    private FrpcConcurrencyLimiter acquire(FrpcRequest frpcRequest) {
+        if (!globalLimiter.tryAcquire()) {
+            throw reject(frpcRequest);
+        }
+        FrpcConcurrencyLimiter handlerLimiter = config.isPerHandler() ?
+                getHandlerLimiter(frpcRequest.getMethodName()) : null;
+        if (handlerLimiter != null && !handlerLimiter.tryAcquire()) {
+            globalLimiter.cancel();
+            throw reject(frpcRequest);
+        }
+        return handlerLimiter;
+    }
+
+    private FrpcOverloadedException reject(FrpcRequest frpcRequest) {
+        rejectedRequests.increment();
+        LOGGER.debug("Rejecting call to method {}, concurrency limit has been reached", frpcRequest.getMethodName());
+        return new FrpcOverloadedException(config.getRetryAfterMillis());
+    }
+
+    private void release(FrpcConcurrencyLimiter handlerLimiter, long latencyNanos, boolean dropped) {
+        globalLimiter.release(latencyNanos, dropped);
+        if (handlerLimiter != null) {
+            handlerLimiter.release(latencyNanos, dropped);
+        }
+    }
+
+    private static boolean isDropped(Throwable t) {
+        Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+        return cause instanceof FrpcDeadlineExceededException;
+    }
+
+    private FrpcConcurrencyLimiter getHandlerLimiter(String methodName) {
+        // handler name is everything up to the last dot of the method name, the same as the mapping does
+        int lastDotIndex = methodName == null ? -1 : methodName.lastIndexOf('.');
+        String handlerName = lastDotIndex < 0 ? "" : methodName.substring(0, lastDotIndex);
+        FrpcConcurrencyLimiter limiter = handlerLimiters.get(handlerName);
+        if (limiter == null && handlerLimiters.size() < MAX_HANDLER_LIMITERS) {
+            limiter = handlerLimiters.computeIfAbsent(handlerName, name -> new FrpcConcurrencyLimiter(config));
+        }
+        return limiter;
+    }
+
+    /**
+     * Returns the current global limit.
+     *
+     * @return the number of requests which may be processed concurrently
+     */
+    public int getLimit() {
+        return globalLimiter.getLimit();
+    }
+
+    /**
+     * Returns the current limit of given handler.
+     *
+     * @param handlerName name the handler is mapped to
+     * @return the number of requests for methods of the handler which may be processed concurrently, or the global
+     * limit if the handler has no limit of its own (yet)
+     */
+    public int getLimit(String handlerName) {
+        FrpcConcurrencyLimiter limiter = handlerLimiters.get(Objects.requireNonNull(handlerName));
+        return limiter == null ? globalLimiter.getLimit() : limiter.getLimit();
+    }
+
+    /**
+     * Returns the number of requests being processed.
+     *
+     * @return the number of requests admitted and not completed yet
+     */
+    public int getInFlightRequests() {
+        return globalLimiter.getInFlight();
+    }
+
+    /**
+     * Returns the number of requests rejected because a limit had been reached.
+     *
+     * @return the number of rejected requests
+     */
+    public long getRejectedRequests() {
+        return rejectedRequests.sum();
+    }
+
+}
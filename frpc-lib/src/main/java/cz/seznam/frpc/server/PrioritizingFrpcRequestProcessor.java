@@ -0,0 +1,192 @@
+package cz.seznam.frpc.server;
+
+import cz.seznam.frpc.core.FrpcPriority;
+import cz.seznam.frpc.core.transport.FrpcDeadline;
+import cz.seznam.frpc.core.transport.FrpcDeadlineExceededException;
+import cz.seznam.frpc.core.transport.FrpcHttpHeaders;
+import cz.seznam.frpc.core.transport.FrpcRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Implementation of {@link FrpcRequestProcessor} scheduling requests for another processor by their priority (see
+ * {@link FrpcPriority}), so that calls users wait for do not wait behind a flood of batch calls sharing the same
+ * server. Requests are processed by threads of this processor, organized in lanes by priority as configured by
+ * {@link FrpcPriorityLanesConfig}: each lane has threads reserved for it and the rest of the threads is shared by all
+ * lanes in proportion to their weights (see {@link FrpcLaneScheduler}).
+ * <p>
+ * The priority of a request is taken from {@link FrpcHttpHeaders#PRIORITY} header if the caller sent one, otherwise
+ * from {@link cz.seznam.frpc.server.annotations.FrpcMethod#priority()} of the method called, then from the priority
+ * of its handler (see {@link FrpcHandlerMapping#setPriority(String, FrpcPriority)}) and defaults to
+ * {@link FrpcPriority#NORMAL}. Calls of {@code system.multicall} have the priority of the caller or the default one.
+ * <p>
+ * The deadline and the context of the request (see {@link FrpcDeadline#current()} and
+ * {@link FrpcRequestContext#current()}) are carried over to the thread processing it. Requests whose deadline
+ * expires while they wait in a lane are failed without being processed, requests which do not fit into their lane
+ * are rejected right away by {@link FrpcOverloadedException}.
+ * <p>
+ * The threads of this processor are daemon threads, {@link #close()} stops them once they process requests already
+ * waiting.
+ *
+ * @author David Moidl david.moidl@firma.seznam.cz
+ */
+public class PrioritizingFrpcRequestProcessor implements FrpcRequestProcessor, AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PrioritizingFrpcRequestProcessor.class);
+
+    private FrpcRequestProcessor frpcRequestProcessor;
+    private FrpcHandlerMapping handlerMapping;
+    private FrpcPriorityLanesConfig config;
+    private FrpcLaneScheduler scheduler;
+    private final Map<FrpcPriority, LongAdder> processedRequests = new EnumMap<>(FrpcPriority.class);
+    private final Map<FrpcPriority, LongAdder> rejectedRequests = new EnumMap<>(FrpcPriority.class);
+
+    /**
+     * Creates new instance from given arguments and starts its threads.
+     *
+     * @param frpcRequestProcessor request processor to process scheduled requests
+     * @param handlerMapping       handler mapping to look priorities of methods up in
+     * @param config               configuration of the lanes
+     */
+    public PrioritizingFrpcRequestProcessor(FrpcRequestProcessor frpcRequestProcessor,
+                                            FrpcHandlerMapping handlerMapping, FrpcPriorityLanesConfig config) {
+        this.frpcRequestProcessor = Objects.requireNonNull(frpcRequestProcessor);
+        this.handlerMapping = Objects.requireNonNull(handlerMapping);
+        this.config = Objects.requireNonNull(config);
+        for (FrpcPriority priority : FrpcPriority.values()) {
+            if (!priority.isSpecified()) {
+                continue;
+            }
+            processedRequests.put(priority, new LongAdder());
+            rejectedRequests.put(priority, new LongAdder());
+        }
+        this.scheduler = new FrpcLaneScheduler(config);
+    }
+
+    @Override
+    public FrpcRequestProcessingResult process(FrpcRequest frpcRequest) throws Exception {
+        // wait for the result processed by the lane
+        try {
+            return processAsync(frpcRequest).get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : new RuntimeException(cause);
+        }
+    }
+
+    @Override
+    public CompletableFuture<FrpcRequestProcessingResult> processAsync(FrpcRequest frpcRequest) {
+        FrpcPriority priority = getPriority(frpcRequest);
+        // the thread of the lane has to see the same deadline and context as the thread submitting the request
+        FrpcDeadline deadline = FrpcDeadline.current();
+        FrpcRequestContext context = FrpcRequestContext.current();
+        CompletableFuture<FrpcRequestProcessingResult> future = new CompletableFuture<>();
+        boolean submitted = scheduler.submit(priority, () -> {
+            if (deadline != null && deadline.isExpired()) {
+                future.completeExceptionally(new FrpcDeadlineExceededException("Deadline of the request expired " +
+                        "while it was waiting in " + priority + " priority lane"));
+                return;
+            }
+            processedRequests.get(priority).increment();
+            if (context != null) {
+                // parts of the request which have to wait are resumed in the same lane
+                context.setExecutor(task -> {
+                    if (!scheduler.submit(priority, task)) {
+                        throw new RejectedExecutionException(priority + " priority lane is full");
+                    }
+                });
+            }
+            FrpcDeadline previousDeadline = FrpcDeadline.attach(deadline);
+            FrpcRequestContext previousContext = FrpcRequestContext.attach(context);
+            try {
+                frpcRequestProcessor.processAsync(frpcRequest).whenComplete((result, t) -> {
+                    if (t == null) {
+                        future.complete(result);
+                    } else {
+                        future.completeExceptionally(t instanceof CompletionException && t.getCause() != null ?
+                                t.getCause() : t);
+                    }
+                });
+            } catch (RuntimeException | Error e) {
+                future.completeExceptionally(e);
+            } finally {
+                FrpcRequestContext.attach(previousContext);
+                FrpcDeadline.attach(previousDeadline);
+            }
+        });
+        if (!submitted) {
+            rejectedRequests.get(priority).increment();
+            LOGGER.debug("Rejecting call to method {}, {} priority lane is full", frpcRequest.getMethodName(),
+                    priority);
+            future.completeExceptionally(new FrpcOverloadedException(config.getRetryAfterMillis()));
+        }
+        return future;
+    }
+
+    private FrpcPriority getPriority(FrpcRequest frpcRequest) {
+        // the caller knows best how urgent the call is
+        FrpcRequestContext context = FrpcRequestContext.current();
+        FrpcPriority priority = context == null ? null :
+                FrpcPriority.fromHeaderValue(context.getHeader(FrpcHttpHeaders.PRIORITY));
+        if (priority == null && frpcRequest.getMethodName() != null) {
+            priority = handlerMapping.getPriority(frpcRequest.getMethodName());
+        }
+        return priority == null ? FrpcPriority.NORMAL : priority;
+    }
+
+    /**
+     * Returns the number of requests of given priority processed so far.
+     *
+     * @param priority the priority
+     * @return the number of processed requests
+     */
+    public long getProcessedRequests(FrpcPriority priority) {
+        return processedRequests.get(checkLane(priority)).sum();
+    }
+
+    /**
+     * Returns the number of requests of given priority rejected because their lane was full.
+     *
+     * @param priority the priority
+     * @return the number of rejected requests
+     */
+    public long getRejectedRequests(FrpcPriority priority) {
+        return rejectedRequests.get(checkLane(priority)).sum();
+    }
+
+    /**
+     * Returns the number of requests of given priority waiting to be processed.
+     *
+     * @param priority the priority
+     * @return the number of waiting requests
+     */
+    public int getQueuedRequests(FrpcPriority priority) {
+        return scheduler.getQueuedTasks(checkLane(priority));
+    }
+
+    private static FrpcPriority checkLane(FrpcPriority priority) {
+        if (!Objects.requireNonNull(priority, "Priority must not be null").isSpecified()) {
+            throw new IllegalArgumentException("There is no lane for unspecified priority");
+        }
+        return priority;
+    }
+
+    /**
+     * Stops accepting requests, which are rejected from now on, and stops the threads once they process requests
+     * already waiting.
+     */
+    @Override
+    public void close() {
+        scheduler.close();
+    }
+
+}
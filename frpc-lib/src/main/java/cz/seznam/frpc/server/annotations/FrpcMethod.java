@@ -1,5 +1,7 @@
 package cz.seznam.frpc.server.annotations;
 
+import cz.seznam.frpc.core.FrpcPriority;
+
 import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
@@ -26,4 +28,33 @@ public @interface FrpcMethod {
      */
     String value() default "";
 
+    /**
+     * Specifies the priority calls of this method are processed with by
+     * {@link cz.seznam.frpc.server.PrioritizingFrpcRequestProcessor}, overriding the priority of the whole handler.
+     * Callers may still override it by {@link cz.seznam.frpc.core.transport.FrpcHttpHeaders#PRIORITY} header. <br />
+     * Defaults to {@link FrpcPriority#UNSPECIFIED}, in which case the priority of the handler applies.
+     *
+     * @return the priority of this method
+     */
+    FrpcPriority priority() default FrpcPriority.UNSPECIFIED;
+
+    /**
+     * Specifies the maximum number of calls of this method processed concurrently, see
+     * {@link cz.seznam.frpc.server.FrpcBulkhead}. Calls over the limit wait in a queue of length given by
+     * {@link #maxQueue()} and are rejected by a fault once the queue is full. <br />
+     * Defaults to 0 which means unlimited.
+     *
+     * @return the maximum number of concurrent calls of this method
+     */
+    int maxConcurrency() default 0;
+
+    /**
+     * Specifies the maximum number of calls of this method waiting for one of {@link #maxConcurrency()} calls to
+     * complete. Only applies if the concurrency is limited. <br />
+     * Defaults to 0, that is calls over the limit are rejected right away.
+     *
+     * @return the maximum number of waiting calls of this method
+     */
+    int maxQueue() default 0;
+
 }
@@ -0,0 +1,121 @@
+package cz.seznam.frpc.client;
+
+import cz.seznam.frpc.core.FrpcMulticallUtils;
+import cz.seznam.frpc.core.transport.FrpcFault;
+import cz.seznam.frpc.core.transport.FrpcTransportException;
+import cz.seznam.frpc.server.FrpcHandlerMapping;
+import cz.seznam.frpc.server.FrpcServerUtils;
+import junit.framework.TestCase;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests executing calls collected by {@link FrpcBatch} and splitting the result of the multicall between them.
+ *
+ * @author David Moidl david.moidl@firma.seznam.cz
+ */
+public class FrpcBatchTest extends TestCase {
+
+    /**
+     * Handler called by the tests.
+     */
+    public static class Calculator {
+
+        public long add(long i, long j) {
+            return i + j;
+        }
+
+        public long divide(long i, long j) {
+            return i / j;
+        }
+
+    }
+
+    private Server server;
+    private FrpcClient client;
+
+    @Override
+    protected void setUp() throws Exception {
+        FrpcHandlerMapping handlerMapping = new FrpcHandlerMapping();
+        handlerMapping.addHandler("calc", new Calculator());
+        server = new Server(0);
+        FrpcServerUtils.addDefaultFrpcHandler(server, "/RPC2", handlerMapping);
+        server.start();
+        int port = ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+        client = FrpcClient.builder().url("http://localhost:" + port + "/RPC2").build();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        client.close();
+        server.stop();
+    }
+
+    public void testExecutesCallsByOneMulticall() {
+        List<FrpcCallResult<Object>> results = client.batch()
+                .add("calc.add", 1, 2)
+                .add("calc.divide", 1, 0)
+                .add("calc.add", 3, 4)
+                .getResults();
+        assertEquals(3, results.size());
+        assertEquals(3L, (long) results.get(0).as(Long.class));
+        // failure of a call does not affect the others
+        assertTrue(results.get(1).isFault());
+        assertEquals(7L, (long) results.get(2).as(Long.class));
+    }
+
+    public void testEmptyBatchIsNotSent() {
+        assertTrue(client.batch().getResults().isEmpty());
+    }
+
+    public void testSplitsResultBetweenCalls() {
+        FrpcFault fault = new FrpcFault(500, "failed");
+        Object[] items = {new Object[]{"first"}, FrpcMulticallUtils.faultToStruct(fault), new Object[]{null}};
+        List<FrpcCallResult<Object>> results = FrpcBatch.splitResult(new FrpcCallResult<>(items, 200), 3);
+
+        assertEquals("first", results.get(0).asObject());
+        assertTrue(results.get(1).isFault());
+        assertEquals(Integer.valueOf(500), results.get(1).asFault().getStatusCode());
+        assertEquals("failed", results.get(1).asFault().getStatusMessage());
+        assertTrue(results.get(2).isNull());
+        assertEquals(200, results.get(2).getHttpResponseStatus());
+    }
+
+    public void testFaultOfWholeMulticallFailsEveryCall() {
+        FrpcFault fault = new FrpcFault(503, "unavailable");
+        List<FrpcCallResult<Object>> results = FrpcBatch.splitResult(new FrpcCallResult<>(fault, 200), 2);
+        assertEquals(2, results.size());
+        for (FrpcCallResult<Object> result : results) {
+            assertSame(fault, result.asObject());
+        }
+    }
+
+    public void testRejectsResponseOfWrongLength() {
+        Object[] items = {new Object[]{1}};
+        assertMalformed(new FrpcCallResult<>(items, 200), 2);
+    }
+
+    public void testRejectsResponseOtherThanArray() {
+        assertMalformed(new FrpcCallResult<>(Collections.singletonMap("key", "value"), 200), 1);
+    }
+
+    public void testRejectsItemsOtherThanResultOrFault() {
+        // neither a single-item array nor a structure with fault code
+        assertMalformed(new FrpcCallResult<>(new Object[]{Collections.singletonMap("key", "value")}, 200), 1);
+        assertMalformed(new FrpcCallResult<>(new Object[]{new Object[]{1, 2}}, 200), 1);
+        assertMalformed(new FrpcCallResult<>(new Object[]{"value"}, 200), 1);
+    }
+
+    private static void assertMalformed(FrpcCallResult<Object> result, int expectedCount) {
+        try {
+            FrpcBatch.splitResult(result, expectedCount);
+            fail("Malformed response should be rejected");
+        } catch (FrpcTransportException e) {
+            // expected
+        }
+    }
+
+}
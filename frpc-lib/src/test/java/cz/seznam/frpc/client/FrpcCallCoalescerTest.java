@@ -0,0 +1,129 @@
+package cz.seznam.frpc.client;
+
+import cz.seznam.frpc.core.transport.FrpcDeadline;
+import cz.seznam.frpc.server.FrpcHandlerMapping;
+import cz.seznam.frpc.server.FrpcRequestContext;
+import cz.seznam.frpc.server.FrpcServerUtils;
+import junit.framework.TestCase;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests merging calls into multicalls by {@link FrpcCallCoalescer}.
+ *
+ * @author David Moidl david.moidl@firma.seznam.cz
+ */
+public class FrpcCallCoalescerTest extends TestCase {
+
+    private static final int MAX_CALLS = 3;
+    private static final long TIMEOUT_SECONDS = 5;
+
+    /**
+     * Handler called by the tests.
+     */
+    public static class Requests {
+
+        public long add(long i, long j) {
+            return i + j;
+        }
+
+        public long divide(long i, long j) {
+            return i / j;
+        }
+
+        /**
+         * Identifies the {@code HTTP} request the call came in, calls of one multicall share the context.
+         */
+        public long id() {
+            return System.identityHashCode(FrpcRequestContext.current());
+        }
+
+        public boolean hasDeadline() {
+            return FrpcDeadline.current() != null;
+        }
+
+    }
+
+    private Server server;
+    private FrpcClient client;
+
+    @Override
+    protected void setUp() throws Exception {
+        FrpcHandlerMapping handlerMapping = new FrpcHandlerMapping();
+        handlerMapping.addHandler("requests", new Requests());
+        server = new Server(0);
+        FrpcServerUtils.addDefaultFrpcHandler(server, "/RPC2", handlerMapping);
+        server.start();
+        int port = ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+        client = FrpcClient.builder()
+                .url("http://localhost:" + port + "/RPC2")
+                .coalesceCalls(50, TimeUnit.MILLISECONDS, MAX_CALLS, 64 * 1024)
+                .build();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        client.close();
+        server.stop();
+    }
+
+    public void testMergesCallsIntoOneRequest() throws Exception {
+        List<Long> ids = callIds(MAX_CALLS);
+        assertEquals(ids.get(0), ids.get(1));
+        assertEquals(ids.get(0), ids.get(2));
+    }
+
+    public void testStartsNewBatchOnceFull() throws Exception {
+        List<Long> ids = callIds(MAX_CALLS + 1);
+        assertEquals(ids.get(0), ids.get(MAX_CALLS - 1));
+        // the last call is sent on its own once the window elapses
+        assertFalse(ids.get(0).equals(ids.get(MAX_CALLS)));
+    }
+
+    public void testSplitsResultsBetweenCalls() throws Exception {
+        CompletableFuture<FrpcCallResult<Object>> sum = client.callAsync("requests.add", 1, 2);
+        CompletableFuture<FrpcCallResult<Object>> quotient = client.callAsync("requests.divide", 1, 0);
+        CompletableFuture<FrpcCallResult<Object>> another = client.callAsync("requests.add", 3, 4);
+        assertEquals(3L, (long) sum.get(TIMEOUT_SECONDS, TimeUnit.SECONDS).as(Long.class));
+        // failure of a call does not affect the others
+        assertTrue(quotient.get(TIMEOUT_SECONDS, TimeUnit.SECONDS).isFault());
+        assertEquals(7L, (long) another.get(TIMEOUT_SECONDS, TimeUnit.SECONDS).as(Long.class));
+    }
+
+    public void testSendsSingleCallOnItsOwn() {
+        assertEquals(3L, (long) client.call("requests.add", 1, 2).as(Long.class));
+    }
+
+    public void testCoalescedCallsKeepTheirDeadline() throws Exception {
+        List<CompletableFuture<FrpcCallResult<Object>>> futures = new ArrayList<>();
+        FrpcDeadline previous = FrpcDeadline.attach(FrpcDeadline.after(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        try {
+            for (int i = 0; i < MAX_CALLS; i++) {
+                futures.add(client.callAsync("requests.hasDeadline"));
+            }
+        } finally {
+            FrpcDeadline.attach(previous);
+        }
+        for (CompletableFuture<FrpcCallResult<Object>> future : futures) {
+            assertTrue(future.get(TIMEOUT_SECONDS, TimeUnit.SECONDS).as(Boolean.class));
+        }
+    }
+
+    private List<Long> callIds(int count) throws Exception {
+        List<CompletableFuture<FrpcCallResult<Object>>> futures = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            futures.add(client.callAsync("requests.id"));
+        }
+        List<Long> ids = new ArrayList<>();
+        for (CompletableFuture<FrpcCallResult<Object>> future : futures) {
+            ids.add(future.get(TIMEOUT_SECONDS, TimeUnit.SECONDS).as(Long.class));
+        }
+        return ids;
+    }
+
+}
@@ -0,0 +1,149 @@
+package cz.seznam.frpc.client;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests state transitions of {@link FrpcCircuitBreaker} and the permissions it hands out while half-open.
+ *
+ * @author David Moidl david.moidl@firma.seznam.cz
+ */
+public class FrpcCircuitBreakerTest extends TestCase {
+
+    private static final long OPEN_MILLIS = 200;
+    private static final int HALF_OPEN_CALLS = 2;
+
+    private FrpcCircuitBreaker breaker;
+
+    @Override
+    protected void setUp() throws Exception {
+        breaker = new FrpcCircuitBreaker("test", FrpcCircuitBreakerConfig.builder()
+                .slidingWindow(4, 4)
+                .failureRateThreshold(0.5)
+                .openDuration(OPEN_MILLIS, TimeUnit.MILLISECONDS)
+                .halfOpenCalls(HALF_OPEN_CALLS)
+                .build());
+    }
+
+    public void testOpensOnceFailureRateReachesThreshold() {
+        record(false);
+        record(true);
+        record(false);
+        assertEquals(FrpcCircuitBreaker.State.CLOSED, breaker.getState());
+
+        record(true);
+        assertEquals(FrpcCircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquirePermission());
+        assertEquals(1, breaker.getRejectedCalls());
+        assertTrue(breaker.getRetryAfter(TimeUnit.MILLISECONDS) > 0);
+    }
+
+    public void testClosesOnceAllProbesSucceed() throws Exception {
+        halfOpen();
+        assertTrue(breaker.tryAcquirePermission());
+        assertTrue(breaker.tryAcquirePermission());
+        assertFalse(breaker.tryAcquirePermission());
+
+        breaker.onResult(0, false, 0);
+        assertEquals(FrpcCircuitBreaker.State.HALF_OPEN, breaker.getState());
+        breaker.onResult(0, false, 0);
+        assertEquals(FrpcCircuitBreaker.State.CLOSED, breaker.getState());
+        // the window starts over
+        assertEquals(0.0, breaker.getFailureRate());
+    }
+
+    public void testOpensAgainOnFailedProbe() throws Exception {
+        halfOpen();
+        assertTrue(breaker.tryAcquirePermission());
+        breaker.onResult(0, true, 0);
+        assertEquals(FrpcCircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(2, breaker.getTransitionCount(FrpcCircuitBreaker.State.OPEN));
+    }
+
+    public void testAbandonedProbeGivesPermissionBack() throws Exception {
+        halfOpen();
+        assertTrue(breaker.tryAcquirePermission());
+        assertTrue(breaker.tryAcquirePermission());
+        assertFalse(breaker.tryAcquirePermission());
+
+        // a cancelled probe lets another one through, so that the breaker can still close
+        breaker.onCallAbandoned();
+        assertTrue(breaker.tryAcquirePermission());
+        breaker.onResult(0, false, 0);
+        breaker.onResult(0, false, 0);
+        assertEquals(FrpcCircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    public void testAbandonedCallsDoNotAddPermissions() throws Exception {
+        halfOpen();
+        breaker.onCallAbandoned();
+        breaker.onCallAbandoned();
+        assertTrue(breaker.tryAcquirePermission());
+        assertTrue(breaker.tryAcquirePermission());
+        assertFalse(breaker.tryAcquirePermission());
+    }
+
+    public void testConcurrentCallersDoNotGetMoreProbes() throws Exception {
+        open();
+        TimeUnit.MILLISECONDS.sleep(OPEN_MILLIS + 50);
+
+        int threads = 16;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            AtomicInteger permitted = new AtomicInteger();
+            Future<?>[] futures = new Future<?>[threads];
+            for (int i = 0; i < threads; i++) {
+                futures[i] = executor.submit(() -> {
+                    start.await();
+                    if (breaker.tryAcquirePermission()) {
+                        permitted.incrementAndGet();
+                    }
+                    return null;
+                });
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(5, TimeUnit.SECONDS);
+            }
+            assertEquals(HALF_OPEN_CALLS, permitted.get());
+            assertEquals(1, breaker.getTransitionCount(FrpcCircuitBreaker.State.HALF_OPEN));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public void testOpensForTimeServerAskedFor() {
+        breaker.onResult(0, false, 10_000);
+        assertEquals(FrpcCircuitBreaker.State.OPEN, breaker.getState());
+        assertTrue(breaker.getRetryAfter(TimeUnit.MILLISECONDS) > OPEN_MILLIS);
+    }
+
+    private void open() {
+        for (int i = 0; i < 4; i++) {
+            record(true);
+        }
+        assertEquals(FrpcCircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    private void halfOpen() throws InterruptedException {
+        open();
+        TimeUnit.MILLISECONDS.sleep(OPEN_MILLIS + 50);
+        assertTrue(breaker.tryAcquirePermission());
+        assertEquals(FrpcCircuitBreaker.State.HALF_OPEN, breaker.getState());
+        // give the permission back so that tests start with all of them available
+        breaker.onCallAbandoned();
+    }
+
+    private void record(boolean failed) {
+        assertTrue(breaker.tryAcquirePermission());
+        breaker.onResult(0, failed, 0);
+    }
+
+}
@@ -0,0 +1,88 @@
+package cz.seznam.frpc.client;
+
+import junit.framework.TestCase;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests escalation and forgiveness of outlier ejections of {@link FrpcEndpoint}.
+ *
+ * @author David Moidl david.moidl@firma.seznam.cz
+ */
+public class FrpcEndpointTest extends TestCase {
+
+    private static final long HOUR = TimeUnit.HOURS.toNanos(1);
+
+    private FrpcEndpoint endpoint;
+
+    @Override
+    protected void setUp() throws Exception {
+        endpoint = new FrpcEndpoint(URI.create("http://localhost:9898/RPC2"));
+    }
+
+    public void testEjectionCountSurvivesReadmission() {
+        endpoint.eject(HOUR);
+        assertTrue(endpoint.isEjected());
+        assertEquals(1, endpoint.getEjectionCount());
+
+        endpoint.readmit();
+        assertFalse(endpoint.isEjected());
+        assertEquals(1, endpoint.getEjectionCount());
+
+        // ejected again right after readmission, the ejection escalates
+        endpoint.eject(HOUR);
+        assertEquals(2, endpoint.getEjectionCount());
+    }
+
+    public void testFailedProbeEscalatesEjection() {
+        endpoint.eject(HOUR);
+        endpoint.extendEjection(HOUR);
+        endpoint.extendEjection(HOUR);
+        assertEquals(3, endpoint.getEjectionCount());
+        assertTrue(endpoint.isEjected());
+    }
+
+    public void testEjectionCountIsCapped() {
+        for (int i = 0; i < 100; i++) {
+            endpoint.extendEjection(HOUR);
+        }
+        assertEquals(10, endpoint.getEjectionCount());
+    }
+
+    public void testEjectionTimeIsMultiplied() throws InterruptedException {
+        long base = TimeUnit.MILLISECONDS.toNanos(100);
+        endpoint.eject(base);
+        endpoint.extendEjection(base);
+        endpoint.extendEjection(base);
+        // the third ejection lasts three times the base
+        Thread.sleep(150);
+        assertFalse(endpoint.isEjectionElapsed());
+        Thread.sleep(250);
+        assertTrue(endpoint.isEjectionElapsed());
+    }
+
+    public void testEjectionsAreForgivenAfterHealthyPeriod() throws InterruptedException {
+        long base = TimeUnit.MILLISECONDS.toNanos(20);
+        endpoint.eject(base);
+        endpoint.extendEjection(base);
+        endpoint.extendEjection(base);
+        assertEquals(3, endpoint.getEjectionCount());
+
+        // nothing is forgiven while the endpoint is ejected
+        Thread.sleep(50);
+        endpoint.forgiveEjections(base);
+        assertEquals(3, endpoint.getEjectionCount());
+
+        endpoint.readmit();
+        Thread.sleep(50);
+        endpoint.forgiveEjections(base);
+        // at least two base periods have passed since readmission
+        assertTrue(endpoint.getEjectionCount() <= 1);
+
+        Thread.sleep(50);
+        endpoint.forgiveEjections(base);
+        assertEquals(0, endpoint.getEjectionCount());
+    }
+
+}
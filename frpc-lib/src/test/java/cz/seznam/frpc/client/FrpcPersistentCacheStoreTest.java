@@ -0,0 +1,137 @@
+package cz.seznam.frpc.client;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Tests reloading and compaction of {@link FrpcPersistentCacheStore}.
+ *
+ * @author David Moidl david.moidl@firma.seznam.cz
+ */
+public class FrpcPersistentCacheStoreTest extends TestCase {
+
+    private static final int CAPACITY = 4096;
+    private static final long HOUR = 3600_000;
+
+    private Path file;
+    private FrpcPersistentCacheStore store;
+
+    @Override
+    protected void setUp() throws Exception {
+        file = Files.createTempFile("frpc-cache", ".bin");
+        store = new FrpcPersistentCacheStore(file, CAPACITY);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        store.close();
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(file.resolveSibling(file.getFileName() + ".compact"));
+    }
+
+    public void testStoredResultIsFound() {
+        long now = System.currentTimeMillis();
+        store.put("method", bytes("params"), bytes("value"), 200, now + HOUR, now + 2 * HOUR);
+
+        FrpcPersistentCacheStore.StoredResult result = store.get("method", bytes("params"));
+        assertNotNull(result);
+        assertTrue(Arrays.equals(bytes("value"), result.value));
+        assertEquals(200, result.httpResponseStatus);
+        assertEquals(now + HOUR, result.expiresAtMillis);
+        assertEquals(now + 2 * HOUR, result.staleUntilMillis);
+        assertNull(store.get("method", bytes("other")));
+        assertNull(store.get("other", bytes("params")));
+    }
+
+    public void testResultsSurviveReopening() throws IOException {
+        long now = System.currentTimeMillis();
+        store.put("a", bytes("1"), bytes("first"), 200, now + HOUR, now + HOUR);
+        store.put("a", bytes("1"), bytes("second"), 200, now + HOUR, now + HOUR);
+        store.put("b", bytes("2"), bytes("other"), 200, now + HOUR, now + HOUR);
+        reopen();
+
+        assertEquals(2, store.getSize());
+        // the latest record of the key wins
+        assertTrue(Arrays.equals(bytes("second"), store.get("a", bytes("1")).value));
+        assertTrue(Arrays.equals(bytes("other"), store.get("b", bytes("2")).value));
+    }
+
+    public void testInvalidatedResultsStayInvalidatedAfterReopening() throws IOException {
+        long now = System.currentTimeMillis();
+        store.put("a", bytes("1"), bytes("value"), 200, now + HOUR, now + HOUR);
+        store.put("a", bytes("2"), bytes("value"), 200, now + HOUR, now + HOUR);
+        store.put("b", bytes("1"), bytes("value"), 200, now + HOUR, now + HOUR);
+        store.invalidate("a");
+        assertNull(store.get("a", bytes("1")));
+        reopen();
+
+        assertNull(store.get("a", bytes("1")));
+        assertNull(store.get("a", bytes("2")));
+        assertNotNull(store.get("b", bytes("1")));
+        assertEquals(1, store.getSize());
+    }
+
+    public void testExpiredResultsAreNotUsed() throws IOException {
+        long now = System.currentTimeMillis();
+        store.put("a", bytes("1"), bytes("value"), 200, now - 2 * HOUR, now - HOUR);
+        assertNull(store.get("a", bytes("1")));
+        reopen();
+        assertEquals(0, store.getSize());
+    }
+
+    public void testCompactionKeepsLatestLiveResults() throws IOException {
+        long now = System.currentTimeMillis();
+        store.put("expired", bytes("1"), new byte[500], 200, now - 2 * HOUR, now - HOUR);
+        // overwrite the same keys many times so that the log has to be compacted repeatedly
+        for (int round = 0; round < 50; round++) {
+            for (int key = 0; key < 3; key++) {
+                store.put("live", bytes("key" + key), bytes("value" + round + "-" + key), 200, now + HOUR,
+                        now + HOUR);
+            }
+        }
+        assertEquals(3, store.getSize());
+        for (int key = 0; key < 3; key++) {
+            assertTrue(Arrays.equals(bytes("value49-" + key), store.get("live", bytes("key" + key)).value));
+        }
+        assertNull(store.get("expired", bytes("1")));
+
+        // the compacted file reads back the same
+        reopen();
+        assertEquals(3, store.getSize());
+        for (int key = 0; key < 3; key++) {
+            assertTrue(Arrays.equals(bytes("value49-" + key), store.get("live", bytes("key" + key)).value));
+        }
+    }
+
+    public void testResultLargerThanStoreIsNotStored() {
+        long now = System.currentTimeMillis();
+        store.put("a", bytes("1"), bytes("small"), 200, now + HOUR, now + HOUR);
+        store.put("b", bytes("1"), new byte[CAPACITY], 200, now + HOUR, now + HOUR);
+        assertNull(store.get("b", bytes("1")));
+        assertNotNull(store.get("a", bytes("1")));
+    }
+
+    public void testInvalidateAllRemovesEverything() throws IOException {
+        long now = System.currentTimeMillis();
+        store.put("a", bytes("1"), bytes("value"), 200, now + HOUR, now + HOUR);
+        store.invalidateAll();
+        assertNull(store.get("a", bytes("1")));
+        reopen();
+        assertEquals(0, store.getSize());
+    }
+
+    private void reopen() throws IOException {
+        store.close();
+        store = new FrpcPersistentCacheStore(file, CAPACITY);
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,81 @@
+package cz.seznam.frpc.client;
+
+import junit.framework.TestCase;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Tests loading of results by {@link FrpcResponseCache} and writing them to its persistent tier.
+ *
+ * @author David Moidl david.moidl@firma.seznam.cz
+ */
+public class FrpcResponseCacheTest extends TestCase {
+
+    private static final Function<String, CompletableFuture<FrpcCallResult<Object>>> FAILING = tag -> {
+        CompletableFuture<FrpcCallResult<Object>> future = new CompletableFuture<>();
+        future.completeExceptionally(new IllegalStateException("load failed"));
+        return future;
+    };
+
+    private Path file;
+
+    @Override
+    protected void setUp() throws Exception {
+        file = Files.createTempFile("frpc-cache", ".bin");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Files.deleteIfExists(file);
+    }
+
+    public void testFailedLoadDoesNotBlockNextLoad() {
+        FrpcResponseCache cache = new FrpcResponseCache(FrpcResponseCacheConfig.builder()
+                .method("method", 1, TimeUnit.MINUTES).build());
+        FrpcResponseCache.Key key = cache.createKey("method", Collections.singletonList(1), null);
+
+        try {
+            cache.get(key, FAILING, FAILING).join();
+            fail("Failed load should fail the call");
+        } catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        // the failed load is over, the next call loads the result again
+        FrpcCallResult<Object> result = cache.get(key, tag -> loaded("value"), FAILING).join();
+        assertEquals("value", result.asObject());
+        assertEquals(2, cache.getLoadCount());
+        assertEquals("value", cache.get(key, FAILING, FAILING).join().asObject());
+        assertEquals(1, cache.getHitCount());
+    }
+
+    public void testResultsArePersistedBeforeClose() {
+        FrpcResponseCacheConfig config = FrpcResponseCacheConfig.builder()
+                .method("method", 1, TimeUnit.MINUTES)
+                .persistent(file, 64 * 1024)
+                .build();
+        FrpcResponseCache cache = new FrpcResponseCache(config);
+        FrpcResponseCache.Key key = cache.createKey("method", Collections.singletonList(1), null);
+        assertEquals("value", cache.get(key, tag -> loaded("value"), FAILING).join().asObject());
+        // results are written to the persistent tier in the background, closing waits for them
+        cache.close();
+
+        FrpcResponseCache reopened = new FrpcResponseCache(config);
+        try {
+            assertEquals("value", reopened.get(key, FAILING, FAILING).join().asObject());
+            assertEquals(1, reopened.getPersistentHitCount());
+        } finally {
+            reopened.close();
+        }
+    }
+
+    private static CompletableFuture<FrpcCallResult<Object>> loaded(Object value) {
+        return CompletableFuture.completedFuture(new FrpcCallResult<>(value, 200));
+    }
+
+}
@@ -0,0 +1,125 @@
+package cz.seznam.frpc.client;
+
+import junit.framework.TestCase;
+import org.apache.http.conn.ConnectTimeoutException;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests retry delays and retry decisions of {@link FrpcRetryPolicy} and limiting retries by {@link FrpcRetryBudget}.
+ *
+ * @author David Moidl david.moidl@firma.seznam.cz
+ */
+public class FrpcRetryPolicyTest extends TestCase {
+
+    public void testDelaysGrowExponentiallyUpToMaximum() {
+        FrpcRetryPolicy policy = FrpcRetryPolicy.builder()
+                .backoff(10, 100, TimeUnit.MILLISECONDS)
+                .multiplier(3)
+                .jitter(false)
+                .build();
+        assertEquals(10, policy.computeDelayMillis(1, 10));
+        assertEquals(30, policy.computeDelayMillis(2, 10));
+        assertEquals(90, policy.computeDelayMillis(3, 10));
+        assertEquals(100, policy.computeDelayMillis(4, 10));
+        assertEquals(100, policy.computeDelayMillis(20, 10));
+    }
+
+    public void testJitterKeepsDelaysWithinExponentialDelay() {
+        FrpcRetryPolicy policy = FrpcRetryPolicy.builder()
+                .backoff(10, 100, TimeUnit.MILLISECONDS)
+                .build();
+        for (int i = 0; i < 1000; i++) {
+            long delay = policy.computeDelayMillis(3, 10);
+            assertTrue("Delay " + delay + " is out of range", delay >= 0 && delay <= 40);
+        }
+    }
+
+    public void testZeroInitialDelayMeansNoDelay() {
+        FrpcRetryPolicy policy = FrpcRetryPolicy.builder()
+                .backoff(0, 100, TimeUnit.MILLISECONDS)
+                .build();
+        assertEquals(0, policy.computeDelayMillis(5, 0));
+    }
+
+    public void testInitialDelayCanBeOverridden() {
+        FrpcRetryPolicy policy = FrpcRetryPolicy.builder()
+                .backoff(10, 100, TimeUnit.MILLISECONDS)
+                .jitter(false)
+                .build()
+                .withInitialDelayMillis(500);
+        assertEquals(500, policy.getInitialDelay(TimeUnit.MILLISECONDS));
+        // the maximum never gets below the initial delay
+        assertEquals(500, policy.getMaxDelay(TimeUnit.MILLISECONDS));
+        assertEquals(500, policy.computeDelayMillis(2, 500));
+    }
+
+    public void testRejectsInvalidSettings() {
+        try {
+            FrpcRetryPolicy.builder().backoff(100, 10, TimeUnit.MILLISECONDS);
+            fail("Maximum delay lower than the initial one must be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            FrpcRetryPolicy.builder().multiplier(0.5);
+            fail("Multiplier lower than 1 must be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testResolvesIdempotencyByMethod() {
+        FrpcRetryPolicy policy = FrpcRetryPolicy.builder()
+                .idempotentByDefault(false)
+                .idempotentMethods("get", "update")
+                .nonIdempotentMethods("update")
+                .build();
+        assertTrue(policy.isIdempotent("get"));
+        // the later setting wins
+        assertFalse(policy.isIdempotent("update"));
+        assertFalse(policy.isIdempotent("other"));
+    }
+
+    public void testRetriesNonIdempotentCallsOnlyIfNeverSent() {
+        FrpcRetryPolicy policy = FrpcRetryPolicy.builder().build();
+        assertTrue(policy.isRetryable(true, new SocketTimeoutException()));
+        assertTrue(policy.isRetryable(false, new ConnectException()));
+        assertTrue(policy.isRetryable(false, new ConnectTimeoutException()));
+        assertFalse(policy.isRetryable(false, new SocketTimeoutException()));
+        assertFalse(policy.isRetryable(false, new IOException()));
+    }
+
+    public void testBudgetLimitsRetriesBySuccesses() {
+        FrpcRetryBudget budget = FrpcRetryPolicy.builder()
+                .retryBudget(0.5, 0, 10, TimeUnit.SECONDS)
+                .build()
+                .createBudget();
+        assertFalse(budget.tryAcquireRetry());
+
+        for (int i = 0; i < 4; i++) {
+            budget.recordSuccess();
+        }
+        // every success earns half a retry
+        assertTrue(budget.tryAcquireRetry());
+        assertTrue(budget.tryAcquireRetry());
+        assertFalse(budget.tryAcquireRetry());
+        assertEquals(2, budget.getRetriesAllowed());
+        assertEquals(2, budget.getRetriesRejected());
+    }
+
+    public void testBudgetAllowsMinimumRetries() {
+        FrpcRetryBudget budget = FrpcRetryPolicy.builder()
+                .retryBudget(0, 1, 2, TimeUnit.SECONDS)
+                .build()
+                .createBudget();
+        // one retry per second of the window even without any success
+        assertTrue(budget.tryAcquireRetry());
+        assertTrue(budget.tryAcquireRetry());
+        assertFalse(budget.tryAcquireRetry());
+    }
+
+}
@@ -0,0 +1,70 @@
+package cz.seznam.frpc.core;
+
+import cz.seznam.frpc.core.transport.FrpcFault;
+import junit.framework.TestCase;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tests the structures of {@code system.multicall} built and read by {@link FrpcMulticallUtils}.
+ *
+ * @author David Moidl david.moidl@firma.seznam.cz
+ */
+public class FrpcMulticallUtilsTest extends TestCase {
+
+    public void testCreatesSubCall() {
+        Object[] parameters = {1, "two"};
+        Map<String, Object> subCall = FrpcMulticallUtils.subCall("handler.method", parameters);
+        assertEquals("handler.method", subCall.get(FrpcMulticallUtils.METHOD_NAME_KEY));
+        assertSame(parameters, subCall.get(FrpcMulticallUtils.PARAMS_KEY));
+    }
+
+    public void testSubCallWithoutParametersHasEmptyArray() {
+        Map<String, Object> subCall = FrpcMulticallUtils.subCall("method", null);
+        assertEquals(0, ((Object[]) subCall.get(FrpcMulticallUtils.PARAMS_KEY)).length);
+    }
+
+    public void testSubCallRequiresMethodName() {
+        try {
+            FrpcMulticallUtils.subCall(null, new Object[0]);
+            fail("Method name must be required");
+        } catch (NullPointerException e) {
+            // expected
+        }
+    }
+
+    public void testConvertsFaultToStructAndBack() {
+        Map<String, Object> struct = FrpcMulticallUtils.faultToStruct(new FrpcFault(404, "not found"));
+        assertTrue(FrpcMulticallUtils.isFaultStruct(struct));
+
+        FrpcFault fault = FrpcMulticallUtils.structToFault(struct);
+        assertEquals(Integer.valueOf(404), fault.getStatusCode());
+        assertEquals("not found", fault.getStatusMessage());
+    }
+
+    public void testRecognizesFaultStructs() {
+        assertFalse(FrpcMulticallUtils.isFaultStruct(null));
+        assertFalse(FrpcMulticallUtils.isFaultStruct(new Object[]{1}));
+        assertFalse(FrpcMulticallUtils.isFaultStruct(Collections.singletonMap("status", 200)));
+        assertTrue(FrpcMulticallUtils.isFaultStruct(
+                Collections.singletonMap(FrpcMulticallUtils.FAULT_CODE_KEY, 500)));
+    }
+
+    public void testToleratesIncompleteFaultStruct() {
+        Map<String, Object> struct = new HashMap<>();
+        struct.put(FrpcMulticallUtils.FAULT_CODE_KEY, "not a number");
+        FrpcFault fault = FrpcMulticallUtils.structToFault(struct);
+        assertNull(fault.getStatusCode());
+        assertNull(fault.getStatusMessage());
+
+        // codes of any numeric type are accepted
+        struct.put(FrpcMulticallUtils.FAULT_CODE_KEY, 500L);
+        struct.put(FrpcMulticallUtils.FAULT_STRING_KEY, "failed");
+        fault = FrpcMulticallUtils.structToFault(struct);
+        assertEquals(Integer.valueOf(500), fault.getStatusCode());
+        assertEquals("failed", fault.getStatusMessage());
+    }
+
+}
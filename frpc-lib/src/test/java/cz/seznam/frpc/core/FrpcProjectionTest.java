@@ -0,0 +1,126 @@
+package cz.seznam.frpc.core;
+
+import cz.seznam.frpc.core.deserialization.FrpcUnmarshaller;
+import cz.seznam.frpc.core.serialization.FrpcMarshaller;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.*;
+
+/**
+ * Tests parsing of {@link FrpcProjection} paths and applying them to values.
+ *
+ * @author David Moidl david.moidl@firma.seznam.cz
+ */
+public class FrpcProjectionTest extends TestCase {
+
+    public void testPathsAreMergedIntoTree() {
+        FrpcProjection projection = FrpcProjection.of("user.name", "user.address.city", "total");
+
+        assertFalse(projection.isAll());
+        assertEquals(set("user", "total"), projection.getMemberNames());
+        FrpcProjection user = projection.getMember("user");
+        assertEquals(set("name", "address"), user.getMemberNames());
+        assertTrue(user.getMember("name").isAll());
+        assertEquals(set("city"), user.getMember("address").getMemberNames());
+        assertTrue(projection.getMember("total").isAll());
+        assertNull(projection.getMember("other"));
+        assertEquals("user.name,user.address.city,total", projection.toHeaderValue());
+    }
+
+    public void testShorterPathKeepsMemberWhole() {
+        assertEquals("user", FrpcProjection.of("user", "user.name").toHeaderValue());
+        assertEquals("user", FrpcProjection.of("user.name", "user").toHeaderValue());
+        assertEquals(FrpcProjection.of("user"), FrpcProjection.of("user.name", "user.address.city", "user"));
+    }
+
+    public void testMalformedPathsAreRejected() {
+        for (String path : Arrays.asList("", "user.", ".user", "user..name", " user", "user ", "a,b")) {
+            try {
+                FrpcProjection.of(path);
+                fail("Path \"" + path + "\" should be rejected");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+        try {
+            FrpcProjection.of(Collections.<String>emptyList());
+            fail("Projection without paths should be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testHeaderValueRoundTrip() {
+        assertNull(FrpcProjection.fromHeaderValue(null));
+        assertNull(FrpcProjection.fromHeaderValue("  "));
+        FrpcProjection projection = FrpcProjection.fromHeaderValue(" items.name , total ");
+        assertEquals(FrpcProjection.of("items.name", "total"), projection);
+        assertEquals(projection.hashCode(), FrpcProjection.of("items.name", "total").hashCode());
+        assertEquals(projection, FrpcProjection.fromHeaderValue(projection.toHeaderValue()));
+        try {
+            FrpcProjection.fromHeaderValue("items,,total");
+            fail("Empty path should be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testApplyLeavesOutMembersAndPassesThroughArrays() {
+        Map<String, Object> first = struct("name", "first", "price", 10, "tags", new Object[]{"a"});
+        Map<String, Object> second = struct("name", "second", "price", 20);
+        Map<String, Object> value = struct("items", new Object[]{first, second}, "list",
+                Arrays.asList(first, second), "total", 30, "status", "ok");
+
+        Object projected = FrpcProjection.of("items.name", "list.price", "total", "missing").apply(value);
+
+        Map<?, ?> result = (Map<?, ?>) projected;
+        assertEquals(set("items", "list", "total"), result.keySet());
+        Object[] items = (Object[]) result.get("items");
+        assertEquals(struct("name", "first"), items[0]);
+        assertEquals(struct("name", "second"), items[1]);
+        assertEquals(Arrays.asList(struct("price", 10), struct("price", 20)), result.get("list"));
+        assertEquals(30, result.get("total"));
+        // the original value is left untouched
+        assertEquals(3, first.size());
+    }
+
+    public void testApplyKeepsNonStructValues() {
+        FrpcProjection projection = FrpcProjection.of("name");
+        assertEquals("scalar", projection.apply("scalar"));
+        assertNull(projection.apply(null));
+        Map<String, Object> value = struct("name", "whole", "other", 1);
+        assertSame(value, FrpcProjection.of("name").getMember("name").apply(value));
+    }
+
+    public void testMarshallerWritesProjectedResponse() {
+        Map<String, Object> nested = struct("city", "Praha", "street", "Radlicka");
+        Map<String, Object> value = struct("name", "Seznam", "address", nested, "employees",
+                new Object[]{struct("id", 1, "name", "a"), struct("id", 2, "name", "b")});
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        new FrpcMarshaller(baos).writeResponse(value, FrpcProjection.of("address.city", "employees.id"));
+
+        Object read = new FrpcUnmarshaller(new ByteArrayInputStream(baos.toByteArray())).readResponse();
+
+        Map<?, ?> result = (Map<?, ?>) read;
+        assertEquals(set("address", "employees"), result.keySet());
+        assertEquals(struct("city", "Praha"), result.get("address"));
+        Object[] employees = (Object[]) result.get("employees");
+        assertEquals(struct("id", 1), employees[0]);
+        assertEquals(struct("id", 2), employees[1]);
+    }
+
+    private static Map<String, Object> struct(Object... membersAndValues) {
+        Map<String, Object> struct = new LinkedHashMap<>();
+        for (int i = 0; i < membersAndValues.length; i += 2) {
+            struct.put((String) membersAndValues[i], membersAndValues[i + 1]);
+        }
+        return struct;
+    }
+
+    private static Set<String> set(String... values) {
+        return new HashSet<>(Arrays.asList(values));
+    }
+
+}
@@ -0,0 +1,50 @@
+package cz.seznam.frpc.core;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Tests conversions resolved ahead by {@link FrpcTypesConverter#converterFor(java.lang.reflect.Type)}.
+ *
+ * @author David Moidl david.moidl@firma.seznam.cz
+ */
+public class FrpcTypesConverterTest extends TestCase {
+
+    public void testConvertsToClass() {
+        Function<Object, ConversionResult> converter = FrpcTypesConverter.converterFor(Long.class);
+        assertEquals(42L, converter.apply(42).getConverted());
+        assertEquals(7L, converter.apply(7L).getConverted());
+        assertFalse(converter.apply("42").isSuccess());
+    }
+
+    public void testConvertsToParameterizedTypes() {
+        Function<Object, ConversionResult> listConverter = FrpcTypesConverter
+                .converterFor(new FrpcType<List<Long>>() {}.getGenericType());
+        ConversionResult list = listConverter.apply(new Object[]{1, 2});
+        assertTrue(list.isSuccess());
+        assertEquals(Arrays.asList(1L, 2L), list.getConverted());
+
+        Function<Object, ConversionResult> mapConverter = FrpcTypesConverter
+                .converterFor(new FrpcType<Map<String, Long>>() {}.getGenericType());
+        ConversionResult map = mapConverter.apply(Collections.singletonMap("a", 1));
+        assertTrue(map.isSuccess());
+        assertEquals(Collections.singletonMap("a", 1L), map.getConverted());
+        assertFalse(mapConverter.apply(Collections.singletonMap("a", "b")).isSuccess());
+    }
+
+    public void testConvertsLikeConvertToCompatibleInstance() {
+        Object[] values = {1, "text", null, new Object[]{1, 2}};
+        for (Object value : values) {
+            ConversionResult ahead = FrpcTypesConverter.converterFor(Object.class).apply(value);
+            ConversionResult direct = FrpcTypesConverter.convertToCompatibleInstance(value, Object.class);
+            assertEquals(direct.isSuccess(), ahead.isSuccess());
+            assertSame(direct.getConverted(), ahead.getConverted());
+        }
+    }
+
+}
@@ -0,0 +1,163 @@
+package cz.seznam.frpc.core.deserialization;
+
+import cz.seznam.frpc.core.FrpcConstants;
+import cz.seznam.frpc.core.FrpcProjection;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tests skipping of struct members left out by a projection while {@link FrpcUnmarshaller} reads a response. Each
+ * skipped member is placed between two members which are read, so that skipping too few or too many bytes shows.
+ *
+ * @author David Moidl david.moidl@firma.seznam.cz
+ */
+public class FrpcUnmarshallerTest extends TestCase {
+
+    private static final FrpcProjection PROJECTION = FrpcProjection.of("before", "after");
+
+    public void testSkipsStringsOfAllLengthWidths() {
+        for (int octets = 0; octets < 8; octets++) {
+            assertSkipped(withLength(FrpcConstants.TYPE_STRING, octets, "skipped".getBytes(StandardCharsets.UTF_8)));
+        }
+    }
+
+    public void testSkipsBinariesOfAllLengthWidths() {
+        for (int octets = 0; octets < 8; octets++) {
+            assertSkipped(withLength(FrpcConstants.TYPE_BINARY, octets, new byte[]{1, 2, 3, 4, 5}));
+        }
+    }
+
+    public void testSkipsLongValues() {
+        byte[] value = new byte[300];
+        assertSkipped(withLength(FrpcConstants.TYPE_BINARY, 1, value));
+        assertSkipped(withLength(FrpcConstants.TYPE_STRING, 1, value));
+    }
+
+    public void testSkipsIntegersOfAllWidths() {
+        for (int octets = 0; octets < 8; octets++) {
+            byte[] value = new byte[octets + 2];
+            value[0] = (byte) (FrpcConstants.TYPE_INT_POS | octets);
+            value[octets + 1] = 1;
+            assertSkipped(value);
+            value[0] = (byte) (FrpcConstants.TYPE_INT_NEG | octets);
+            assertSkipped(value);
+        }
+    }
+
+    public void testSkipsScalars() {
+        assertSkipped(new byte[]{FrpcConstants.TYPE_BOOL | 1});
+        assertSkipped(new byte[]{FrpcConstants.TYPE_BOOL});
+        assertSkipped(new byte[]{FrpcConstants.TYPE_NULL});
+        assertSkipped(new byte[]{FrpcConstants.TYPE_DOUBLE, 1, 2, 3, 4, 5, 6, 7, 8});
+        // zone, timestamp and packed date and time
+        assertSkipped(new byte[]{FrpcConstants.TYPE_DATETIME, 0, 1, 2, 3, 4, 5, 6, 7, 8, 9});
+    }
+
+    public void testSkipsArraysOfAllLengthWidths() {
+        byte[] items = concat(new byte[]{FrpcConstants.TYPE_NULL},
+                withLength(FrpcConstants.TYPE_STRING, 0, new byte[]{'a'}),
+                withLength(FrpcConstants.TYPE_ARRAY, 0, new byte[]{FrpcConstants.TYPE_BOOL}));
+        for (int octets = 0; octets < 8; octets++) {
+            byte[] array = withLength(FrpcConstants.TYPE_ARRAY, octets, items);
+            // the length of an array is the number of items, not bytes
+            setLength(array, octets, 3);
+            assertSkipped(array);
+        }
+    }
+
+    public void testSkipsStructsOfAllLengthWidths() {
+        byte[] members = concat(member("x", new byte[]{FrpcConstants.TYPE_INT_POS, 5}),
+                member("nested", concat(new byte[]{FrpcConstants.TYPE_STRUCT, 1},
+                        member("y", withLength(FrpcConstants.TYPE_BINARY, 2, new byte[]{9, 9})))));
+        for (int octets = 0; octets < 8; octets++) {
+            byte[] struct = withLength(FrpcConstants.TYPE_STRUCT, octets, members);
+            setLength(struct, octets, 2);
+            assertSkipped(struct);
+        }
+    }
+
+    public void testProjectionAppliesToNestedStructsAndArrays() {
+        byte[] item = concat(new byte[]{FrpcConstants.TYPE_STRUCT, 2},
+                member("id", new byte[]{FrpcConstants.TYPE_INT_POS, 7}),
+                member("blob", withLength(FrpcConstants.TYPE_BINARY, 0, new byte[]{1, 2, 3})));
+        byte[] items = concat(new byte[]{FrpcConstants.TYPE_ARRAY, 2}, item, item);
+        byte[] response = response(concat(new byte[]{FrpcConstants.TYPE_STRUCT, 2}, member("items", items),
+                member("other", new byte[]{FrpcConstants.TYPE_NULL})));
+
+        Object read = new FrpcUnmarshaller(new ByteArrayInputStream(response)).readResponse(
+                FrpcProjection.of("items.id"));
+
+        Map<?, ?> struct = (Map<?, ?>) read;
+        assertEquals(Collections.singleton("items"), struct.keySet());
+        Object[] readItems = (Object[]) struct.get("items");
+        assertEquals(2, readItems.length);
+        assertEquals(Collections.singletonMap("id", 7), readItems[0]);
+        assertEquals(Collections.singletonMap("id", 7), readItems[1]);
+    }
+
+    public void testTruncatedSkippedValueFails() {
+        byte[] truncated = response(concat(new byte[]{FrpcConstants.TYPE_STRUCT, 1},
+                member("skipped", new byte[]{FrpcConstants.TYPE_STRING, 10, 'a'})));
+        try {
+            new FrpcUnmarshaller(new ByteArrayInputStream(truncated)).readResponse(PROJECTION);
+            fail("Truncated value should not be skipped silently");
+        } catch (EndOfStreamException e) {
+            // expected
+        }
+    }
+
+    private static void assertSkipped(byte[] skippedValue) {
+        byte[] response = response(concat(new byte[]{FrpcConstants.TYPE_STRUCT, 3},
+                member("before", new byte[]{FrpcConstants.TYPE_INT_POS, 1}),
+                member("skipped", skippedValue),
+                member("after", new byte[]{FrpcConstants.TYPE_INT_POS, 2})));
+        Map<String, Object> expected = new HashMap<>();
+        expected.put("before", 1);
+        expected.put("after", 2);
+
+        Object read = new FrpcUnmarshaller(new ByteArrayInputStream(response)).readResponse(PROJECTION);
+
+        assertEquals(expected, read);
+    }
+
+    private static byte[] response(byte[] value) {
+        return concat(FrpcConstants.MAGIC_NUMBER, new byte[]{FrpcConstants.TYPE_METHOD_RESPONSE}, value);
+    }
+
+    private static byte[] member(String name, byte[] value) {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        return concat(new byte[]{(byte) nameBytes.length}, nameBytes, value);
+    }
+
+    /**
+     * Encodes given data preceded by type byte and its length written in {@code octets + 1} bytes.
+     */
+    private static byte[] withLength(byte type, int octets, byte[] data) {
+        byte[] encoded = new byte[2 + octets + data.length];
+        encoded[0] = (byte) (type | octets);
+        System.arraycopy(data, 0, encoded, 2 + octets, data.length);
+        setLength(encoded, octets, data.length);
+        return encoded;
+    }
+
+    private static void setLength(byte[] encoded, int octets, long length) {
+        for (int i = 0; i <= octets; i++) {
+            encoded[1 + i] = (byte) (length >> (i << 3));
+        }
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            baos.write(part, 0, part.length);
+        }
+        return baos.toByteArray();
+    }
+
+}
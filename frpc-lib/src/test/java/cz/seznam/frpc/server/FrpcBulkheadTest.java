@@ -0,0 +1,125 @@
+package cz.seznam.frpc.server;
+
+import cz.seznam.frpc.core.transport.FrpcDeadline;
+import cz.seznam.frpc.core.transport.FrpcDeadlineExceededException;
+import junit.framework.TestCase;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests admitting, queueing and rejecting calls by {@link FrpcBulkhead}.
+ *
+ * @author David Moidl david.moidl@firma.seznam.cz
+ */
+public class FrpcBulkheadTest extends TestCase {
+
+    private static final long TIMEOUT_SECONDS = 5;
+
+    public void testAdmitsCallsUpToConcurrency() {
+        FrpcBulkhead bulkhead = new FrpcBulkhead("test", 2, 0);
+        assertAdmitted(bulkhead.acquire(null));
+        assertAdmitted(bulkhead.acquire(null));
+        assertEquals(2, bulkhead.getActiveCalls());
+        assertEquals(0, bulkhead.getQueuedCalls());
+
+        bulkhead.release();
+        bulkhead.release();
+        assertEquals(0, bulkhead.getActiveCalls());
+    }
+
+    public void testRejectsCallsOverQueue() {
+        FrpcBulkhead bulkhead = new FrpcBulkhead("test", 1, 1);
+        assertAdmitted(bulkhead.acquire(null));
+        CompletableFuture<Void> queued = bulkhead.acquire(null);
+        assertFalse(queued.isDone());
+
+        assertFailure(FrpcBulkheadFullException.class, bulkhead.acquire(null));
+        assertEquals(1, bulkhead.getRejectedCalls());
+        assertEquals(1, bulkhead.getActiveCalls());
+        assertEquals(1, bulkhead.getQueuedCalls());
+    }
+
+    public void testHandsPlaceOverToQueuedCallsInOrder() throws Exception {
+        FrpcBulkhead bulkhead = new FrpcBulkhead("test", 1, 2);
+        assertAdmitted(bulkhead.acquire(null));
+        CompletableFuture<Void> first = bulkhead.acquire(null);
+        CompletableFuture<Void> second = bulkhead.acquire(null);
+        assertEquals(2, bulkhead.getQueuedCalls());
+
+        bulkhead.release();
+        first.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertFalse(second.isDone());
+        // the place passes over, so the number of active calls stays the same
+        assertEquals(1, bulkhead.getActiveCalls());
+        assertEquals(1, bulkhead.getQueuedCalls());
+
+        bulkhead.release();
+        second.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        bulkhead.release();
+        assertEquals(0, bulkhead.getActiveCalls());
+        assertEquals(0, bulkhead.getQueuedCalls());
+    }
+
+    public void testNewCallsDoNotOvertakeQueuedOnes() throws Exception {
+        FrpcBulkhead bulkhead = new FrpcBulkhead("test", 1, 1);
+        assertAdmitted(bulkhead.acquire(null));
+        CompletableFuture<Void> queued = bulkhead.acquire(null);
+        bulkhead.release();
+        queued.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+        // the queued call holds the place now
+        assertFalse(bulkhead.acquire(null).isDone());
+    }
+
+    public void testQueuedCallFailsOnceDeadlineExpires() throws Exception {
+        FrpcBulkhead bulkhead = new FrpcBulkhead("test", 1, 1);
+        assertAdmitted(bulkhead.acquire(null));
+        CompletableFuture<Void> queued = bulkhead.acquire(FrpcDeadline.after(50, TimeUnit.MILLISECONDS));
+        try {
+            queued.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            fail("Call should time out in the queue");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof FrpcDeadlineExceededException);
+        }
+        assertEquals(0, bulkhead.getQueuedCalls());
+
+        // the timed out call does not take the place released later
+        bulkhead.release();
+        assertEquals(0, bulkhead.getActiveCalls());
+        assertAdmitted(bulkhead.acquire(null));
+    }
+
+    public void testRejectsInvalidLimits() {
+        try {
+            new FrpcBulkhead("test", 0, 1);
+            fail("Concurrency must be positive");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            new FrpcBulkhead("test", 1, -1);
+            fail("Queue length must not be negative");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static void assertAdmitted(CompletableFuture<Void> admitted) {
+        assertTrue(admitted.isDone());
+        assertFalse(admitted.isCompletedExceptionally());
+    }
+
+    private static void assertFailure(Class<? extends Throwable> expected, CompletableFuture<Void> admitted) {
+        assertTrue(admitted.isCompletedExceptionally());
+        try {
+            admitted.join();
+            fail("Call should fail by " + expected.getSimpleName());
+        } catch (RuntimeException e) {
+            Throwable cause = e.getCause() == null ? e : e.getCause();
+            assertTrue("Unexpected failure " + cause, expected.isInstance(cause));
+        }
+    }
+
+}
@@ -0,0 +1,100 @@
+package cz.seznam.frpc.server;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests adapting the limit of {@link FrpcConcurrencyLimiter} to latency of requests.
+ *
+ * @author David Moidl david.moidl@firma.seznam.cz
+ */
+public class FrpcConcurrencyLimiterTest extends TestCase {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(20);
+
+    public void testRejectsRequestsOverLimit() {
+        FrpcConcurrencyLimiter limiter = limiter(2, 1, 10);
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+        assertEquals(2, limiter.getInFlight());
+
+        limiter.cancel();
+        assertEquals(1, limiter.getInFlight());
+        assertTrue(limiter.tryAcquire());
+        // cancelled requests do not move the limit
+        assertEquals(2, limiter.getLimit());
+    }
+
+    public void testLimitGrowsWhileLatencyStaysLow() {
+        FrpcConcurrencyLimiter limiter = limiter(10, 1, 1000);
+        for (int round = 0; round < 10; round++) {
+            runAtLimit(limiter, FAST);
+        }
+        assertTrue("Limit should grow, but is " + limiter.getLimit(), limiter.getLimit() > 10);
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    public void testLimitShrinksOnceLatencyGrows() {
+        FrpcConcurrencyLimiter limiter = limiter(50, 1, 1000);
+        runAtLimit(limiter, FAST);
+        int grown = limiter.getLimit();
+        // requests now take much longer than when the server was idle, most of them must be waiting
+        for (int round = 0; round < 5; round++) {
+            runAtLimit(limiter, SLOW);
+        }
+        assertTrue("Limit should shrink, but is " + limiter.getLimit(), limiter.getLimit() < grown);
+    }
+
+    public void testLimitShrinksOnDroppedRequests() {
+        FrpcConcurrencyLimiter limiter = limiter(20, 1, 1000);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(limiter.tryAcquire());
+            // dropped requests shrink the limit regardless of their latency
+            limiter.release(FAST, true);
+        }
+        assertTrue("Limit should shrink, but is " + limiter.getLimit(), limiter.getLimit() < 20);
+    }
+
+    public void testLimitDoesNotGrowWhileUnderused() {
+        FrpcConcurrencyLimiter limiter = limiter(20, 1, 1000);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(limiter.tryAcquire());
+            limiter.release(FAST, false);
+        }
+        assertEquals(20, limiter.getLimit());
+    }
+
+    public void testLimitStaysWithinBounds() {
+        FrpcConcurrencyLimiter limiter = limiter(5, 3, 8);
+        for (int round = 0; round < 20; round++) {
+            runAtLimit(limiter, FAST);
+        }
+        assertEquals(8, limiter.getLimit());
+        for (int i = 0; i < 50; i++) {
+            assertTrue(limiter.tryAcquire());
+            limiter.release(FAST, true);
+        }
+        assertEquals(3, limiter.getLimit());
+    }
+
+    private static FrpcConcurrencyLimiter limiter(int initial, int min, int max) {
+        return new FrpcConcurrencyLimiter(FrpcConcurrencyLimitConfig.builder().limits(initial, min, max).build());
+    }
+
+    /**
+     * Admits as many requests as the limit allows and releases all of them with given latency.
+     */
+    private static void runAtLimit(FrpcConcurrencyLimiter limiter, long latencyNanos) {
+        int admitted = 0;
+        while (limiter.tryAcquire()) {
+            admitted++;
+        }
+        for (int i = 0; i < admitted; i++) {
+            limiter.release(latencyNanos, false);
+        }
+    }
+
+}
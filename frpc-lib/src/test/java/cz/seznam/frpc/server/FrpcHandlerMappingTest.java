@@ -0,0 +1,78 @@
+package cz.seznam.frpc.server;
+
+import cz.seznam.frpc.core.FrpcPriority;
+import cz.seznam.frpc.server.annotations.FrpcMethod;
+import junit.framework.TestCase;
+
+/**
+ * Tests priorities of methods resolved by {@link FrpcHandlerMapping}.
+ *
+ * @author David Moidl david.moidl@firma.seznam.cz
+ */
+public class FrpcHandlerMappingTest extends TestCase {
+
+    public static class Handler {
+
+        @FrpcMethod(priority = FrpcPriority.LOW)
+        public int export() {
+            return 1;
+        }
+
+        @FrpcMethod
+        public int render() {
+            return 2;
+        }
+
+    }
+
+    private FrpcHandlerMapping mapping;
+
+    @Override
+    protected void setUp() throws Exception {
+        mapping = new FrpcHandlerMapping();
+        mapping.addHandler("handler", new Handler());
+    }
+
+    public void testMethodPriorityOverridesHandlerPriority() {
+        assertEquals(FrpcPriority.LOW, mapping.getPriority("handler.export"));
+        assertNull(mapping.getPriority("handler.render"));
+
+        mapping.setPriority("handler", FrpcPriority.HIGH);
+        assertEquals(FrpcPriority.LOW, mapping.getPriority("handler.export"));
+        assertEquals(FrpcPriority.HIGH, mapping.getPriority("handler.render"));
+
+        // unspecified priority is the same as none
+        mapping.setPriority("handler", FrpcPriority.UNSPECIFIED);
+        assertNull(mapping.getPriority("handler.render"));
+    }
+
+    public void testConfiguringUnknownHandlerFails() {
+        try {
+            mapping.setPriority("unknown", FrpcPriority.HIGH);
+            fail("Unknown handler should be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            mapping.setBulkhead("unknown", 1, 1);
+            fail("Unknown handler should be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertFalse(mapping.removeHandler(null));
+    }
+
+    public void testConfigurationIsKeptAcrossChanges() {
+        mapping.setBulkhead("handler", 5, 10);
+        mapping.setPriority("handler", FrpcPriority.HIGH);
+        assertEquals(5, mapping.getHandlerBulkheads().get("handler").getMaxConcurrency());
+        assertEquals(FrpcPriority.HIGH, mapping.getPriority("handler.render"));
+    }
+
+    public void testUnspecifiedPriorityIsNotSentOrParsed() {
+        assertNull(FrpcPriority.fromHeaderValue("unspecified"));
+        assertEquals(FrpcPriority.LOW, FrpcPriority.fromHeaderValue(" Low "));
+        assertNull(FrpcPriority.specifiedOrNull(FrpcPriority.UNSPECIFIED));
+    }
+
+}
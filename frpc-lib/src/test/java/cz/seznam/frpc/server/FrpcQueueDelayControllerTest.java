@@ -0,0 +1,70 @@
+package cz.seznam.frpc.server;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests shedding of requests by {@link FrpcQueueDelayController}.
+ *
+ * @author David Moidl david.moidl@firma.seznam.cz
+ */
+public class FrpcQueueDelayControllerTest extends TestCase {
+
+    private static final long TARGET = TimeUnit.MILLISECONDS.toNanos(5);
+    private static final long INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private FrpcQueueDelayController controller;
+    private long now;
+
+    @Override
+    protected void setUp() throws Exception {
+        controller = new FrpcQueueDelayController(TARGET, INTERVAL);
+        now = System.nanoTime();
+    }
+
+    public void testIdleTimeIsNotStandingQueue() {
+        // the server has not seen any request for several intervals
+        now += 3 * INTERVAL;
+        assertFalse(controller.shouldShed(2 * TARGET, now));
+        now += INTERVAL / 2;
+        assertFalse(controller.shouldShed(2 * TARGET, now));
+    }
+
+    public void testShortBurstIsNotShed() {
+        assertFalse(controller.shouldShed(2 * TARGET, now));
+        now += INTERVAL / 2;
+        // the queue got short once within the interval
+        assertFalse(controller.shouldShed(TARGET / 2, now));
+        now += INTERVAL;
+        assertFalse(controller.shouldShed(2 * TARGET, now));
+    }
+
+    public void testShedsOverTargetOnceQueueStands() {
+        assertFalse(controller.shouldShed(2 * TARGET, now));
+        now += INTERVAL / 2;
+        assertFalse(controller.shouldShed(3 * TARGET, now));
+        now += INTERVAL;
+        // even the shortest wait of the whole interval exceeded the target
+        assertTrue(controller.shouldShed(2 * TARGET, now));
+        assertTrue(controller.shouldShed(3 * TARGET, now));
+    }
+
+    public void testStopsSheddingOnceDelayDropsBelowTarget() {
+        assertFalse(controller.shouldShed(2 * TARGET, now));
+        now += INTERVAL;
+        assertTrue(controller.shouldShed(2 * TARGET, now));
+
+        // the queue drained, the rest of the interval is not shed any more
+        now += INTERVAL / 10;
+        assertFalse(controller.shouldShed(TARGET / 2, now));
+        now += INTERVAL / 10;
+        assertFalse(controller.shouldShed(2 * TARGET, now));
+    }
+
+    public void testAlwaysShedsRequestsWaitingLongerThanInterval() {
+        assertTrue(controller.shouldShed(2 * INTERVAL, now));
+        assertFalse(controller.shouldShed(INTERVAL / 2, now));
+    }
+
+}
@@ -0,0 +1,75 @@
+package cz.seznam.frpc.server;
+
+import cz.seznam.frpc.core.transport.FrpcDeadline;
+import cz.seznam.frpc.core.transport.FrpcRequest;
+import junit.framework.TestCase;
+
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests admitting and releasing requests by {@link LimitingFrpcRequestProcessor}.
+ *
+ * @author David Moidl david.moidl@firma.seznam.cz
+ */
+public class LimitingFrpcRequestProcessorTest extends TestCase {
+
+    private static final FrpcRequest REQUEST = new FrpcRequest("handler.method", Collections.emptyList());
+
+    private final CompletableFuture<FrpcRequestProcessingResult> pending = new CompletableFuture<>();
+
+    public void testRejectsRequestsOverLimit() {
+        LimitingFrpcRequestProcessor processor = createProcessor(1);
+        processor.processAsync(REQUEST);
+        assertEquals(1, processor.getInFlightRequests());
+
+        CompletableFuture<FrpcRequestProcessingResult> rejected = processor.processAsync(REQUEST);
+        assertTrue(rejected.isCompletedExceptionally());
+        assertEquals(1, processor.getRejectedRequests());
+
+        pending.complete(new FrpcRequestProcessingResult("result", null));
+        assertEquals(0, processor.getInFlightRequests());
+    }
+
+    public void testAsyncRequestIsReleasedAsDroppedOnceDeadlinePasses() throws InterruptedException {
+        LimitingFrpcRequestProcessor processor = createProcessor(5);
+        FrpcDeadline previous = FrpcDeadline.attach(FrpcDeadline.after(50, TimeUnit.MILLISECONDS));
+        try {
+            processor.processAsync(REQUEST);
+        } finally {
+            FrpcDeadline.attach(previous);
+        }
+        assertEquals(1, processor.getInFlightRequests());
+
+        // the method never completes, yet its capacity is released once the deadline passes
+        long waitUntil = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (processor.getInFlightRequests() > 0 && System.nanoTime() < waitUntil) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, processor.getInFlightRequests());
+        assertTrue("Limit should shrink, but is " + processor.getLimit(), processor.getLimit() < 5);
+
+        // completing the method later does not release it again
+        pending.complete(new FrpcRequestProcessingResult("late", null));
+        assertEquals(0, processor.getInFlightRequests());
+    }
+
+    private LimitingFrpcRequestProcessor createProcessor(int limit) {
+        // the method completes once the test completes the pending future
+        FrpcRequestProcessor asyncProcessor = new FrpcRequestProcessor() {
+            @Override
+            public FrpcRequestProcessingResult process(FrpcRequest frpcRequest) throws Exception {
+                return pending.get();
+            }
+
+            @Override
+            public CompletableFuture<FrpcRequestProcessingResult> processAsync(FrpcRequest frpcRequest) {
+                return pending;
+            }
+        };
+        return new LimitingFrpcRequestProcessor(asyncProcessor, FrpcConcurrencyLimitConfig.builder()
+                .limits(limit, 1, 10).build());
+    }
+
+}